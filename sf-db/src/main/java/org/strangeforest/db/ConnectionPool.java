@@ -3,6 +3,8 @@ package org.strangeforest.db;
 import java.io.*;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.*;
+import javax.management.*;
 import javax.sql.*;
 
 import org.strangeforest.cache.*;
@@ -216,6 +218,16 @@ public class ConnectionPool extends ResourcePool<PooledConnection> {
 		return ignoreTransaction ? doGetConnection() : getConnection();
 	}
 
+	/**
+	 * Returns connection from the pool asynchronously, without blocking the calling thread while waiting for connection.
+	 * Connection is not enlisted in the current transaction. If returned future is cancelled, connection is not leaked,
+	 * as connection handed over to the cancelled future is returned to the pool.
+	 * @return future of database connection.
+	 */
+	public CompletableFuture<Connection> getConnectionAsync() {
+		return getResourceAsync(false, ConnectionProxy::new);
+	}
+
 	private ConnectionProxy doGetConnection() {
 		return new ConnectionProxy(getResource());
 	}
@@ -395,6 +407,31 @@ public class ConnectionPool extends ResourcePool<PooledConnection> {
 		statementStats.setCapacity(count);
 	}
 
+	public synchronized int getPeakStatementCacheSize() {
+		return peakStatementCacheSize;
+	}
+
+	/**
+	 * Returns prepared statement cache hit ratio of all pooled connections.
+	 * @return statement cache hit ratio.
+	 */
+	public synchronized double getStatementCacheHitRatio() {
+		long gets = 0, hits = 0;
+		for (PooledResource<org.strangeforest.db.PooledConnection> pooledResource : getPooledResources()) {
+			Cache<Object, PreparedStatementHelper> stCache = pooledResource.resource().getStatementCache();
+			if (stCache != null) {
+				CacheStatistics stCacheStats = stCache.getStatistics();
+				gets += stCacheStats.gets();
+				hits += stCacheStats.hits();
+			}
+		}
+		return gets != 0L ? ((double)hits)/gets : 0.0;
+	}
+
+	@Override protected ObjectName registerMBean(String name) {
+		return MBeanUtil.register(new ConnectionPoolMBeanImpl(this), ConnectionPoolMBean.class, "ConnectionPool", name);
+	}
+
 	@Override public synchronized CPStatistics getStatistics() {
 		return new CPStatistics(this);
 	}
@@ -446,16 +483,7 @@ public class ConnectionPool extends ResourcePool<PooledConnection> {
 			statementStats = new ArrayList<>(pool.statementStats.values());
 			Collections.sort(statementStats);
 			peakStatementCacheSize = pool.peakStatementCacheSize;
-			long gets = 0, hits = 0;
-			for (PooledResource<org.strangeforest.db.PooledConnection> pooledResource : pool.getPooledResources()) {
-				Cache<Object, PreparedStatementHelper> stCache = pooledResource.resource().getStatementCache();
-				if (stCache != null) {
-					CacheStatistics stCacheStats = stCache.getStatistics();
-					gets += stCacheStats.gets();
-					hits += stCacheStats.hits();
-				}
-			}
-			statementCacheHitRatio = gets != 0L ? ((double)hits)/gets : 0.0;
+			statementCacheHitRatio = pool.getStatementCacheHitRatio();
 		}
 
 		@Override protected ResourceInfo createResourceInfo(PooledResource<org.strangeforest.db.PooledConnection> pooledRes, boolean isBusy) {
@@ -4,6 +4,7 @@ import java.io.*;
 import java.sql.*;
 import java.text.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.logging.*;
 import javax.sql.*;
 
@@ -50,6 +51,15 @@ public class ConnectionPoolDataSource implements PoolableDataSource, Closeable {
 			throw new PoolException(MessageFormat.format("Username {0} and supplied password are not supported by this pool.", username));
 	}
 
+	/**
+	 * Returns connection from the pool asynchronously.
+	 * @return future of database connection.
+	 * @see ConnectionPool#getConnectionAsync()
+	 */
+	public CompletableFuture<Connection> getConnectionAsync() {
+		return pool.getConnectionAsync();
+	}
+
 	@Override public PrintWriter getLogWriter() {
 		return DriverManager.getLogWriter();
 	}
@@ -0,0 +1,14 @@
+package org.strangeforest.db;
+
+import org.strangeforest.pool.*;
+
+/**
+ * <p>Management interface of <tt>ConnectionPool</tt>.</p>
+ */
+public interface ConnectionPoolMBean extends ResourcePoolMBean {
+
+	int getMaxStatements();
+	void setMaxStatements(int maxStatements);
+	int getPeakStatementCacheSize();
+	double getStatementCacheHitRatio();
+}
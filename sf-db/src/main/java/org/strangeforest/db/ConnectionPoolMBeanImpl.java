@@ -0,0 +1,29 @@
+package org.strangeforest.db;
+
+import org.strangeforest.pool.*;
+
+/**
+ * <p>Standard MBean implementation that exposes <tt>ConnectionPool</tt> through <tt>ConnectionPoolMBean</tt> management interface.</p>
+ */
+public class ConnectionPoolMBeanImpl extends ResourcePoolMBeanImpl<ConnectionPool> implements ConnectionPoolMBean {
+
+	public ConnectionPoolMBeanImpl(ConnectionPool pool) {
+		super(pool);
+	}
+
+	@Override public int getMaxStatements() {
+		return pool.getMaxStatements();
+	}
+
+	@Override public void setMaxStatements(int maxStatements) {
+		pool.setMaxStatements(maxStatements);
+	}
+
+	@Override public int getPeakStatementCacheSize() {
+		return pool.getPeakStatementCacheSize();
+	}
+
+	@Override public double getStatementCacheHitRatio() {
+		return pool.getStatementCacheHitRatio();
+	}
+}
@@ -4,6 +4,7 @@ import java.io.*;
 import java.math.*;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.*;
 import javax.xml.parsers.*;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.*;
@@ -793,13 +794,13 @@ public abstract class DataHelper {
 	private static <T> void streamResultSet(ResultSet rs, ObjectReader<T> reader, StreamingIterator<T> iterator) throws SQLException {
 		if (rs != null) {
 			try {
-				while (rs.next()) {
+				while (!iterator.isCancelled() && rs.next()) {
 					T obj = reader.read(rs);
 					if (obj != null)
 						iterator.put(obj);
 				}
 			}
-			catch (InterruptedException ignored) {}
+			catch (InterruptedException | CancellationException ignored) {}
 			finally {
 				rs.close();
 			}
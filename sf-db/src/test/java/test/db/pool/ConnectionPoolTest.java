@@ -1,7 +1,10 @@
 package test.db.pool;
 
+import java.lang.management.*;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.*;
+import javax.management.*;
 
 import org.strangeforest.db.*;
 import org.strangeforest.db.gateway.*;
@@ -73,6 +76,51 @@ public class ConnectionPoolTest {
 		pool.destroy();
 	}
 
+	@Test
+	public void mBeanTest() throws Exception {
+		ConnectionPool pool = new ConnectionPool(DRIVER_CLASS, DB_URL, USERNAME, PASSWORD);
+		pool.setName("test-connection-pool");
+		pool.setMaxStatements(10);
+		pool.init();
+
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = MBeanUtil.objectName("ConnectionPool", "test-connection-pool");
+		Connection conn = pool.getConnection();
+		for (int i = 0; i < 2; i++) {
+			PreparedStatement st = conn.prepareStatement("SELECT * FROM Dual");
+			st.executeQuery().close();
+			st.close();
+		}
+		conn.close();
+		assertEquals(server.getAttribute(name, "Size"), 1);
+		assertEquals((Double)server.getAttribute(name, "StatementCacheHitRatio"), 0.5, 0.0001);
+
+		server.setAttribute(name, new Attribute("MaxStatements", 20));
+		server.setAttribute(name, new Attribute("MaxPoolSize", 3));
+		assertEquals(pool.getMaxStatements(), 20);
+		assertEquals(pool.getMaxPoolSize(), 3);
+
+		pool.destroy();
+		assertFalse(server.isRegistered(name));
+	}
+
+	@Test
+	public void getConnectionAsyncTest() throws Exception {
+		ConnectionPool pool = new ConnectionPool(DRIVER_CLASS, DB_URL, USERNAME, PASSWORD);
+		pool.setMaxPoolSize(1);
+		pool.init();
+
+		Connection conn = pool.getConnectionAsync().get(1L, TimeUnit.SECONDS);
+		CompletableFuture<Connection> future = pool.getConnectionAsync();
+		assertFalse(future.isDone());
+		conn.close();
+		Connection conn2 = future.get(1L, TimeUnit.SECONDS);
+		conn2.createStatement().execute("SELECT * FROM Dual");
+		conn2.close();
+		assertEquals(pool.getStatistics().getBusyCount(), 0);
+		pool.destroy();
+	}
+
 	@Test
 	public void twoDataSourcesTxFails() throws Exception {
 		ConnectionPoolDataSource dataSource2 = new ConnectionPoolDataSource(DRIVER_CLASS, DB_URL, "sa", "sa");
@@ -13,6 +13,7 @@ public abstract class DomainEntity<I, E extends DomainEntity<I, E>> extends Enti
 
 	private long _version;
 	protected transient DomainContext context;
+	private transient long _weight; // Estimated size memoized by EntityWeigher, 0 if not estimated
 
 	private static final String[] EXCLUDE_VERSION = {EntityDAO._VERSION};
 
@@ -36,6 +37,14 @@ public abstract class DomainEntity<I, E extends DomainEntity<I, E>> extends Enti
 		_version--;
 	}
 
+	long get_weight() {
+		return _weight;
+	}
+
+	void set_weight(long _weight) {
+		this._weight = _weight;
+	}
+
 	@Override public DomainContext getContext() {
 		return context;
 	}
@@ -54,7 +63,10 @@ public abstract class DomainEntity<I, E extends DomainEntity<I, E>> extends Enti
 	}
 
 	@Override protected E clone() throws CloneNotSupportedException {
-		return (E)super.clone();
+		E clone = (E)super.clone();
+		// Clone can be modified, so its size is estimated again
+		((DomainEntity<I, E>)clone)._weight = 0L;
+		return clone;
 	}
 
 	public final E lazyDeepClone() {
@@ -1,8 +1,10 @@
 package org.strangeforest.orm;
 
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.function.*;
 
+import org.strangeforest.cache.*;
 import org.strangeforest.concurrent.*;
 
 final class EntityCache<I, E extends DomainEntity<I, E>> {
@@ -11,6 +13,7 @@ final class EntityCache<I, E extends DomainEntity<I, E>> {
 	private final LockableCache<I, E> l2;
 	private final boolean useL2;
 	private final boolean inTx;
+	private final EntityWeigher weigher; // Estimates entity sizes before entities are put to L2 cache, outside of its monitor
 	private Map<I, E> changed;
 	private Set<I> deleted;
 	private Set<I> locked;
@@ -20,6 +23,8 @@ final class EntityCache<I, E extends DomainEntity<I, E>> {
 		this.l2 = l2;
 		this.useL2 = useL2;
 		this.inTx = inTx;
+		Weigher<? super I, ? super E> l2Weigher = useL2 ? l2.getWeigher() : null;
+		weigher = l2Weigher instanceof EntityWeigher ? (EntityWeigher)l2Weigher : null;
 	}
 
 	public E get(I id) {
@@ -33,13 +38,27 @@ final class EntityCache<I, E extends DomainEntity<I, E>> {
 		E entity = l1.get(id);
 		if (entity == null) {
 			if (useL2)
-				entity = l2ToL1(id, l2.lockedGet(id, fetcher));
+				entity = l2ToL1(id, l2.lockedGet(id, fetcher.andThen(this::weighed)));
 			else
 				entity = daoToL1(id, fetcher.apply(id));
 		}
 		return entity;
 	}
 
+	/**
+	 * Gets entity without blocking, sharing the fetch with concurrent requests for the same entity.
+	 * As the future may be completed by other thread, entity fetched asynchronously is not put to L1 cache.
+	 */
+	public CompletableFuture<E> lockedGetAsync(I id, Function<I, CompletableFuture<E>> fetcher) {
+		E entity = l1.get(id);
+		if (entity != null)
+			return CompletableFuture.completedFuture(entity);
+		if (useL2)
+			return l2.lockedGetAsync(id, fetcher.andThen(future -> future.thenApply(this::weighed))).thenApply(l2Entity -> l2Entity != null ? l2Entity.lazyDeepClone() : null);
+		else
+			return fetcher.apply(id);
+	}
+
 	public E getOld(I id, Function<I, E> fetcher) {
 		E entity = useL2 ? l2.get(id) : null;
 		if (entity == null)
@@ -61,18 +80,24 @@ final class EntityCache<I, E extends DomainEntity<I, E>> {
 		return entity;
 	}
 
+	private E weighed(E entity) {
+		if (entity != null && weigher != null)
+			weigher.precompute(entity);
+		return entity;
+	}
+
 	public void put(E entity) {
 		I id = entity.getId();
 		l1.put(id, entity);
 		if (useL2)
-			l2.put(id, entity.lazyDeepClone());
+			l2.put(id, weighed(entity.lazyDeepClone()));
 	}
 
 	public void tryLockedPut(E entity) {
 		I id = entity.getId();
 		l1.put(id, entity);
 		if (useL2)
-			l2.tryLockedPut(id, entity.lazyDeepClone());
+			l2.tryLockedPut(id, weighed(entity.lazyDeepClone()));
 	}
 
 	public void changed(E entity) {
@@ -82,7 +107,7 @@ final class EntityCache<I, E extends DomainEntity<I, E>> {
 			if (inTx)
 				changed().put(id, entity);
 			else
-				l2.put(id, entity.deepClone());
+				l2.put(id, weighed(entity.deepClone()));
 		}
 	}
 
@@ -96,7 +121,7 @@ final class EntityCache<I, E extends DomainEntity<I, E>> {
 				locked().add(id);
 			}
 			else
-				l2.lockedPut(id, entity.deepClone());
+				l2.lockedPut(id, weighed(entity.deepClone()));
 		}
 	}
 
@@ -130,6 +155,38 @@ final class EntityCache<I, E extends DomainEntity<I, E>> {
 		}
 	}
 
+	public void lockAll(Collection<I> ids) {
+		if (useL2)
+			l2.lockAll(ids);
+	}
+
+	public void unlockAll(Collection<I> ids) {
+		if (useL2) {
+			if (inTx)
+				locked().addAll(ids);
+			else
+				l2.unlockAll(ids);
+		}
+	}
+
+	public void lockShared(I id) {
+		if (useL2)
+			l2.lockShared(id);
+	}
+
+	public void unlockShared(I id) {
+		if (useL2)
+			l2.unlockShared(id);
+	}
+
+	public long tryOptimisticRead(I id) {
+		return useL2 ? l2.tryOptimisticRead(id) : 0L;
+	}
+
+	public boolean validate(I id, long stamp) {
+		return useL2 && l2.validate(id, stamp);
+	}
+
 	public void clear() {
 		l1.clear();
 		if (useL2)
@@ -145,9 +202,9 @@ final class EntityCache<I, E extends DomainEntity<I, E>> {
 					I id = entry.getKey();
 					E entity = entry.getValue();
 					if (locked.contains(id))
-						l2.put(id, entity.deepClone());
+						l2.put(id, weighed(entity.deepClone()));
 					else
-						l2.lockedPut(id, entity.deepClone());
+						l2.lockedPut(id, weighed(entity.deepClone()));
 				}
 			}
 			if (deleted != null) {
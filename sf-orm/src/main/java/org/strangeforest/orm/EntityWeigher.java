@@ -0,0 +1,180 @@
+package org.strangeforest.orm;
+
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.strangeforest.cache.*;
+
+/**
+ * <p><tt>EntityWeigher</tt> is <tt>Weigher</tt> that estimates retained heap size in bytes of cached <tt>DomainEntity</tt> graph,
+ * so that entity caches can be bounded by memory budget instead of by the number of entities.</p>
+ * <p>Entity graph is walked by reflection assuming 64-bit JVM with compressed references.
+ * Static and transient fields are skipped, as well as other <tt>DomainEntity</tt> instances referenced from the entity,
+ * as they are cached separately in their own repositories. JDK classes are not introspected:
+ * strings, arrays, collections and maps are estimated from their length or elements, and other JDK objects
+ * (boxed primitives, dates...) are assumed to be small. Other collections (ie. <tt>EntityReferenceList</tt>)
+ * are walked by fields, so that lazy loading is never triggered.</p>
+ * <p>Reference fields and shallow size of each class are computed once. Entity size is estimated once and memoized in the entity,
+ * as cached entities are not modified, and repositories estimate it before the entity is put to the cache, outside of the cache monitor.</p>
+ */
+public class EntityWeigher implements Weigher<Object, Object> {
+
+	private final ConcurrentMap<Class<?>, ClassInfo> classInfos = new ConcurrentHashMap<>();
+
+	private static final int HEADER_SIZE = 12;
+	private static final int ARRAY_HEADER_SIZE = 16;
+	private static final int REFERENCE_SIZE = 4;
+	private static final int COLLECTION_SIZE = 40;
+	private static final int COLLECTION_ELEMENT_SIZE = 16;
+	private static final int MAP_ELEMENT_SIZE = 32;
+
+	@Override public int weigh(Object key, Object value) {
+		long size = sizeOf(key) + (value instanceof DomainEntity ? weightOf((DomainEntity<?, ?>)value) : sizeOf(value));
+		return (int)Math.min(size, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Estimates size of the entity unless already estimated, so that it is not estimated while the entity is being put to the cache.
+	 * @param entity entity that is not modified afterwards.
+	 */
+	public void precompute(DomainEntity<?, ?> entity) {
+		weightOf(entity);
+	}
+
+	private long weightOf(DomainEntity<?, ?> entity) {
+		long weight = entity.get_weight();
+		if (weight == 0L) {
+			weight = sizeOf(entity);
+			entity.set_weight(weight);
+		}
+		return weight;
+	}
+
+	/**
+	 * Returns estimated retained size of object graph in bytes.
+	 * @param root root object.
+	 * @return estimated size in bytes.
+	 */
+	public long sizeOf(Object root) {
+		if (root == null)
+			return 0L;
+		long size = 0L;
+		Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+		Deque<Object> pending = new ArrayDeque<>();
+		pending.push(root);
+		while (!pending.isEmpty()) {
+			Object obj = pending.pop();
+			if (!visited.add(obj))
+				continue;
+			size += shallowSizeOf(obj, pending);
+		}
+		return size;
+	}
+
+	private long shallowSizeOf(Object obj, Deque<Object> pending) {
+		Class<?> cls = obj.getClass();
+		if (cls.isArray()) {
+			Class<?> componentType = cls.getComponentType();
+			int length = Array.getLength(obj);
+			if (!componentType.isPrimitive()) {
+				for (Object element : (Object[])obj)
+					push(element, pending);
+			}
+			return align(ARRAY_HEADER_SIZE + (long)length * fieldSize(componentType));
+		}
+		else if (isOpaque(cls)) {
+			if (obj instanceof String)
+				return align(HEADER_SIZE + 12) + align(ARRAY_HEADER_SIZE + 2L * ((String)obj).length());
+			else if (obj instanceof Collection) {
+				Collection<?> collection = (Collection<?>)obj;
+				for (Object element : collection)
+					push(element, pending);
+				return COLLECTION_SIZE + (long)collection.size() * COLLECTION_ELEMENT_SIZE;
+			}
+			else if (obj instanceof Map) {
+				Map<?, ?> map = (Map<?, ?>)obj;
+				for (Map.Entry<?, ?> entry : map.entrySet()) {
+					push(entry.getKey(), pending);
+					push(entry.getValue(), pending);
+				}
+				return COLLECTION_SIZE + (long)map.size() * MAP_ELEMENT_SIZE;
+			}
+			else
+				return align(HEADER_SIZE + 8);
+		}
+		else {
+			ClassInfo info = classInfoOf(cls);
+			for (Field field : info.referenceFields) {
+				try {
+					push(field.get(obj), pending);
+				}
+				catch (IllegalAccessException ignored) {}
+			}
+			return info.shallowSize;
+		}
+	}
+
+	private static void push(Object obj, Deque<Object> pending) {
+		if (obj != null && !(obj instanceof DomainEntity) && !(obj instanceof Class) && !(obj instanceof Enum))
+			pending.push(obj);
+	}
+
+	private static boolean isOpaque(Class<?> cls) {
+		String name = cls.getName();
+		return name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("sun.");
+	}
+
+	private ClassInfo classInfoOf(Class<?> cls) {
+		ClassInfo info = classInfos.get(cls);
+		if (info == null) {
+			long size = HEADER_SIZE;
+			List<Field> referenceFields = new ArrayList<>();
+			for (Class<?> aClass = cls; aClass != null && !isOpaque(aClass); aClass = aClass.getSuperclass()) {
+				for (Field field : aClass.getDeclaredFields()) {
+					int modifiers = field.getModifiers();
+					if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers)) {
+						Class<?> type = field.getType();
+						size += fieldSize(type);
+						if (!type.isPrimitive()) {
+							field.setAccessible(true);
+							referenceFields.add(field);
+						}
+					}
+				}
+			}
+			info = new ClassInfo(align(size), referenceFields.toArray(new Field[referenceFields.size()]));
+			classInfos.putIfAbsent(cls, info);
+		}
+		return info;
+	}
+
+	private static final class ClassInfo {
+
+		private final long shallowSize;
+		private final Field[] referenceFields;
+
+		private ClassInfo(long shallowSize, Field[] referenceFields) {
+			super();
+			this.shallowSize = shallowSize;
+			this.referenceFields = referenceFields;
+		}
+	}
+
+	private static int fieldSize(Class<?> type) {
+		if (type == long.class || type == double.class)
+			return 8;
+		else if (type == int.class || type == float.class)
+			return 4;
+		else if (type == short.class || type == char.class)
+			return 2;
+		else if (type == byte.class || type == boolean.class)
+			return 1;
+		else
+			return REFERENCE_SIZE;
+	}
+
+	private static long align(long size) {
+		return (size + 7L) & ~7L;
+	}
+}
@@ -3,22 +3,120 @@ package org.strangeforest.orm;
 import java.io.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
+import org.strangeforest.cache.*;
 import org.strangeforest.concurrent.*;
 
 public class LocalDomainContext extends DomainContext implements Closeable {
 
 	private final ScheduledExecutorService cacheExpirer;
+	private final ThreadPoolExecutor cacheRefresher;
+	private Executor asyncFetchExecutor;
+	private CacheType cacheType = CacheType.LRU;
+	private MemoryPressureController memoryPressureController;
+	private DeadlockDetector deadlockDetector;
+	private volatile String name;
+
+	private static final int CACHE_REFRESHER_THREADS = 4;
+	private static final AtomicInteger CONTEXT_SEQUENCE = new AtomicInteger();
+
+	/**
+	 * Type of caches used by repositories: <tt>LockableLRUCache</tt>, scan-resistant <tt>LockableTinyLFUCache</tt>
+	 * or <tt>LockableConcurrentCache</tt> with non-blocking reads.
+	 */
+	public enum CacheType { LRU, TINY_LFU, CONCURRENT }
 
 	public LocalDomainContext() {
 		super();
-		cacheExpirer = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("Domain Cache Expirer", true, true));
+		cacheExpirer = MaintenanceScheduler.getInstance();
+		cacheRefresher = new ThreadPoolExecutor(CACHE_REFRESHER_THREADS, CACHE_REFRESHER_THREADS, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), new NamedThreadFactory("Domain Cache Refresher", true, false));
+		cacheRefresher.allowCoreThreadTimeOut(true);
+		name = "LocalDomainContext-" + CONTEXT_SEQUENCE.incrementAndGet();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Sets context name, which prefixes MBean names of repositories initialized afterwards.
+	 * @param name context name.
+	 */
+	public void setName(String name) {
+		this.name = name;
 	}
 
 	ScheduledExecutorService getCacheExpirer() {
 		return cacheExpirer;
 	}
 
+	Executor getCacheRefresher() {
+		return cacheRefresher;
+	}
+
+	public Executor getAsyncFetchExecutor() {
+		return asyncFetchExecutor != null ? asyncFetchExecutor : cacheRefresher;
+	}
+
+	/**
+	 * Sets executor that fetches entities found by <tt>LocalRepository.findAsync</tt>. By default, cache refresher threads are used.
+	 * @param asyncFetchExecutor executor for asynchronous fetches, or <tt>null</tt> for default.
+	 */
+	public void setAsyncFetchExecutor(Executor asyncFetchExecutor) {
+		this.asyncFetchExecutor = asyncFetchExecutor;
+	}
+
+	public CacheType getCacheType() {
+		return cacheType;
+	}
+
+	/**
+	 * Sets type of caches used by repositories created afterwards.
+	 * @param cacheType cache type.
+	 */
+	public void setCacheType(CacheType cacheType) {
+		this.cacheType = Objects.requireNonNull(cacheType);
+	}
+
+	public boolean isUseConcurrentCaches() {
+		return cacheType == CacheType.CONCURRENT;
+	}
+
+	/**
+	 * Sets whether repositories created afterwards use <tt>LockableConcurrentCache</tt> (with non-blocking reads) instead of <tt>LockableLRUCache</tt>.
+	 * @param useConcurrentCaches if <tt>true</tt> concurrent caches are used.
+	 */
+	public void setUseConcurrentCaches(boolean useConcurrentCaches) {
+		setCacheType(useConcurrentCaches ? CacheType.CONCURRENT : CacheType.LRU);
+	}
+
+	public MemoryPressureController getMemoryPressureController() {
+		return memoryPressureController;
+	}
+
+	/**
+	 * Sets memory pressure controller with which entity caches of repositories initialized afterwards are registered,
+	 * ie. <tt>MemoryPressureController.getInstance()</tt>. Entity caches are then shrunk under memory pressure and grown back when it subsides.
+	 * @param memoryPressureController memory pressure controller, or <tt>null</tt> for no memory pressure control.
+	 */
+	public void setMemoryPressureController(MemoryPressureController memoryPressureController) {
+		this.memoryPressureController = memoryPressureController;
+	}
+
+	public DeadlockDetector getDeadlockDetector() {
+		return deadlockDetector;
+	}
+
+	/**
+	 * Sets deadlock detector shared by entity caches, query caches and lock managers of repositories initialized afterwards.
+	 * Thread whose entity lock would close a cycle of waiting threads then gets <tt>DeadlockException</tt> instead of waiting forever.
+	 * @param deadlockDetector deadlock detector, or <tt>null</tt> for no deadlock detection.
+	 */
+	public void setDeadlockDetector(DeadlockDetector deadlockDetector) {
+		this.deadlockDetector = deadlockDetector;
+	}
+
 	@Override public <I, E extends DomainEntity<I, E>> Repository<I, E> getRepository(Class<E> entityClass) {
 		return super.getRepository(entityClass);
 	}
@@ -38,7 +136,9 @@ public class LocalDomainContext extends DomainContext implements Closeable {
 	}
 
 	@Override public void close() {
-		cacheExpirer.shutdown();
+		for (Repository repository : getRepositories())
+			((LocalRepository)repository).close();
+		cacheRefresher.shutdown();
 	}
 
 
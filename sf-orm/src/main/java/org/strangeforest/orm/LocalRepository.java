@@ -2,7 +2,10 @@ package org.strangeforest.orm;
 
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import java.util.function.*;
+import java.util.logging.*;
+import javax.management.*;
 
 import org.strangeforest.cache.*;
 import org.strangeforest.concurrent.*;
@@ -21,10 +24,19 @@ public class LocalRepository<I, E extends DomainEntity<I, E>> implements Reposit
 	private LockableCache<Query, List<I>> queryCache;
 	private LockableCache<PredicatedQuery, List<I>> predicatedQueryCache;
 	private LockManager<I> lockManager;
+	private volatile long cacheRefreshAfterWrite;
+	private final ConcurrentMap<I, Long> loadTimes;
+	private final Set<I> refreshing;
+	private final LongAdder refreshCount;
+	private final LongAdder refreshFailureCount;
+	private volatile RuntimeException lastRefreshFailure;
+	private ObjectName mBeanName;
 
 	private static final long CACHE_EXPIRY_PERIOD       = 3600000L;
 	private static final long CACHE_CHECK_EXPIRY_PERIOD =   60000L;
 
+	private static final Logger LOGGER = Logger.getLogger(LocalRepository.class.getName());
+
 	public LocalRepository(LocalDomainContext context, EntityDAO<I, E> dao) {
 		this(context, dao, true, true, false);
 	}
@@ -37,7 +49,12 @@ public class LocalRepository<I, E extends DomainEntity<I, E>> implements Reposit
 		this.useCache = useCache;
 		setUseQueryCache(useQueryCache);
 		setUsePredicatedQueryCache(usePredicatedQueryCache);
-		this.cache = new LockableLRUCache<>();
+		this.cache = newCache();
+		loadTimes = new ConcurrentHashMap<>();
+		refreshing = ConcurrentHashMap.newKeySet();
+		refreshCount = new LongAdder();
+		refreshFailureCount = new LongAdder();
+		cache.addCacheListener(entry -> loadTimes.remove(entry.getKey()));
 		context.attach(dao);
 		context.registerRepository(entityClass, this);
 	}
@@ -45,12 +62,86 @@ public class LocalRepository<I, E extends DomainEntity<I, E>> implements Reposit
 	public void init() {
 		if (lockManager == null)
 			lockManager = new LockableHashMap<>();
-		if (useCache)
+		DeadlockDetector deadlockDetector = context.getDeadlockDetector();
+		if (deadlockDetector != null) {
+			setDeadlockDetector(cache, deadlockDetector);
+			setDeadlockDetector(queryCache, deadlockDetector);
+			setDeadlockDetector(predicatedQueryCache, deadlockDetector);
+			setDeadlockDetector(lockManager, deadlockDetector);
+		}
+		if (useCache) {
 			initCache(cache);
+			MemoryPressureController memoryPressureController = context.getMemoryPressureController();
+			if (memoryPressureController != null)
+				memoryPressureController.register(cache);
+		}
 		if (queryCache != null)
 			initCache(queryCache);
 		if (predicatedQueryCache != null)
 			initCache(predicatedQueryCache);
+		registerMBeans();
+	}
+
+	/**
+	 * Registers repository MBean <tt>org.strangeforest:type=LocalRepository,name=&lt;context&gt;/&lt;entity&gt;</tt>
+	 * and its caches as <tt>LockableCache</tt> MBeans named after the repository.
+	 * Registration failure, ie. because of MBean name clash, is logged and does not fail repository initialization.
+	 */
+	private void registerMBeans() {
+		if (mBeanName != null)
+			return;
+		String name = context.getName() + '/' + getEntityName();
+		try {
+			mBeanName = MBeanUtil.register(new LocalRepositoryMBeanImpl(this), LocalRepositoryMBean.class, "LocalRepository", name);
+			cache.registerMBean(name + "/entity", useCache ? context.getMemoryPressureController() : null);
+			if (queryCache != null)
+				queryCache.registerMBean(name + "/query");
+			if (predicatedQueryCache != null)
+				predicatedQueryCache.registerMBean(name + "/predicatedQuery");
+		}
+		catch (IllegalStateException ex) {
+			LOGGER.log(Level.WARNING, "Error registering repository MBeans.", ex);
+		}
+	}
+
+	private void unregisterMBeans() {
+		if (mBeanName != null) {
+			MBeanUtil.unregister(mBeanName);
+			mBeanName = null;
+		}
+		cache.unregisterMBean();
+		if (queryCache != null)
+			queryCache.unregisterMBean();
+		if (predicatedQueryCache != null)
+			predicatedQueryCache.unregisterMBean();
+	}
+
+	private static void setDeadlockDetector(Object lockManager, DeadlockDetector deadlockDetector) {
+		if (lockManager instanceof BaseLockableMap)
+			((BaseLockableMap)lockManager).setDeadlockDetector(deadlockDetector);
+	}
+
+	private <K, V> LockableCache<K, V> newCache() {
+		switch (context.getCacheType()) {
+			case TINY_LFU: return new LockableTinyLFUCache<>();
+			case CONCURRENT: return new LockableConcurrentCache<>();
+			default: return new LockableLRUCache<>();
+		}
+	}
+
+	/**
+	 * Stops background expiry of repository caches, unregisters entity cache from memory pressure controller and unregisters MBeans.
+	 */
+	void close() {
+		unregisterMBeans();
+		MemoryPressureController memoryPressureController = context.getMemoryPressureController();
+		if (memoryPressureController != null)
+			memoryPressureController.unregister(cache);
+		cache.stopBackgroundExpiry();
+		if (queryCache != null)
+			queryCache.stopBackgroundExpiry();
+		if (predicatedQueryCache != null)
+			predicatedQueryCache.stopBackgroundExpiry();
 	}
 
 	private void initCache(LockableCache cache) {
@@ -91,10 +182,12 @@ public class LocalRepository<I, E extends DomainEntity<I, E>> implements Reposit
 	public void setUseQueryCache(boolean useQueryCache) {
 		if (useQueryCache) {
 			if (queryCache == null)
-				queryCache = new LockableLRUCache<>();
+				queryCache = newCache();
 		}
-		else
+		else if (queryCache != null) {
+			queryCache.unregisterMBean();
 			queryCache = null;
+		}
 	}
 
 	public boolean isUsePredicatedQueryCache() {
@@ -104,18 +197,69 @@ public class LocalRepository<I, E extends DomainEntity<I, E>> implements Reposit
 	public void setUsePredicatedQueryCache(boolean usePredicatedQueryCache) {
 		if (usePredicatedQueryCache) {
 			if (predicatedQueryCache == null)
-				predicatedQueryCache = new LockableLRUCache<>();
+				predicatedQueryCache = newCache();
 		}
-		else
+		else if (predicatedQueryCache != null) {
+			predicatedQueryCache.unregisterMBean();
 			predicatedQueryCache = null;
+		}
 	}
 
 	public int getCacheCapacity() {
 		return cache.getCapacity();
 	}
 
+	/**
+	 * Sets entity cache capacity. If entity cache is registered with memory pressure controller, capacity is set through it,
+	 * so that it becomes the capacity to which cache is grown back after memory pressure subsides.
+	 * @param capacity entity cache capacity.
+	 */
 	public void setCacheCapacity(int capacity) {
-		cache.setCapacity(capacity);
+		MemoryPressureController memoryPressureController = context.getMemoryPressureController();
+		if (memoryPressureController != null)
+			memoryPressureController.setCapacity(cache, capacity);
+		else
+			cache.setCapacity(capacity);
+	}
+
+	public long getCacheMaximumWeight() {
+		return cache.getMaximumWeight();
+	}
+
+	/**
+	 * Sets entity cache memory budget. Unless other <tt>Weigher</tt> has been set, entity sizes are estimated by <tt>EntityWeigher</tt>.
+	 * @param maximumWeight estimated maximum total size of cached entities in bytes. Maximum weight of 0 means no memory budget.
+	 */
+	public void setCacheMaximumWeight(long maximumWeight) {
+		if (maximumWeight > 0L && cache.getWeigher() == Weigher.SINGLETON)
+			cache.setWeigher(new EntityWeigher());
+		cache.setMaximumWeight(maximumWeight);
+	}
+
+	public long getCacheWeight() {
+		return cache.getWeight();
+	}
+
+	public void setCacheWeigher(Weigher<? super I, ? super E> weigher) {
+		cache.setWeigher(weigher);
+	}
+
+	public long getCacheRefreshAfterWrite() {
+		return cacheRefreshAfterWrite;
+	}
+
+	/**
+	 * Sets refresh-ahead period of entity cache. When entity that has been loaded longer than this period ago is found in the cache,
+	 * it is returned and reloaded in the background, so that hot entities are replaced before they expire and <tt>find</tt> never waits for them.
+	 * Reloaded entity replaces cached one only if cached entity has not been changed or evicted meanwhile.
+	 * @param refreshAfterWrite refresh-ahead period in milliseconds. Period of 0 means no refresh-ahead.
+	 */
+	public void setCacheRefreshAfterWrite(long refreshAfterWrite) {
+		if (refreshAfterWrite < 0L)
+			throw new IllegalArgumentException("Invalid refresh after write: " + refreshAfterWrite);
+		cacheRefreshAfterWrite = refreshAfterWrite;
+		if (refreshAfterWrite == 0L)
+			loadTimes.clear();
 	}
 
 	public int getQueryCacheCapacity() {
@@ -176,7 +320,35 @@ public class LocalRepository<I, E extends DomainEntity<I, E>> implements Reposit
 	}
 
 	@Override public E find(I id) {
-		return getCache().lockedGet(id, this::fetch);
+		E entity = getCache().lockedGet(id, this::load);
+		if (entity != null && cacheRefreshAfterWrite > 0L && useCache)
+			refreshIfStale(id);
+		return entity;
+	}
+
+	/**
+	 * Finds entity without blocking the calling thread. Entity that is not cached is fetched by the async fetch executor of the domain context,
+	 * and concurrent requests for the same entity share a single fetch. Fetch failures are not cached.
+	 * @param id entity id.
+	 * @return future of the entity, completed with <tt>null</tt> if entity is not found.
+	 */
+	public CompletableFuture<E> findAsync(I id) {
+		return findAsync(id, context.getAsyncFetchExecutor());
+	}
+
+	/**
+	 * Finds entity without blocking the calling thread. Entity that is not cached is fetched by the specified executor,
+	 * and concurrent requests for the same entity share a single fetch. Fetch failures are not cached.
+	 * @param id entity id.
+	 * @param executor executor that fetches entity.
+	 * @return future of the entity, completed with <tt>null</tt> if entity is not found.
+	 */
+	public CompletableFuture<E> findAsync(I id, Executor executor) {
+		return getCache().lockedGetAsync(id, key -> CompletableFuture.supplyAsync(() -> load(key), executor)).thenApply(entity -> {
+			if (entity != null && cacheRefreshAfterWrite > 0L && useCache)
+				refreshIfStale(id);
+			return entity;
+		});
 	}
 
 	@Override public E get(I id) {
@@ -192,6 +364,67 @@ public class LocalRepository<I, E extends DomainEntity<I, E>> implements Reposit
 		return entity;
 	}
 
+	/**
+	 * Fetches entity that is put into the entity cache, recording its load time for refresh-ahead.
+	 * Load time is removed when the entity leaves the cache, so it must not be recorded for entities that are not cached.
+	 */
+	private E load(I id) {
+		E entity = fetch(id);
+		if (entity != null && cacheRefreshAfterWrite > 0L && useCache)
+			loadTimes.put(id, System.currentTimeMillis());
+		return entity;
+	}
+
+	private void refreshIfStale(I id) {
+		Long loadTime = loadTimes.get(id);
+		if (loadTime != null && System.currentTimeMillis() - loadTime >= cacheRefreshAfterWrite && refreshing.add(id)) {
+			try {
+				context.getCacheRefresher().execute(() -> refresh(id));
+			}
+			catch (RejectedExecutionException ex) {
+				refreshing.remove(id);
+			}
+		}
+	}
+
+	private void refresh(I id) {
+		try {
+			E cached = cache.get(id);
+			if (cached == null)
+				return;
+			E entity = dao.fetch(id);
+			Weigher<? super I, ? super E> weigher = cache.getWeigher();
+			if (entity != null && weigher instanceof EntityWeigher)
+				((EntityWeigher)weigher).precompute(entity);
+			if (cache.tryLock(id)) {
+				try {
+					// Cached entity could have been changed or evicted while it was being fetched
+					if (cache.get(id) == cached) {
+						if (entity != null) {
+							context.attach(entity);
+							loadTimes.put(id, System.currentTimeMillis());
+							cache.put(id, entity);
+						}
+						else
+							cache.remove(id);
+					}
+				}
+				finally {
+					cache.unlock(id);
+				}
+			}
+			refreshCount.increment();
+		}
+		catch (RuntimeException ex) {
+			// Stale entity stays cached until it is refreshed again or it expires
+			refreshFailureCount.increment();
+			lastRefreshFailure = ex;
+		}
+		finally {
+			refreshing.remove(id);
+		}
+	}
+
 	@Override public boolean exists(Query query) {
 		return find(query) != null;
 	}
@@ -269,21 +502,20 @@ public class LocalRepository<I, E extends DomainEntity<I, E>> implements Reposit
 	@Override public <D> List<D> getDetails(String detailName, I id, FieldAccessor<E, List<D>> accessor) {
 		if (accessor != null) {
 			EntityCache<I, E> cache = getCache();
+			// Cache hit needs no exclusive lock, as entity returned by the cache is a copy owned by the session
+			E entity = getCachedForRead(cache, id);
+			if (entity != null)
+				return getDetails(detailName, id, accessor, entity);
 			cache.lock(id);
 			try {
-				E entity = cache.get(id);
+				entity = cache.get(id);
 				if (entity == null) {
-					entity = fetch(id);
+					entity = load(id);
 					if (entity == null)
 						throw new NotFoundException(entityClass, id);
 					cache.put(entity);
 				}
-				List<D> details = accessor.get(entity);
-				if (details == null) {
-					details = fetchDetails(detailName, id);
-					accessor.set(entity, details);
-				}
-				return cloneList(details);
+				return getDetails(detailName, id, accessor, entity);
 			}
 			finally {
 				cache.unlock(id);
@@ -292,6 +524,31 @@ public class LocalRepository<I, E extends DomainEntity<I, E>> implements Reposit
 		return fetchDetails(detailName, id);
 	}
 
+	private <D> List<D> getDetails(String detailName, I id, FieldAccessor<E, List<D>> accessor, E entity) {
+		List<D> details = accessor.get(entity);
+		if (details == null) {
+			details = fetchDetails(detailName, id);
+			accessor.set(entity, details);
+		}
+		return cloneList(details);
+	}
+
+	private E getCachedForRead(EntityCache<I, E> cache, I id) {
+		long stamp = cache.tryOptimisticRead(id);
+		if (stamp != 0L) {
+			E entity = cache.get(id);
+			if (cache.validate(id, stamp))
+				return entity;
+		}
+		cache.lockShared(id);
+		try {
+			return cache.get(id);
+		}
+		finally {
+			cache.unlockShared(id);
+		}
+	}
+
 	private <D> List<D> fetchDetails(String detailName, I id) {
 		List<D> details = dao.fetchDetailList(detailName, id);
 		context.attach(details);
@@ -338,22 +595,21 @@ public class LocalRepository<I, E extends DomainEntity<I, E>> implements Reposit
 
 	@Override public void create(Iterable<E> entities) {
 		EntityCache<I, E> cache = getCache();
-		List<I> lockedIds = new ArrayList<>();
+		Set<I> lockedIds = new HashSet<>();
+		for (E entity : entities) {
+			I id = entity.getId();
+			if (id != null)
+				lockedIds.add(id);
+		}
+		// Ids are locked in canonical order to avoid deadlocks between concurrent batches with overlapping ids
+		cache.lockAll(lockedIds);
 		try {
-			for (E entity : entities) {
-				I id = entity.getId();
-				if (id != null) {
-					cache.lock(id);
-					lockedIds.add(id);
-				}
-			}
 			dao.create(entities);
 			for (E entity : entities)
 				addEntity(cache, entity, lockedIds.contains(entity.getId()));
 		}
 		finally {
-			for (I id : lockedIds)
-				cache.unlock(id);
+			cache.unlockAll(lockedIds);
 		}
 		evictFromQueries(entities);
 	}
@@ -443,15 +699,22 @@ public class LocalRepository<I, E extends DomainEntity<I, E>> implements Reposit
 				forDelete.add(oldEntity.getId());
 		}
 		EntityCache<I, E> cache = getCache();
-		List<I> lockedIds = new ArrayList<>();
+		Set<I> lockedIds = new HashSet<>();
+		for (E entity : entities) {
+			I id = entity.getId();
+			if (id != null && context.isAttached(entity))
+				lockedIds.add(id);
+			forDelete.remove(id);
+		}
+		lockedIds.addAll(forDelete);
+		// Ids are locked in canonical order to avoid deadlocks between concurrent batches with overlapping ids
+		cache.lockAll(lockedIds);
 		try {
 			for (E entity : entities) {
 				I id = entity.getId();
 				if (id == null || !context.isAttached(entity))
 					forCreate.add(entity);
 				else {
-					cache.lock(id);
-					lockedIds.add(id);
 					E oldEntity = oldEntities != null ? findIn(oldEntities, id) : null;
 					if (oldEntity == null)
 						oldEntity = findOld(id);
@@ -460,11 +723,6 @@ public class LocalRepository<I, E extends DomainEntity<I, E>> implements Reposit
 						oldForSave.add(oldEntity);
 					}
 				}
-				forDelete.remove(entity.getId());
-			}
-			for (I id : forDelete) {
-				cache.lock(id);
-				lockedIds.add(id);
 			}
 			if (!forCreate.isEmpty())
 				dao.create(forCreate);
@@ -480,8 +738,7 @@ public class LocalRepository<I, E extends DomainEntity<I, E>> implements Reposit
 				cache.deleted(id);
 		}
 		finally {
-			for (I id : lockedIds)
-				cache.unlock(id);
+			cache.unlockAll(lockedIds);
 		}
 		if (!forCreate.isEmpty())
 			evictFromQueries(forCreate);
@@ -580,6 +837,30 @@ public class LocalRepository<I, E extends DomainEntity<I, E>> implements Reposit
 		return lockManager.isLocked(id);
 	}
 
+	@Override public void lockShared(I id) {
+		lockManager.lockShared(id);
+	}
+
+	@Override public boolean tryLockShared(I id) {
+		return lockManager.tryLockShared(id);
+	}
+
+	@Override public boolean tryLockShared(I id, long timeout, TimeUnit unit) throws InterruptedException {
+		return lockManager.tryLockShared(id, timeout, unit);
+	}
+
+	@Override public void unlockShared(I id) {
+		lockManager.unlockShared(id);
+	}
+
+	@Override public long tryOptimisticRead(I id) {
+		return lockManager.tryOptimisticRead(id);
+	}
+
+	@Override public boolean validate(I id, long stamp) {
+		return lockManager.validate(id, stamp);
+	}
+
 	@Override public E lockedUpdate(I id, Consumer<E> callback) throws OptimisticLockingException {
 		lockManager.lock(id);
 		try {
@@ -809,6 +1090,42 @@ public class LocalRepository<I, E extends DomainEntity<I, E>> implements Reposit
 		return predicatedQueryCache != null ? predicatedQueryCache.size() : 0;
 	}
 
+	public float getEntityCacheHitRatio() {
+		return cache.getStatistics().hitRatio();
+	}
+
+	public float getQueryCacheHitRatio() {
+		return queryCache != null ? queryCache.getStatistics().hitRatio() : 0.0f;
+	}
+
+	public float getPredicatedQueryCacheHitRatio() {
+		return predicatedQueryCache != null ? predicatedQueryCache.getStatistics().hitRatio() : 0.0f;
+	}
+
+	/**
+	 * Returns number of background entity refreshes that completed, including those whose result was discarded because the cached entity changed meanwhile.
+	 * @return number of completed refreshes.
+	 */
+	public long getCacheRefreshCount() {
+		return refreshCount.sum();
+	}
+
+	/**
+	 * Returns number of background entity refreshes that failed. Entity whose refresh failed stays cached until it is refreshed again or it expires.
+	 * @return number of failed refreshes.
+	 */
+	public long getCacheRefreshFailureCount() {
+		return refreshFailureCount.sum();
+	}
+
+	/**
+	 * Returns the exception of the last failed background entity refresh.
+	 * @return last refresh failure or <tt>null</tt>.
+	 */
+	public RuntimeException getLastCacheRefreshFailure() {
+		return lastRefreshFailure;
+	}
+
 	public Map<String, Object> getEntityCacheStatistics() {
 		return getCacheStatistics(cache);
 	}
@@ -835,6 +1152,9 @@ public class LocalRepository<I, E extends DomainEntity<I, E>> implements Reposit
 	}
 
 	public void resetStatistics() {
+		refreshCount.reset();
+		refreshFailureCount.reset();
+		lastRefreshFailure = null;
 		cache.resetStatistics();
 		if (queryCache != null)
 			queryCache.resetStatistics();
@@ -0,0 +1,38 @@
+package org.strangeforest.orm;
+
+/**
+ * <p>Management interface of <tt>LocalRepository</tt>.</p>
+ */
+public interface LocalRepositoryMBean {
+
+	String getEntityName();
+
+	boolean isUseCache();
+	void setUseCache(boolean useCache);
+
+	int getCachedEntityCount();
+	int getCachedQueryCount();
+	int getCachedPredicatedQueryCount();
+	float getEntityCacheHitRatio();
+	float getQueryCacheHitRatio();
+	float getPredicatedQueryCacheHitRatio();
+	long getCacheRefreshCount();
+	long getCacheRefreshFailureCount();
+	String getLastCacheRefreshFailure();
+
+	int getCacheCapacity();
+	void setCacheCapacity(int capacity);
+	long getCacheWeight();
+	long getCacheMaximumWeight();
+	void setCacheMaximumWeight(long maximumWeight);
+	int getQueryCacheCapacity();
+	void setQueryCacheCapacity(int capacity);
+	int getPredicatedQueryCacheCapacity();
+	void setPredicatedQueryCacheCapacity(int capacity);
+	long getCacheExpiryPeriod();
+	void setCacheExpiryPeriod(long expiryPeriod);
+	long getCacheRefreshAfterWrite();
+	void setCacheRefreshAfterWrite(long refreshAfterWrite);
+
+	void resetStatistics();
+}
@@ -0,0 +1,119 @@
+package org.strangeforest.orm;
+
+/**
+ * <p>Standard MBean implementation that exposes <tt>LocalRepository</tt> through <tt>LocalRepositoryMBean</tt> management interface.</p>
+ */
+public class LocalRepositoryMBeanImpl implements LocalRepositoryMBean {
+
+	private final LocalRepository<?, ?> repository;
+
+	public LocalRepositoryMBeanImpl(LocalRepository<?, ?> repository) {
+		super();
+		this.repository = repository;
+	}
+
+	@Override public String getEntityName() {
+		return repository.getEntityName();
+	}
+
+	@Override public boolean isUseCache() {
+		return repository.isUseCache();
+	}
+
+	@Override public void setUseCache(boolean useCache) {
+		repository.setUseCache(useCache);
+	}
+
+	@Override public int getCachedEntityCount() {
+		return repository.getCachedEntityCount();
+	}
+
+	@Override public int getCachedQueryCount() {
+		return repository.getCachedQueryCount();
+	}
+
+	@Override public int getCachedPredicatedQueryCount() {
+		return repository.getCachedPredicatedQueryCount();
+	}
+
+	@Override public float getEntityCacheHitRatio() {
+		return repository.getEntityCacheHitRatio();
+	}
+
+	@Override public float getQueryCacheHitRatio() {
+		return repository.getQueryCacheHitRatio();
+	}
+
+	@Override public float getPredicatedQueryCacheHitRatio() {
+		return repository.getPredicatedQueryCacheHitRatio();
+	}
+
+	@Override public long getCacheRefreshCount() {
+		return repository.getCacheRefreshCount();
+	}
+
+	@Override public long getCacheRefreshFailureCount() {
+		return repository.getCacheRefreshFailureCount();
+	}
+
+	@Override public String getLastCacheRefreshFailure() {
+		RuntimeException failure = repository.getLastCacheRefreshFailure();
+		return failure != null ? failure.toString() : null;
+	}
+
+	@Override public int getCacheCapacity() {
+		return repository.getCacheCapacity();
+	}
+
+	@Override public void setCacheCapacity(int capacity) {
+		repository.setCacheCapacity(capacity);
+	}
+
+	@Override public long getCacheWeight() {
+		return repository.getCacheWeight();
+	}
+
+	@Override public long getCacheMaximumWeight() {
+		return repository.getCacheMaximumWeight();
+	}
+
+	@Override public void setCacheMaximumWeight(long maximumWeight) {
+		repository.setCacheMaximumWeight(maximumWeight);
+	}
+
+	@Override public int getQueryCacheCapacity() {
+		return repository.getQueryCacheCapacity();
+	}
+
+	@Override public void setQueryCacheCapacity(int capacity) {
+		repository.setQueryCacheCapacity(capacity);
+	}
+
+	@Override public int getPredicatedQueryCacheCapacity() {
+		return repository.getPredicatedQueryCacheCapacity();
+	}
+
+	@Override public void setPredicatedQueryCacheCapacity(int capacity) {
+		repository.setPredicatedQueryCacheCapacity(capacity);
+	}
+
+	@Override public long getCacheExpiryPeriod() {
+		return repository.getCacheExpiryPeriod();
+	}
+
+	@Override public void setCacheExpiryPeriod(long expiryPeriod) {
+		repository.setCacheExpiryPeriod(expiryPeriod);
+	}
+
+	@Override public long getCacheRefreshAfterWrite() {
+		return repository.getCacheRefreshAfterWrite();
+	}
+
+	@Override public void setCacheRefreshAfterWrite(long refreshAfterWrite) {
+		repository.setCacheRefreshAfterWrite(refreshAfterWrite);
+	}
+
+	@Override public void resetStatistics() {
+		repository.resetStatistics();
+	}
+}
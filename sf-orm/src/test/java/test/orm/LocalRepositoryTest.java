@@ -1,11 +1,18 @@
 package test.orm;
 
+import java.lang.management.*;
+import java.util.*;
+import java.util.concurrent.*;
+import javax.management.*;
+
 import org.junit.*;
 import org.junit.runner.*;
 import org.mockito.*;
 import org.mockito.runners.*;
+import org.strangeforest.cache.*;
 import org.strangeforest.orm.*;
 import org.strangeforest.transaction.*;
+import org.strangeforest.util.*;
 
 import static org.assertj.core.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -13,13 +20,15 @@ import static org.mockito.Mockito.*;
 @RunWith(MockitoJUnitRunner.class)
 public class LocalRepositoryTest {
 
+	private LocalDomainContext context;
 	private LocalRepository<Long, SimpleTestEntity> repository;
 	@Mock private EntityDAO<Long, SimpleTestEntity> dao;
 
 	@Before
 	public void setUp() {
 		when(dao.entityClass()).thenReturn(SimpleTestEntity.class);
-		repository = new TransactionalRepository<>(new LocalDomainContext(), dao);
+		context = new LocalDomainContext();
+		repository = new TransactionalRepository<>(context, dao);
 		repository.init();
 
 		verify(dao).entityClass();
@@ -69,6 +78,48 @@ public class LocalRepositoryTest {
 		});
 	}
 
+	@Test
+	public void entityIsFoundAsyncWithSingleFetch() throws Exception {
+		SimpleTestEntity entity = new SimpleTestEntity(1L);
+		entity.setName("Entity");
+
+		when(dao.fetch(1L)).thenReturn(entity);
+
+		List<Runnable> fetches = new ArrayList<>();
+		CompletableFuture<SimpleTestEntity> future1 = repository.findAsync(1L, fetches::add);
+		CompletableFuture<SimpleTestEntity> future2 = repository.findAsync(1L, fetches::add);
+
+		assertThat(fetches).hasSize(1);
+		assertThat(future1).isNotDone();
+		fetches.get(0).run();
+
+		verify(dao).fetch(1L);
+		assertThat(future1.get()).isNotSameAs(entity);
+		assertThat(future2.get().getName()).isEqualTo("Entity");
+
+		SimpleTestEntity entity2 = repository.findAsync(1L, fetches::add).get();
+
+		verifyNoMoreInteractions(dao);
+		assertThat(fetches).hasSize(1);
+		assertThat(entity2.getName()).isEqualTo("Entity");
+	}
+
+	@Test
+	public void failedAsyncFetchIsNotCached() throws Exception {
+		SimpleTestEntity entity = new SimpleTestEntity(1L);
+
+		when(dao.fetch(1L)).thenThrow(new IllegalStateException()).thenReturn(entity);
+
+		CompletableFuture<SimpleTestEntity> failed = repository.findAsync(1L, Runnable::run);
+
+		assertThat(failed).isCompletedExceptionally();
+
+		CompletableFuture<SimpleTestEntity> found = repository.findAsync(1L, Runnable::run);
+
+		verify(dao, times(2)).fetch(1L);
+		assertThat(found.get().getId()).isEqualTo(1L);
+	}
+
 
 	// Create new Entity
 
@@ -334,4 +385,194 @@ public class LocalRepositoryTest {
 			return null;
 		});
 	}
+
+
+	// Cache memory budget
+
+	@Test
+	public void entityCacheIsBoundedByMaximumWeight() {
+		EntityWeigher weigher = new EntityWeigher();
+		long entitySize = weigher.weigh(1L, newEntity(1L));
+		repository.setCacheMaximumWeight(entitySize * 3);
+		for (long id = 1L; id <= 5L; id++) {
+			when(dao.fetch(id)).thenReturn(newEntity(id));
+			repository.get(id);
+		}
+
+		assertThat(repository.getCachedEntityCount()).isEqualTo(3);
+		assertThat(repository.getCacheWeight()).isBetween(entitySize * 2, entitySize * 3);
+	}
+
+	@Test
+	public void entitySizeIsEstimatedOnceAndAgainForClone() {
+		EntityWeigher weigher = new EntityWeigher();
+		SimpleTestEntity entity = newEntity(1L);
+		int entitySize = weigher.weigh(1L, entity);
+		entity.setName("Entity with a much longer name");
+
+		assertThat(weigher.weigh(1L, entity)).isEqualTo(entitySize);
+		assertThat(weigher.weigh(1L, entity.deepClone())).isGreaterThan(entitySize);
+	}
+
+
+	// Details
+
+	@Test
+	public void detailsOfCachedEntityAreFetched() {
+		when(dao.fetch(1L)).thenReturn(newEntity(1L));
+		when(dao.<String>fetchDetailList("names", 1L)).thenReturn(new ArrayList<>(Arrays.asList("A", "B")));
+		repository.get(1L);
+
+		List<String> details = repository.getDetails("names", 1L, new MapFieldAccessor<>());
+
+		assertThat(details).containsExactly("A", "B");
+		verify(dao).fetch(1L);
+		verify(dao).fetchDetailList("names", 1L);
+	}
+
+	@Test
+	public void detailsOfMissingEntityAreFetchedWithEntity() {
+		when(dao.fetch(1L)).thenReturn(newEntity(1L));
+		when(dao.<String>fetchDetailList("names", 1L)).thenReturn(new ArrayList<>(Collections.singletonList("A")));
+
+		List<String> details = repository.getDetails("names", 1L, new MapFieldAccessor<>());
+
+		assertThat(details).containsExactly("A");
+		assertThat(repository.getCachedEntityCount()).isEqualTo(1);
+		verify(dao).fetch(1L);
+	}
+
+	@Test(expected = NotFoundException.class)
+	public void detailsOfNonExistingEntityAreNotFound() {
+		repository.getDetails("names", 1L, new MapFieldAccessor<String>());
+	}
+
+	private static final class MapFieldAccessor<D> implements FieldAccessor<SimpleTestEntity, List<D>> {
+
+		private final Map<SimpleTestEntity, List<D>> details = new IdentityHashMap<>();
+
+		@Override public List<D> get(SimpleTestEntity entity) {
+			return details.get(entity);
+		}
+
+		@Override public void set(SimpleTestEntity entity, List<D> value) {
+			details.put(entity, value);
+		}
+	}
+
+
+	// Cache refresh-ahead
+
+	@Test
+	public void staleEntityIsReturnedAndRefreshedInBackground() throws InterruptedException {
+		repository.setCacheRefreshAfterWrite(100L);
+		SimpleTestEntity refreshed = newEntity(1L);
+		refreshed.setName("Refreshed");
+		when(dao.fetch(1L)).thenReturn(newEntity(1L), refreshed);
+
+		assertThat(repository.get(1L).getName()).isEqualTo("Entity1");
+		Thread.sleep(150L);
+		assertThat(repository.get(1L).getName()).isEqualTo("Entity1");
+
+		verify(dao, timeout(1000L).times(2)).fetch(1L);
+		String name = null;
+		for (int i = 0; i < 100 && !"Refreshed".equals(name); i++) {
+			Thread.sleep(10L);
+			name = repository.get(1L).getName();
+		}
+		assertThat(name).isEqualTo("Refreshed");
+	}
+
+	@Test
+	public void failedRefreshIsCountedAndStaleEntityStaysCached() throws InterruptedException {
+		repository.setCacheRefreshAfterWrite(100L);
+		when(dao.fetch(1L)).thenReturn(newEntity(1L)).thenThrow(new IllegalStateException("Boom"));
+
+		assertThat(repository.get(1L).getName()).isEqualTo("Entity1");
+		Thread.sleep(150L);
+		assertThat(repository.get(1L).getName()).isEqualTo("Entity1");
+
+		verify(dao, timeout(1000L).times(2)).fetch(1L);
+		for (int i = 0; i < 100 && repository.getCacheRefreshFailureCount() == 0L; i++)
+			Thread.sleep(10L);
+		assertThat(repository.getCacheRefreshFailureCount()).isEqualTo(1L);
+		assertThat(repository.getCacheRefreshCount()).isEqualTo(0L);
+		assertThat(repository.getLastCacheRefreshFailure()).hasMessage("Boom");
+		assertThat(repository.get(1L).getName()).isEqualTo("Entity1");
+	}
+
+	// MBean
+
+	@Test
+	public void repositoryAndCachesAreRegisteredAsMBeans() throws Exception {
+		when(dao.fetch(1L)).thenReturn(newEntity(1L));
+		repository.get(1L);
+		repository.get(1L);
+
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		String name = context.getName() + '/' + repository.getEntityName();
+		ObjectName repositoryName = MBeanUtil.objectName("LocalRepository", name);
+		assertThat(server.isRegistered(repositoryName)).isTrue();
+		assertThat(server.isRegistered(MBeanUtil.objectName("LockableCache", name + "/entity"))).isTrue();
+		assertThat(server.getAttribute(repositoryName, "CachedEntityCount")).isEqualTo(1);
+		assertThat((Float)server.getAttribute(repositoryName, "EntityCacheHitRatio")).isEqualTo(0.5f);
+
+		server.setAttribute(repositoryName, new Attribute("CacheCapacity", 50));
+		assertThat(repository.getCacheCapacity()).isEqualTo(50);
+	}
+
+	@Test
+	public void cacheCapacityChangedAtRuntimeIsKeptByMemoryPressureController() throws Exception {
+		MemoryPressureController controller = new MemoryPressureController(0.6, 0.85, 0.5, 0.5);
+		LocalDomainContext context = new LocalDomainContext();
+		context.setMemoryPressureController(controller);
+		LocalRepository<Long, SimpleTestEntity> repository = new TransactionalRepository<>(context, dao);
+		repository.init();
+		try {
+			for (long id = 1L; id <= 100L; id++) {
+				when(dao.fetch(id)).thenReturn(newEntity(id));
+				repository.get(id);
+			}
+			controller.adjust(0.9);
+			assertThat(repository.getCacheCapacity()).isEqualTo(50);
+
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			String name = context.getName() + '/' + repository.getEntityName();
+			server.setAttribute(MBeanUtil.objectName("LockableCache", name + "/entity"), new Attribute("Capacity", 80));
+			for (int i = 0; i < 5; i++)
+				controller.adjust(0.5);
+			assertThat(repository.getCacheCapacity()).isEqualTo(80);
+
+			server.setAttribute(MBeanUtil.objectName("LocalRepository", name), new Attribute("CacheCapacity", 70));
+			controller.adjust(0.9);
+			for (int i = 0; i < 5; i++)
+				controller.adjust(0.5);
+			assertThat(repository.getCacheCapacity()).isEqualTo(70);
+		}
+		finally {
+			context.close();
+		}
+		assertThat(repository.getCacheCapacity()).isEqualTo(70);
+	}
+
+	@Test
+	public void mBeanNameClashDoesNotFailRepositoryInitialization() {
+		LocalDomainContext otherContext = new LocalDomainContext();
+		otherContext.setName(context.getName());
+		LocalRepository<Long, SimpleTestEntity> otherRepository = new TransactionalRepository<>(otherContext, dao);
+		try {
+			otherRepository.init();
+			when(dao.fetch(1L)).thenReturn(newEntity(1L));
+			assertThat(otherRepository.get(1L).getName()).isEqualTo("Entity1");
+		}
+		finally {
+			otherContext.close();
+		}
+	}
+
+	private static SimpleTestEntity newEntity(long id) {
+		SimpleTestEntity entity = new SimpleTestEntity(id);
+		entity.setName("Entity" + id);
+		return entity;
+	}
 }
@@ -0,0 +1,82 @@
+package org.strangeforest.cache;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+/**
+ * <p><tt>AsyncCacheLoader</tt> asynchronously loads values for <tt>LoadingCache</tt>.</p>
+ * <p>Only <tt>load</tt> needs to be implemented. Loaders that can fetch many values in one round trip
+ * should override <tt>loadAll</tt>, which by default loads keys one by one.</p>
+ */
+@FunctionalInterface
+public interface AsyncCacheLoader<K, V> {
+
+	/**
+	 * Starts loading value for the key.
+	 * @param key key.
+	 * @return future completed with the value, or with <tt>null</tt> if there is no value for the key.
+	 */
+	CompletableFuture<V> load(K key);
+
+	/**
+	 * Starts reloading value for the key that is already cached. By default delegates to <tt>load</tt>.
+	 * @param key key.
+	 * @param oldValue currently cached value.
+	 * @return future completed with the new value, or with <tt>null</tt> if there is no value for the key anymore.
+	 */
+	default CompletableFuture<V> reload(K key, V oldValue) {
+		return load(key);
+	}
+
+	/**
+	 * Starts loading values for the keys. Keys with no value may be left out of the resulting map.
+	 * @param keys keys.
+	 * @return future completed with the map of loaded values.
+	 */
+	default CompletableFuture<Map<K, V>> loadAll(Set<K> keys) {
+		Map<K, CompletableFuture<V>> futures = new HashMap<>();
+		for (K key : keys)
+			futures.put(key, load(key));
+		return CompletableFuture.allOf(futures.values().toArray(new CompletableFuture[futures.size()])).thenApply(ignored -> {
+			Map<K, V> values = new HashMap<>();
+			for (Map.Entry<K, CompletableFuture<V>> entry : futures.entrySet()) {
+				V value = entry.getValue().join();
+				if (value != null)
+					values.put(entry.getKey(), value);
+			}
+			return values;
+		});
+	}
+
+	/**
+	 * Creates loader that runs blocking function on the executor.
+	 * @param function function that loads value for the key.
+	 * @param executor executor that runs the function.
+	 * @return loader.
+	 */
+	static <K, V> AsyncCacheLoader<K, V> from(Function<? super K, ? extends V> function, Executor executor) {
+		Objects.requireNonNull(function);
+		Objects.requireNonNull(executor);
+		return key -> CompletableFuture.supplyAsync(() -> function.apply(key), executor);
+	}
+
+	/**
+	 * Creates loader that runs blocking batch function on the executor, both for single and for bulk loads.
+	 * @param function function that loads values for the set of keys.
+	 * @param executor executor that runs the function.
+	 * @return loader.
+	 */
+	static <K, V> AsyncCacheLoader<K, V> fromBatch(Function<? super Set<K>, ? extends Map<K, V>> function, Executor executor) {
+		Objects.requireNonNull(function);
+		Objects.requireNonNull(executor);
+		return new AsyncCacheLoader<K, V>() {
+			@Override public CompletableFuture<V> load(K key) {
+				return CompletableFuture.supplyAsync(() -> function.apply(Collections.singleton(key)).get(key), executor);
+			}
+			@Override public CompletableFuture<Map<K, V>> loadAll(Set<K> keys) {
+				return CompletableFuture.supplyAsync(() -> function.apply(keys), executor);
+			}
+		};
+	}
+}
@@ -20,6 +20,50 @@ public interface Cache<K, V> extends Map<K, V> {
 	 */
 	void setCapacity(int capacity);
 
+	/**
+	 * Returns maximum total weight of cache entries as calculated by cache <tt>Weigher</tt>. The maximum weight of 0 means unlimited weight.
+	 * By default cache is not bounded by weight.
+	 * @return maximum weight.
+	 */
+	default long getMaximumWeight() {
+		return 0L;
+	}
+
+	/**
+	 * Sets new maximum total weight of cache entries. The maximum weight of 0 means unlimited weight.
+	 * When both capacity and maximum weight are set, entries are evicted until both limits are met.
+	 * By default only unlimited weight is supported.
+	 * @param maximumWeight new maximum weight.
+	 * @throws UnsupportedOperationException if cache does not support weight bound and maximum weight is not 0.
+	 */
+	default void setMaximumWeight(long maximumWeight) {
+		if (maximumWeight != 0L)
+			throw new UnsupportedOperationException("Maximum weight is not supported");
+	}
+
+	/**
+	 * Returns current total weight of cache entries. By default it is the number of entries.
+	 * @return total weight.
+	 */
+	default long getWeight() {
+		return size();
+	}
+
+	default Weigher<? super K, ? super V> getWeigher() {
+		return Weigher.singleton();
+	}
+
+	/**
+	 * Sets new <tt>Weigher</tt>. Weights of the entries already in the cache are recalculated.
+	 * By default only singleton weigher is supported.
+	 * @param weigher new <tt>Weigher</tt>.
+	 * @throws UnsupportedOperationException if cache does not support weighers and weigher is not singleton weigher.
+	 */
+	default void setWeigher(Weigher<? super K, ? super V> weigher) {
+		if (weigher != Weigher.SINGLETON)
+			throw new UnsupportedOperationException("Weigher is not supported");
+	}
+
 	/**
 	 * Returns cached value expiry period. The expiry period of 0 means no expiry.
 	 * @return expiry period.
@@ -32,6 +76,20 @@ public interface Cache<K, V> extends Map<K, V> {
 	 */
 	void setExpiryPeriod(long expiryPeriod);
 
+	/**
+	 * Puts new entry in the cache with the specified time-to-live that overrides cache expiry period for that entry.
+	 * @param key key.
+	 * @param value value.
+	 * @param ttl entry time-to-live in milliseconds. Time-to-live of 0 means that cache expiry period applies.
+	 * @return previous value for specified key.
+	 * @throws UnsupportedOperationException if cache does not support per-entry time-to-live and time-to-live is not 0.
+	 */
+	default V put(K key, V value, long ttl) {
+		if (ttl != 0L)
+			throw new UnsupportedOperationException("Time-to-live is not supported");
+		return put(key, value);
+	}
+
 	/**
 	 * Returns check expiry rate. The rate of 0 means no background expiration will be performed.
 	 * @return check expiry rate.
@@ -12,4 +12,13 @@ public interface CacheListener<K, V> {
 	 * @param entry entry that is removed from cache.
 	 */
 	void entryRemoved(Map.Entry<K, V> entry);
+
+	/**
+	 * This event is fired when entry is removed from cache. By default delegates to <tt>entryRemoved(entry)</tt>.
+	 * @param entry entry that is removed from cache.
+	 * @param cause removal cause.
+	 */
+	default void entryRemoved(Map.Entry<K, V> entry, RemovalCause cause) {
+		entryRemoved(entry);
+	}
 }
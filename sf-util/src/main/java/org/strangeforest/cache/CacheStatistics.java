@@ -1,18 +1,40 @@
 package org.strangeforest.cache;
 
+import java.util.*;
+
+import org.strangeforest.util.*;
+
+/**
+ * <p>Immutable snapshot of cache statistics. Load statistics are gathered by caches that load missing values,
+ * ie. <tt>LockableCache.lockedGet</tt> and <tt>LoadingCache</tt>.</p>
+ */
 public class CacheStatistics {
 
 	private final int size;
 	private final int capacity;
-	private final long gets;
 	private final long hits;
+	private final long misses;
+	private final long loadSuccesses;
+	private final long loadFailures;
+	private final long totalLoadTime;
+	private final long[] removals;
+	private final LatencyHistogram.Snapshot loadTimes;
 
 	public CacheStatistics(int size, int capacity, long gets, long hits) {
+		this(size, capacity, hits, gets - hits, 0L, 0L, 0L, new long[RemovalCause.values().length], LatencyHistogram.Snapshot.EMPTY);
+	}
+
+	public CacheStatistics(int size, int capacity, long hits, long misses, long loadSuccesses, long loadFailures, long totalLoadTime, long[] removals, LatencyHistogram.Snapshot loadTimes) {
 		super();
 		this.size = size;
 		this.capacity = capacity;
-		this.gets = gets;
 		this.hits = hits;
+		this.misses = misses;
+		this.loadSuccesses = loadSuccesses;
+		this.loadFailures = loadFailures;
+		this.totalLoadTime = totalLoadTime;
+		this.removals = removals;
+		this.loadTimes = loadTimes;
 	}
 
 	public int size() {
@@ -32,18 +54,125 @@ public class CacheStatistics {
 	}
 
 	public long gets() {
-		return gets;
+		return hits + misses;
 	}
 
 	public long hits() {
 		return hits;
 	}
 
+	public long misses() {
+		return misses;
+	}
+
 	/**
 	 * Returns current cache hit ratio (number of hits/number of gets).
 	 * @return hit ratio.
 	 */
 	public float hitRatio() {
+		long gets = gets();
 		return gets != 0L ? ((float)hits)/gets : 0.0f;
 	}
+
+	public float missRatio() {
+		long gets = gets();
+		return gets != 0L ? ((float)misses)/gets : 0.0f;
+	}
+
+	public long loadCount() {
+		return loadSuccesses + loadFailures;
+	}
+
+	public long loadSuccessCount() {
+		return loadSuccesses;
+	}
+
+	public long loadFailureCount() {
+		return loadFailures;
+	}
+
+	/**
+	 * Returns total time spent loading values.
+	 * @return total load time in nanoseconds.
+	 */
+	public long totalLoadTime() {
+		return totalLoadTime;
+	}
+
+	/**
+	 * Returns average time spent loading a value.
+	 * @return average load time in nanoseconds.
+	 */
+	public double averageLoadPenalty() {
+		long loads = loadCount();
+		return loads != 0L ? ((double)totalLoadTime)/loads : 0.0;
+	}
+
+	/**
+	 * Returns histogram of load times.
+	 * @return load time histogram snapshot.
+	 */
+	public LatencyHistogram.Snapshot loadTimes() {
+		return loadTimes;
+	}
+
+	/**
+	 * Returns number of entries evicted by the cache, either because they have expired or to ensure cache capacity.
+	 * @return eviction count.
+	 */
+	public long evictionCount() {
+		long evictions = 0L;
+		for (RemovalCause cause : RemovalCause.values()) {
+			if (cause.isEviction())
+				evictions += removals[cause.ordinal()];
+		}
+		return evictions;
+	}
+
+	/**
+	 * Returns number of entries removed for the specified cause.
+	 * @param cause removal cause.
+	 * @return removal count.
+	 */
+	public long removalCount(RemovalCause cause) {
+		return removals[cause.ordinal()];
+	}
+
+	/**
+	 * Returns statistics with the same size and capacity, and with counters summed with the counters of the other statistics.
+	 * @param other other statistics.
+	 * @return combined statistics.
+	 */
+	public CacheStatistics plus(CacheStatistics other) {
+		return plus(other, size + other.size, capacity);
+	}
+
+	/**
+	 * Returns statistics with the specified size and capacity, and with counters summed with the counters of the other statistics.
+	 * @param other other statistics.
+	 * @param size size of combined statistics.
+	 * @param capacity capacity of combined statistics.
+	 * @return combined statistics.
+	 */
+	public CacheStatistics plus(CacheStatistics other, int size, int capacity) {
+		long[] removals = new long[this.removals.length];
+		for (int i = 0; i < removals.length; i++)
+			removals[i] = this.removals[i] + other.removals[i];
+		return new CacheStatistics(size, capacity, hits + other.hits, misses + other.misses, loadSuccesses + other.loadSuccesses, loadFailures + other.loadFailures,
+			totalLoadTime + other.totalLoadTime, removals, loadTimes.plus(other.loadTimes));
+	}
+
+	@Override public String toString() {
+		return String.format("size=%d, capacity=%d, hits=%d, misses=%d, hitRatio=%.3f, loads=%d, loadFailures=%d, evictions=%s, loadTimes=[%s]",
+			size, capacity, hits, misses, hitRatio(), loadCount(), loadFailures, evictionsByCause(), loadTimes);
+	}
+
+	private Map<RemovalCause, Long> evictionsByCause() {
+		Map<RemovalCause, Long> evictions = new EnumMap<>(RemovalCause.class);
+		for (RemovalCause cause : RemovalCause.values()) {
+			if (cause.isEviction())
+				evictions.put(cause, removals[cause.ordinal()]);
+		}
+		return evictions;
+	}
 }
@@ -0,0 +1,96 @@
+package org.strangeforest.cache;
+
+import java.util.concurrent.atomic.*;
+
+import org.strangeforest.util.*;
+
+/**
+ * <p><tt>CacheStatsCounter</tt> accumulates cache statistics in striped <tt>LongAdder</tt> counters,
+ * so that it can be updated concurrently without contention. Recording hits and misses does not allocate.</p>
+ */
+public class CacheStatsCounter {
+
+	private final LongAdder hits;
+	private final LongAdder misses;
+	private final LongAdder loadSuccesses;
+	private final LongAdder loadFailures;
+	private final LongAdder totalLoadTime;
+	private final LongAdder[] removals;
+	private final LatencyHistogram loadTimes;
+
+	public CacheStatsCounter() {
+		super();
+		hits = new LongAdder();
+		misses = new LongAdder();
+		loadSuccesses = new LongAdder();
+		loadFailures = new LongAdder();
+		totalLoadTime = new LongAdder();
+		removals = new LongAdder[RemovalCause.values().length];
+		for (int i = 0; i < removals.length; i++)
+			removals[i] = new LongAdder();
+		loadTimes = new LatencyHistogram();
+	}
+
+	public void recordHit() {
+		hits.increment();
+	}
+
+	public void recordMiss() {
+		misses.increment();
+	}
+
+	/**
+	 * Records successful load of a value.
+	 * @param loadTime load time in nanoseconds.
+	 */
+	public void recordLoadSuccess(long loadTime) {
+		loadSuccesses.increment();
+		recordLoadTime(loadTime);
+	}
+
+	/**
+	 * Records failed load of a value.
+	 * @param loadTime load time in nanoseconds.
+	 */
+	public void recordLoadFailure(long loadTime) {
+		loadFailures.increment();
+		recordLoadTime(loadTime);
+	}
+
+	private void recordLoadTime(long loadTime) {
+		totalLoadTime.add(loadTime);
+		loadTimes.record(loadTime);
+	}
+
+	public void recordRemoval(RemovalCause cause) {
+		removals[cause.ordinal()].increment();
+	}
+
+	public void recordRemovals(RemovalCause cause, int count) {
+		removals[cause.ordinal()].add(count);
+	}
+
+	public void reset() {
+		hits.reset();
+		misses.reset();
+		loadSuccesses.reset();
+		loadFailures.reset();
+		totalLoadTime.reset();
+		for (LongAdder removal : removals)
+			removal.reset();
+		loadTimes.reset();
+	}
+
+	/**
+	 * Returns statistics snapshot.
+	 * @param size cache size.
+	 * @param capacity cache capacity.
+	 * @return cache statistics.
+	 */
+	public CacheStatistics snapshot(int size, int capacity) {
+		long[] removalCounts = new long[removals.length];
+		for (int i = 0; i < removals.length; i++)
+			removalCounts[i] = removals[i].sum();
+		return new CacheStatistics(size, capacity, hits.sum(), misses.sum(), loadSuccesses.sum(), loadFailures.sum(), totalLoadTime.sum(), removalCounts, loadTimes.snapshot());
+	}
+}
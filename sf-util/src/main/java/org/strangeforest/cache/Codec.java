@@ -0,0 +1,23 @@
+package org.strangeforest.cache;
+
+/**
+ * <p><tt>Codec</tt> converts cached values to and from their serialized form for caches that store values outside of the Java heap.</p>
+ * <p>Default implementation is <tt>SerializationCodec</tt> that uses Java serialization.
+ * Custom codecs writing values in compact binary form are usually much faster and produce smaller output.</p>
+ */
+public interface Codec<T> {
+
+	/**
+	 * Encodes value into bytes.
+	 * @param value value to encode.
+	 * @return encoded value.
+	 */
+	byte[] encode(T value);
+
+	/**
+	 * Decodes value from bytes.
+	 * @param bytes encoded value.
+	 * @return decoded value.
+	 */
+	T decode(byte[] bytes);
+}
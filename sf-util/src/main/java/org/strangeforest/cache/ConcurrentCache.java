@@ -0,0 +1,617 @@
+package org.strangeforest.cache;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import java.util.function.*;
+
+import org.strangeforest.concurrent.*;
+import org.strangeforest.util.*;
+
+/**
+ * <p><tt>ConcurrentCache</tt> is thread-safe <tt>Cache</tt> implementation based on <tt>ConcurrentHashMap</tt>
+ * that uses LRU algorithm to choose what entry to remove when capacity limit is reached.</p>
+ * <p>Reads never block. Instead of relinking LRU list on every hit, accesses are recorded in striped lossy read buffers
+ * and applied to the LRU list in batches by the thread that manages to acquire eviction lock. Writes acquire eviction lock,
+ * so capacity limit is enforced after each write, while LRU order is approximate.</p>
+ * <p>Expired entries are not returned by reads, but they are removed only by <tt>removeExpiredEntries</tt> or by background expiry,
+ * which visit only expiring entries by means of <tt>TimerWheel</tt> guarded by eviction lock.
+ * <tt>CacheListener</tt>s are never notified from within reads.</p>
+ * <p>This class <i>is</i> thread-safe. <tt>null</tt> keys are not supported.</p>
+ */
+public class ConcurrentCache<K, V> extends AbstractMap<K, V> implements Cache<K, V> {
+
+	private final ConcurrentMap<K, Node<K, V>> map;
+	private final Node<K, V> header;
+	private final Lock evictionLock;
+	private final ReadBuffer<K, V>[] readBuffers;
+	private final TimerWheel<Node<K, V>> expiryWheel;
+	private final FixedRateScheduler checkExpiryScheduler;
+	private volatile int capacity;
+	private volatile long maximumWeight;
+	private volatile long weight; // Guarded by eviction lock
+	private volatile Weigher<? super K, ? super V> weigher;
+	private volatile long expiryPeriod;
+	private final CacheStatsCounter stats;
+	private final List<CacheListener<K, V>> listeners;
+
+	private static final int READ_BUFFERS = readBuffers();
+	private static final int READ_BUFFER_SIZE = 32;
+	private static final int READ_BUFFER_MASK = READ_BUFFER_SIZE - 1;
+	private static final int READ_BUFFER_DRAIN_THRESHOLD = READ_BUFFER_SIZE / 2;
+
+	/**
+	 * Creates <tt>ConcurrentCache</tt> with unlimited capacity.
+	 */
+	public ConcurrentCache() {
+		this(0);
+	}
+
+	/**
+	 * Creates <tt>ConcurrentCache</tt> with specified capacity.
+	 * @param capacity cache capacity. Capacity of 0 means unlimited capacity.
+	 */
+	public ConcurrentCache(int capacity) {
+		super();
+		if (capacity < 0)
+			throw new IllegalArgumentException("Invalid capacity: " + capacity);
+		this.capacity = capacity;
+		map = (capacity > 0) ? new ConcurrentHashMap<>(capacity*3/2) : new ConcurrentHashMap<>();
+		header = new Node<>(null, null);
+		header.prev = header.next = header;
+		evictionLock = new ReentrantLock();
+		readBuffers = new ReadBuffer[READ_BUFFERS];
+		for (int i = 0; i < READ_BUFFERS; i++)
+			readBuffers[i] = new ReadBuffer<>();
+		expiryWheel = new TimerWheel<>();
+		weigher = Weigher.singleton();
+		stats = new CacheStatsCounter();
+		listeners = new CopyOnWriteArrayList<>();
+		checkExpiryScheduler = new FixedRateScheduler(this::removeExpiredEntries, 0L);
+	}
+
+	private static int readBuffers() {
+		int buffers = 1;
+		int processors = Runtime.getRuntime().availableProcessors();
+		while (buffers < processors && buffers < 64)
+			buffers <<= 1;
+		return buffers;
+	}
+
+
+	// Cache interface
+
+	@Override public int getCapacity() {
+		return capacity;
+	}
+
+	@Override public void setCapacity(int capacity) {
+		if (capacity < 0)
+			throw new IllegalArgumentException("Invalid capacity: " + capacity);
+		this.capacity = capacity;
+		removeExpiredEntries();
+		maintain(null, null);
+	}
+
+	@Override public long getMaximumWeight() {
+		return maximumWeight;
+	}
+
+	@Override public void setMaximumWeight(long maximumWeight) {
+		if (maximumWeight < 0L)
+			throw new IllegalArgumentException("Invalid maximum weight: " + maximumWeight);
+		this.maximumWeight = maximumWeight;
+		removeExpiredEntries();
+		maintain(null, null);
+	}
+
+	@Override public long getWeight() {
+		return weight;
+	}
+
+	@Override public Weigher<? super K, ? super V> getWeigher() {
+		return weigher;
+	}
+
+	@Override public void setWeigher(Weigher<? super K, ? super V> weigher) {
+		Objects.requireNonNull(weigher);
+		evictionLock.lock();
+		try {
+			this.weigher = weigher;
+			for (Node<K, V> node = header.next; node != header; node = node.next)
+				reweigh(node);
+		}
+		finally {
+			evictionLock.unlock();
+		}
+		maintain(null, null);
+	}
+
+	@Override public long getExpiryPeriod() {
+		return expiryPeriod;
+	}
+
+	@Override public void setExpiryPeriod(long expiryPeriod) {
+		evictionLock.lock();
+		try {
+			if (expiryPeriod != this.expiryPeriod) {
+				this.expiryPeriod = expiryPeriod;
+				for (Node<K, V> node : map.values()) {
+					if (node.linked)
+						scheduleExpiry(node);
+				}
+			}
+		}
+		finally {
+			evictionLock.unlock();
+		}
+	}
+
+	@Override public long getCheckExpiryPeriod() {
+		return checkExpiryScheduler.getPeriod();
+	}
+
+	@Override public void setCheckExpiryPeriod(long checkExpiryPeriod) {
+		checkExpiryScheduler.setPeriod(checkExpiryPeriod);
+	}
+
+	@Override public ScheduledExecutorService getCheckExpiryExecutor() {
+		return checkExpiryScheduler.getExecutor();
+	}
+
+	@Override public void setCheckExpiryExecutor(ScheduledExecutorService executor) {
+		checkExpiryScheduler.setExecutor(executor);
+	}
+
+	@Override public void startBackgroundExpiry() {
+		checkExpiryScheduler.schedule();
+	}
+
+	@Override public void stopBackgroundExpiry() {
+		checkExpiryScheduler.shutdown();
+	}
+
+	@Override public void removeExpiredEntries() {
+		List<Node<K, V>> expired = new ArrayList<>();
+		evictionLock.lock();
+		try {
+			if (!expiryWheel.isEmpty()) {
+				expiryWheel.advance(System.currentTimeMillis(), node -> {
+					if (node.isValid(expiryPeriod))
+						scheduleExpiry(node);
+					else if (retire(node)) {
+						unlink(node);
+						expired.add(node);
+					}
+				});
+			}
+		}
+		finally {
+			evictionLock.unlock();
+		}
+		notifyListeners(expired, RemovalCause.EXPIRED);
+	}
+
+	@Override public CacheStatistics getStatistics() {
+		return stats.snapshot(map.size(), capacity);
+	}
+
+	@Override public void resetStatistics() {
+		stats.reset();
+	}
+
+	@Override public void addCacheListener(CacheListener<K, V> listener) {
+		listeners.add(listener);
+	}
+
+	@Override public void removeCacheListener(CacheListener<K, V> listener) {
+		listeners.remove(listener);
+	}
+
+
+	// Map interface
+
+	@Override public V get(Object key) {
+		Node<K, V> node = map.get(key);
+		if (node != null && node.isValid(expiryPeriod)) {
+			V value = node.value;
+			recordAccess(node);
+			stats.recordHit();
+			return value;
+		}
+		stats.recordMiss();
+		return null;
+	}
+
+	/**
+	 * Puts new entry in the cache. If cache has reached its capacity limit, least recently used entry is removed.
+	 * @param key key
+	 * @param value value
+	 * @return previous value for specified key
+	 */
+	@Override public V put(K key, V value) {
+		return put(key, value, 0L);
+	}
+
+	@Override public V put(K key, V value, long ttl) {
+		if (ttl < 0L)
+			throw new IllegalArgumentException("Invalid time-to-live: " + ttl);
+		Node<K, V> node = new Node<>(key, value);
+		node.ttl = ttl;
+		while (true) {
+			Node<K, V> prior = map.putIfAbsent(key, node);
+			if (prior == null) {
+				maintain(node, null);
+				return null;
+			}
+			V old = null;
+			boolean updated = false;
+			synchronized (prior) {
+				if (prior.alive) {
+					old = prior.value;
+					prior.value = value;
+					prior.ttl = ttl;
+					prior.touchPut();
+					recordAccess(prior);
+					updated = true;
+				}
+			}
+			if (updated) {
+				// Cleared expiry is descheduled lazily, when the old expiry time is reached
+				if (prior.expiryTime(expiryPeriod) != 0L || weigher != Weigher.SINGLETON)
+					afterUpdate(prior);
+				return old;
+			}
+			// Prior node has been removed concurrently, retry
+		}
+	}
+
+	@Override public V remove(Object key) {
+		Node<K, V> node = map.get(key);
+		if (node != null && retire(node)) {
+			maintain(null, Collections.singletonList(node));
+			return node.value;
+		}
+		else
+			return null;
+	}
+
+	@Override public void clear() {
+		evictionLock.lock();
+		try {
+			drainReadBuffers();
+			// Only nodes retired here are unlinked, nodes added or removed concurrently are linked or unlinked by their own maintenance
+			for (Node<K, V> node : map.values()) {
+				if (retire(node))
+					unlink(node);
+			}
+		}
+		finally {
+			evictionLock.unlock();
+		}
+	}
+
+	@Override public int size() {
+		return map.size();
+	}
+
+	@Override public boolean isEmpty() {
+		return map.isEmpty();
+	}
+
+	@Override public boolean containsKey(Object key) {
+		Node<K, V> node = map.get(key);
+		return node != null && node.isValid(expiryPeriod);
+	}
+
+	@Override public boolean containsValue(Object value) {
+		long expiryPeriod = this.expiryPeriod;
+		for (Node<K, V> node : map.values()) {
+			if (node.isValid(expiryPeriod) && Objects.equals(node.value, value))
+				return true;
+		}
+		return false;
+	}
+
+	@Override public void putAll(Map<? extends K, ? extends V> m) {
+		for (Map.Entry<? extends K, ? extends V> e : m.entrySet())
+			put(e.getKey(), e.getValue());
+	}
+
+
+	// Maintenance
+
+	private void recordAccess(Node<K, V> node) {
+		ReadBuffer<K, V> buffer = readBuffers[bufferIndex()];
+		if (buffer.offer(node) && evictionLock.tryLock()) {
+			try {
+				drainReadBuffers();
+			}
+			finally {
+				evictionLock.unlock();
+			}
+		}
+	}
+
+	private static int bufferIndex() {
+		long id = Thread.currentThread().getId();
+		return (int)((id * 0x9E3779B97F4A7C15L) >>> 32) & (READ_BUFFERS - 1);
+	}
+
+	private boolean retire(Node<K, V> node) {
+		synchronized (node) {
+			if (node.alive) {
+				node.alive = false;
+				map.remove(node.key, node);
+				return true;
+			}
+			else
+				return false;
+		}
+	}
+
+	private void maintain(Node<K, V> added, List<Node<K, V>> removed) {
+		List<Node<K, V>> evicted = null;
+		evictionLock.lock();
+		try {
+			drainReadBuffers();
+			if (removed != null) {
+				for (Node<K, V> node : removed)
+					unlink(node);
+			}
+			if (added != null && added.alive) {
+				added.insertAfter(header);
+				added.linked = true;
+				scheduleExpiry(added);
+				reweigh(added);
+			}
+			evicted = evictEntries();
+		}
+		finally {
+			evictionLock.unlock();
+		}
+		// Listeners are notified outside of eviction lock
+		if (removed != null)
+			notifyListeners(removed, RemovalCause.EXPLICIT);
+		if (evicted != null)
+			notifyListeners(evicted, RemovalCause.SIZE);
+	}
+
+	private void afterUpdate(Node<K, V> node) {
+		List<Node<K, V>> evicted;
+		evictionLock.lock();
+		try {
+			drainReadBuffers();
+			if (node.linked && node.alive) {
+				scheduleExpiry(node);
+				reweigh(node);
+			}
+			evicted = evictEntries();
+		}
+		finally {
+			evictionLock.unlock();
+		}
+		if (evicted != null)
+			notifyListeners(evicted, RemovalCause.SIZE);
+	}
+
+	private List<Node<K, V>> evictEntries() {
+		List<Node<K, V>> evicted = null;
+		int capacity = this.capacity;
+		long maximumWeight = this.maximumWeight;
+		while (((capacity > 0 && map.size() > capacity) || (maximumWeight > 0L && weight > maximumWeight)) && header.prev != header) {
+			Node<K, V> node = header.prev;
+			unlink(node);
+			if (retire(node)) {
+				if (evicted == null)
+					evicted = new ArrayList<>();
+				evicted.add(node);
+			}
+		}
+		return evicted;
+	}
+
+	private void reweigh(Node<K, V> node) {
+		int nodeWeight = weigher.weigh(node.key, node.value);
+		if (nodeWeight < 0)
+			throw new IllegalArgumentException("Invalid weight: " + nodeWeight);
+		weight += nodeWeight - node.weight;
+		node.weight = nodeWeight;
+	}
+
+	private void drainReadBuffers() {
+		for (ReadBuffer<K, V> buffer : readBuffers)
+			buffer.drain(this::onAccess);
+	}
+
+	private void onAccess(Node<K, V> node) {
+		if (node.linked && node.alive && header.next != node) {
+			node.remove();
+			node.insertAfter(header);
+		}
+	}
+
+	private void unlink(Node<K, V> node) {
+		if (node.linked) {
+			node.remove();
+			node.linked = false;
+			expiryWheel.deschedule(node);
+			weight -= node.weight;
+			node.weight = 0;
+		}
+	}
+
+	private void scheduleExpiry(Node<K, V> node) {
+		expiryWheel.schedule(node, node.expiryTime(expiryPeriod));
+	}
+
+
+
+	private void notifyListeners(List<Node<K, V>> nodes, RemovalCause cause) {
+		stats.recordRemovals(cause, nodes.size());
+		if (!listeners.isEmpty()) {
+			for (Node<K, V> node : nodes) {
+				MapEntry<K, V> entry = new MapEntry<>(node.key, node.value);
+				for (CacheListener<K, V> listener : listeners)
+					listener.entryRemoved(entry, cause);
+			}
+		}
+	}
+
+
+	// Views
+
+	private transient Set<Map.Entry<K, V>> entries;
+
+	@Override public Set<Map.Entry<K, V>> entrySet() {
+		removeExpiredEntries();
+		if (entries == null)
+			entries = new AbstractSet<Map.Entry<K, V>>() {
+				@Override public int size() {
+					return map.size();
+				}
+				@Override public Iterator<Map.Entry<K, V>> iterator() {
+					return new EntriesIterator();
+				}
+			};
+		return entries;
+	}
+
+	private static final class Node<K, V> extends TimerWheel.Timer {
+
+		private final K key;
+		private volatile V value;
+		private volatile long lastPut;
+		private volatile long ttl;
+		private volatile boolean alive;
+		// Guarded by eviction lock
+		private Node<K, V> prev;
+		private Node<K, V> next;
+		private boolean linked;
+		private int weight;
+
+		private Node(K key, V value) {
+			super();
+			this.key = key;
+			this.value = value;
+			alive = true;
+			touchPut();
+		}
+
+		private void remove() {
+			prev.next = next;
+			next.prev = prev;
+		}
+
+		private void insertAfter(Node<K, V> node) {
+			prev = node;
+			next = node.next;
+			node.next = this;
+			next.prev = this;
+		}
+
+		private void touchPut() {
+			lastPut = System.currentTimeMillis();
+		}
+
+		private boolean isValid(long expiryPeriod) {
+			long expiryTime = expiryTime(expiryPeriod);
+			return expiryTime == 0L || System.currentTimeMillis() <= expiryTime;
+		}
+
+		private long expiryTime(long expiryPeriod) {
+			long period = ttl != 0L ? ttl : expiryPeriod;
+			return period != 0L ? lastPut + period : 0L;
+		}
+	}
+
+	/**
+	 * Lossy ring buffer of accessed nodes. Offers are lock-free, draining is guarded by eviction lock.
+	 * When buffer is full, accesses are dropped, as LRU order is an approximation anyway.
+	 */
+	private static final class ReadBuffer<K, V> {
+
+		private final AtomicReferenceArray<Node<K, V>> buffer = new AtomicReferenceArray<>(READ_BUFFER_SIZE);
+		private final AtomicLong writeCount = new AtomicLong();
+		private volatile long readCount;
+
+		private boolean offer(Node<K, V> node) {
+			long writes = writeCount.get();
+			long pending = writes - readCount;
+			if (pending >= READ_BUFFER_SIZE)
+				return true;
+			if (writeCount.compareAndSet(writes, writes + 1))
+				buffer.lazySet((int)(writes & READ_BUFFER_MASK), node);
+			return pending + 1 >= READ_BUFFER_DRAIN_THRESHOLD;
+		}
+
+		private void drain(Consumer<Node<K, V>> consumer) {
+			long reads = readCount;
+			long writes = writeCount.get();
+			for (; reads < writes; reads++) {
+				int index = (int)(reads & READ_BUFFER_MASK);
+				Node<K, V> node = buffer.get(index);
+				if (node == null)
+					break;
+				buffer.lazySet(index, null);
+				consumer.accept(node);
+			}
+			readCount = reads;
+		}
+	}
+
+	private final class EntriesIterator implements Iterator<Map.Entry<K, V>> {
+
+		private final Iterator<Node<K, V>> nodes = map.values().iterator();
+		private Node<K, V> next, last;
+
+		private EntriesIterator() {
+			super();
+			advance();
+		}
+
+		private void advance() {
+			next = null;
+			long expiryPeriod = ConcurrentCache.this.expiryPeriod;
+			while (nodes.hasNext()) {
+				Node<K, V> node = nodes.next();
+				if (node.isValid(expiryPeriod)) {
+					next = node;
+					break;
+				}
+			}
+		}
+
+		@Override public boolean hasNext() {
+			return next != null;
+		}
+
+		@Override public Map.Entry<K, V> next() {
+			if (next == null)
+				throw new NoSuchElementException();
+			last = next;
+			advance();
+			return new Entry(last.key, last.value);
+		}
+
+		@Override public void remove() {
+			if (last == null)
+				throw new IllegalStateException();
+			ConcurrentCache.this.remove(last.key);
+			last = null;
+		}
+	}
+
+	private final class Entry extends MapEntry<K, V> {
+
+		private Entry(K key, V value) {
+			super(key, value);
+		}
+
+		@Override public V setValue(V value) {
+			super.setValue(value);
+			return put(key, value);
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package org.strangeforest.cache;
+
+/**
+ * <p><tt>FrequencySketch</tt> is a probabilistic estimator of element access frequency (count-min sketch)
+ * with 4-bit counters packed into <tt>long</tt>s.</p>
+ * <p>Sketch is periodically aged by halving all counters after sample size of increments is reached,
+ * so that frequencies of elements that are not accessed any more gradually decay.</p>
+ * <p>This class is not thread-safe.</p>
+ */
+public class FrequencySketch {
+
+	private long[] table;
+	private int tableMask;
+	private int sampleSize;
+	private int size;
+
+	private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+	private static final long RESET_MASK = 0x7777777777777777L;
+	private static final long ONE_MASK = 0x1111111111111111L;
+	private static final int MAX_FREQUENCY = 15;
+
+	/**
+	 * Creates <tt>FrequencySketch</tt> sized for the specified number of elements.
+	 * @param capacity expected number of distinct elements to track (ie. cache capacity).
+	 */
+	public FrequencySketch(int capacity) {
+		super();
+		ensureCapacity(capacity);
+	}
+
+	/**
+	 * Resizes sketch for the specified number of elements. All frequencies are lost if the sketch is resized.
+	 * @param capacity expected number of distinct elements to track.
+	 */
+	public void ensureCapacity(int capacity) {
+		int length = Integer.highestOneBit(Math.max(Math.min(capacity, 1 << 30) - 1, 4)) << 1;
+		if (table == null || table.length != length) {
+			table = new long[length];
+			tableMask = length - 1;
+			sampleSize = 10 * Math.max(capacity, 1);
+			size = 0;
+		}
+	}
+
+	/**
+	 * Returns estimated number of occurrences of an element, up to the maximum of 15.
+	 * @param e element.
+	 * @return estimated frequency.
+	 */
+	public int frequency(Object e) {
+		int hash = spread(e != null ? e.hashCode() : 0);
+		int start = (hash & 3) << 2;
+		int frequency = MAX_FREQUENCY;
+		for (int i = 0; i < 4; i++) {
+			int index = indexOf(hash, i);
+			int count = (int)((table[index] >>> ((start + i) << 2)) & 0xfL);
+			frequency = Math.min(frequency, count);
+		}
+		return frequency;
+	}
+
+	/**
+	 * Increments estimated frequency of an element. If sample size is reached, all frequencies are halved.
+	 * @param e element.
+	 */
+	public void increment(Object e) {
+		int hash = spread(e != null ? e.hashCode() : 0);
+		int start = (hash & 3) << 2;
+		boolean added = false;
+		for (int i = 0; i < 4; i++)
+			added |= incrementAt(indexOf(hash, i), start + i);
+		if (added && ++size >= sampleSize)
+			reset();
+	}
+
+	private boolean incrementAt(int i, int j) {
+		int offset = j << 2;
+		long mask = 0xfL << offset;
+		if ((table[i] & mask) != mask) {
+			table[i] += 1L << offset;
+			return true;
+		}
+		return false;
+	}
+
+	private void reset() {
+		int odd = 0;
+		for (int i = 0; i < table.length; i++) {
+			odd += Long.bitCount(table[i] & ONE_MASK);
+			table[i] = (table[i] >>> 1) & RESET_MASK;
+		}
+		size = (size - (odd >>> 2)) >>> 1;
+	}
+
+	private int indexOf(int item, int i) {
+		long hash = (item + SEEDS[i]) * SEEDS[i];
+		hash += (hash >>> 32);
+		return ((int)hash) & tableMask;
+	}
+
+	private static int spread(int x) {
+		x = ((x >>> 16) ^ x) * 0x45d9f3b;
+		x = ((x >>> 16) ^ x) * 0x45d9f3b;
+		return (x >>> 16) ^ x;
+	}
+}
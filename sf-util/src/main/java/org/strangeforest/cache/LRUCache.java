@@ -13,11 +13,14 @@ import org.strangeforest.util.*;
 public class LRUCache<K, V> extends AbstractMap<K, V> implements Cache<K, V> {
 
 	private final Map<K, LinkedValue<K, V>> map;
+	private final TimerWheel<LinkedValue<K, V>> expiryWheel;
 	private final FixedRateScheduler checkExpiryScheduler;
 	private int capacity;
+	private long maximumWeight;
+	private long weight;
+	private Weigher<? super K, ? super V> weigher;
 	private long expiryPeriod;
-	private long gets;
-	private long hits;
+	private final CacheStatsCounter stats;
 	private List<CacheListener<K, V>> listeners;
 	protected final LinkedValue<K, V> header;
 
@@ -56,9 +59,12 @@ public class LRUCache<K, V> extends AbstractMap<K, V> implements Cache<K, V> {
 		if (capacity < 0)
 			throw new IllegalArgumentException("Invalid capacity: " + capacity);
 		this.capacity = capacity;
+		weigher = Weigher.singleton();
+		stats = new CacheStatsCounter();
 
 		header = new LinkedValue<>(null, null);
 		initHeader();
+		expiryWheel = new TimerWheel<>();
 
 		if (map != null) {
 			this.map = (Map<K, LinkedValue<K, V>>)map;
@@ -67,13 +73,14 @@ public class LRUCache<K, V> extends AbstractMap<K, V> implements Cache<K, V> {
 				LinkedValue<K, V> lv = new LinkedValue<>(key, (V)e.getValue());
 				lv.insertAfter(header);
 				e.setValue(lv);
+				addWeight(lv);
 			}
 			ensureCapacity();
 		}
 		else
 			this.map = (capacity > 0) ? new HashMap<>(capacity*3/2) : new HashMap<>();
 
-		checkExpiryScheduler = new FixedRateScheduler(this::removeExpiredEntries, 0L, "Cache Expirer");
+		checkExpiryScheduler = new FixedRateScheduler(this::removeExpiredEntries, 0L);
 	}
 
 	private void initHeader() {
@@ -93,12 +100,44 @@ public class LRUCache<K, V> extends AbstractMap<K, V> implements Cache<K, V> {
 		ensureCapacity();
 	}
 
+	@Override public long getMaximumWeight() {
+		return maximumWeight;
+	}
+
+	@Override public void setMaximumWeight(long maximumWeight) {
+		if (maximumWeight < 0L)
+			throw new IllegalArgumentException("Invalid maximum weight: " + maximumWeight);
+		this.maximumWeight = maximumWeight;
+		removeExpiredEntries();
+		ensureCapacity();
+	}
+
+	@Override public long getWeight() {
+		return weight;
+	}
+
+	@Override public Weigher<? super K, ? super V> getWeigher() {
+		return weigher;
+	}
+
+	@Override public void setWeigher(Weigher<? super K, ? super V> weigher) {
+		this.weigher = Objects.requireNonNull(weigher);
+		weight = 0L;
+		for (LinkedValue<K, V> lv : map.values())
+			addWeight(lv);
+		ensureCapacity();
+	}
+
 	@Override public long getExpiryPeriod() {
 		return expiryPeriod;
 	}
 
 	@Override public void setExpiryPeriod(long expiryPeriod) {
-		this.expiryPeriod = expiryPeriod;
+		if (expiryPeriod != this.expiryPeriod) {
+			this.expiryPeriod = expiryPeriod;
+			for (LinkedValue<K, V> lv : map.values())
+				scheduleExpiry(lv);
+		}
 	}
 
 	@Override public long getCheckExpiryPeriod() {
@@ -126,22 +165,22 @@ public class LRUCache<K, V> extends AbstractMap<K, V> implements Cache<K, V> {
 	}
 
 	@Override public void removeExpiredEntries() {
-		if (expiryPeriod != 0L) {
-			long now = System.currentTimeMillis();
-			for (LinkedValuesIterator lvs  = new LinkedValuesIterator(); lvs.hasNext(); ) {
-				LinkedValue<K, V> lv = lvs.next();
-				if (now > lv.lastPut + expiryPeriod)
-					lvs.remove();
-			}
+		if (!expiryWheel.isEmpty()) {
+			expiryWheel.advance(System.currentTimeMillis(), lv -> {
+				if (lv.isValid(expiryPeriod))
+					scheduleExpiry(lv);
+				else
+					doRemove(lv, RemovalCause.EXPIRED);
+			});
 		}
 	}
 
 	@Override public CacheStatistics getStatistics() {
-		return new CacheStatistics(map.size(), capacity, gets, hits);
+		return stats.snapshot(map.size(), capacity);
 	}
 
 	@Override public void resetStatistics() {
-		gets = hits = 0L;
+		stats.reset();
 	}
 
 	@Override public void addCacheListener(CacheListener<K, V> listener) {
@@ -159,41 +198,54 @@ public class LRUCache<K, V> extends AbstractMap<K, V> implements Cache<K, V> {
 	// Map interface
 
 	@Override public V get(Object key) {
-		gets++;
 		LinkedValue<K, V> lv = map.get(key);
 		if (lv != null) {
 			if (lv.isValid(expiryPeriod)) {
 				touch(lv);
-				hits++;
+				stats.recordHit();
 				return lv.value;
 			}
 			else
-				doRemove(lv);
+				doRemove(lv, RemovalCause.EXPIRED);
 		}
+		stats.recordMiss();
 		return null;
 	}
 
 	/**
-	 * Puts new entry in the cache. If cache has reached its capacity limit, last entry is removed.
+	 * Puts new entry in the cache. If cache has reached its capacity or maximum weight limit, last entries are removed.
 	 * @param key key
 	 * @param value value
 	 * @return previous value for specified key
 	 */
 	@Override public V put(K key, V value) {
+		return put(key, value, 0L);
+	}
+
+	@Override public V put(K key, V value, long ttl) {
+		if (ttl < 0L)
+			throw new IllegalArgumentException("Invalid time-to-live: " + ttl);
 		LinkedValue<K, V> lv = map.get(key);
 		if (lv != null) {
 			touch(lv);
 			lv.touchPut();
+			lv.ttl = ttl;
+			scheduleExpiry(lv);
 			V old = lv.value;
 			lv.value = value;
+			weight -= lv.weight;
+			addWeight(lv);
+			ensureCapacity();
 			return old;
 		}
 		else {
 			lv = new LinkedValue<>(key, value);
+			lv.ttl = ttl;
 			lv.insertAfter(header);
 			map.put(key, lv);
-			if (capacity > 0 && map.size() > capacity)
-				removeLastEntry();
+			scheduleExpiry(lv);
+			addWeight(lv);
+			ensureCapacity();
 			return null;
 		}
 	}
@@ -201,7 +253,7 @@ public class LRUCache<K, V> extends AbstractMap<K, V> implements Cache<K, V> {
 	@Override public V remove(Object key) {
 		LinkedValue<K, V> lv = map.get(key);
 		if (lv != null) {
-			doRemove(lv);
+			doRemove(lv, RemovalCause.EXPLICIT);
 			return lv.value;
 		}
 		else
@@ -211,6 +263,8 @@ public class LRUCache<K, V> extends AbstractMap<K, V> implements Cache<K, V> {
 	@Override public void clear() {
 		map.clear();
 		initHeader();
+		expiryWheel.clear();
+		weight = 0L;
 	}
 
 	@Override public int size() {
@@ -229,7 +283,7 @@ public class LRUCache<K, V> extends AbstractMap<K, V> implements Cache<K, V> {
 				if (lv.isValid(expiryPeriod))
 					return true;
 				else
-					doRemove(lv);
+					doRemove(lv, RemovalCause.EXPIRED);
 			}
 		}
 		return false;
@@ -247,7 +301,14 @@ public class LRUCache<K, V> extends AbstractMap<K, V> implements Cache<K, V> {
 			K key = e.getKey();
 			LinkedValue<K, V> lv = new LinkedValue<>(key, e.getValue());
 			lv.insertAfter(header);
-			map.put(key, lv);
+			LinkedValue<K, V> old = map.put(key, lv);
+			if (old != null) {
+				old.remove();
+				expiryWheel.deschedule(old);
+				weight -= old.weight;
+			}
+			scheduleExpiry(lv);
+			addWeight(lv);
 		}
 		removeExpiredEntries();
 		ensureCapacity();
@@ -258,18 +319,33 @@ public class LRUCache<K, V> extends AbstractMap<K, V> implements Cache<K, V> {
 		lv.insertAfter(header);
 	}
 
-	private void doRemove(LinkedValue<K, V> lv) {
+	private void scheduleExpiry(LinkedValue<K, V> lv) {
+		expiryWheel.schedule(lv, lv.expiryTime(expiryPeriod));
+	}
+
+	private void addWeight(LinkedValue<K, V> lv) {
+		int weight = weigher.weigh(lv.key, lv.value);
+		if (weight < 0)
+			throw new IllegalArgumentException("Invalid weight: " + weight);
+		lv.weight = weight;
+		this.weight += weight;
+	}
+
+	private void doRemove(LinkedValue<K, V> lv, RemovalCause cause) {
 		lv.remove();
+		expiryWheel.deschedule(lv);
 		map.remove(lv.key);
+		weight -= lv.weight;
+		stats.recordRemoval(cause);
 		if (listeners != null) {
 			MapEntry<K, V> entry = new MapEntry<>(lv.key, lv.value);
 			for (CacheListener<K, V> listener : listeners)
-				listener.entryRemoved(entry);
+				listener.entryRemoved(entry, cause);
 		}
 	}
 
 	private void removeLastEntry() {
-		doRemove(header.prev);
+		doRemove(header.prev, RemovalCause.SIZE);
 	}
 
 	private void ensureCapacity() {
@@ -277,6 +353,10 @@ public class LRUCache<K, V> extends AbstractMap<K, V> implements Cache<K, V> {
 			while (map.size() > capacity)
 				removeLastEntry();
 		}
+		if (maximumWeight > 0L) {
+			while (weight > maximumWeight && header.prev != header)
+				removeLastEntry();
+		}
 	}
 
 	private transient Set<K> keys;
@@ -327,13 +407,15 @@ public class LRUCache<K, V> extends AbstractMap<K, V> implements Cache<K, V> {
 		return entries;
 	}
 
-	protected static final class LinkedValue<K, V> {
+	protected static final class LinkedValue<K, V> extends TimerWheel.Timer {
 
 		protected final K key;
 		protected V value;
 		protected LinkedValue<K, V> prev;
 		protected LinkedValue<K, V> next;
 		private long lastPut;
+		private long ttl;
+		private int weight;
 
 		public LinkedValue(K key, V value) {
 			super();
@@ -378,7 +460,13 @@ public class LRUCache<K, V> extends AbstractMap<K, V> implements Cache<K, V> {
 		}
 
 		public boolean isValid(long expiryPeriod) {
-			return expiryPeriod == 0L || System.currentTimeMillis() <= lastPut + expiryPeriod;
+			long expiryTime = expiryTime(expiryPeriod);
+			return expiryTime == 0L || System.currentTimeMillis() <= expiryTime;
+		}
+
+		private long expiryTime(long expiryPeriod) {
+			long period = ttl != 0L ? ttl : expiryPeriod;
+			return period != 0L ? lastPut + period : 0L;
 		}
 	}
 
@@ -398,7 +486,7 @@ public class LRUCache<K, V> extends AbstractMap<K, V> implements Cache<K, V> {
 		@Override public void remove() {
 			if (prev == null)
 				throw new IllegalStateException();
-			doRemove(prev);
+			doRemove(prev, RemovalCause.EXPLICIT);
 			prev = null;
 		}
 
@@ -430,12 +518,6 @@ public class LRUCache<K, V> extends AbstractMap<K, V> implements Cache<K, V> {
 		}
 	}
 
-	private class LinkedValuesIterator extends CacheIterator<LinkedValue<K, V>> {
-		@Override public LinkedValue<K, V> next() {
-			return nextEntry();
-		}
-	}
-
 	private class Entry extends MapEntry<K, V> {
 
 		public Entry(K key, V value) {
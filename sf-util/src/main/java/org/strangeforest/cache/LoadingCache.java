@@ -0,0 +1,296 @@
+package org.strangeforest.cache;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+/**
+ * <p><tt>LoadingCache</tt> is asynchronous loading facade over a thread-safe <tt>Cache</tt> (<tt>ConcurrentCache</tt> by default).
+ * Missing values are loaded by <tt>AsyncCacheLoader</tt> and callers receive <tt>CompletableFuture</tt> instead of being blocked while the value is loaded.</p>
+ * <p>Loads are single-flight: concurrent requests for the key that is being loaded share the same load, while each caller gets its own dependent future,
+ * so that completing or cancelling it does not affect other callers. Failed and <tt>null</tt> loads are not cached.
+ * With refresh-after-write period set, a value older than that period is still returned immediately, while it is reloaded in the background,
+ * so that hot entries are replaced before they expire and callers never wait for them.
+ * If reload fails, the old value stays cached until it is refreshed or expires.</p>
+ * <p>Statistics of the underlying cache are extended with load statistics, where each <tt>loadAll</tt> call counts as a single load.</p>
+ * <p>Underlying cache must be thread-safe and must not require locking of entries, so <tt>LockableCache</tt> can not be used.</p>
+ */
+public class LoadingCache<K, V> {
+
+	private final Cache<K, V> cache;
+	private final AsyncCacheLoader<K, V> loader;
+	private final ConcurrentMap<K, CompletableFuture<V>> loading;
+	private final ConcurrentMap<K, Written<V>> writes;
+	private final CacheStatsCounter loadStats;
+	private volatile long refreshAfterWrite;
+
+	/**
+	 * Creates <tt>LoadingCache</tt> based on unlimited <tt>ConcurrentCache</tt>.
+	 * @param loader value loader.
+	 */
+	public LoadingCache(AsyncCacheLoader<K, V> loader) {
+		this(new ConcurrentCache<>(), loader);
+	}
+
+	/**
+	 * Creates <tt>LoadingCache</tt> based on specified cache.
+	 * @param cache thread-safe cache that holds loaded values.
+	 * @param loader value loader.
+	 */
+	public LoadingCache(Cache<K, V> cache, AsyncCacheLoader<K, V> loader) {
+		super();
+		this.cache = cache;
+		this.loader = Objects.requireNonNull(loader);
+		loading = new ConcurrentHashMap<>();
+		writes = new ConcurrentHashMap<>();
+		loadStats = new CacheStatsCounter();
+		cache.addCacheListener(entry -> writes.computeIfPresent(entry.getKey(), (key, written) -> written.value == entry.getValue() ? null : written));
+	}
+
+	public Cache<K, V> getCache() {
+		return cache;
+	}
+
+	public AsyncCacheLoader<K, V> getLoader() {
+		return loader;
+	}
+
+	public long getRefreshAfterWrite() {
+		return refreshAfterWrite;
+	}
+
+	/**
+	 * Sets refresh-after-write period. Should be shorter than cache expiry period for refresh to prevent callers from waiting for expired values.
+	 * @param refreshAfterWrite period in milliseconds after which cached value is reloaded in the background when accessed. Period of 0 means no refresh.
+	 */
+	public void setRefreshAfterWrite(long refreshAfterWrite) {
+		if (refreshAfterWrite < 0L)
+			throw new IllegalArgumentException("Invalid refresh after write: " + refreshAfterWrite);
+		this.refreshAfterWrite = refreshAfterWrite;
+	}
+
+	/**
+	 * Returns number of loads and reloads in progress.
+	 * @return number of loads in progress.
+	 */
+	public int getLoadingCount() {
+		return loading.size();
+	}
+
+	/**
+	 * Returns statistics of the underlying cache together with load statistics.
+	 * @return cache statistics.
+	 */
+	public CacheStatistics getStatistics() {
+		return cache.getStatistics().plus(loadStats.snapshot(0, 0));
+	}
+
+	public void resetStatistics() {
+		cache.resetStatistics();
+		loadStats.reset();
+	}
+
+	/**
+	 * Returns value for the key, loading it if it is not cached.
+	 * If cached value is due for refresh, it is returned and reloaded in the background.
+	 * @param key key.
+	 * @return future completed with the value, or with <tt>null</tt> if there is no value for the key.
+	 */
+	public CompletableFuture<V> getAsync(K key) {
+		V value = cache.get(key);
+		if (value != null) {
+			refreshIfStale(key, value);
+			return CompletableFuture.completedFuture(value);
+		}
+		CompletableFuture<V> future = loading.get(key);
+		return future != null ? future.thenApply(Function.identity()) : load(key, null);
+	}
+
+	/**
+	 * Returns value for the key, waiting for it to be loaded if it is not cached.
+	 * @param key key.
+	 * @return value, or <tt>null</tt> if there is no value for the key.
+	 * @throws CompletionException if loading of value fails.
+	 */
+	public V get(K key) {
+		return getAsync(key).join();
+	}
+
+	/**
+	 * Returns values for the keys. Values that are not cached and not already being loaded are loaded in a single <tt>AsyncCacheLoader.loadAll</tt> call.
+	 * @param keys keys.
+	 * @return future completed with the map of values. Keys with no value are left out of the map.
+	 */
+	public CompletableFuture<Map<K, V>> getAllAsync(Collection<? extends K> keys) {
+		Map<K, V> values = new HashMap<>();
+		Map<K, CompletableFuture<V>> futures = new HashMap<>();
+		Map<K, CompletableFuture<V>> promises = new HashMap<>();
+		for (K key : keys) {
+			if (values.containsKey(key) || futures.containsKey(key))
+				continue;
+			V value = cache.get(key);
+			if (value != null) {
+				refreshIfStale(key, value);
+				values.put(key, value);
+				continue;
+			}
+			CompletableFuture<V> promise = new CompletableFuture<>();
+			CompletableFuture<V> future = loading.putIfAbsent(key, promise);
+			if (future == null) {
+				promises.put(key, promise);
+				future = promise;
+			}
+			futures.put(key, future);
+		}
+		if (!promises.isEmpty())
+			loadAll(promises);
+		if (futures.isEmpty())
+			return CompletableFuture.completedFuture(values);
+		return CompletableFuture.allOf(futures.values().toArray(new CompletableFuture[futures.size()])).thenApply(ignored -> {
+			for (Map.Entry<K, CompletableFuture<V>> entry : futures.entrySet()) {
+				V value = entry.getValue().join();
+				if (value != null)
+					values.put(entry.getKey(), value);
+			}
+			return values;
+		});
+	}
+
+	/**
+	 * Reloads value for the key in the background, while the old value, if any, is still returned. If the key is already being loaded, that load is returned.
+	 * @param key key.
+	 * @return future completed with the new value.
+	 */
+	public CompletableFuture<V> refresh(K key) {
+		CompletableFuture<V> future = loading.get(key);
+		return future != null ? future.thenApply(Function.identity()) : load(key, cache.get(key));
+	}
+
+	/**
+	 * Returns cached value without loading it.
+	 * @param key key.
+	 * @return cached value or <tt>null</tt>.
+	 */
+	public V getIfPresent(K key) {
+		return cache.get(key);
+	}
+
+	/**
+	 * Puts value in the cache. Loads of the key that are in progress are discarded.
+	 * @param key key.
+	 * @param value value.
+	 */
+	public void put(K key, V value) {
+		loading.remove(key);
+		doPut(key, value);
+	}
+
+	/**
+	 * Removes value from the cache. Loads of the key that are in progress are discarded.
+	 * @param key key.
+	 */
+	public void invalidate(K key) {
+		loading.remove(key);
+		cache.remove(key);
+		writes.remove(key);
+	}
+
+	public void invalidateAll() {
+		loading.clear();
+		cache.clear();
+		writes.clear();
+	}
+
+	private void refreshIfStale(K key, V value) {
+		long refreshAfterWrite = this.refreshAfterWrite;
+		if (refreshAfterWrite > 0L) {
+			Written<V> written = writes.get(key);
+			if (written != null && written.value == value && System.currentTimeMillis() - written.time >= refreshAfterWrite && !loading.containsKey(key))
+				load(key, value);
+		}
+	}
+
+	private CompletableFuture<V> load(K key, V oldValue) {
+		CompletableFuture<V> promise = new CompletableFuture<>();
+		CompletableFuture<V> future = loading.putIfAbsent(key, promise);
+		if (future != null)
+			return future.thenApply(Function.identity());
+		long startTime = System.nanoTime();
+		CompletableFuture<V> loaded;
+		try {
+			loaded = oldValue != null ? loader.reload(key, oldValue) : loader.load(key);
+		}
+		catch (Throwable th) {
+			loaded = new CompletableFuture<>();
+			loaded.completeExceptionally(th);
+		}
+		loaded.whenComplete((value, th) -> {
+			recordLoad(startTime, th);
+			complete(key, promise, value, th, oldValue != null);
+		});
+		return promise.thenApply(Function.identity());
+	}
+
+	private void loadAll(Map<K, CompletableFuture<V>> promises) {
+		long startTime = System.nanoTime();
+		CompletableFuture<Map<K, V>> loaded;
+		try {
+			loaded = loader.loadAll(Collections.unmodifiableSet(new HashSet<>(promises.keySet())));
+		}
+		catch (Throwable th) {
+			loaded = new CompletableFuture<>();
+			loaded.completeExceptionally(th);
+		}
+		loaded.whenComplete((values, th) -> {
+			recordLoad(startTime, th);
+			for (Map.Entry<K, CompletableFuture<V>> entry : promises.entrySet()) {
+				K key = entry.getKey();
+				complete(key, entry.getValue(), th == null && values != null ? values.get(key) : null, th, false);
+			}
+		});
+	}
+
+	private void recordLoad(long startTime, Throwable th) {
+		long loadTime = System.nanoTime() - startTime;
+		if (th == null)
+			loadStats.recordLoadSuccess(loadTime);
+		else
+			loadStats.recordLoadFailure(loadTime);
+	}
+
+	private void complete(K key, CompletableFuture<V> promise, V value, Throwable th, boolean reload) {
+		if (loading.get(key) == promise) {
+			if (th == null) {
+				if (value != null)
+					doPut(key, value);
+				else if (reload) {
+					cache.remove(key);
+					writes.remove(key);
+				}
+			}
+			// Value is put before load is removed, so that concurrent requests either share the load or find the value
+			loading.remove(key, promise);
+		}
+		if (th != null)
+			promise.completeExceptionally(th instanceof CompletionException && th.getCause() != null ? th.getCause() : th);
+		else
+			promise.complete(value);
+	}
+
+	private void doPut(K key, V value) {
+		writes.put(key, new Written<>(value, System.currentTimeMillis()));
+		cache.put(key, value);
+	}
+
+	private static final class Written<V> {
+
+		private final V value;
+		private final long time;
+
+		private Written(V value, long time) {
+			super();
+			this.value = value;
+			this.time = time;
+		}
+	}
+}
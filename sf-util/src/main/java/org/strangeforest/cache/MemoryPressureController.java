@@ -0,0 +1,364 @@
+package org.strangeforest.cache;
+
+import java.lang.management.*;
+import java.util.*;
+import javax.management.*;
+import javax.management.openmbean.*;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import org.strangeforest.concurrent.*;
+
+/**
+ * <p><tt>MemoryPressureController</tt> gradually shrinks capacity of registered caches when heap is under memory pressure,
+ * and grows it back when pressure subsides. It is an alternative to memory-sensitive caches based on <tt>SoftHashMap</tt>,
+ * whose soft references tend to be cleared all at once by full garbage collections.</p>
+ * <p>Heap occupancy is measured on the old generation memory pool, as reported by garbage collection notifications of the collectors
+ * that collect the old generation, so young collections, after which old generation usage is not re-measured, are ignored.
+ * When occupancy after garbage collection is above the high threshold, total number of cached entries is reduced by the shrink step.
+ * Caches are shrunk again only after a later collection has measured a different old generation usage and the minimum shrink interval has passed,
+ * so that caches are not collapsed by repeated readings taken before the effect of the previous shrink could be observed.
+ * The reduction is shared among caches by max-min fairness: caches smaller than the fair share keep their entries, while larger caches
+ * are shrunk down to the common level. Shrinking sets cache capacity, so entries are evicted by cache eviction policy (ie. in LRU order).
+ * When occupancy is below the low threshold, capacity of shrunk caches is grown by the grow step until their original capacity is restored.</p>
+ * <p>Caches opt in by registering and must be thread-safe (ie. <tt>LockableCache</tt>, <tt>ConcurrentCache</tt> or <tt>SegmentedCache</tt>),
+ * as capacities are adjusted from a background thread.</p>
+ */
+public class MemoryPressureController {
+
+	private static final double DEFAULT_LOW_THRESHOLD = 0.60;
+	private static final double DEFAULT_HIGH_THRESHOLD = 0.85;
+	private static final double DEFAULT_SHRINK_STEP = 0.20;
+	private static final double DEFAULT_GROW_STEP = 0.10;
+	private static final long DEFAULT_MIN_SHRINK_INTERVAL = 1000L;
+	private static final String GC_NOTIFICATION = "com.sun.management.gc.notification";
+
+	private static final class InstanceHolder {
+		private static final MemoryPressureController INSTANCE = new MemoryPressureController();
+		static {
+			INSTANCE.start();
+		}
+	}
+
+	/**
+	 * Returns process-wide controller with default thresholds, which is started on the first access.
+	 * @return process-wide controller.
+	 */
+	public static MemoryPressureController getInstance() {
+		return InstanceHolder.INSTANCE;
+	}
+
+	private final double lowThreshold;
+	private final double highThreshold;
+	private final double shrinkStep;
+	private final double growStep;
+	private final Map<Cache<?, ?>, Registration> registrations;
+	private final NotificationListener listener;
+	private final List<NotificationEmitter> emitters;
+	private volatile String oldGenPoolName;
+	private final Set<String> oldGenCollectors;
+	private volatile long minShrinkInterval = DEFAULT_MIN_SHRINK_INTERVAL;
+	private volatile double occupancy;
+	private long lastShrinkUsed = -1L; // Guarded by this
+	private long lastShrinkTime; // Guarded by this
+
+	/**
+	 * Creates <tt>MemoryPressureController</tt> with default thresholds: 60% low, 85% high, shrinking by 20% and growing by 10%.
+	 */
+	public MemoryPressureController() {
+		this(DEFAULT_LOW_THRESHOLD, DEFAULT_HIGH_THRESHOLD, DEFAULT_SHRINK_STEP, DEFAULT_GROW_STEP);
+	}
+
+	/**
+	 * Creates <tt>MemoryPressureController</tt>.
+	 * @param lowThreshold old generation occupancy after garbage collection below which caches are grown back, ie. 0.6.
+	 * @param highThreshold old generation occupancy after garbage collection above which caches are shrunk, ie. 0.85.
+	 * @param shrinkStep fraction of cached entries evicted on each adjustment under memory pressure, ie. 0.2.
+	 * @param growStep fraction of capacity added on each adjustment when there is no memory pressure, ie. 0.1.
+	 */
+	public MemoryPressureController(double lowThreshold, double highThreshold, double shrinkStep, double growStep) {
+		super();
+		if (lowThreshold <= 0.0 || lowThreshold >= highThreshold || highThreshold >= 1.0)
+			throw new IllegalArgumentException("Invalid thresholds: " + lowThreshold + ", " + highThreshold);
+		if (shrinkStep <= 0.0 || shrinkStep >= 1.0)
+			throw new IllegalArgumentException("Invalid shrink step: " + shrinkStep);
+		if (growStep <= 0.0)
+			throw new IllegalArgumentException("Invalid grow step: " + growStep);
+		this.lowThreshold = lowThreshold;
+		this.highThreshold = highThreshold;
+		this.shrinkStep = shrinkStep;
+		this.growStep = growStep;
+		registrations = new IdentityHashMap<>();
+		listener = (notification, handback) -> onNotification(notification);
+		emitters = new ArrayList<>();
+		oldGenCollectors = Collections.synchronizedSet(new HashSet<>());
+	}
+
+	public double getLowThreshold() {
+		return lowThreshold;
+	}
+
+	public double getHighThreshold() {
+		return highThreshold;
+	}
+
+	public long getMinShrinkInterval() {
+		return minShrinkInterval;
+	}
+
+	/**
+	 * Sets minimum time between two shrinks triggered by garbage collections.
+	 * @param minShrinkInterval minimum shrink interval in milliseconds.
+	 */
+	public void setMinShrinkInterval(long minShrinkInterval) {
+		if (minShrinkInterval < 0L)
+			throw new IllegalArgumentException("Invalid minimum shrink interval: " + minShrinkInterval);
+		this.minShrinkInterval = minShrinkInterval;
+	}
+
+	/**
+	 * Returns old generation occupancy measured after the last garbage collection.
+	 * @return occupancy as fraction of maximum old generation size.
+	 */
+	public double getOccupancy() {
+		return occupancy;
+	}
+
+	/**
+	 * Registers cache with the controller. Cache capacity at the time of registration is the capacity to which cache is grown back.
+	 * @param cache thread-safe cache.
+	 */
+	public void register(Cache<?, ?> cache) {
+		register(cache, 1);
+	}
+
+	/**
+	 * Registers cache with the controller. Cache capacity at the time of registration is the capacity to which cache is grown back.
+	 * @param cache thread-safe cache.
+	 * @param minimumCapacity capacity below which the cache is never shrunk.
+	 */
+	public synchronized void register(Cache<?, ?> cache, int minimumCapacity) {
+		if (minimumCapacity <= 0)
+			throw new IllegalArgumentException("Invalid minimum capacity: " + minimumCapacity);
+		registrations.putIfAbsent(cache, new Registration(cache, minimumCapacity));
+	}
+
+	/**
+	 * Unregisters cache from the controller and restores its original capacity.
+	 * @param cache cache.
+	 */
+	public synchronized void unregister(Cache<?, ?> cache) {
+		Registration registration = registrations.remove(cache);
+		if (registration != null && registration.isShrunk())
+			registration.restore();
+	}
+
+	public synchronized boolean isRegistered(Cache<?, ?> cache) {
+		return registrations.containsKey(cache);
+	}
+
+	/**
+	 * Sets cache capacity. If cache is registered, capacity also becomes the capacity to which cache is grown back,
+	 * and the cache is no longer considered shrunk, so that capacity changed at runtime is not reverted when memory pressure subsides.
+	 * @param cache cache.
+	 * @param capacity cache capacity.
+	 */
+	public synchronized void setCapacity(Cache<?, ?> cache, int capacity) {
+		Registration registration = registrations.get(cache);
+		if (registration != null)
+			registration.setCapacity(capacity);
+		else
+			cache.setCapacity(capacity);
+	}
+
+	/**
+	 * Starts listening to notifications of garbage collectors that collect the old generation.
+	 */
+	public synchronized void start() {
+		if (!emitters.isEmpty())
+			return;
+		MemoryPoolMXBean pool = findOldGenerationPool();
+		if (pool == null)
+			return;
+		oldGenPoolName = pool.getName();
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			if (Arrays.asList(gc.getMemoryPoolNames()).contains(oldGenPoolName)) {
+				oldGenCollectors.add(gc.getName());
+				addListener(gc);
+			}
+		}
+	}
+
+	/**
+	 * Stops listening to notifications. Capacities of registered caches are left as they are.
+	 */
+	public synchronized void stop() {
+		for (NotificationEmitter emitter : emitters) {
+			try {
+				emitter.removeNotificationListener(listener);
+			}
+			catch (ListenerNotFoundException ignored) {}
+		}
+		emitters.clear();
+		oldGenCollectors.clear();
+	}
+
+	private void addListener(Object bean) {
+		if (bean instanceof NotificationEmitter) {
+			NotificationEmitter emitter = (NotificationEmitter)bean;
+			emitter.addNotificationListener(listener, null, null);
+			emitters.add(emitter);
+		}
+	}
+
+	private static MemoryPoolMXBean findOldGenerationPool() {
+		MemoryPoolMXBean oldGen = null;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP && pool.isUsageThresholdSupported() && pool.isCollectionUsageThresholdSupported()) {
+				if (oldGen == null || maxOf(pool.getUsage()) > maxOf(oldGen.getUsage()))
+					oldGen = pool;
+			}
+		}
+		return oldGen;
+	}
+
+	private static long maxOf(MemoryUsage usage) {
+		return usage.getMax() > 0L ? usage.getMax() : usage.getCommitted();
+	}
+
+	private void onNotification(Notification notification) {
+		if (!GC_NOTIFICATION.equals(notification.getType()))
+			return;
+		GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData)notification.getUserData());
+		String poolName = oldGenPoolName;
+		if (poolName == null || !oldGenCollectors.contains(info.getGcName()))
+			return;
+		MemoryUsage usage = info.getGcInfo().getMemoryUsageAfterGc().get(poolName);
+		if (usage != null)
+			MaintenanceScheduler.getInstance().execute(() -> collected(usage));
+	}
+
+	/**
+	 * Adjusts capacities of registered caches for the old generation usage measured after garbage collection.
+	 * Caches are shrunk only if the usage differs from the one that triggered the previous shrink and the minimum shrink interval has passed.
+	 * Called on garbage collection notifications, but may also be called directly, ie. by external memory monitoring.
+	 * @param usage old generation memory usage after garbage collection.
+	 */
+	public synchronized void collected(MemoryUsage usage) {
+		long max = maxOf(usage);
+		if (max <= 0L)
+			return;
+		double occupancy = (double)usage.getUsed() / max;
+		if (occupancy >= highThreshold) {
+			this.occupancy = occupancy;
+			long now = System.currentTimeMillis();
+			if (usage.getUsed() == lastShrinkUsed || now - lastShrinkTime < minShrinkInterval)
+				return;
+			lastShrinkUsed = usage.getUsed();
+			lastShrinkTime = now;
+		}
+		adjust(occupancy);
+	}
+
+	/**
+	 * Adjusts capacities of registered caches for the specified heap occupancy. Each call at or above high threshold shrinks caches by the shrink step.
+	 * May be called directly, ie. by external memory monitoring.
+	 * @param occupancy heap occupancy after garbage collection as fraction of maximum heap size.
+	 */
+	public synchronized void adjust(double occupancy) {
+		this.occupancy = occupancy;
+		if (occupancy >= highThreshold)
+			shrink();
+		else if (occupancy <= lowThreshold)
+			grow();
+	}
+
+	private void shrink() {
+		List<Registration> caches = new ArrayList<>(registrations.values());
+		long total = 0L;
+		for (Registration registration : caches) {
+			registration.size = registration.cache.size();
+			total += registration.size;
+		}
+		if (total == 0L)
+			return;
+		// Max-min fair share: caches below the level keep their size, the remaining budget is split evenly among the rest
+		caches.sort(Comparator.comparingInt(registration -> registration.size));
+		long budget = (long)(total * (1.0 - shrinkStep));
+		long level = Long.MAX_VALUE;
+		int remaining = caches.size();
+		for (Registration registration : caches) {
+			long share = budget / remaining;
+			if (registration.size > share) {
+				level = share;
+				break;
+			}
+			budget -= registration.size;
+			remaining--;
+		}
+		for (Registration registration : caches) {
+			if (registration.size > level)
+				registration.limit((int)level);
+		}
+	}
+
+	private void grow() {
+		for (Registration registration : registrations.values()) {
+			if (registration.isShrunk()) {
+				int capacity = registration.cache.getCapacity();
+				long grown = capacity + Math.max((long)(capacity * growStep), 1L);
+				if (grown >= registration.restoreCapacity())
+					registration.restore();
+				else
+					registration.cache.setCapacity((int)grown);
+			}
+		}
+	}
+
+	private static final class Registration {
+
+		private final Cache<?, ?> cache;
+		private final int minimumCapacity;
+		private int originalCapacity;
+		private int sizeBeforeShrink;
+		private boolean shrunk;
+		private int size;
+
+		private Registration(Cache<?, ?> cache, int minimumCapacity) {
+			super();
+			this.cache = cache;
+			this.minimumCapacity = minimumCapacity;
+			originalCapacity = cache.getCapacity();
+		}
+
+		private boolean isShrunk() {
+			return shrunk;
+		}
+
+		private void limit(int capacity) {
+			capacity = Math.max(capacity, minimumCapacity);
+			int current = cache.getCapacity();
+			if (current != 0 && capacity >= current)
+				return;
+			if (!shrunk) {
+				sizeBeforeShrink = size;
+				shrunk = true;
+			}
+			cache.setCapacity(capacity);
+		}
+
+		private int restoreCapacity() {
+			return originalCapacity != 0 ? originalCapacity : sizeBeforeShrink;
+		}
+
+		private void restore() {
+			cache.setCapacity(originalCapacity);
+			shrunk = false;
+		}
+
+		private void setCapacity(int capacity) {
+			cache.setCapacity(capacity);
+			originalCapacity = capacity;
+			shrunk = false;
+		}
+	}
+}
@@ -0,0 +1,584 @@
+package org.strangeforest.cache;
+
+import java.nio.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.strangeforest.concurrent.*;
+import org.strangeforest.util.*;
+
+/**
+ * <p><tt>OffHeapCache</tt> is <tt>Cache</tt> implementation that stores values serialized by <tt>Codec</tt> outside of the Java heap,
+ * in direct <tt>ByteBuffer</tt> slabs, so that cached values do not add to garbage collection pressure.</p>
+ * <p>Slab memory is divided into fixed-size blocks and each value occupies a chain of blocks. Keys, block chains and entry metadata
+ * are kept in on-heap hash index. When there are not enough free blocks for new value, or when capacity or maximum weight limit is reached,
+ * entries are evicted using CLOCK (second chance) algorithm, an approximation of LRU that only sets a reference bit on hit.</p>
+ * <p>Values are decoded on each <tt>get</tt>, so the returned value is always a copy. This class is not thread-safe.</p>
+ */
+public class OffHeapCache<K, V> extends AbstractMap<K, V> implements Cache<K, V> {
+
+	private final Map<K, Entry<K>> index;
+	private final Codec<V> codec;
+	private final ByteBuffer[] slabs;
+	private final int blockSize;
+	private final int blocksPerSlab;
+	private final int[] nextBlock;
+	private int freeBlock;
+	private int freeBlocks;
+	private Entry<K> hand;
+	private final TimerWheel<Entry<K>> expiryWheel;
+	private final FixedRateScheduler checkExpiryScheduler;
+	private int capacity;
+	private long maximumWeight;
+	private long weight;
+	private Weigher<? super K, ? super V> weigher;
+	private long expiryPeriod;
+	private final CacheStatsCounter stats;
+	private List<CacheListener<K, V>> listeners;
+
+	private static final int DEFAULT_BLOCK_SIZE = 128;
+	private static final int MAX_SLAB_SIZE = 1 << 30;
+	private static final int NO_BLOCK = -1;
+
+	/**
+	 * Creates <tt>OffHeapCache</tt> with specified off-heap memory size that uses Java serialization.
+	 * @param memorySize off-heap memory size in bytes.
+	 */
+	public OffHeapCache(long memorySize) {
+		this(0, memorySize, DEFAULT_BLOCK_SIZE, new SerializationCodec<>());
+	}
+
+	/**
+	 * Creates <tt>OffHeapCache</tt> with specified off-heap memory size and codec.
+	 * @param memorySize off-heap memory size in bytes.
+	 * @param codec value codec.
+	 */
+	public OffHeapCache(long memorySize, Codec<V> codec) {
+		this(0, memorySize, DEFAULT_BLOCK_SIZE, codec);
+	}
+
+	/**
+	 * Creates <tt>OffHeapCache</tt>.
+	 * @param capacity cache capacity. Capacity of 0 means that cache is bounded only by off-heap memory size.
+	 * @param memorySize off-heap memory size in bytes.
+	 * @param blockSize size of the memory block in bytes. Smaller blocks waste less memory on small values, but require more block chaining.
+	 * @param codec value codec.
+	 */
+	public OffHeapCache(int capacity, long memorySize, int blockSize, Codec<V> codec) {
+		super();
+		if (capacity < 0)
+			throw new IllegalArgumentException("Invalid capacity: " + capacity);
+		if (blockSize <= 0)
+			throw new IllegalArgumentException("Invalid block size: " + blockSize);
+		long blockCount = memorySize / blockSize;
+		if (blockCount <= 0L || blockCount > Integer.MAX_VALUE - 8)
+			throw new IllegalArgumentException("Invalid memory size: " + memorySize);
+		this.capacity = capacity;
+		this.blockSize = blockSize;
+		this.codec = Objects.requireNonNull(codec);
+		blocksPerSlab = (int)Math.min(blockCount, MAX_SLAB_SIZE / blockSize);
+		int slabCount = (int)((blockCount + blocksPerSlab - 1) / blocksPerSlab);
+		slabs = new ByteBuffer[slabCount];
+		for (int i = 0; i < slabCount; i++) {
+			int slabBlocks = (int)Math.min(blocksPerSlab, blockCount - (long)i * blocksPerSlab);
+			slabs[i] = ByteBuffer.allocateDirect(slabBlocks * blockSize);
+		}
+		nextBlock = new int[(int)blockCount];
+		index = new HashMap<>();
+		expiryWheel = new TimerWheel<>();
+		weigher = Weigher.singleton();
+		stats = new CacheStatsCounter();
+		initFreeBlocks();
+		checkExpiryScheduler = new FixedRateScheduler(this::removeExpiredEntries, 0L);
+	}
+
+	private void initFreeBlocks() {
+		for (int i = 0; i < nextBlock.length - 1; i++)
+			nextBlock[i] = i + 1;
+		nextBlock[nextBlock.length - 1] = NO_BLOCK;
+		freeBlock = 0;
+		freeBlocks = nextBlock.length;
+	}
+
+	public long getMemorySize() {
+		return (long)nextBlock.length * blockSize;
+	}
+
+	public long getUsedMemory() {
+		return (long)(nextBlock.length - freeBlocks) * blockSize;
+	}
+
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	public Codec<V> getCodec() {
+		return codec;
+	}
+
+
+	// Cache interface
+
+	@Override public int getCapacity() {
+		return capacity;
+	}
+
+	@Override public void setCapacity(int capacity) {
+		if (capacity < 0)
+			throw new IllegalArgumentException("Invalid capacity: " + capacity);
+		this.capacity = capacity;
+		removeExpiredEntries();
+		ensureCapacity(0);
+	}
+
+	@Override public long getMaximumWeight() {
+		return maximumWeight;
+	}
+
+	@Override public void setMaximumWeight(long maximumWeight) {
+		if (maximumWeight < 0L)
+			throw new IllegalArgumentException("Invalid maximum weight: " + maximumWeight);
+		this.maximumWeight = maximumWeight;
+		removeExpiredEntries();
+		ensureCapacity(0);
+	}
+
+	@Override public long getWeight() {
+		return weight;
+	}
+
+	@Override public Weigher<? super K, ? super V> getWeigher() {
+		return weigher;
+	}
+
+	@Override public void setWeigher(Weigher<? super K, ? super V> weigher) {
+		this.weigher = Objects.requireNonNull(weigher);
+		weight = 0L;
+		for (Entry<K> entry : index.values()) {
+			entry.weight = weigh(entry.key, weigher == Weigher.SINGLETON ? null : decode(entry));
+			weight += entry.weight;
+		}
+		ensureCapacity(0);
+	}
+
+	@Override public long getExpiryPeriod() {
+		return expiryPeriod;
+	}
+
+	@Override public void setExpiryPeriod(long expiryPeriod) {
+		if (expiryPeriod != this.expiryPeriod) {
+			this.expiryPeriod = expiryPeriod;
+			for (Entry<K> entry : index.values())
+				scheduleExpiry(entry);
+		}
+	}
+
+	@Override public long getCheckExpiryPeriod() {
+		return checkExpiryScheduler.getPeriod();
+	}
+
+	@Override public void setCheckExpiryPeriod(long checkExpiryPeriod) {
+		checkExpiryScheduler.setPeriod(checkExpiryPeriod);
+	}
+
+	@Override public ScheduledExecutorService getCheckExpiryExecutor() {
+		return checkExpiryScheduler.getExecutor();
+	}
+
+	@Override public void setCheckExpiryExecutor(ScheduledExecutorService executor) {
+		checkExpiryScheduler.setExecutor(executor);
+	}
+
+	@Override public void startBackgroundExpiry() {
+		checkExpiryScheduler.schedule();
+	}
+
+	@Override public void stopBackgroundExpiry() {
+		checkExpiryScheduler.shutdown();
+	}
+
+	@Override public void removeExpiredEntries() {
+		if (!expiryWheel.isEmpty()) {
+			expiryWheel.advance(System.currentTimeMillis(), entry -> {
+				if (entry.isValid(expiryPeriod))
+					scheduleExpiry(entry);
+				else
+					doRemove(entry, RemovalCause.EXPIRED);
+			});
+		}
+	}
+
+	@Override public CacheStatistics getStatistics() {
+		return stats.snapshot(index.size(), capacity);
+	}
+
+	@Override public void resetStatistics() {
+		stats.reset();
+	}
+
+	@Override public void addCacheListener(CacheListener<K, V> listener) {
+		if (listeners == null)
+			listeners = new ArrayList<>(4);
+		listeners.add(listener);
+	}
+
+	@Override public void removeCacheListener(CacheListener<K, V> listener) {
+		if (listeners != null)
+			listeners.remove(listener);
+	}
+
+
+	// Map interface
+
+	@Override public V get(Object key) {
+		Entry<K> entry = index.get(key);
+		if (entry != null) {
+			if (entry.isValid(expiryPeriod)) {
+				entry.referenced = true;
+				stats.recordHit();
+				return decode(entry);
+			}
+			else
+				doRemove(entry, RemovalCause.EXPIRED);
+		}
+		stats.recordMiss();
+		return null;
+	}
+
+	/**
+	 * Returns time when the entry for specified key expires.
+	 * @param key key.
+	 * @return expiry time in milliseconds, or 0 if entry does not expire or is not in the cache.
+	 */
+	long getExpiryTime(Object key) {
+		Entry<K> entry = index.get(key);
+		return entry != null ? entry.expiryTime(expiryPeriod) : 0L;
+	}
+
+	/**
+	 * Puts new entry in the cache. Value is encoded and stored in off-heap memory.
+	 * If there is not enough free memory or if cache has reached its capacity or maximum weight limit, entries are evicted.
+	 * If encoded value is larger than the whole off-heap memory, the entry is not cached.
+	 * @param key key
+	 * @param value value
+	 * @return previous value for specified key
+	 */
+	@Override public V put(K key, V value) {
+		return put(key, value, 0L);
+	}
+
+	@Override public V put(K key, V value, long ttl) {
+		if (ttl < 0L)
+			throw new IllegalArgumentException("Invalid time-to-live: " + ttl);
+		byte[] bytes = codec.encode(value);
+		int blocks = blocksFor(bytes.length);
+		Entry<K> entry = index.get(key);
+		V old = null;
+		if (entry != null) {
+			old = decode(entry);
+			unlinkClock(entry);
+			freeBlocks(entry);
+			weight -= entry.weight;
+			if (blocks > nextBlock.length) {
+				index.remove(key);
+				expiryWheel.deschedule(entry);
+				return old;
+			}
+		}
+		else {
+			if (blocks > nextBlock.length)
+				return null;
+			entry = new Entry<>(key);
+			index.put(key, entry);
+		}
+		entry.touchPut();
+		entry.ttl = ttl;
+		entry.weight = weigh(key, value);
+		weight += entry.weight;
+		evictFor(blocks);
+		entry.firstBlock = write(bytes, blocks);
+		entry.length = bytes.length;
+		linkClock(entry);
+		scheduleExpiry(entry);
+		ensureCapacity(0);
+		return old;
+	}
+
+	@Override public V remove(Object key) {
+		Entry<K> entry = index.get(key);
+		if (entry != null) {
+			V value = decode(entry);
+			doRemove(entry, value, RemovalCause.EXPLICIT);
+			return value;
+		}
+		else
+			return null;
+	}
+
+	@Override public void clear() {
+		index.clear();
+		hand = null;
+		expiryWheel.clear();
+		initFreeBlocks();
+		weight = 0L;
+	}
+
+	@Override public int size() {
+		return index.size();
+	}
+
+	@Override public boolean isEmpty() {
+		return index.isEmpty();
+	}
+
+	@Override public boolean containsKey(Object key) {
+		Entry<K> entry = index.get(key);
+		if (entry != null) {
+			if (entry.isValid(expiryPeriod))
+				return true;
+			else
+				doRemove(entry, RemovalCause.EXPIRED);
+		}
+		return false;
+	}
+
+
+	// Memory management
+
+	private int blocksFor(int length) {
+		return (int)(((long)length + blockSize - 1) / blockSize);
+	}
+
+	private void evictFor(int blocks) {
+		while (freeBlocks < blocks && hand != null)
+			doRemove(clockVictim(), RemovalCause.SIZE);
+	}
+
+	private void ensureCapacity(int blocks) {
+		while (hand != null && ((capacity > 0 && index.size() > capacity) || (maximumWeight > 0L && weight > maximumWeight) || freeBlocks < blocks))
+			doRemove(clockVictim(), RemovalCause.SIZE);
+	}
+
+	private Entry<K> clockVictim() {
+		while (hand.referenced) {
+			hand.referenced = false;
+			hand = hand.next;
+		}
+		return hand;
+	}
+
+	private int write(byte[] bytes, int blocks) {
+		int first = freeBlock;
+		int block = first, last = NO_BLOCK;
+		for (int i = 0, offset = 0; i < blocks; i++, offset += blockSize) {
+			ByteBuffer slab = slabFor(block);
+			slab.put(bytes, offset, Math.min(blockSize, bytes.length - offset));
+			last = block;
+			block = nextBlock[block];
+		}
+		if (blocks > 0) {
+			freeBlock = block;
+			nextBlock[last] = NO_BLOCK;
+			freeBlocks -= blocks;
+			return first;
+		}
+		else
+			return NO_BLOCK;
+	}
+
+	private byte[] read(Entry<K> entry) {
+		byte[] bytes = new byte[entry.length];
+		for (int block = entry.firstBlock, offset = 0; block != NO_BLOCK; block = nextBlock[block], offset += blockSize) {
+			ByteBuffer slab = slabFor(block);
+			slab.get(bytes, offset, Math.min(blockSize, bytes.length - offset));
+		}
+		return bytes;
+	}
+
+	private ByteBuffer slabFor(int block) {
+		ByteBuffer slab = slabs[block / blocksPerSlab];
+		slab.position((block % blocksPerSlab) * blockSize);
+		return slab;
+	}
+
+	private void freeBlocks(Entry<K> entry) {
+		int block = entry.firstBlock;
+		if (block != NO_BLOCK) {
+			int count = 1;
+			while (nextBlock[block] != NO_BLOCK) {
+				block = nextBlock[block];
+				count++;
+			}
+			nextBlock[block] = freeBlock;
+			freeBlock = entry.firstBlock;
+			freeBlocks += count;
+			entry.firstBlock = NO_BLOCK;
+		}
+	}
+
+	private V decode(Entry<K> entry) {
+		return codec.decode(read(entry));
+	}
+
+	private int weigh(K key, V value) {
+		int weight = weigher.weigh(key, value);
+		if (weight < 0)
+			throw new IllegalArgumentException("Invalid weight: " + weight);
+		return weight;
+	}
+
+	private void linkClock(Entry<K> entry) {
+		if (hand == null) {
+			hand = entry;
+			entry.prev = entry.next = entry;
+		}
+		else {
+			entry.next = hand;
+			entry.prev = hand.prev;
+			hand.prev.next = entry;
+			hand.prev = entry;
+		}
+	}
+
+	private void unlinkClock(Entry<K> entry) {
+		if (entry.next == null)
+			return;
+		if (entry.next == entry)
+			hand = null;
+		else {
+			if (hand == entry)
+				hand = entry.next;
+			entry.prev.next = entry.next;
+			entry.next.prev = entry.prev;
+		}
+		entry.prev = entry.next = null;
+	}
+
+	private void scheduleExpiry(Entry<K> entry) {
+		expiryWheel.schedule(entry, entry.expiryTime(expiryPeriod));
+	}
+
+	private void doRemove(Entry<K> entry, RemovalCause cause) {
+		doRemove(entry, listeners != null && !listeners.isEmpty() ? decode(entry) : null, cause);
+	}
+
+	private void doRemove(Entry<K> entry, V value, RemovalCause cause) {
+		index.remove(entry.key);
+		release(entry, value, cause);
+	}
+
+	private void release(Entry<K> entry, RemovalCause cause) {
+		release(entry, listeners != null && !listeners.isEmpty() ? decode(entry) : null, cause);
+	}
+
+	private void release(Entry<K> entry, V value, RemovalCause cause) {
+		unlinkClock(entry);
+		expiryWheel.deschedule(entry);
+		freeBlocks(entry);
+		weight -= entry.weight;
+		stats.recordRemoval(cause);
+		if (listeners != null) {
+			MapEntry<K, V> mapEntry = new MapEntry<>(entry.key, value);
+			for (CacheListener<K, V> listener : listeners)
+				listener.entryRemoved(mapEntry, cause);
+		}
+	}
+
+	private transient Set<Map.Entry<K, V>> entries;
+
+	/**
+	 * Returns entry set view. Values are decoded lazily, when accessed by <tt>Map.Entry.getValue</tt>.
+	 * @return entry set.
+	 */
+	@Override public Set<Map.Entry<K, V>> entrySet() {
+		removeExpiredEntries();
+		if (entries == null)
+			entries = new AbstractSet<Map.Entry<K, V>>() {
+				@Override public int size() {
+					return index.size();
+				}
+				@Override public Iterator<Map.Entry<K, V>> iterator() {
+					return new EntriesIterator();
+				}
+			};
+		return entries;
+	}
+
+	private static final class Entry<K> extends TimerWheel.Timer {
+
+		private final K key;
+		private int firstBlock = NO_BLOCK;
+		private int length;
+		private int weight;
+		private long lastPut;
+		private long ttl;
+		private boolean referenced;
+		private Entry<K> prev;
+		private Entry<K> next;
+
+		private Entry(K key) {
+			super();
+			this.key = key;
+		}
+
+		private void touchPut() {
+			lastPut = System.currentTimeMillis();
+		}
+
+		private boolean isValid(long expiryPeriod) {
+			long expiryTime = expiryTime(expiryPeriod);
+			return expiryTime == 0L || System.currentTimeMillis() <= expiryTime;
+		}
+
+		private long expiryTime(long expiryPeriod) {
+			long period = ttl != 0L ? ttl : expiryPeriod;
+			return period != 0L ? lastPut + period : 0L;
+		}
+	}
+
+	private final class EntriesIterator implements Iterator<Map.Entry<K, V>> {
+
+		private final Iterator<Entry<K>> iter = index.values().iterator();
+		private Entry<K> last;
+
+		@Override public boolean hasNext() {
+			return iter.hasNext();
+		}
+
+		@Override public Map.Entry<K, V> next() {
+			last = iter.next();
+			final Entry<K> entry = last;
+			return new Map.Entry<K, V>() {
+				@Override public K getKey() {
+					return entry.key;
+				}
+				@Override public V getValue() {
+					return decode(entry);
+				}
+				@Override public V setValue(V value) {
+					return put(entry.key, value);
+				}
+				@Override public boolean equals(Object o) {
+					if (!(o instanceof Map.Entry))
+						return false;
+					Map.Entry e = (Map.Entry)o;
+					return Objects.equals(entry.key, e.getKey()) && Objects.equals(getValue(), e.getValue());
+				}
+				@Override public int hashCode() {
+					return Objects.hashCode(entry.key) ^ Objects.hashCode(getValue());
+				}
+				@Override public String toString() {
+					return entry.key + "=" + getValue();
+				}
+			};
+		}
+
+		@Override public void remove() {
+			if (last == null)
+				throw new IllegalStateException();
+			iter.remove();
+			release(last, RemovalCause.EXPLICIT);
+			last = null;
+		}
+	}
+}
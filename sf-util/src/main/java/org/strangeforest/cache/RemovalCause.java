@@ -0,0 +1,24 @@
+package org.strangeforest.cache;
+
+/**
+ * <p>Cause of cache entry removal.</p>
+ */
+public enum RemovalCause {
+
+	/** Entry is removed explicitly. */
+	EXPLICIT,
+
+	/** Entry is removed because it has expired. */
+	EXPIRED,
+
+	/** Entry is evicted because cache capacity, maximum weight or memory limit is reached. */
+	SIZE;
+
+	/**
+	 * Returns whether entry is removed by the cache itself, not by the cache user.
+	 * @return <tt>true</tt> if removal is an eviction.
+	 */
+	public boolean isEviction() {
+		return this != EXPLICIT;
+	}
+}
@@ -0,0 +1,392 @@
+package org.strangeforest.cache;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+import org.strangeforest.concurrent.*;
+import org.strangeforest.util.*;
+
+/**
+ * <p><tt>SegmentedCache</tt> is <tt>Cache</tt> implementation that hashes keys into a number of independent segment caches,
+ * each guarded by its own monitor, so that concurrent accesses to different segments do not contend.</p>
+ * <p>Cache capacity is split evenly among segments and each segment evicts entries on its own,
+ * which approximates global eviction order of the segment cache type (LRU by default). The same applies to maximum weight.</p>
+ */
+public class SegmentedCache<K, V> extends AbstractMap<K, V> implements Cache<K, V> {
+
+	private final Cache<K, V>[] segments;
+	private final int segmentShift;
+	private final int segmentMask;
+	private final FixedRateScheduler checkExpiryScheduler;
+	private volatile int capacity;
+	private volatile long maximumWeight;
+	private volatile long expiryPeriod;
+
+	private static final int DEFAULT_CONCURRENCY_LEVEL = Runtime.getRuntime().availableProcessors() * 2;
+	private static final int MAX_SEGMENTS = 1 << 16;
+
+	/**
+	 * Creates <tt>SegmentedCache</tt> of <tt>LRUCache</tt> segments with unlimited capacity.
+	 */
+	public SegmentedCache() {
+		this(0);
+	}
+
+	/**
+	 * Creates <tt>SegmentedCache</tt> of <tt>LRUCache</tt> segments with specified capacity.
+	 * @param capacity cache capacity. Capacity of 0 means unlimited capacity.
+	 */
+	public SegmentedCache(int capacity) {
+		this(capacity, DEFAULT_CONCURRENCY_LEVEL);
+	}
+
+	/**
+	 * Creates <tt>SegmentedCache</tt> of <tt>LRUCache</tt> segments with specified capacity and concurrency level.
+	 * @param capacity cache capacity. Capacity of 0 means unlimited capacity.
+	 * @param concurrencyLevel estimated number of concurrently accessing threads.
+	 */
+	public SegmentedCache(int capacity, int concurrencyLevel) {
+		this(capacity, concurrencyLevel, LRUCache::new);
+	}
+
+	/**
+	 * Creates <tt>SegmentedCache</tt> with specified capacity and concurrency level and segments created by specified factory.
+	 * Number of segments is the smallest power of 2 not less than concurrency level, but not greater than capacity.
+	 * @param capacity cache capacity. Capacity of 0 means unlimited capacity.
+	 * @param concurrencyLevel estimated number of concurrently accessing threads.
+	 * @param segmentFactory creates segment cache for specified segment capacity, ie. <tt>MLFUCache::new</tt>.
+	 */
+	public SegmentedCache(int capacity, int concurrencyLevel, IntFunction<? extends Cache<K, V>> segmentFactory) {
+		super();
+		if (capacity < 0)
+			throw new IllegalArgumentException("Invalid capacity: " + capacity);
+		if (concurrencyLevel <= 0)
+			throw new IllegalArgumentException("Invalid concurrency level: " + concurrencyLevel);
+		this.capacity = capacity;
+		int segmentCount = 1;
+		while (segmentCount < concurrencyLevel && segmentCount < MAX_SEGMENTS && (capacity == 0 || segmentCount*2 <= capacity))
+			segmentCount <<= 1;
+		segments = new Cache[segmentCount];
+		segmentShift = 32 - Integer.numberOfTrailingZeros(segmentCount);
+		segmentMask = segmentCount - 1;
+		for (int i = 0; i < segmentCount; i++)
+			segments[i] = segmentFactory.apply(segmentCapacity(capacity, i));
+		checkExpiryScheduler = new FixedRateScheduler(this::removeExpiredEntries, 0L);
+	}
+
+	public int getSegmentCount() {
+		return segments.length;
+	}
+
+	private int segmentCapacity(int capacity, int index) {
+		if (capacity == 0)
+			return 0;
+		int segmentCount = segments.length;
+		return Math.max(capacity / segmentCount + (index < capacity % segmentCount ? 1 : 0), 1);
+	}
+
+	private long segmentMaximumWeight(long maximumWeight, int index) {
+		if (maximumWeight == 0L)
+			return 0L;
+		int segmentCount = segments.length;
+		return Math.max(maximumWeight / segmentCount + (index < maximumWeight % segmentCount ? 1 : 0), 1L);
+	}
+
+	/**
+	 * Segment is selected by the high bits of the mixed hash code, as segment caches index their hash tables by the low bits,
+	 * so that keys of a segment are still spread among all the buckets of its hash table.
+	 */
+	private Cache<K, V> segmentFor(Object key) {
+		int h = key != null ? key.hashCode() : 0;
+		h ^= (h >>> 16);
+		h *= 0x85ebca6b;
+		h ^= (h >>> 13);
+		h *= 0xc2b2ae35;
+		h ^= (h >>> 16);
+		return segments[(h >>> segmentShift) & segmentMask];
+	}
+
+
+	// Cache interface
+
+	@Override public int getCapacity() {
+		return capacity;
+	}
+
+	@Override public void setCapacity(int capacity) {
+		if (capacity < 0)
+			throw new IllegalArgumentException("Invalid capacity: " + capacity);
+		this.capacity = capacity;
+		for (int i = 0; i < segments.length; i++) {
+			Cache<K, V> segment = segments[i];
+			synchronized (segment) {
+				segment.setCapacity(segmentCapacity(capacity, i));
+			}
+		}
+	}
+
+	@Override public long getMaximumWeight() {
+		return maximumWeight;
+	}
+
+	@Override public void setMaximumWeight(long maximumWeight) {
+		if (maximumWeight < 0L)
+			throw new IllegalArgumentException("Invalid maximum weight: " + maximumWeight);
+		this.maximumWeight = maximumWeight;
+		for (int i = 0; i < segments.length; i++) {
+			Cache<K, V> segment = segments[i];
+			synchronized (segment) {
+				segment.setMaximumWeight(segmentMaximumWeight(maximumWeight, i));
+			}
+		}
+	}
+
+	@Override public long getWeight() {
+		long weight = 0L;
+		for (Cache<K, V> segment : segments) {
+			synchronized (segment) {
+				weight += segment.getWeight();
+			}
+		}
+		return weight;
+	}
+
+	@Override public Weigher<? super K, ? super V> getWeigher() {
+		Cache<K, V> segment = segments[0];
+		synchronized (segment) {
+			return segment.getWeigher();
+		}
+	}
+
+	@Override public void setWeigher(Weigher<? super K, ? super V> weigher) {
+		for (Cache<K, V> segment : segments) {
+			synchronized (segment) {
+				segment.setWeigher(weigher);
+			}
+		}
+	}
+
+	@Override public long getExpiryPeriod() {
+		return expiryPeriod;
+	}
+
+	@Override public void setExpiryPeriod(long expiryPeriod) {
+		this.expiryPeriod = expiryPeriod;
+		for (Cache<K, V> segment : segments) {
+			synchronized (segment) {
+				segment.setExpiryPeriod(expiryPeriod);
+			}
+		}
+	}
+
+	@Override public long getCheckExpiryPeriod() {
+		return checkExpiryScheduler.getPeriod();
+	}
+
+	@Override public void setCheckExpiryPeriod(long checkExpiryPeriod) {
+		checkExpiryScheduler.setPeriod(checkExpiryPeriod);
+	}
+
+	@Override public ScheduledExecutorService getCheckExpiryExecutor() {
+		return checkExpiryScheduler.getExecutor();
+	}
+
+	@Override public void setCheckExpiryExecutor(ScheduledExecutorService executor) {
+		checkExpiryScheduler.setExecutor(executor);
+	}
+
+	@Override public void startBackgroundExpiry() {
+		checkExpiryScheduler.schedule();
+	}
+
+	@Override public void stopBackgroundExpiry() {
+		checkExpiryScheduler.shutdown();
+	}
+
+	@Override public void removeExpiredEntries() {
+		for (Cache<K, V> segment : segments) {
+			synchronized (segment) {
+				segment.removeExpiredEntries();
+			}
+		}
+	}
+
+	/**
+	 * Returns cache statistics aggregated across all segments.
+	 * @return cache statistics.
+	 */
+	@Override public CacheStatistics getStatistics() {
+		CacheStatistics total = new CacheStatistics(0, capacity, 0L, 0L);
+		for (Cache<K, V> segment : segments) {
+			CacheStatistics stats;
+			synchronized (segment) {
+				stats = segment.getStatistics();
+			}
+			total = total.plus(stats, total.size() + stats.size(), capacity);
+		}
+		return total;
+	}
+
+	@Override public void resetStatistics() {
+		for (Cache<K, V> segment : segments) {
+			synchronized (segment) {
+				segment.resetStatistics();
+			}
+		}
+	}
+
+	@Override public void addCacheListener(CacheListener<K, V> listener) {
+		for (Cache<K, V> segment : segments) {
+			synchronized (segment) {
+				segment.addCacheListener(listener);
+			}
+		}
+	}
+
+	@Override public void removeCacheListener(CacheListener<K, V> listener) {
+		for (Cache<K, V> segment : segments) {
+			synchronized (segment) {
+				segment.removeCacheListener(listener);
+			}
+		}
+	}
+
+
+	// Map interface
+
+	@Override public V get(Object key) {
+		Cache<K, V> segment = segmentFor(key);
+		synchronized (segment) {
+			return segment.get(key);
+		}
+	}
+
+	@Override public V put(K key, V value) {
+		Cache<K, V> segment = segmentFor(key);
+		synchronized (segment) {
+			return segment.put(key, value);
+		}
+	}
+
+	@Override public V put(K key, V value, long ttl) {
+		Cache<K, V> segment = segmentFor(key);
+		synchronized (segment) {
+			return segment.put(key, value, ttl);
+		}
+	}
+
+	@Override public V remove(Object key) {
+		Cache<K, V> segment = segmentFor(key);
+		synchronized (segment) {
+			return segment.remove(key);
+		}
+	}
+
+	@Override public boolean containsKey(Object key) {
+		Cache<K, V> segment = segmentFor(key);
+		synchronized (segment) {
+			return segment.containsKey(key);
+		}
+	}
+
+	@Override public void putAll(Map<? extends K, ? extends V> t) {
+		for (Map.Entry<? extends K, ? extends V> e : t.entrySet())
+			put(e.getKey(), e.getValue());
+	}
+
+	@Override public void clear() {
+		for (Cache<K, V> segment : segments) {
+			synchronized (segment) {
+				segment.clear();
+			}
+		}
+	}
+
+	@Override public int size() {
+		int size = 0;
+		for (Cache<K, V> segment : segments) {
+			synchronized (segment) {
+				size += segment.size();
+			}
+		}
+		return size;
+	}
+
+	@Override public boolean isEmpty() {
+		for (Cache<K, V> segment : segments) {
+			synchronized (segment) {
+				if (!segment.isEmpty())
+					return false;
+			}
+		}
+		return true;
+	}
+
+	private transient Set<Map.Entry<K, V>> entries;
+
+	/**
+	 * Returns entry set view. Iterators of this view iterate over per-segment snapshots and are never concurrently modified.
+	 * @return entry set.
+	 */
+	@Override public Set<Map.Entry<K, V>> entrySet() {
+		if (entries == null)
+			entries = new AbstractSet<Map.Entry<K, V>>() {
+				@Override public int size() {
+					return SegmentedCache.this.size();
+				}
+				@Override public Iterator<Map.Entry<K, V>> iterator() {
+					return new EntriesIterator();
+				}
+			};
+		return entries;
+	}
+
+	private final class SegmentEntry extends MapEntry<K, V> {
+
+		private SegmentEntry(K key, V value) {
+			super(key, value);
+		}
+
+		@Override public V setValue(V value) {
+			this.value = value;
+			return put(key, value);
+		}
+	}
+
+	private final class EntriesIterator implements Iterator<Map.Entry<K, V>> {
+
+		private int nextSegment;
+		private Iterator<Map.Entry<K, V>> segmentEntries = Collections.emptyIterator();
+		private Map.Entry<K, V> last;
+
+		@Override public boolean hasNext() {
+			while (!segmentEntries.hasNext()) {
+				if (nextSegment >= segments.length)
+					return false;
+				Cache<K, V> segment = segments[nextSegment++];
+				List<Map.Entry<K, V>> snapshot;
+				synchronized (segment) {
+					snapshot = new ArrayList<>(segment.size());
+					for (Map.Entry<K, V> entry : segment.entrySet())
+						snapshot.add(new SegmentEntry(entry.getKey(), entry.getValue()));
+				}
+				segmentEntries = snapshot.iterator();
+			}
+			return true;
+		}
+
+		@Override public Map.Entry<K, V> next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			return last = segmentEntries.next();
+		}
+
+		@Override public void remove() {
+			if (last == null)
+				throw new IllegalStateException();
+			SegmentedCache.this.remove(last.getKey());
+			last = null;
+		}
+	}
+}
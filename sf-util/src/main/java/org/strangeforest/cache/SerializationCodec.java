@@ -0,0 +1,29 @@
+package org.strangeforest.cache;
+
+import java.io.*;
+
+/**
+ * <p><tt>SerializationCodec</tt> is <tt>Codec</tt> that uses Java serialization. Values must be <tt>Serializable</tt>.</p>
+ */
+public class SerializationCodec<T> implements Codec<T> {
+
+	@Override public byte[] encode(T value) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(value);
+		}
+		catch (IOException ex) {
+			throw new IllegalStateException(ex);
+		}
+		return bytes.toByteArray();
+	}
+
+	@Override public T decode(byte[] bytes) {
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+			return (T)in.readObject();
+		}
+		catch (IOException | ClassNotFoundException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+}
@@ -0,0 +1,348 @@
+package org.strangeforest.cache;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.strangeforest.concurrent.*;
+
+/**
+ * <p><tt>TieredCache</tt> is two-tier <tt>Cache</tt> implementation with on-heap first tier (<tt>LRUCache</tt> by default)
+ * and off-heap second tier (<tt>OffHeapCache</tt>), which allows much larger working set to be cached without adding to GC pressure.</p>
+ * <p>Entries evicted from the heap tier because of its capacity or maximum weight limit are demoted to the off-heap tier,
+ * while entries found in the off-heap tier are promoted back to the heap tier. An entry is held in only one of the tiers at a time.
+ * Entries explicitly removed or expired are not demoted. Demoted and promoted entries keep their expiry time, so an entry moving between tiers
+ * expires as if it stayed in one tier, while entries found expired on demotion are dropped. Expiry time is fixed when entry is put,
+ * so changing expiry period does not affect entries already in the cache when they move between tiers.</p>
+ * <p>Capacity and maximum weight apply to the heap tier, while the off-heap tier is bounded by its memory size.
+ * Cache listeners are notified only when entries leave the cache, not when they move between tiers. This class is not thread-safe.</p>
+ */
+public class TieredCache<K, V> extends AbstractMap<K, V> implements Cache<K, V> {
+
+	private final Cache<K, V> heap;
+	private final OffHeapCache<K, V> offHeap;
+	private final Map<K, Long> heapExpiryTimes;
+	private final FixedRateScheduler checkExpiryScheduler;
+	private boolean demoting;
+	private boolean promoting;
+	private final CacheStatsCounter stats;
+	private List<CacheListener<K, V>> listeners;
+
+	/**
+	 * Creates <tt>TieredCache</tt> with <tt>LRUCache</tt> heap tier and <tt>OffHeapCache</tt> tier using Java serialization.
+	 * @param capacity heap tier capacity.
+	 * @param offHeapMemorySize off-heap tier memory size in bytes.
+	 */
+	public TieredCache(int capacity, long offHeapMemorySize) {
+		this(new LRUCache<>(capacity), new OffHeapCache<>(offHeapMemorySize));
+	}
+
+	/**
+	 * Creates <tt>TieredCache</tt> with specified tiers. Tiers should be empty and should not be used directly afterwards.
+	 * @param heap heap tier.
+	 * @param offHeap off-heap tier.
+	 */
+	public TieredCache(Cache<K, V> heap, OffHeapCache<K, V> offHeap) {
+		super();
+		this.heap = heap;
+		this.offHeap = offHeap;
+		heapExpiryTimes = new HashMap<>();
+		stats = new CacheStatsCounter();
+		heap.addCacheListener(new CacheListener<K, V>() {
+			@Override public void entryRemoved(Map.Entry<K, V> entry) {
+				entryRemoved(entry, demoting ? RemovalCause.SIZE : RemovalCause.EXPLICIT);
+			}
+			@Override public void entryRemoved(Map.Entry<K, V> entry, RemovalCause cause) {
+				Long expiryTime = heapExpiryTimes.remove(entry.getKey());
+				if (demoting && cause == RemovalCause.SIZE)
+					demote(entry, expiryTime);
+				else
+					fireEntryRemoved(entry, cause);
+			}
+		});
+		offHeap.addCacheListener(new CacheListener<K, V>() {
+			@Override public void entryRemoved(Map.Entry<K, V> entry) {
+				entryRemoved(entry, RemovalCause.EXPLICIT);
+			}
+			@Override public void entryRemoved(Map.Entry<K, V> entry, RemovalCause cause) {
+				if (!promoting)
+					fireEntryRemoved(entry, cause);
+			}
+		});
+		checkExpiryScheduler = new FixedRateScheduler(this::removeExpiredEntries, 0L);
+	}
+
+	public Cache<K, V> getHeapTier() {
+		return heap;
+	}
+
+	public OffHeapCache<K, V> getOffHeapTier() {
+		return offHeap;
+	}
+
+
+	// Cache interface
+
+	@Override public int getCapacity() {
+		return heap.getCapacity();
+	}
+
+	@Override public void setCapacity(int capacity) {
+		demoting = true;
+		try {
+			heap.setCapacity(capacity);
+		}
+		finally {
+			demoting = false;
+		}
+	}
+
+	@Override public long getMaximumWeight() {
+		return heap.getMaximumWeight();
+	}
+
+	@Override public void setMaximumWeight(long maximumWeight) {
+		demoting = true;
+		try {
+			heap.setMaximumWeight(maximumWeight);
+		}
+		finally {
+			demoting = false;
+		}
+	}
+
+	@Override public long getWeight() {
+		return heap.getWeight();
+	}
+
+	@Override public Weigher<? super K, ? super V> getWeigher() {
+		return heap.getWeigher();
+	}
+
+	@Override public void setWeigher(Weigher<? super K, ? super V> weigher) {
+		demoting = true;
+		try {
+			heap.setWeigher(weigher);
+		}
+		finally {
+			demoting = false;
+		}
+	}
+
+	@Override public long getExpiryPeriod() {
+		return heap.getExpiryPeriod();
+	}
+
+	@Override public void setExpiryPeriod(long expiryPeriod) {
+		heap.setExpiryPeriod(expiryPeriod);
+		offHeap.setExpiryPeriod(expiryPeriod);
+	}
+
+	@Override public long getCheckExpiryPeriod() {
+		return checkExpiryScheduler.getPeriod();
+	}
+
+	@Override public void setCheckExpiryPeriod(long checkExpiryPeriod) {
+		checkExpiryScheduler.setPeriod(checkExpiryPeriod);
+	}
+
+	@Override public ScheduledExecutorService getCheckExpiryExecutor() {
+		return checkExpiryScheduler.getExecutor();
+	}
+
+	@Override public void setCheckExpiryExecutor(ScheduledExecutorService executor) {
+		checkExpiryScheduler.setExecutor(executor);
+	}
+
+	@Override public void startBackgroundExpiry() {
+		checkExpiryScheduler.schedule();
+	}
+
+	@Override public void stopBackgroundExpiry() {
+		checkExpiryScheduler.shutdown();
+	}
+
+	@Override public void removeExpiredEntries() {
+		heap.removeExpiredEntries();
+		offHeap.removeExpiredEntries();
+	}
+
+	@Override public CacheStatistics getStatistics() {
+		return stats.snapshot(size(), getCapacity());
+	}
+
+	@Override public void resetStatistics() {
+		stats.reset();
+	}
+
+	@Override public void addCacheListener(CacheListener<K, V> listener) {
+		if (listeners == null)
+			listeners = new ArrayList<>(4);
+		listeners.add(listener);
+	}
+
+	@Override public void removeCacheListener(CacheListener<K, V> listener) {
+		if (listeners != null)
+			listeners.remove(listener);
+	}
+
+	private void fireEntryRemoved(Map.Entry<K, V> entry, RemovalCause cause) {
+		stats.recordRemoval(cause);
+		if (listeners != null) {
+			for (CacheListener<K, V> listener : listeners)
+				listener.entryRemoved(entry, cause);
+		}
+	}
+
+
+	// Map interface
+
+	@Override public V get(Object key) {
+		V value = heap.get(key);
+		if (value == null && !offHeap.isEmpty()) {
+			value = offHeap.get(key);
+			if (value != null)
+				promote((K)key, value);
+		}
+		if (value != null)
+			stats.recordHit();
+		else
+			stats.recordMiss();
+		return value;
+	}
+
+	@Override public V put(K key, V value) {
+		return put(key, value, 0L);
+	}
+
+	@Override public V put(K key, V value, long ttl) {
+		V old = removeFromOffHeap(key);
+		long period = ttl != 0L ? ttl : heap.getExpiryPeriod();
+		demoting = true;
+		try {
+			V heapOld = heap.put(key, value, ttl);
+			setHeapExpiryTime(key, period != 0L ? System.currentTimeMillis() + period : 0L);
+			return heapOld != null ? heapOld : old;
+		}
+		finally {
+			demoting = false;
+		}
+	}
+
+	@Override public V remove(Object key) {
+		V value = heap.remove(key);
+		if (value == null)
+			value = offHeap.remove(key);
+		return value;
+	}
+
+	@Override public boolean containsKey(Object key) {
+		return heap.containsKey(key) || offHeap.containsKey(key);
+	}
+
+	@Override public void clear() {
+		heap.clear();
+		offHeap.clear();
+		heapExpiryTimes.clear();
+	}
+
+	@Override public int size() {
+		return heap.size() + offHeap.size();
+	}
+
+	@Override public boolean isEmpty() {
+		return heap.isEmpty() && offHeap.isEmpty();
+	}
+
+	private void promote(K key, V value) {
+		long expiryTime = offHeap.getExpiryTime(key);
+		removeFromOffHeap(key);
+		demoting = true;
+		try {
+			// Entry has just been found valid, so it is promoted even if it expires in the meantime
+			heap.put(key, value, expiryTime != 0L ? Math.max(expiryTime - System.currentTimeMillis(), 1L) : 0L);
+			setHeapExpiryTime(key, expiryTime);
+		}
+		finally {
+			demoting = false;
+		}
+	}
+
+	private void demote(Map.Entry<K, V> entry, Long expiryTime) {
+		if (expiryTime != null) {
+			long ttl = expiryTime - System.currentTimeMillis();
+			if (ttl > 0L)
+				offHeap.put(entry.getKey(), entry.getValue(), ttl);
+			else
+				fireEntryRemoved(entry, RemovalCause.EXPIRED);
+		}
+		else
+			offHeap.put(entry.getKey(), entry.getValue());
+	}
+
+	private void setHeapExpiryTime(K key, long expiryTime) {
+		if (expiryTime != 0L)
+			heapExpiryTimes.put(key, expiryTime);
+		else
+			heapExpiryTimes.remove(key);
+	}
+
+	private V removeFromOffHeap(K key) {
+		if (offHeap.isEmpty())
+			return null;
+		promoting = true;
+		try {
+			return offHeap.remove(key);
+		}
+		finally {
+			promoting = false;
+		}
+	}
+
+	private transient Set<Map.Entry<K, V>> entries;
+
+	/**
+	 * Returns entry set view. Iteration does not promote or demote entries.
+	 * @return entry set.
+	 */
+	@Override public Set<Map.Entry<K, V>> entrySet() {
+		if (entries == null)
+			entries = new AbstractSet<Map.Entry<K, V>>() {
+				@Override public int size() {
+					return TieredCache.this.size();
+				}
+				@Override public Iterator<Map.Entry<K, V>> iterator() {
+					return new EntriesIterator();
+				}
+			};
+		return entries;
+	}
+
+	private final class EntriesIterator implements Iterator<Map.Entry<K, V>> {
+
+		private Iterator<Map.Entry<K, V>> iter = heap.entrySet().iterator();
+		private Iterator<Map.Entry<K, V>> lastIter;
+		private boolean inHeap = true;
+
+		@Override public boolean hasNext() {
+			if (inHeap && !iter.hasNext()) {
+				iter = offHeap.entrySet().iterator();
+				inHeap = false;
+			}
+			return iter.hasNext();
+		}
+
+		@Override public Map.Entry<K, V> next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			lastIter = iter;
+			return iter.next();
+		}
+
+		@Override public void remove() {
+			if (lastIter == null)
+				throw new IllegalStateException();
+			lastIter.remove();
+			lastIter = null;
+		}
+	}
+}
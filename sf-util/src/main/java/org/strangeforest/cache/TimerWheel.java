@@ -0,0 +1,193 @@
+package org.strangeforest.cache;
+
+import java.util.function.*;
+
+/**
+ * <p><tt>TimerWheel</tt> is a hierarchical timing wheel used by caches as an index of entries by their expiry time.</p>
+ * <p>Timers are hashed into buckets of five wheels with bucket spans of 64ms, 4s, 4.4min, 4.7h and 12.4 days (64 buckets each),
+ * the lowest wheel whose range covers the timer's delay being chosen. When wheel is advanced, only buckets for the time elapsed
+ * since the previous advance are visited: expired timers are reported, while not yet expired ones cascade down to the lower wheels.
+ * That makes expiry work proportional to the number of expiring timers instead to the total number of timers.</p>
+ * <p>Scheduling, rescheduling and descheduling of timer are O(1). This class is not thread-safe.</p>
+ */
+public class TimerWheel<T extends TimerWheel.Timer> {
+
+	private final Timer[][] wheels;
+	private long time;
+	private int size;
+
+	private static final int[] SHIFTS = {6, 12, 18, 24, 30};
+	private static final int BUCKETS = 64;
+	private static final int BUCKET_MASK = BUCKETS - 1;
+
+	/**
+	 * Creates <tt>TimerWheel</tt> with current time as the wheel time.
+	 */
+	public TimerWheel() {
+		this(System.currentTimeMillis());
+	}
+
+	/**
+	 * Creates <tt>TimerWheel</tt> with the specified wheel time.
+	 * @param time initial wheel time in milliseconds.
+	 */
+	public TimerWheel(long time) {
+		super();
+		this.time = time;
+		wheels = new Timer[SHIFTS.length][BUCKETS];
+		for (Timer[] buckets : wheels) {
+			for (int i = 0; i < BUCKETS; i++)
+				buckets[i] = new Sentinel();
+		}
+	}
+
+	/**
+	 * Returns number of scheduled timers.
+	 * @return number of scheduled timers.
+	 */
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Schedules or reschedules timer for the specified expiry time.
+	 * @param timer timer.
+	 * @param expiryTime expiry time in milliseconds. Expiry time of 0 means no expiry and the timer is descheduled.
+	 */
+	public void schedule(T timer, long expiryTime) {
+		deschedule(timer);
+		((Timer)timer).expiryTime = expiryTime;
+		if (expiryTime != 0L)
+			link(timer);
+	}
+
+	/**
+	 * Removes timer from the wheel if it is scheduled.
+	 * @param timer timer.
+	 */
+	public void deschedule(T timer) {
+		unlink(timer);
+	}
+
+	private void unlink(Timer timer) {
+		if (timer.prevTimer != null) {
+			timer.prevTimer.nextTimer = timer.nextTimer;
+			timer.nextTimer.prevTimer = timer.prevTimer;
+			timer.prevTimer = timer.nextTimer = null;
+			size--;
+		}
+	}
+
+	/**
+	 * Advances the wheel to the specified time and reports all timers that have expired by that time.
+	 * Reported timers are descheduled before they are passed to the consumer, which may reschedule them.
+	 * @param now current time in milliseconds.
+	 * @param expired consumer of expired timers.
+	 */
+	public void advance(long now, Consumer<? super T> expired) {
+		long prev = time;
+		if (now < prev)
+			now = prev;
+		time = now;
+		for (int level = wheels.length - 1; level >= 0; level--) {
+			int shift = SHIFTS[level];
+			long prevTicks = prev >>> shift;
+			long ticks = (now >>> shift) - prevTicks;
+			int count = ticks >= BUCKETS ? BUCKETS : (int)ticks + 1;
+			for (int i = 0; i < count; i++)
+				expire(wheels[level][(int)((prevTicks + i) & BUCKET_MASK)], now, expired);
+		}
+	}
+
+	/**
+	 * Removes all timers from the wheel.
+	 */
+	public void clear() {
+		for (Timer[] buckets : wheels) {
+			for (Timer sentinel : buckets) {
+				for (Timer timer = sentinel.nextTimer; timer != sentinel; ) {
+					Timer next = timer.nextTimer;
+					timer.prevTimer = timer.nextTimer = null;
+					timer = next;
+				}
+				sentinel.prevTimer = sentinel.nextTimer = sentinel;
+			}
+		}
+		size = 0;
+	}
+
+	private void expire(Timer sentinel, long now, Consumer<? super T> expired) {
+		Timer timer = sentinel.nextTimer;
+		if (timer == sentinel)
+			return;
+		sentinel.prevTimer.nextTimer = null;
+		sentinel.prevTimer = sentinel.nextTimer = sentinel;
+		while (timer != null) {
+			Timer next = timer.nextTimer;
+			timer.prevTimer = timer.nextTimer = null;
+			size--;
+			if (timer.expiryTime <= now)
+				expired.accept((T)timer);
+			else
+				link(timer);
+			timer = next;
+		}
+	}
+
+	private void link(Timer timer) {
+		int level = 0;
+		long ticks;
+		while (true) {
+			int shift = SHIFTS[level];
+			ticks = Math.max(timer.expiryTime, time) >>> shift;
+			long delta = ticks - (time >>> shift);
+			if (delta < BUCKETS)
+				break;
+			if (level == wheels.length - 1) {
+				ticks = (time >>> shift) + BUCKET_MASK;
+				break;
+			}
+			level++;
+		}
+		Timer sentinel = wheels[level][(int)(ticks & BUCKET_MASK)];
+		timer.nextTimer = sentinel;
+		timer.prevTimer = sentinel.prevTimer;
+		sentinel.prevTimer.nextTimer = timer;
+		sentinel.prevTimer = timer;
+		size++;
+	}
+
+	/**
+	 * <p>Base class for entries that can be scheduled in <tt>TimerWheel</tt>.</p>
+	 */
+	public static abstract class Timer {
+
+		private long expiryTime;
+		private Timer prevTimer;
+		private Timer nextTimer;
+
+		/**
+		 * Returns expiry time of the timer, or 0 if timer has no expiry time.
+		 * @return expiry time in milliseconds.
+		 */
+		public long getExpiryTime() {
+			return expiryTime;
+		}
+
+		public boolean isScheduled() {
+			return prevTimer != null;
+		}
+	}
+
+	private static final class Sentinel extends Timer {
+
+		private Sentinel() {
+			super();
+			((Timer)this).prevTimer = ((Timer)this).nextTimer = this;
+		}
+	}
+}
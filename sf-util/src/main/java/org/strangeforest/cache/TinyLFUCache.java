@@ -0,0 +1,546 @@
+package org.strangeforest.cache;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.strangeforest.concurrent.*;
+import org.strangeforest.util.*;
+
+/**
+ * <p><tt>TinyLFUCache</tt> is <tt>Cache</tt> implementation that uses W-TinyLFU algorithm
+ * to choose what entry to remove when capacity limit is reached.</p>
+ * <p>New entries are put into a small LRU admission window (1% of capacity). Entry evicted from the window is admitted
+ * into the main segmented LRU region only if its estimated access frequency, tracked by <tt>FrequencySketch</tt>,
+ * is higher than the frequency of the main region's eviction victim. Main region is split into probation and
+ * protected (80% of main region) segments, and entries accessed while on probation are promoted to the protected segment.
+ * This makes the cache resistant to one-off scans that would flush <tt>LRUCache</tt>.</p>
+ * <p>When maximum weight is set, it is enforced after admission by evicting main region victims
+ * (or admission window entries if main region is empty).</p>
+ */
+public class TinyLFUCache<K, V> extends AbstractMap<K, V> implements Cache<K, V> {
+
+	private final Map<K, Node<K, V>> map;
+	private final Region<K, V> window;
+	private final Region<K, V> probation;
+	private final Region<K, V> protectd;
+	private final FrequencySketch sketch;
+	private final TimerWheel<Node<K, V>> expiryWheel;
+	private final FixedRateScheduler checkExpiryScheduler;
+	private int capacity;
+	private int windowCapacity;
+	private int mainCapacity;
+	private int protectedCapacity;
+	private long maximumWeight;
+	private long weight;
+	private Weigher<? super K, ? super V> weigher;
+	private long expiryPeriod;
+	private final CacheStatsCounter stats;
+	private List<CacheListener<K, V>> listeners;
+
+	private static final byte WINDOW    = 0;
+	private static final byte PROBATION = 1;
+	private static final byte PROTECTED = 2;
+
+	private static final int WINDOW_PERCENTAGE = 1;
+	private static final int PROTECTED_PERCENTAGE = 80;
+
+	/**
+	 * Creates <tt>TinyLFUCache</tt> with unlimited capacity.
+	 */
+	public TinyLFUCache() {
+		this(0);
+	}
+
+	/**
+	 * Creates <tt>TinyLFUCache</tt> with specified capacity.
+	 * @param capacity cache capacity. Capacity of 0 means unlimited capacity.
+	 */
+	public TinyLFUCache(int capacity) {
+		super();
+		if (capacity < 0)
+			throw new IllegalArgumentException("Invalid capacity: " + capacity);
+		map = (capacity > 0) ? new HashMap<>(capacity*3/2) : new HashMap<>();
+		window = new Region<>(WINDOW);
+		probation = new Region<>(PROBATION);
+		protectd = new Region<>(PROTECTED);
+		sketch = new FrequencySketch(capacity);
+		expiryWheel = new TimerWheel<>();
+		weigher = Weigher.singleton();
+		stats = new CacheStatsCounter();
+		doSetCapacity(capacity);
+		checkExpiryScheduler = new FixedRateScheduler(this::removeExpiredEntries, 0L);
+	}
+
+	private void doSetCapacity(int capacity) {
+		this.capacity = capacity;
+		windowCapacity = capacity > 0 ? Math.max(capacity * WINDOW_PERCENTAGE / 100, 1) : 0;
+		mainCapacity = capacity - windowCapacity;
+		protectedCapacity = mainCapacity * PROTECTED_PERCENTAGE / 100;
+		sketch.ensureCapacity(capacity);
+	}
+
+
+	// Cache interface
+
+	@Override public int getCapacity() {
+		return capacity;
+	}
+
+	@Override public void setCapacity(int capacity) {
+		if (capacity < 0)
+			throw new IllegalArgumentException("Invalid capacity: " + capacity);
+		doSetCapacity(capacity);
+		removeExpiredEntries();
+		ensureCapacity();
+	}
+
+	@Override public long getMaximumWeight() {
+		return maximumWeight;
+	}
+
+	@Override public void setMaximumWeight(long maximumWeight) {
+		if (maximumWeight < 0L)
+			throw new IllegalArgumentException("Invalid maximum weight: " + maximumWeight);
+		this.maximumWeight = maximumWeight;
+		removeExpiredEntries();
+		ensureCapacity();
+	}
+
+	@Override public long getWeight() {
+		return weight;
+	}
+
+	@Override public Weigher<? super K, ? super V> getWeigher() {
+		return weigher;
+	}
+
+	@Override public void setWeigher(Weigher<? super K, ? super V> weigher) {
+		this.weigher = Objects.requireNonNull(weigher);
+		weight = 0L;
+		for (Node<K, V> node : map.values())
+			addWeight(node);
+		ensureCapacity();
+	}
+
+	@Override public long getExpiryPeriod() {
+		return expiryPeriod;
+	}
+
+	@Override public void setExpiryPeriod(long expiryPeriod) {
+		if (expiryPeriod != this.expiryPeriod) {
+			this.expiryPeriod = expiryPeriod;
+			for (Node<K, V> node : map.values())
+				scheduleExpiry(node);
+		}
+	}
+
+	@Override public long getCheckExpiryPeriod() {
+		return checkExpiryScheduler.getPeriod();
+	}
+
+	@Override public void setCheckExpiryPeriod(long checkExpiryPeriod) {
+		checkExpiryScheduler.setPeriod(checkExpiryPeriod);
+	}
+
+	@Override public ScheduledExecutorService getCheckExpiryExecutor() {
+		return checkExpiryScheduler.getExecutor();
+	}
+
+	@Override public void setCheckExpiryExecutor(ScheduledExecutorService executor) {
+		checkExpiryScheduler.setExecutor(executor);
+	}
+
+	@Override public void startBackgroundExpiry() {
+		checkExpiryScheduler.schedule();
+	}
+
+	@Override public void stopBackgroundExpiry() {
+		checkExpiryScheduler.shutdown();
+	}
+
+	@Override public void removeExpiredEntries() {
+		if (!expiryWheel.isEmpty()) {
+			expiryWheel.advance(System.currentTimeMillis(), node -> {
+				if (node.isValid(expiryPeriod))
+					scheduleExpiry(node);
+				else
+					doRemove(node, RemovalCause.EXPIRED);
+			});
+		}
+	}
+
+	@Override public CacheStatistics getStatistics() {
+		return stats.snapshot(map.size(), capacity);
+	}
+
+	@Override public void resetStatistics() {
+		stats.reset();
+	}
+
+	@Override public void addCacheListener(CacheListener<K, V> listener) {
+		if (listeners == null)
+			listeners = new ArrayList<>(4);
+		listeners.add(listener);
+	}
+
+	@Override public void removeCacheListener(CacheListener<K, V> listener) {
+		if (listeners != null)
+			listeners.remove(listener);
+	}
+
+
+	// Map interface
+
+	@Override public V get(Object key) {
+		recordAccess(key);
+		Node<K, V> node = map.get(key);
+		if (node != null) {
+			if (node.isValid(expiryPeriod)) {
+				touch(node);
+				stats.recordHit();
+				return node.value;
+			}
+			else
+				doRemove(node, RemovalCause.EXPIRED);
+		}
+		stats.recordMiss();
+		return null;
+	}
+
+	/**
+	 * Puts new entry in the cache. If cache has reached its capacity limit, either the entry evicted from the admission window
+	 * or the main region's victim is removed, depending on which one has been accessed less frequently.
+	 * @param key key
+	 * @param value value
+	 * @return previous value for specified key
+	 */
+	@Override public V put(K key, V value) {
+		return put(key, value, 0L);
+	}
+
+	@Override public V put(K key, V value, long ttl) {
+		if (ttl < 0L)
+			throw new IllegalArgumentException("Invalid time-to-live: " + ttl);
+		recordAccess(key);
+		Node<K, V> node = map.get(key);
+		if (node != null) {
+			touch(node);
+			node.touchPut();
+			node.ttl = ttl;
+			scheduleExpiry(node);
+			V old = node.value;
+			node.value = value;
+			weight -= node.weight;
+			addWeight(node);
+			ensureCapacity();
+			return old;
+		}
+		else {
+			node = new Node<>(key, value);
+			node.ttl = ttl;
+			map.put(key, node);
+			window.addFirst(node);
+			scheduleExpiry(node);
+			addWeight(node);
+			ensureCapacity();
+			return null;
+		}
+	}
+
+	@Override public V remove(Object key) {
+		Node<K, V> node = map.get(key);
+		if (node != null) {
+			doRemove(node, RemovalCause.EXPLICIT);
+			return node.value;
+		}
+		else
+			return null;
+	}
+
+	@Override public void clear() {
+		map.clear();
+		window.clear();
+		probation.clear();
+		protectd.clear();
+		expiryWheel.clear();
+		weight = 0L;
+	}
+
+	@Override public int size() {
+		return map.size();
+	}
+
+	@Override public boolean isEmpty() {
+		return map.isEmpty();
+	}
+
+	@Override public boolean containsKey(Object key) {
+		Node<K, V> node = map.get(key);
+		if (node != null) {
+			if (node.isValid(expiryPeriod))
+				return true;
+			else
+				doRemove(node, RemovalCause.EXPIRED);
+		}
+		return false;
+	}
+
+	private void recordAccess(Object key) {
+		if (capacity > 0)
+			sketch.increment(key);
+	}
+
+	private void touch(Node<K, V> node) {
+		switch (node.region) {
+			case WINDOW:
+				window.moveToFirst(node);
+				break;
+			case PROBATION:
+				probation.remove(node);
+				protectd.addFirst(node);
+				while (protectd.size > protectedCapacity)
+					probation.addFirst(protectd.removeLast());
+				break;
+			case PROTECTED:
+				protectd.moveToFirst(node);
+				break;
+		}
+	}
+
+	private void ensureCapacity() {
+		if (capacity > 0) {
+			while (window.size > windowCapacity)
+				admit(window.removeLast());
+			while (probation.size + protectd.size > mainCapacity)
+				doRemove(mainVictim(), RemovalCause.SIZE);
+		}
+		if (maximumWeight > 0L) {
+			while (weight > maximumWeight && !map.isEmpty()) {
+				Node<K, V> victim = mainVictim();
+				doRemove(victim != null ? victim : window.last(), RemovalCause.SIZE);
+			}
+		}
+	}
+
+	private void addWeight(Node<K, V> node) {
+		int weight = weigher.weigh(node.key, node.value);
+		if (weight < 0)
+			throw new IllegalArgumentException("Invalid weight: " + weight);
+		node.weight = weight;
+		this.weight += weight;
+	}
+
+	private void admit(Node<K, V> candidate) {
+		if (probation.size + protectd.size < mainCapacity)
+			probation.addFirst(candidate);
+		else {
+			Node<K, V> victim = mainVictim();
+			if (victim != null && sketch.frequency(candidate.key) > sketch.frequency(victim.key)) {
+				doRemove(victim, RemovalCause.SIZE);
+				probation.addFirst(candidate);
+			}
+			else
+				doRemove(candidate, RemovalCause.SIZE);
+		}
+	}
+
+	private Node<K, V> mainVictim() {
+		return probation.size > 0 ? probation.last() : protectd.last();
+	}
+
+	private void doRemove(Node<K, V> node, RemovalCause cause) {
+		unlink(node);
+		map.remove(node.key);
+		fireEntryRemoved(node, cause);
+	}
+
+	private void unlink(Node<K, V> node) {
+		if (node.prev != null)
+			regionOf(node).remove(node);
+		expiryWheel.deschedule(node);
+		weight -= node.weight;
+	}
+
+	private void scheduleExpiry(Node<K, V> node) {
+		expiryWheel.schedule(node, node.expiryTime(expiryPeriod));
+	}
+
+	private Region<K, V> regionOf(Node<K, V> node) {
+		switch (node.region) {
+			case WINDOW: return window;
+			case PROBATION: return probation;
+			default: return protectd;
+		}
+	}
+
+	private void fireEntryRemoved(Node<K, V> node, RemovalCause cause) {
+		stats.recordRemoval(cause);
+		if (listeners != null) {
+			MapEntry<K, V> entry = new MapEntry<>(node.key, node.value);
+			for (CacheListener<K, V> listener : listeners)
+				listener.entryRemoved(entry, cause);
+		}
+	}
+
+	private transient Set<Map.Entry<K, V>> entries;
+
+	@Override public Set<Map.Entry<K, V>> entrySet() {
+		removeExpiredEntries();
+		if (entries == null)
+			entries = new AbstractSet<Map.Entry<K, V>>() {
+				@Override public int size() {
+					return map.size();
+				}
+				@Override public Iterator<Map.Entry<K, V>> iterator() {
+					return new EntriesIterator();
+				}
+			};
+		return entries;
+	}
+
+	private static final class Node<K, V> extends TimerWheel.Timer {
+
+		private final K key;
+		private V value;
+		private Node<K, V> prev;
+		private Node<K, V> next;
+		private byte region;
+		private long lastPut;
+		private long ttl;
+		private int weight;
+
+		private Node(K key, V value) {
+			super();
+			this.key = key;
+			this.value = value;
+			touchPut();
+		}
+
+		@Override public String toString() {
+			return key + "=" + value;
+		}
+
+		private void touchPut() {
+			lastPut = System.currentTimeMillis();
+		}
+
+		private boolean isValid(long expiryPeriod) {
+			long expiryTime = expiryTime(expiryPeriod);
+			return expiryTime == 0L || System.currentTimeMillis() <= expiryTime;
+		}
+
+		private long expiryTime(long expiryPeriod) {
+			long period = ttl != 0L ? ttl : expiryPeriod;
+			return period != 0L ? lastPut + period : 0L;
+		}
+	}
+
+	private static final class Region<K, V> {
+
+		private final byte type;
+		private final Node<K, V> header;
+		private int size;
+
+		private Region(byte type) {
+			super();
+			this.type = type;
+			header = new Node<>(null, null);
+			clear();
+		}
+
+		private void addFirst(Node<K, V> node) {
+			node.region = type;
+			node.prev = header;
+			node.next = header.next;
+			header.next.prev = node;
+			header.next = node;
+			size++;
+		}
+
+		private void remove(Node<K, V> node) {
+			node.prev.next = node.next;
+			node.next.prev = node.prev;
+			node.prev = node.next = null;
+			size--;
+		}
+
+		private void moveToFirst(Node<K, V> node) {
+			remove(node);
+			addFirst(node);
+		}
+
+		private Node<K, V> last() {
+			return header.prev != header ? header.prev : null;
+		}
+
+		private Node<K, V> removeLast() {
+			Node<K, V> node = header.prev;
+			remove(node);
+			return node;
+		}
+
+		private void clear() {
+			header.prev = header.next = header;
+			size = 0;
+		}
+	}
+
+	/**
+	 * Iterates over snapshot of nodes, skipping nodes that are expired or removed meanwhile.
+	 * Entries are detached from nodes, so that setting entry value puts it into the cache.
+	 */
+	private final class EntriesIterator implements Iterator<Map.Entry<K, V>> {
+
+		private final Iterator<Node<K, V>> nodes = new ArrayList<>(map.values()).iterator();
+		private Node<K, V> next;
+		private Node<K, V> last;
+
+		private EntriesIterator() {
+			super();
+			advance();
+		}
+
+		private void advance() {
+			next = null;
+			while (nodes.hasNext()) {
+				Node<K, V> node = nodes.next();
+				if (map.get(node.key) == node && node.isValid(expiryPeriod)) {
+					next = node;
+					return;
+				}
+			}
+		}
+
+		@Override public boolean hasNext() {
+			return next != null;
+		}
+
+		@Override public Map.Entry<K, V> next() {
+			if (next == null)
+				throw new NoSuchElementException();
+			last = next;
+			advance();
+			return new Entry(last.key, last.value);
+		}
+
+		@Override public void remove() {
+			if (last == null)
+				throw new IllegalStateException();
+			if (map.get(last.key) == last)
+				doRemove(last, RemovalCause.EXPLICIT);
+			last = null;
+		}
+	}
+
+	private class Entry extends MapEntry<K, V> {
+
+		public Entry(K key, V value) {
+			super(key, value);
+		}
+
+		@Override public V setValue(V value) {
+			super.setValue(value);
+			return put(key, value);
+		}
+	}
+}
@@ -0,0 +1,28 @@
+package org.strangeforest.cache;
+
+/**
+ * <p><tt>Weigher</tt> calculates weight of cache entries for caches that are bounded by maximum weight of entries
+ * instead of (or in addition to) maximum number of entries.</p>
+ * <p>Weight is calculated when entry is put into the cache and it is not recalculated while entry is in the cache.</p>
+ */
+@FunctionalInterface
+public interface Weigher<K, V> {
+
+	/**
+	 * Returns weight of cache entry. Weight unit is weigher-specific, ie. number of bytes.
+	 * @param key entry key.
+	 * @param value entry value.
+	 * @return non-negative entry weight.
+	 */
+	int weigh(K key, V value);
+
+	/**
+	 * Returns <tt>Weigher</tt> that weighs each entry as 1, so that total weight equals the number of entries.
+	 * @return singleton weigher.
+	 */
+	static <K, V> Weigher<K, V> singleton() {
+		return (Weigher)SINGLETON;
+	}
+
+	Weigher<Object, Object> SINGLETON = (key, value) -> 1;
+}
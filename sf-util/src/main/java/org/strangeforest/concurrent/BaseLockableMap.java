@@ -5,100 +5,314 @@ import java.util.concurrent.*;
 import java.util.concurrent.locks.*;
 import java.util.function.*;
 
+import static org.strangeforest.concurrent.NullMaskingConcurrentMap.*;
+
 /**
  * <p>This is base <tt>LockableMap</tt> implementation.</p>
- * <p>It uses <tt>ReentrantLock</tt> <tt>Lock</tt> implementation for underlying locking mechanism.</p>
+ * <p>It uses <tt>ReentrantReadWriteLock</tt> implementation for underlying locking mechanism, so that keys can be locked exclusively or shared.
+ * Each entry lock also keeps a version that is changed whenever the key is exclusively locked and unlocked, which allows optimistic reads.
+ * Versions of a key keep increasing when its lock is removed from the lock table and created again, as a new lock starts at the highest version of removed locks,
+ * and keys without lock are read optimistically against that version, so a stamp can not be validated by a lock of a later write.
+ * Versions are validated through <tt>StampedLock</tt>s that are write locked while versions change, which fences optimistically read data.
+ * Entry locks are reference counted and kept in a <tt>ConcurrentHashMap</tt> lock table, where they are created and removed atomically,
+ * so locking of different keys never contends. Lock of a key is kept in the lock table while it is in use or while the key is in the map.</p>
+ * <p>Values loaded by <tt>lockedGetAsync</tt> are tracked in a separate table of loads in progress, so that concurrent requests share a single load without holding the entry lock.
+ * Loaded value is put only if the entry lock can be acquired without waiting, otherwise it is returned to the requests without being put.</p>
+ * <p>Optional <tt>DeadlockDetector</tt> can be set to detect deadlocks among threads waiting for exclusive locks of this and other maps sharing the detector.</p>
+ * <p>If underlying map is thread-safe, it is accessed directly, otherwise access to it is guarded by this object's monitor.</p>
  * <p>This class <i>is</i> thread-safe.</p>
  */
 public class BaseLockableMap<K, V> implements LockableMap<K, V> {
 
 	private final Map<K, V> map;
-	private final Map<K, EntryLock> locks;
-
+	private final boolean concurrent;
+	private final ConcurrentMap<Object, EntryLock> locks; // Keyed by masked keys
+	private final ConcurrentMap<Object, CompletableFuture<V>> loads; // Keyed by masked keys
+	private final StampedLock removedLockStamps;
+	private volatile long removedLockVersion; // Changed under removedLockStamps write lock
+	private volatile DeadlockDetector deadlockDetector;
+
+	/**
+	 * Creates <tt>BaseLockableMap</tt> based on the map that is not thread-safe.
+	 * @param map map that this lockable map will be based upon.
+	 */
 	public BaseLockableMap(Map<K, V> map) {
-		super();
-		this.map = map;
-		locks = new HashMap<>();
+		this(map, false);
 	}
 
-	protected BaseLockableMap(Map<K, V> map, Map<K, EntryLock> locks) {
+	/**
+	 * Creates <tt>BaseLockableMap</tt> based on the specified map.
+	 * @param map map that this lockable map will be based upon.
+	 * @param concurrent whether the map is thread-safe, so that it can be accessed without holding this object's monitor.
+	 */
+	protected BaseLockableMap(Map<K, V> map, boolean concurrent) {
 		super();
 		this.map = map;
-		this.locks = locks;
+		this.concurrent = concurrent;
+		locks = new ConcurrentHashMap<>();
+		loads = new ConcurrentHashMap<>();
+		removedLockStamps = new StampedLock();
+		removedLockVersion = 1L;
+	}
+
+	public DeadlockDetector getDeadlockDetector() {
+		return deadlockDetector;
+	}
+
+	/**
+	 * Sets deadlock detector that tracks exclusive locks of this map. Should be set before the map is used, as locks created before are not tracked.
+	 * @param deadlockDetector deadlock detector, or <tt>null</tt> for no deadlock detection.
+	 */
+	public void setDeadlockDetector(DeadlockDetector deadlockDetector) {
+		this.deadlockDetector = deadlockDetector;
 	}
 
 	@Override public void lock(K key) {
-		getLock(key).lock();
+		lock(key, getLock(key));
+	}
+
+	private void lock(K key, EntryLock lock) {
+		DeadlockDetector detector = lock.getDeadlockDetector();
+		if (detector == null)
+			lock.lock();
+		else {
+			try {
+				awaitLock(key, lock, detector, false, -1L);
+			}
+			catch (InterruptedException ex) { // Not thrown when waiting uninterruptibly
+				throw new IllegalStateException(ex);
+			}
+			catch (DeadlockException ex) {
+				returnLock(key);
+				throw ex;
+			}
+		}
 	}
 
 	@Override public void lockInterruptibly(K key) throws InterruptedException {
-		getLock(key).lockInterruptibly();
+		EntryLock lock = getLock(key);
+		try {
+			DeadlockDetector detector = lock.getDeadlockDetector();
+			if (detector == null)
+				lock.lockInterruptibly();
+			else
+				awaitLock(key, lock, detector, true, -1L);
+		}
+		catch (InterruptedException | DeadlockException ex) {
+			returnLock(key);
+			throw ex;
+		}
 	}
 
 	@Override public boolean tryLock(K key) {
 		EntryLock lock = getLock(key);
 		boolean isLocked = lock.tryLock();
 		if (!isLocked)
-			returnLock(lock);
+			returnLock(key);
 		return isLocked;
 	}
 
 	@Override public boolean tryLock(K key, long timeout, TimeUnit unit) throws InterruptedException {
 		EntryLock lock = getLock(key);
-		boolean isLocked = lock.tryLock(timeout, unit);
+		boolean isLocked = false;
+		try {
+			isLocked = tryLock(key, lock, timeout, unit);
+		}
+		finally {
+			if (!isLocked)
+				returnLock(key);
+		}
+		return isLocked;
+	}
+
+	private static boolean tryLock(Object key, EntryLock lock, long timeout, TimeUnit unit) throws InterruptedException {
+		DeadlockDetector detector = lock.getDeadlockDetector();
+		return detector == null ? lock.tryLock(timeout, unit) : awaitLock(key, lock, detector, true, unit.toNanos(timeout));
+	}
+
+	/**
+	 * Waits for exclusive lock while registered with deadlock detector. Thread chosen by detector to break deadlock is woken up by interrupt.
+	 * @param nanos time to wait in nanoseconds, or -1 to wait indefinitely.
+	 * @return <tt>true</tt> if lock is acquired.
+	 */
+	private static boolean awaitLock(Object key, EntryLock lock, DeadlockDetector detector, boolean interruptible, long nanos) throws InterruptedException {
+		if (lock.tryLock())
+			return true;
+		if (nanos == 0L)
+			return false;
+		long deadline = System.nanoTime() + nanos;
+		boolean interrupted = false;
+		detector.startWaiting(key, lock);
+		try {
+			while (true) {
+				try {
+					if (nanos < 0L) {
+						lock.lockInterruptibly();
+						return true;
+					}
+					return lock.tryLock(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+				}
+				catch (InterruptedException ex) {
+					if (detector.isVictim())
+						throw DeadlockDetector.deadlockException(key);
+					if (interruptible)
+						throw ex;
+					interrupted = true;
+				}
+			}
+		}
+		finally {
+			detector.stopWaiting();
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override public void lockShared(K key) {
+		getLock(key).readLock().lock();
+	}
+
+	@Override public boolean tryLockShared(K key) {
+		EntryLock lock = getLock(key);
+		boolean isLocked = lock.readLock().tryLock();
 		if (!isLocked)
-			returnLock(lock);
+			returnLock(key);
 		return isLocked;
 	}
 
-	private synchronized EntryLock getLock(K key) {
-		EntryLock lock = locks.get(key);
-		if (lock == null) {
-			lock = new EntryLock();
-			locks.put(key, lock);
+	@Override public boolean tryLockShared(K key, long timeout, TimeUnit unit) throws InterruptedException {
+		EntryLock lock = getLock(key);
+		boolean isLocked = false;
+		try {
+			isLocked = lock.readLock().tryLock(timeout, unit);
 		}
-		lock.incRefCount();
-		return lock;
+		finally {
+			if (!isLocked)
+				returnLock(key);
+		}
+		return isLocked;
+	}
+
+	@Override public void unlockShared(K key) {
+		EntryLock lock = locks.get(mask(key));
+		if (lock == null || lock.getReadHoldCount() == 0)
+			throw new IllegalStateException("Key not locked shared: " + key);
+		boolean keep;
+		synchronized (lock) {
+			lock.readLock().unlock();
+			// Entry marked dirty by tryClear while locked shared is removed by the last reader, if it can be locked exclusively
+			if (lock.isDirty() && lock.getReadLockCount() == 0 && lock.tryLock()) {
+				try {
+					lock.clearDirty();
+					mapRemove(key);
+				}
+				finally {
+					lock.unlock();
+				}
+				keep = false;
+			}
+			else
+				keep = containsKey(key);
+		}
+		returnLock(key, keep);
+	}
+
+	@Override public long tryOptimisticRead(K key) {
+		EntryLock lock = locks.get(mask(key));
+		return lock != null ? lock.tryOptimisticRead() : removedLockVersion;
 	}
 
-	private synchronized void returnLock(EntryLock lock) {
-		lock.decRefCount();
+	/**
+	 * Checks whether the key has not been locked exclusively since the stamp was issued. Stamp of the key without lock is also invalidated
+	 * by removal of other keys' locks, in which case the value is read again under shared lock.
+	 */
+	@Override public boolean validate(K key, long stamp) {
+		if (stamp == 0L)
+			return false;
+		EntryLock lock = locks.get(mask(key));
+		if (lock != null)
+			return lock.validate(stamp);
+		// Validation of stamped lock fences optimistically read data before the version is read again
+		return removedLockStamps.validate(removedLockStamps.tryOptimisticRead()) && removedLockVersion == stamp;
 	}
 
-	protected final synchronized void removeLock(K key) {
-		EntryLock lock = locks.get(key);
-		if (lock != null && !lock.isLocked() && lock.getRefCount() <= 0)
-			locks.remove(key);
+	private EntryLock getLock(K key) {
+		return locks.compute(mask(key), (k, lock) -> {
+			if (lock == null)
+				lock = new EntryLock(deadlockDetector, removedLockVersion);
+			lock.incRefCount();
+			return lock;
+		});
 	}
 
-	protected final Map<K, EntryLock> getLockMap() {
+	private EntryLock retireLock(EntryLock lock) {
+		long version = lock.getVersion();
+		if (version > removedLockVersion) {
+			long stamp = removedLockStamps.writeLock();
+			try {
+				if (version > removedLockVersion)
+					removedLockVersion = version;
+			}
+			finally {
+				removedLockStamps.unlockWrite(stamp);
+			}
+		}
+		return null;
+	}
+
+	private void returnLock(K key) {
+		returnLock(key, containsKey(key));
+	}
+
+	private void returnLock(K key, boolean keep) {
+		locks.computeIfPresent(mask(key), (k, lock) -> lock.decRefCount() <= 0 && !keep && !lock.isInUse() ? retireLock(lock) : lock);
+	}
+
+	/**
+	 * Removes lock of the key from the lock table if it is not in use. Should be called when key is removed from the underlying map by other means than this class.
+	 * @param key key.
+	 */
+	protected final void removeLock(K key) {
+		locks.computeIfPresent(mask(key), (k, lock) -> !lock.isInUse() && lock.getRefCount() <= 0 ? retireLock(lock) : lock);
+	}
+
+	/**
+	 * Returns lock table, where <tt>null</tt> key is masked.
+	 * @return lock table.
+	 */
+	protected final ConcurrentMap<?, EntryLock> getLockMap() {
 		return locks;
 	}
 
-	@Override public synchronized void unlock(K key) {
+	@Override public void unlock(K key) {
 		EntryLock lock = checkLocked(key);
-		if (lock.isDirty()) {
-			map.remove(key);
-			if (lock.decRefCount() <= 0)
-				locks.remove(key);
+		boolean keep;
+		// Dirty flag is checked and lock released atomically with respect to tryClear marking the entry dirty
+		synchronized (lock) {
+			if (lock.isDirty()) {
+				lock.clearDirty();
+				mapRemove(key);
+				keep = false;
+			}
+			else
+				keep = containsKey(key);
+			lock.unlock();
 		}
-		else if (lock.decRefCount() <= 0 && !map.containsKey(key))
-			locks.remove(key);
-		lock.unlock();
+		returnLock(key, keep);
 	}
 
-	@Override public synchronized boolean isLocked(K key) {
-		EntryLock lock = locks.get(key);
+	@Override public boolean isLocked(K key) {
+		EntryLock lock = locks.get(mask(key));
 		return lock != null && lock.isLocked();
 	}
 
 	@Override public V lockedGet(K key, Function<K, V> function) {
 		EntryLock lock = getLock(key);
-		lock.lock();
+		lock(key, lock);
 		try {
 			V value = get(key);
 			if (value == null && !containsKey(key)) {
-				value = function.apply(key);
+				value = load(key, function);
 				doPut(key, value, lock);
 			}
 			return value;
@@ -108,9 +322,101 @@ public class BaseLockableMap<K, V> implements LockableMap<K, V> {
 		}
 	}
 
+	/**
+	 * Loads the value for the key missing in <tt>lockedGet</tt>. Called while entry is locked.
+	 * @param key key.
+	 * @param function function that computes the value.
+	 * @return loaded value.
+	 */
+	protected V load(K key, Function<K, V> function) {
+		return function.apply(key);
+	}
+
+	@Override public CompletableFuture<V> lockedGetAsync(K key, Function<K, CompletableFuture<V>> function) {
+		V value = get(key);
+		if (value != null || containsKey(key))
+			return CompletableFuture.completedFuture(value);
+		CompletableFuture<V> loading = new CompletableFuture<>();
+		CompletableFuture<V> inFlight = loads.putIfAbsent(mask(key), loading);
+		if (inFlight != null)
+			return inFlight.thenApply(Function.identity());
+		// Value could have been put by the load that has just completed
+		value = get(key);
+		if (value != null || containsKey(key)) {
+			loads.remove(mask(key), loading);
+			loading.complete(value);
+			return loading;
+		}
+		CompletableFuture<V> load;
+		try {
+			load = loadAsync(key, function);
+		}
+		catch (RuntimeException | Error ex) {
+			load = new CompletableFuture<>();
+			load.completeExceptionally(ex);
+		}
+		load.whenComplete((loaded, th) -> {
+			if (th == null) {
+				try {
+					loaded = install(key, loaded);
+				}
+				catch (RuntimeException | Error ex) {
+					th = ex;
+				}
+			}
+			// Value is put before load is removed, so that concurrent requests either share the load or find the value
+			loads.remove(mask(key), loading);
+			if (th == null)
+				loading.complete(loaded);
+			else
+				loading.completeExceptionally(th);
+		});
+		// Each caller gets its own dependent future, so that completing or cancelling it does not affect other callers
+		return loading.thenApply(Function.identity());
+	}
+
+	/**
+	 * Starts loading the value for the key missing in <tt>lockedGetAsync</tt>. Called without entry lock.
+	 * @param key key.
+	 * @param function function that starts computing the value.
+	 * @return future of the loaded value.
+	 */
+	protected CompletableFuture<V> loadAsync(K key, Function<K, CompletableFuture<V>> function) {
+		return function.apply(key);
+	}
+
+	/**
+	 * Puts the loaded value if the key is still missing. Called by the thread completing the load, which must not block,
+	 * so if the entry is locked by another thread, the loaded value is handed to the waiting requests without being put.
+	 */
+	private V install(K key, V value) {
+		EntryLock lock = getLock(key);
+		if (!lock.tryLock()) {
+			returnLock(key);
+			return value;
+		}
+		try {
+			if (containsKey(key))
+				return get(key);
+			doPut(key, value, lock);
+			return value;
+		}
+		finally {
+			unlock(key);
+		}
+	}
+
+	/**
+	 * Returns number of keys whose values are being loaded by <tt>lockedGetAsync</tt>.
+	 * @return number of loads in progress.
+	 */
+	public int getLoadsInProgress() {
+		return loads.size();
+	}
+
 	@Override public V lockedPut(K key, V value) {
 		EntryLock lock = getLock(key);
-		lock.lock();
+		lock(key, lock);
 		try {
 			return doPut(key, value, lock);
 		}
@@ -131,13 +437,20 @@ public class BaseLockableMap<K, V> implements LockableMap<K, V> {
 			}
 		}
 		else
-			returnLock(lock);
+			returnLock(key);
 		return isLocked;
 	}
 
 	@Override public boolean tryLockedPut(K key, V value, long timeout, TimeUnit unit) throws InterruptedException {
 		EntryLock lock = getLock(key);
-		boolean isLocked = lock.tryLock(timeout, unit);
+		boolean isLocked = false;
+		try {
+			isLocked = tryLock(key, lock, timeout, unit);
+		}
+		finally {
+			if (!isLocked)
+				returnLock(key);
+		}
 		if (isLocked) {
 			try {
 				doPut(key, value, lock);
@@ -146,130 +459,172 @@ public class BaseLockableMap<K, V> implements LockableMap<K, V> {
 				unlock(key);
 			}
 		}
-		else
-			returnLock(lock);
 		return isLocked;
 	}
 
-	private synchronized V doPut(K key, V value, EntryLock lock) {
+	private V doPut(K key, V value, EntryLock lock) {
 		lock.clearDirty();
-		return map.put(key, value);
+		return mapPut(key, value);
 	}
 
 	@Override public V lockedRemove(K key) {
 		lock(key);
 		try {
-			synchronized (this) {
-				return map.remove(key);
-			}
+			return mapRemove(key);
 		}
 		finally {
 			unlock(key);
 		}
 	}
 
-	private V tryLockedRemove(K key) {
-		EntryLock lock = getLock(key);
-		if (lock.tryLock()) {
-			try {
-				synchronized (this) {
-					return map.remove(key);
+	private void tryLockedRemove(K key) {
+		while (true) {
+			EntryLock lock = getLock(key);
+			if (lock.tryLock()) {
+				try {
+					mapRemove(key);
 				}
+				finally {
+					unlock(key);
+				}
+				return;
 			}
-			finally {
-				unlock(key);
-			}
-		}
-		else {
-			boolean setDirty = false;
-			synchronized (this) {
-				lock.decRefCount();
-				if (lock.isLocked()) {
+			boolean dirty;
+			synchronized (lock) {
+				dirty = lock.isInUse();
+				if (dirty)
 					lock.setDirty();
-					setDirty = true;
-					return null;
-				}
 			}
-			if (!setDirty)
-				return tryLockedRemove(key);
-			else
-				throw new IllegalStateException();
+			returnLock(key, true);
+			if (dirty)
+				return;
 		}
 	}
 
-	@Override public synchronized Set<K> keySetSnapshot() {
-		return new HashSet<>(map.keySet());
+	@Override public Set<K> keySetSnapshot() {
+		if (concurrent)
+			return new HashSet<>(map.keySet());
+		synchronized (this) {
+			return new HashSet<>(map.keySet());
+		}
 	}
 
-	@Override public synchronized Collection<V> valuesSnapshot() {
-		return new ArrayList<>(map.values());
+	@Override public Collection<V> valuesSnapshot() {
+		if (concurrent)
+			return new ArrayList<>(map.values());
+		synchronized (this) {
+			return new ArrayList<>(map.values());
+		}
 	}
 
-	@Override public synchronized Set<Entry<K, V>> entrySetSnapshot() {
-		return new HashSet<>(map.entrySet());
+	@Override public Set<Entry<K, V>> entrySetSnapshot() {
+		if (concurrent)
+			return new HashSet<>(map.entrySet());
+		synchronized (this) {
+			return new HashSet<>(map.entrySet());
+		}
 	}
 
-	@Override public synchronized Set<K> lockedKeySetSnapshot() {
+	@Override public Set<K> lockedKeySetSnapshot() {
 		Set<K> lockedKeys = new HashSet<>();
-		for (Map.Entry<K, EntryLock> entry : locks.entrySet())
+		for (Map.Entry<Object, EntryLock> entry : locks.entrySet())
 			if (entry.getValue().isLocked())
-				lockedKeys.add(entry.getKey());
+				lockedKeys.add(unmask(entry.getKey()));
 		return lockedKeys;
 	}
 
-	private EntryLock checkLocked(Object key) {
-		EntryLock lock = locks.get(key);
+	protected final EntryLock checkLocked(Object key) {
+		EntryLock lock = locks.get(mask(key));
 		if (lock == null || !lock.isLocked())
 			throw new IllegalStateException("Key not locked: " + key);
 		return lock;
 	}
 
+	private V mapPut(K key, V value) {
+		if (concurrent)
+			return map.put(key, value);
+		synchronized (this) {
+			return map.put(key, value);
+		}
+	}
+
+	private V mapRemove(Object key) {
+		if (concurrent)
+			return map.remove(key);
+		synchronized (this) {
+			return map.remove(key);
+		}
+	}
+
 
 	// Map interface
 
-	@Override public synchronized V get(Object key) {
-		return map.get(key);
+	@Override public V get(Object key) {
+		if (concurrent)
+			return map.get(key);
+		synchronized (this) {
+			return map.get(key);
+		}
 	}
 
-	@Override public synchronized V put(K key, V value) {
+	@Override public V put(K key, V value) {
 		EntryLock lock = checkLocked(key);
 		lock.clearDirty();
-		return map.put(key, value);
+		return mapPut(key, value);
 	}
 
-	@Override public synchronized boolean containsKey(Object key) {
-		return map.containsKey(key);
+	@Override public boolean containsKey(Object key) {
+		if (concurrent)
+			return map.containsKey(key);
+		synchronized (this) {
+			return map.containsKey(key);
+		}
 	}
 
-	@Override public synchronized boolean containsValue(Object value) {
-		return map.containsValue(value);
+	@Override public boolean containsValue(Object value) {
+		if (concurrent)
+			return map.containsValue(value);
+		synchronized (this) {
+			return map.containsValue(value);
+		}
 	}
 
-	@Override public synchronized V remove(Object key) {
+	@Override public V remove(Object key) {
 		checkLocked(key);
-		return map.remove(key);
+		return mapRemove(key);
 	}
 
 	@Override public void clear() {
-		for (K key : locksKeySnapshot())
+		for (K key : clearKeySnapshot())
 			lockedRemove(key);
 	}
 
 	@Override public void tryClear() {
-		for (K key : locksKeySnapshot())
+		for (K key : clearKeySnapshot())
 			tryLockedRemove(key);
 	}
 
-	private synchronized K[] locksKeySnapshot() {
-		return (K[])locks.keySet().toArray();
+	private Set<K> clearKeySnapshot() {
+		Set<K> keys = keySetSnapshot();
+		for (Object key : locks.keySet())
+			keys.add(unmask(key));
+		return keys;
 	}
 
-	@Override public synchronized int size() {
-		return map.size();
+	@Override public int size() {
+		if (concurrent)
+			return map.size();
+		synchronized (this) {
+			return map.size();
+		}
 	}
 
-	@Override public synchronized boolean isEmpty() {
-		return map.isEmpty();
+	@Override public boolean isEmpty() {
+		if (concurrent)
+			return map.isEmpty();
+		synchronized (this) {
+			return map.isEmpty();
+		}
 	}
 
 	@Override public synchronized Set<Entry<K, V>> entrySet() {
@@ -289,10 +644,97 @@ public class BaseLockableMap<K, V> implements LockableMap<K, V> {
 			lockedPut(e.getKey(), e.getValue());
 	}
 
-	protected static final class EntryLock extends ReentrantLock {
-		
-		private int refCount;
-		private boolean dirty;
+	protected static final class EntryLock extends ReentrantReadWriteLock implements DeadlockDetector.OwnedLock {
+
+		private final DeadlockDetector deadlockDetector;
+		private final StampedLock versionStamps; // Write locked while locked exclusively
+		private long versionStamp; // Guarded by write lock
+		private int refCount; // Guarded by lock table entry
+		private volatile boolean dirty;
+		private volatile long version; // Odd when not locked exclusively
+
+		private EntryLock(DeadlockDetector deadlockDetector, long version) {
+			super();
+			this.deadlockDetector = deadlockDetector;
+			versionStamps = new StampedLock();
+			this.version = version;
+		}
+
+		public void lock() {
+			writeLock().lock();
+			locked();
+		}
+
+		public void lockInterruptibly() throws InterruptedException {
+			writeLock().lockInterruptibly();
+			locked();
+		}
+
+		public boolean tryLock() {
+			boolean isLocked = writeLock().tryLock();
+			if (isLocked)
+				locked();
+			return isLocked;
+		}
+
+		public boolean tryLock(long timeout, TimeUnit unit) throws InterruptedException {
+			boolean isLocked = writeLock().tryLock(timeout, unit);
+			if (isLocked)
+				locked();
+			return isLocked;
+		}
+
+		public void unlock() {
+			if (getWriteHoldCount() == 1) {
+				version++;
+				versionStamps.unlockWrite(versionStamp);
+				if (deadlockDetector != null)
+					deadlockDetector.released();
+			}
+			writeLock().unlock();
+		}
+
+		private void locked() {
+			if (getWriteHoldCount() == 1) {
+				versionStamp = versionStamps.writeLock();
+				version++;
+				if (deadlockDetector != null)
+					deadlockDetector.acquired();
+			}
+		}
+
+		public DeadlockDetector getDeadlockDetector() {
+			return deadlockDetector;
+		}
+
+		@Override public Thread getExclusiveOwner() {
+			return getOwner();
+		}
+
+		public boolean isLocked() {
+			return isWriteLocked();
+		}
+
+		public boolean isInUse() {
+			return isWriteLocked() || getReadLockCount() > 0;
+		}
+
+		public long tryOptimisticRead() {
+			long version = this.version;
+			return (version & 1L) != 0L ? version : 0L;
+		}
+
+		/**
+		 * Checks whether the lock has not been locked exclusively since the stamp was issued.
+		 * Validation of stamped lock fences optimistically read data before the version is read again.
+		 */
+		public boolean validate(long stamp) {
+			return versionStamps.validate(versionStamps.tryOptimisticRead()) && version == stamp;
+		}
+
+		public long getVersion() {
+			return version;
+		}
 
 		public int getRefCount() {
 			return refCount;
@@ -322,15 +764,27 @@ public class BaseLockableMap<K, V> implements LockableMap<K, V> {
 
 	// Object
 
-	@Override public synchronized boolean equals(Object obj) {
-		return map.equals(obj);
+	@Override public boolean equals(Object obj) {
+		if (concurrent)
+			return map.equals(obj);
+		synchronized (this) {
+			return map.equals(obj);
+		}
 	}
 
-	@Override public synchronized int hashCode() {
-		return map.hashCode();
+	@Override public int hashCode() {
+		if (concurrent)
+			return map.hashCode();
+		synchronized (this) {
+			return map.hashCode();
+		}
 	}
 
-	@Override public synchronized String toString() {
-		return map.toString();
+	@Override public String toString() {
+		if (concurrent)
+			return map.toString();
+		synchronized (this) {
+			return map.toString();
+		}
 	}
 }
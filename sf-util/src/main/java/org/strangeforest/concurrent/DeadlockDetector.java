@@ -0,0 +1,183 @@
+package org.strangeforest.concurrent;
+
+import java.util.*;
+
+/**
+ * <p><tt>DeadlockDetector</tt> detects deadlocks among threads locking keys of one or more <tt>LockableMap</tt>s exclusively.</p>
+ * <p>It maintains a wait-for graph with an edge from each waiting thread to the thread that owns the lock it waits for.
+ * When a thread is about to wait for a lock, the graph is searched for a cycle through that thread. If a cycle is found,
+ * it is broken by failing the youngest thread in the cycle, which is the thread whose oldest held lock has been acquired last,
+ * as it has likely done the least work. That thread gets <tt>DeadlockException</tt> instead of the lock, while other threads continue waiting.</p>
+ * <p>Only exclusive locks are tracked. Detector is optional and should be set to lockable maps before they are used,
+ * as locks created before are not tracked. One detector can be shared among lockable maps to detect deadlocks across them.</p>
+ * <p>This class <i>is</i> thread-safe.</p>
+ */
+public class DeadlockDetector {
+
+	private final Map<Thread, Node> nodes; // Guarded by this
+	private long sequence; // Guarded by this
+	private long deadlockCount; // Guarded by this
+
+	public DeadlockDetector() {
+		super();
+		nodes = new HashMap<>();
+	}
+
+	/**
+	 * Returns number of deadlocks detected.
+	 * @return number of deadlocks detected.
+	 */
+	public synchronized long getDeadlockCount() {
+		return deadlockCount;
+	}
+
+	/**
+	 * Returns number of threads that hold or wait for tracked locks.
+	 * @return number of tracked threads.
+	 */
+	public synchronized int getThreadCount() {
+		return nodes.size();
+	}
+
+	/**
+	 * Returns number of threads waiting for tracked locks.
+	 * @return number of waiting threads.
+	 */
+	public synchronized int getWaitingThreadCount() {
+		int count = 0;
+		for (Node node : nodes.values()) {
+			if (node.waitingFor != null)
+				count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Called when current thread acquires a tracked lock it did not hold before.
+	 */
+	synchronized void acquired() {
+		Node node = nodes.computeIfAbsent(Thread.currentThread(), thread -> new Node());
+		if (node.holdCount++ == 0)
+			node.since = ++sequence;
+	}
+
+	/**
+	 * Called when current thread releases a tracked lock it no longer holds.
+	 */
+	synchronized void released() {
+		Thread thread = Thread.currentThread();
+		Node node = nodes.get(thread);
+		if (node != null && node.holdCount > 0 && --node.holdCount == 0 && node.waitingFor == null)
+			nodes.remove(thread);
+	}
+
+	/**
+	 * Registers that current thread is about to wait for the lock and checks for deadlock.
+	 * @param key key of the lock.
+	 * @param lock lock that is waited for.
+	 * @throws DeadlockException if waiting would cause deadlock and current thread is chosen to break it.
+	 */
+	synchronized void startWaiting(Object key, OwnedLock lock) {
+		Thread current = Thread.currentThread();
+		Node node = nodes.computeIfAbsent(current, thread -> new Node());
+		node.waitingFor = lock;
+		List<Thread> cycle = findCycle(current);
+		if (cycle != null) {
+			deadlockCount++;
+			Thread victim = youngest(cycle);
+			if (victim == current) {
+				stopWaiting(current, node);
+				throw deadlockException(key);
+			}
+			nodes.get(victim).victim = true;
+			victim.interrupt();
+		}
+	}
+
+	/**
+	 * Unregisters current thread as waiting. If current thread has been chosen to break deadlock, but has acquired the lock meanwhile,
+	 * interrupt used to wake it up is cleared.
+	 */
+	synchronized void stopWaiting() {
+		Thread current = Thread.currentThread();
+		Node node = nodes.get(current);
+		if (node != null) {
+			if (node.victim) {
+				node.victim = false;
+				Thread.interrupted();
+			}
+			stopWaiting(current, node);
+		}
+	}
+
+	private void stopWaiting(Thread thread, Node node) {
+		node.waitingFor = null;
+		if (node.holdCount == 0)
+			nodes.remove(thread);
+	}
+
+	/**
+	 * Checks whether current thread has been interrupted to break deadlock and clears the mark.
+	 * @return <tt>true</tt> if current thread has been chosen to break deadlock.
+	 */
+	synchronized boolean isVictim() {
+		Node node = nodes.get(Thread.currentThread());
+		if (node != null && node.victim) {
+			node.victim = false;
+			return true;
+		}
+		else
+			return false;
+	}
+
+	static DeadlockException deadlockException(Object key) {
+		return new DeadlockException("Deadlock detected while locking key: " + key);
+	}
+
+	private List<Thread> findCycle(Thread start) {
+		List<Thread> path = new ArrayList<>();
+		Thread thread = start;
+		while (true) {
+			path.add(thread);
+			Node node = nodes.get(thread);
+			if (node == null || node.waitingFor == null || node.victim)
+				return null;
+			Thread owner = node.waitingFor.getExclusiveOwner();
+			if (owner == null || owner == thread)
+				return null;
+			if (owner == start)
+				return path;
+			// Cycle that does not pass through start thread has already been detected by the thread that closed it
+			if (path.contains(owner))
+				return null;
+			thread = owner;
+		}
+	}
+
+	private Thread youngest(List<Thread> cycle) {
+		Thread youngest = null;
+		long youngestSince = Long.MIN_VALUE;
+		for (Thread thread : cycle) {
+			long since = nodes.get(thread).since;
+			if (since > youngestSince) {
+				youngest = thread;
+				youngestSince = since;
+			}
+		}
+		return youngest;
+	}
+
+	private static final class Node {
+		private int holdCount;
+		private long since;
+		private OwnedLock waitingFor;
+		private boolean victim;
+	}
+
+	/**
+	 * Lock whose exclusive owner can be determined.
+	 */
+	interface OwnedLock {
+		Thread getExclusiveOwner();
+	}
+}
@@ -0,0 +1,12 @@
+package org.strangeforest.concurrent;
+
+/**
+ * <p>Exception thrown by <tt>LockableMap</tt> to the thread chosen by <tt>DeadlockDetector</tt> to break a deadlock.</p>
+ * <p>The thread fails to acquire the lock it was waiting for, but it still holds locks it has already acquired and should release them.</p>
+ */
+public class DeadlockException extends RuntimeException {
+
+	public DeadlockException(String message) {
+		super(message);
+	}
+}
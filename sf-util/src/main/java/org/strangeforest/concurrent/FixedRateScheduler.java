@@ -4,25 +4,27 @@ import java.util.concurrent.*;
 
 /** FixedRateScheduler is a convenience class for fixed rate scheduling of <i>Runnable</i> tasks which can
  * transparently reschedule the task when scheduling period is changed.
+ * Unless executor is specified, tasks are scheduled on the process-wide <i>MaintenanceScheduler</i>.
  */
 public class FixedRateScheduler {
 
 	private final Runnable runnable;
 	private long period;
 	private ScheduledExecutorService executor;
-	private boolean ownExecutor;
-	private String threadName;
 	private ScheduledFuture future;
 
 	public FixedRateScheduler(Runnable runnable, long period) {
-		this(runnable, period, (String)null);
-	}
-
-	public FixedRateScheduler(Runnable runnable, long period, String threadName) {
 		super();
 		this.runnable = runnable;
 		this.period = period;
-		this.threadName = threadName;
+	}
+
+	/**
+	 * @deprecated Tasks no longer run on a dedicated thread, so thread name is ignored. Use <tt>FixedRateScheduler(Runnable, long)</tt>.
+	 */
+	@Deprecated
+	public FixedRateScheduler(Runnable runnable, long period, String threadName) {
+		this(runnable, period);
 	}
 
 	public FixedRateScheduler(Runnable runnable, long period, ScheduledExecutorService executor) {
@@ -70,20 +72,14 @@ public class FixedRateScheduler {
 		return future != null;
 	}
 
+	/**
+	 * Cancels the task. Executor is not shut down, as it is either shared or provided by the caller.
+	 */
 	public synchronized void shutdown() {
 		cancel();
-		if (ownExecutor)
-			executor.shutdown();
 	}
 
 	private ScheduledExecutorService doGetExecutor() {
-		if (executor == null) {
-			if (threadName != null)
-				executor = Executors.newSingleThreadScheduledExecutor(NamedThreadFactory.newSingleThreadFactory(threadName));
-			else
-				executor = Executors.newSingleThreadScheduledExecutor();
-			ownExecutor = true;
-		}
-		return executor;
+		return executor != null ? executor : MaintenanceScheduler.getInstance();
 	}
 }
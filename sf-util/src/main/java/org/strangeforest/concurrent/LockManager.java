@@ -1,5 +1,6 @@
 package org.strangeforest.concurrent;
 
+import java.util.*;
 import java.util.concurrent.*;
 
 /**
@@ -55,4 +56,123 @@ public interface LockManager<K> {
 	 * @return <tt>true</tt> if object is locked, otherwise <tt>false</tt>.
 	 */
 	boolean isLocked(K key);
+
+	/**
+	 * Locks objects associated with specified keys. Keys are locked in canonical order, so that threads locking overlapping sets of keys do not deadlock.
+	 * If locking of any key fails, already locked keys are unlocked.
+	 * @param keys keys of objects to be locked.
+	 */
+	default void lockAll(Collection<? extends K> keys) {
+		List<K> ordered = LockOrdering.sort(keys);
+		int locked = 0;
+		try {
+			for (K key : ordered) {
+				lock(key);
+				locked++;
+			}
+		}
+		finally {
+			if (locked < ordered.size())
+				unlockAll(ordered.subList(0, locked));
+		}
+	}
+
+	/**
+	 * Tries to lock objects associated with specified keys in canonical order, waiting at most <tt>timeout</tt> specified time units in total.
+	 * If any key cannot be locked in time, already locked keys are unlocked.
+	 * @param keys keys of objects to be locked.
+	 * @param timeout time to wait for all objects to be locked.
+	 * @param unit time unit.
+	 * @return <tt>true</tt> if all objects are successfully locked, otherwise <tt>false</tt>.
+	 * @throws InterruptedException if current thread is interrupted.
+	 */
+	default boolean tryLockAll(Collection<? extends K> keys, long timeout, TimeUnit unit) throws InterruptedException {
+		List<K> ordered = LockOrdering.sort(keys);
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		int locked = 0;
+		try {
+			for (K key : ordered) {
+				if (!tryLock(key, Math.max(deadline - System.nanoTime(), 0L), TimeUnit.NANOSECONDS))
+					return false;
+				locked++;
+			}
+			return true;
+		}
+		finally {
+			if (locked < ordered.size())
+				unlockAll(ordered.subList(0, locked));
+		}
+	}
+
+	/**
+	 * Unlocks objects associated with specified keys in reverse canonical order.
+	 * @param keys keys of objects to be unlocked.
+	 */
+	default void unlockAll(Collection<? extends K> keys) {
+		List<K> ordered = LockOrdering.sort(keys);
+		for (ListIterator<K> iter = ordered.listIterator(ordered.size()); iter.hasPrevious(); )
+			unlock(iter.previous());
+	}
+
+	/**
+	 * Locks the object associated with specified key for shared access.
+	 * Multiple threads may hold shared lock at the same time, while this method blocks if some other thread has locked the object exclusively.
+	 * By default, object is locked exclusively.
+	 * @param key key of object to be locked.
+	 */
+	default void lockShared(K key) {
+		lock(key);
+	}
+
+	/**
+	 * Tries to lock the object associated with specified key for shared access.
+	 * This method will return immediately.
+	 * @param key key of object to be locked.
+	 * @return <tt>true</tt> if object is successfully locked, otherwise <tt>false</tt>.
+	 */
+	default boolean tryLockShared(K key) {
+		return tryLock(key);
+	}
+
+	/**
+	 * Tries to lock the object associated with specified key for shared access,
+	 * waiting at most <tt>timeout</tt> specified time units if some other thread has locked the object exclusively.
+	 * @param key key of object to be locked.
+	 * @param timeout time to wait if object is already locked.
+	 * @param unit time unit.
+	 * @return <tt>true</tt> if object is successfully locked, otherwise <tt>false</tt>.
+	 * @throws InterruptedException if current thread is interrupted.
+	 */
+	default boolean tryLockShared(K key, long timeout, TimeUnit unit) throws InterruptedException {
+		return tryLock(key, timeout, unit);
+	}
+
+	/**
+	 * Unlocks the object with specified key that is locked for shared access.
+	 * @param key key of object to be unlocked.
+	 */
+	default void unlockShared(K key) {
+		unlock(key);
+	}
+
+	/**
+	 * Returns stamp for optimistic read of the object associated with specified key, which is later checked by <tt>validate</tt>.
+	 * Optimistic read takes no lock, so reads of objects that are rarely locked exclusively do not block or write shared memory.
+	 * By default, optimistic reads are not supported.
+	 * @param key key of object to be read.
+	 * @return stamp, or 0 if object is locked exclusively or optimistic read is not supported.
+	 */
+	default long tryOptimisticRead(K key) {
+		return 0L;
+	}
+
+	/**
+	 * Checks whether the object associated with specified key has not been locked exclusively since the stamp was issued.
+	 * @param key key of object that has been read.
+	 * @param stamp stamp returned by <tt>tryOptimisticRead</tt>.
+	 * @return <tt>true</tt> if optimistic read is valid, otherwise <tt>false</tt>.
+	 */
+	default boolean validate(K key, long stamp) {
+		return false;
+	}
 }
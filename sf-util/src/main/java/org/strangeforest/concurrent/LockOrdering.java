@@ -0,0 +1,34 @@
+package org.strangeforest.concurrent;
+
+import java.util.*;
+
+/**
+ * <p>Canonical order in which multiple keys are locked, so that threads locking overlapping sets of keys do not deadlock.</p>
+ * <p>Keys are ordered by class name first, then by natural order if they are <tt>Comparable</tt>, otherwise by hash code and string representation.</p>
+ */
+final class LockOrdering {
+
+	private LockOrdering() {}
+
+	private static final Comparator<Object> ORDER = (key1, key2) -> {
+		Class<?> class1 = key1.getClass();
+		Class<?> class2 = key2.getClass();
+		if (class1 != class2)
+			return class1.getName().compareTo(class2.getName());
+		if (key1 instanceof Comparable)
+			return ((Comparable<Object>)key1).compareTo(key2);
+		int result = Integer.compare(key1.hashCode(), key2.hashCode());
+		return result != 0 ? result : key1.toString().compareTo(key2.toString());
+	};
+
+	/**
+	 * Returns distinct keys in canonical lock order.
+	 * @param keys keys.
+	 * @return list of distinct keys in lock order.
+	 */
+	static <K> List<K> sort(Collection<? extends K> keys) {
+		List<K> sorted = new ArrayList<>(new LinkedHashSet<>(keys));
+		sorted.sort(ORDER);
+		return sorted;
+	}
+}
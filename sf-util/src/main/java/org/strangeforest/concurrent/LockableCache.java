@@ -2,26 +2,75 @@ package org.strangeforest.concurrent;
 
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.function.*;
+import javax.management.*;
 
 import org.strangeforest.cache.*;
+import org.strangeforest.util.*;
 
 /**
  * <p><tt>LockableCache</tt> is a <tt>Cache</tt> that supports fine grained locking of cache entries defined by <tt>LockableMap</tt></p>
+ * <p>Values loaded by <tt>lockedGet</tt> and <tt>lockedGetAsync</tt> are timed and counted in cache statistics as load successes or failures.</p>
+ * <p>Cache can be registered as MBean <tt>org.strangeforest:type=LockableCache,name=&lt;name&gt;</tt>,
+ * that exposes cache statistics and allows cache capacity to be changed at runtime.</p>
  */
 public class LockableCache<K, V> extends BaseLockableMap<K, V> implements Cache<K, V> {
 
 	private Cache<K, V> cache;
+	private final CacheStatsCounter loadStats;
+	private ObjectName mBeanName; // Guarded by this
 
 	/**
 	 * Creates <tt>LockableCache</tt> based on specified cache.
 	 * @param cache cache that this concurrent cache will be based upon.
 	 */
 	public LockableCache(Cache<K, V> cache) {
-		super(cache);
+		this(cache, false);
+	}
+
+	/**
+	 * Creates <tt>LockableCache</tt> based on specified cache.
+	 * @param cache cache that this concurrent cache will be based upon.
+	 * @param concurrent whether the cache is thread-safe, so that reads can bypass this cache's monitor.
+	 */
+	protected LockableCache(Cache<K, V> cache, boolean concurrent) {
+		super(cache, concurrent);
 		this.cache = cache;
+		loadStats = new CacheStatsCounter();
 		cache.addCacheListener(entry -> removeLock(entry.getKey()));
 	}
 
+	@Override protected V load(K key, Function<K, V> function) {
+		long startTime = System.nanoTime();
+		try {
+			V value = super.load(key, function);
+			loadStats.recordLoadSuccess(System.nanoTime() - startTime);
+			return value;
+		}
+		catch (RuntimeException | Error ex) {
+			loadStats.recordLoadFailure(System.nanoTime() - startTime);
+			throw ex;
+		}
+	}
+
+	@Override protected CompletableFuture<V> loadAsync(K key, Function<K, CompletableFuture<V>> function) {
+		long startTime = System.nanoTime();
+		CompletableFuture<V> future;
+		try {
+			future = super.loadAsync(key, function);
+		}
+		catch (RuntimeException | Error ex) {
+			loadStats.recordLoadFailure(System.nanoTime() - startTime);
+			throw ex;
+		}
+		return future.whenComplete((value, th) -> {
+			if (th == null)
+				loadStats.recordLoadSuccess(System.nanoTime() - startTime);
+			else
+				loadStats.recordLoadFailure(System.nanoTime() - startTime);
+		});
+	}
+
 	@Override public Set<Entry<K, V>> entrySet() {
 		return Collections.synchronizedSet(super.entrySet());
 	}
@@ -42,6 +91,26 @@ public class LockableCache<K, V> extends BaseLockableMap<K, V> implements Cache<
 		cache.setCapacity(capacity);
 	}
 
+	@Override public synchronized long getMaximumWeight() {
+		return cache.getMaximumWeight();
+	}
+
+	@Override public synchronized void setMaximumWeight(long maximumWeight) {
+		cache.setMaximumWeight(maximumWeight);
+	}
+
+	@Override public synchronized long getWeight() {
+		return cache.getWeight();
+	}
+
+	@Override public synchronized Weigher<? super K, ? super V> getWeigher() {
+		return cache.getWeigher();
+	}
+
+	@Override public synchronized void setWeigher(Weigher<? super K, ? super V> weigher) {
+		cache.setWeigher(weigher);
+	}
+
 	@Override public synchronized long getExpiryPeriod() {
 		return cache.getExpiryPeriod();
 	}
@@ -50,6 +119,18 @@ public class LockableCache<K, V> extends BaseLockableMap<K, V> implements Cache<
 		cache.setExpiryPeriod(expiryPeriod);
 	}
 
+	/**
+	 * Puts new entry with the specified time-to-live. Entry key must be locked.
+	 * @param key key.
+	 * @param value value.
+	 * @param ttl entry time-to-live in milliseconds. Time-to-live of 0 means that cache expiry period applies.
+	 * @return previous value for specified key.
+	 */
+	@Override public synchronized V put(K key, V value, long ttl) {
+		checkLocked(key).clearDirty();
+		return cache.put(key, value, ttl);
+	}
+
 	@Override public synchronized long getCheckExpiryPeriod() {
 		return cache.getCheckExpiryPeriod();
 	}
@@ -79,11 +160,39 @@ public class LockableCache<K, V> extends BaseLockableMap<K, V> implements Cache<
 	}
 
 	@Override public synchronized CacheStatistics getStatistics() {
-		return cache.getStatistics();
+		return cache.getStatistics().plus(loadStats.snapshot(0, 0));
 	}
 
 	@Override public synchronized void resetStatistics() {
 		cache.resetStatistics();
+		loadStats.reset();
+	}
+
+	/**
+	 * Registers this cache as MBean. If cache is already registered, it is unregistered first.
+	 * @param name cache name.
+	 * @throws IllegalStateException if MBean can not be registered, ie. other cache with the same name is already registered.
+	 */
+	public void registerMBean(String name) {
+		registerMBean(name, null);
+	}
+
+	/**
+	 * Registers this cache as MBean. If cache is already registered, it is unregistered first.
+	 * @param name cache name.
+	 * @param memoryPressureController memory pressure controller this cache is registered with, through which cache capacity is changed, or <tt>null</tt>.
+	 * @throws IllegalStateException if MBean can not be registered, ie. other cache with the same name is already registered.
+	 */
+	public synchronized void registerMBean(String name, MemoryPressureController memoryPressureController) {
+		unregisterMBean();
+		mBeanName = MBeanUtil.register(new LockableCacheMBeanImpl(this, name, memoryPressureController), LockableCacheMBean.class, "LockableCache", name);
+	}
+
+	public synchronized void unregisterMBean() {
+		if (mBeanName != null) {
+			MBeanUtil.unregister(mBeanName);
+			mBeanName = null;
+		}
 	}
 
 	@Override public synchronized void addCacheListener(CacheListener<K, V> listener) {
@@ -0,0 +1,31 @@
+package org.strangeforest.concurrent;
+
+/**
+ * <p>Management interface of <tt>LockableCache</tt>. Load times are in milliseconds.</p>
+ */
+public interface LockableCacheMBean {
+
+	String getName();
+
+	int getSize();
+	int getCapacity();
+	void setCapacity(int capacity);
+	long getWeight();
+	long getMaximumWeight();
+	void setMaximumWeight(long maximumWeight);
+	long getExpiryPeriod();
+	void setExpiryPeriod(long expiryPeriod);
+	int getLockCount();
+
+	long getHitCount();
+	long getMissCount();
+	float getHitRatio();
+	long getEvictionCount();
+	long getLoadSuccessCount();
+	long getLoadFailureCount();
+	double getLoadTimeP50();
+	double getLoadTimeP99();
+	double getLoadTimeP999();
+
+	void resetStatistics();
+}
@@ -0,0 +1,117 @@
+package org.strangeforest.concurrent;
+
+import java.util.concurrent.*;
+
+import org.strangeforest.cache.*;
+
+/**
+ * <p>Standard MBean implementation that exposes <tt>LockableCache</tt> through <tt>LockableCacheMBean</tt> management interface.</p>
+ */
+public class LockableCacheMBeanImpl implements LockableCacheMBean {
+
+	private final LockableCache<?, ?> cache;
+	private final String name;
+	private final MemoryPressureController memoryPressureController;
+
+	public LockableCacheMBeanImpl(LockableCache<?, ?> cache, String name) {
+		this(cache, name, null);
+	}
+
+	/**
+	 * Creates MBean of the cache whose capacity is changed through memory pressure controller the cache is registered with.
+	 * @param cache cache.
+	 * @param name cache name.
+	 * @param memoryPressureController memory pressure controller, or <tt>null</tt>.
+	 */
+	public LockableCacheMBeanImpl(LockableCache<?, ?> cache, String name, MemoryPressureController memoryPressureController) {
+		super();
+		this.cache = cache;
+		this.name = name;
+		this.memoryPressureController = memoryPressureController;
+	}
+
+	@Override public String getName() {
+		return name;
+	}
+
+	@Override public int getSize() {
+		return cache.size();
+	}
+
+	@Override public int getCapacity() {
+		return cache.getCapacity();
+	}
+
+	@Override public void setCapacity(int capacity) {
+		if (memoryPressureController != null)
+			memoryPressureController.setCapacity(cache, capacity);
+		else
+			cache.setCapacity(capacity);
+	}
+
+	@Override public long getWeight() {
+		return cache.getWeight();
+	}
+
+	@Override public long getMaximumWeight() {
+		return cache.getMaximumWeight();
+	}
+
+	@Override public void setMaximumWeight(long maximumWeight) {
+		cache.setMaximumWeight(maximumWeight);
+	}
+
+	@Override public long getExpiryPeriod() {
+		return cache.getExpiryPeriod();
+	}
+
+	@Override public void setExpiryPeriod(long expiryPeriod) {
+		cache.setExpiryPeriod(expiryPeriod);
+	}
+
+	@Override public int getLockCount() {
+		return cache.lockedKeySetSnapshot().size();
+	}
+
+	@Override public long getHitCount() {
+		return cache.getStatistics().hits();
+	}
+
+	@Override public long getMissCount() {
+		return cache.getStatistics().misses();
+	}
+
+	@Override public float getHitRatio() {
+		return cache.getStatistics().hitRatio();
+	}
+
+	@Override public long getEvictionCount() {
+		return cache.getStatistics().evictionCount();
+	}
+
+	@Override public long getLoadSuccessCount() {
+		return cache.getStatistics().loadSuccessCount();
+	}
+
+	@Override public long getLoadFailureCount() {
+		return cache.getStatistics().loadFailureCount();
+	}
+
+	@Override public double getLoadTimeP50() {
+		return cache.getStatistics().loadTimes().getPercentile(50.0) / NANOS_PER_MILLI;
+	}
+
+	@Override public double getLoadTimeP99() {
+		return cache.getStatistics().loadTimes().getPercentile(99.0) / NANOS_PER_MILLI;
+	}
+
+	@Override public double getLoadTimeP999() {
+		return cache.getStatistics().loadTimes().getPercentile(99.9) / NANOS_PER_MILLI;
+	}
+
+	@Override public void resetStatistics() {
+		cache.resetStatistics();
+	}
+
+	private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1L);
+}
@@ -0,0 +1,31 @@
+package org.strangeforest.concurrent;
+
+import org.strangeforest.cache.*;
+
+/**
+ * <p><tt>LockableConcurrentCache</tt> is <tt>LockableCache</tt> based on <tt>ConcurrentCache</tt>.</p>
+ * <p>Unlike other <tt>LockableCache</tt>s, map reads and writes bypass map-level monitor and reads never block,
+ * while entry locking and snapshots behave as defined by <tt>LockableMap</tt>.</p>
+ * @see org.strangeforest.cache.ConcurrentCache
+ */
+public class LockableConcurrentCache<K, V> extends LockableCache<K, V> {
+
+	/**
+	 * Creates <tt>LockableConcurrentCache</tt> with unlimited capacity.
+	 */
+	public LockableConcurrentCache() {
+		this(new ConcurrentCache<>());
+	}
+
+	/**
+	 * Creates <tt>LockableConcurrentCache</tt> with specified capacity.
+	 * @param capacity cache capacity. Capacity of 0 means unlimited capacity.
+	 */
+	public LockableConcurrentCache(int capacity) {
+		this(new ConcurrentCache<>(capacity));
+	}
+
+	private LockableConcurrentCache(ConcurrentCache<K, V> cache) {
+		super(cache, true);
+	}
+}
@@ -1,23 +1,22 @@
 package org.strangeforest.concurrent;
 
-import java.util.*;
-
 /**
- * <p>This is <tt>LockableMap</tt> implementation based on <tt>HashMap</tt>.</p>
- * <p>It uses <tt>ReentrantLock</tt> class for underlying locking mechanism.</p>
+ * <p>This is <tt>LockableMap</tt> implementation based on <tt>ConcurrentHashMap</tt>, so reads and writes of different keys do not block each other.
+ * Unlike with <tt>ConcurrentHashMap</tt>, <tt>null</tt> keys and values are permitted, so <tt>null</tt> loaded by <tt>lockedGet</tt> is cached as with <tt>HashMap</tt>.</p>
+ * <p>It uses <tt>ReentrantReadWriteLock</tt> based entry locks for underlying locking mechanism.</p>
  * <p>This class <i>is</i> thread-safe.</p>
  */
 public class LockableHashMap<K, V> extends BaseLockableMap<K, V> {
 
 	public LockableHashMap() {
-		super(new HashMap<>(), new HashMap<>());
+		super(new NullMaskingConcurrentMap<>(), true);
 	}
 
 	public LockableHashMap(int initialCapacity) {
-		super(new HashMap<>(initialCapacity), new HashMap<>(initialCapacity));
+		super(new NullMaskingConcurrentMap<>(initialCapacity), true);
 	}
 
 	public LockableHashMap(int initialCapacity, float loadFactor) {
-		super(new HashMap<>(initialCapacity, loadFactor), new HashMap<>(initialCapacity, loadFactor));
+		super(new NullMaskingConcurrentMap<>(initialCapacity, loadFactor), true);
 	}
 }
@@ -27,7 +27,7 @@ public class LockableLRUCache<K, V> extends LockableCache<K, V> {
 
 	/**
 	 * Creates <tt>LockableLRUCache</tt> with unlimited capacity based on specified map.
-	 * Useful for building memory-sensitive cache by passing <tt>SoftHashMap</tt> instance.
+	 * Memory-sensitive cache can be built by passing <tt>SoftHashMap</tt> instance, but registering cache with <tt>MemoryPressureController</tt> degrades it more gradually.
 	 * @param map map that this cache will be based upon. Entries in the specified map are ordered by its <tt>entrySet.iterator()</tt>.
 	 */
 	public LockableLRUCache(Map<? extends K, ? extends V> map) {
@@ -36,7 +36,7 @@ public class LockableLRUCache<K, V> extends LockableCache<K, V> {
 
 	/**
 	 * Creates <tt>LockableLRUCache</tt> with specified capacity based on specified map.
-	 * Useful for building memory-sensitive cache by passing <tt>SoftHashMap</tt> instance.
+	 * Memory-sensitive cache can be built by passing <tt>SoftHashMap</tt> instance, but registering cache with <tt>MemoryPressureController</tt> degrades it more gradually.
 	 * @param capacity cache capacity. Capacity of 0 means unlimited capacity.
 	 * @param map map that this cache will be based upon. Entries in the specified map are ordered by its <tt>entrySet.iterator()</tt>.
 	 */
@@ -21,6 +21,42 @@ public interface LockableMap<K, V> extends Map<K, V>, LockManager<K> {
 	 */
 	V lockedGet(K key, Function<K, V> function);
 
+	/**
+	 * Asynchronous version of <tt>lockedGet</tt> that never blocks the calling thread:
+	 * - If value is in cache, returns completed future,
+	 * - If value is already being loaded, returns future of that load, so that concurrent requests for the key share a single load,
+	 * - Otherwise starts loading the value using the function.
+	 * Loaded value is put under the key lock when load completes, unless the key has been mapped in the meantime, in which case the mapped value is returned.
+	 * Failed loads are not cached, so the next request for the key loads the value again.
+	 * @param key key
+	 * @param function mapping strategy used to start fetching the value
+	 * @return future of the value for the key
+	 */
+	CompletableFuture<V> lockedGetAsync(K key, Function<K, CompletableFuture<V>> function);
+
+	/**
+	 * Gets the value without locking the key exclusively. Value is read optimistically first,
+	 * and if the key is locked exclusively in the meantime, it is read again while the key is locked for shared access.
+	 * Useful for cache-hit paths of read-mostly entries.
+	 * @param key key
+	 * @return value for the key
+	 */
+	default V optimisticGet(K key) {
+		long stamp = tryOptimisticRead(key);
+		if (stamp != 0L) {
+			V value = get(key);
+			if (validate(key, stamp))
+				return value;
+		}
+		lockShared(key);
+		try {
+			return get(key);
+		}
+		finally {
+			unlockShared(key);
+		}
+	}
+
 	/**
 	 * Locks the key, puts mapping and finally unlocks the key.
 	 * @param key key
@@ -0,0 +1,27 @@
+package org.strangeforest.concurrent;
+
+import org.strangeforest.cache.*;
+
+/**
+ * <p><tt>LockableTinyLFUCache</tt> is <tt>LockableCache</tt> that uses W-TinyLFU
+ * algorithm to choose what entry to remove when capacity limit is reached.
+ * See <tt>TinyLFUCache</tt> for the details on W-TinyLFU algorithm.</p>
+ * @see org.strangeforest.cache.TinyLFUCache
+ */
+public class LockableTinyLFUCache<K, V> extends LockableCache<K, V> {
+
+	/**
+	 * Creates <tt>LockableTinyLFUCache</tt> with unlimited capacity.
+	 */
+	public LockableTinyLFUCache() {
+		super(new TinyLFUCache<>());
+	}
+
+	/**
+	 * Creates <tt>LockableTinyLFUCache</tt> with specified capacity.
+	 * @param capacity cache capacity. Capacity of 0 means unlimited capacity.
+	 */
+	public LockableTinyLFUCache(int capacity) {
+		super(new TinyLFUCache<>(capacity));
+	}
+}
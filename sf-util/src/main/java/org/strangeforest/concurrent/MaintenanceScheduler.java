@@ -0,0 +1,352 @@
+package org.strangeforest.concurrent;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * <p><tt>MaintenanceScheduler</tt> is <tt>ScheduledExecutorService</tt> for periodic background maintenance tasks
+ * (cache expiry, pool housekeeping...) that multiplexes any number of tasks on a single hashed-wheel timer thread
+ * and a small, capped pool of worker threads. Process-wide instance returned by <tt>getInstance</tt>
+ * is used by default by <tt>FixedRateScheduler</tt>, caches and resource pools, so that the number of
+ * maintenance threads does not grow with the number of caches and pools.</p>
+ * <p>Tasks are hashed into wheel buckets by their deadline tick. Timer thread sleeps until the next non-empty bucket,
+ * or indefinitely if there are no tasks, and exits after being idle for a minute. Deadlines are rounded up to the tick duration,
+ * so tasks falling into the same tick are coalesced into a single timer wake-up. Periodic task that is still running
+ * when it is due again is skipped for that period instead of being queued, so slow tasks never pile up.</p>
+ * <p>Tasks run on worker threads and should not block for long, as at most <tt>maxThreads</tt> tasks run at a time.</p>
+ */
+public class MaintenanceScheduler extends AbstractExecutorService implements ScheduledExecutorService {
+
+	private static final int DEFAULT_MAX_THREADS = 4;
+	private static final long DEFAULT_TICK_DURATION = 10L;
+	private static final int WHEEL_SIZE = 512;
+	private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+	private static final long TIMER_IDLE_TIMEOUT = 60000L;
+
+	private static final MaintenanceScheduler INSTANCE = new MaintenanceScheduler("Maintenance", DEFAULT_MAX_THREADS, DEFAULT_TICK_DURATION, true);
+
+	/**
+	 * Returns process-wide maintenance scheduler. Process-wide scheduler can not be shut down.
+	 * @return process-wide maintenance scheduler.
+	 */
+	public static MaintenanceScheduler getInstance() {
+		return INSTANCE;
+	}
+
+	private final String name;
+	private final boolean shared;
+	private final long tickNanos;
+	private final long startTime;
+	private final List<Task<?>>[] wheel;
+	private final ThreadPoolExecutor workers;
+	private Thread timer;
+	private long processedTick;
+	private int size;
+	private boolean shutdown;
+
+	/**
+	 * Creates <tt>MaintenanceScheduler</tt>.
+	 * @param name name used for timer and worker threads.
+	 * @param maxThreads maximum number of worker threads.
+	 * @param tickDuration duration of wheel tick in milliseconds.
+	 */
+	public MaintenanceScheduler(String name, int maxThreads, long tickDuration) {
+		this(name, maxThreads, tickDuration, false);
+	}
+
+	private MaintenanceScheduler(String name, int maxThreads, long tickDuration, boolean shared) {
+		super();
+		if (maxThreads <= 0)
+			throw new IllegalArgumentException("Invalid max threads: " + maxThreads);
+		if (tickDuration <= 0L)
+			throw new IllegalArgumentException("Invalid tick duration: " + tickDuration);
+		this.name = name;
+		this.shared = shared;
+		tickNanos = TimeUnit.MILLISECONDS.toNanos(tickDuration);
+		startTime = System.nanoTime();
+		wheel = new List[WHEEL_SIZE];
+		for (int i = 0; i < WHEEL_SIZE; i++)
+			wheel[i] = new ArrayList<>(2);
+		workers = new ThreadPoolExecutor(maxThreads, maxThreads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), new NamedThreadFactory(name + " Worker", true, false));
+		workers.allowCoreThreadTimeOut(true);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getMaxThreads() {
+		return workers.getMaximumPoolSize();
+	}
+
+	public long getTickDuration() {
+		return TimeUnit.NANOSECONDS.toMillis(tickNanos);
+	}
+
+	/**
+	 * Returns number of scheduled tasks.
+	 * @return number of scheduled tasks.
+	 */
+	public synchronized int getTaskCount() {
+		return size;
+	}
+
+	/**
+	 * Returns number of live threads, including timer thread.
+	 * @return number of live threads.
+	 */
+	public synchronized int getThreadCount() {
+		return workers.getPoolSize() + (timer != null ? 1 : 0);
+	}
+
+
+	// ScheduledExecutorService interface
+
+	@Override public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+		return schedule(new Task<Void>(command, null, triggerTime(delay, unit), 0L));
+	}
+
+	@Override public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+		return schedule(new Task<>(callable, triggerTime(delay, unit)));
+	}
+
+	@Override public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+		if (period <= 0L)
+			throw new IllegalArgumentException("Invalid period: " + period);
+		return schedule(new Task<Void>(command, null, triggerTime(initialDelay, unit), unit.toNanos(period)));
+	}
+
+	@Override public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+		if (delay <= 0L)
+			throw new IllegalArgumentException("Invalid delay: " + delay);
+		return schedule(new Task<Void>(command, null, triggerTime(initialDelay, unit), -unit.toNanos(delay)));
+	}
+
+	@Override public void execute(Runnable command) {
+		checkNotShutdown();
+		workers.execute(command);
+	}
+
+	@Override public void shutdown() {
+		checkNotShared();
+		doShutdown();
+		workers.shutdown();
+	}
+
+	@Override public List<Runnable> shutdownNow() {
+		checkNotShared();
+		doShutdown();
+		return workers.shutdownNow();
+	}
+
+	@Override public synchronized boolean isShutdown() {
+		return shutdown;
+	}
+
+	@Override public boolean isTerminated() {
+		return workers.isTerminated();
+	}
+
+	@Override public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return workers.awaitTermination(timeout, unit);
+	}
+
+	private synchronized void doShutdown() {
+		shutdown = true;
+		for (List<Task<?>> bucket : wheel) {
+			for (Task<?> task : bucket)
+				task.cancel(false);
+			bucket.clear();
+		}
+		size = 0;
+		notifyAll();
+	}
+
+	private void checkNotShared() {
+		if (shared)
+			throw new UnsupportedOperationException("Process-wide maintenance scheduler can not be shut down");
+	}
+
+	private synchronized void checkNotShutdown() {
+		if (shutdown)
+			throw new RejectedExecutionException("Maintenance scheduler is shut down");
+	}
+
+
+	// Timer wheel
+
+	private long triggerTime(long delay, TimeUnit unit) {
+		return System.nanoTime() + unit.toNanos(Math.max(delay, 0L));
+	}
+
+	private long tickOf(long time) {
+		long elapsed = time - startTime;
+		return (elapsed + tickNanos - 1L) / tickNanos;
+	}
+
+	private long currentTick() {
+		return (System.nanoTime() - startTime) / tickNanos;
+	}
+
+	private synchronized <V> Task<V> schedule(Task<V> task) {
+		checkNotShutdown();
+		if (timer == null) {
+			processedTick = currentTick();
+			enqueue(task);
+			timer = new NamedThreadFactory(name + " Timer", true, true).newThread(this::runTimer);
+			timer.start();
+		}
+		else {
+			enqueue(task);
+			notifyAll();
+		}
+		return task;
+	}
+
+	private void enqueue(Task<?> task) {
+		long tick = Math.max(tickOf(task.time), processedTick + 1L);
+		task.tick = tick;
+		wheel[(int)(tick & WHEEL_MASK)].add(task);
+		size++;
+	}
+
+	private void runTimer() {
+		List<Task<?>> expired = new ArrayList<>();
+		while (true) {
+			synchronized (this) {
+				if (!waitForTick())
+					return;
+				long now = currentTick();
+				long ticks = Math.min(now - processedTick, WHEEL_SIZE);
+				for (long tick = processedTick + 1L; tick <= processedTick + ticks; tick++) {
+					List<Task<?>> bucket = wheel[(int)(tick & WHEEL_MASK)];
+					for (Iterator<Task<?>> iter = bucket.iterator(); iter.hasNext(); ) {
+						Task<?> task = iter.next();
+						if (task.isCancelled()) {
+							iter.remove();
+							size--;
+						}
+						else if (task.tick <= now) {
+							iter.remove();
+							size--;
+							expired.add(task);
+						}
+					}
+				}
+				processedTick = now;
+				for (Task<?> task : expired) {
+					if (task.isFixedRate()) {
+						task.time += task.period * Math.max((System.nanoTime() - task.time) / task.period + 1L, 1L);
+						enqueue(task);
+					}
+				}
+			}
+			for (Task<?> task : expired) {
+				try {
+					workers.execute(task);
+				}
+				catch (RejectedExecutionException ex) {
+					task.cancel(false);
+				}
+			}
+			expired.clear();
+		}
+	}
+
+	private boolean waitForTick() {
+		long idleSince = System.currentTimeMillis();
+		try {
+			while (!shutdown) {
+				if (size == 0) {
+					processedTick = currentTick();
+					long idle = System.currentTimeMillis() - idleSince;
+					if (idle >= TIMER_IDLE_TIMEOUT)
+						break;
+					wait(TIMER_IDLE_TIMEOUT - idle);
+				}
+				else {
+					long delay = startTime + nextTick() * tickNanos - System.nanoTime();
+					if (delay <= 0L)
+						return true;
+					TimeUnit.NANOSECONDS.timedWait(this, delay);
+				}
+			}
+		}
+		catch (InterruptedException ignored) {}
+		timer = null;
+		return false;
+	}
+
+	private long nextTick() {
+		for (long tick = processedTick + 1L; tick < processedTick + WHEEL_SIZE; tick++) {
+			if (!wheel[(int)(tick & WHEEL_MASK)].isEmpty())
+				return tick;
+		}
+		return processedTick + WHEEL_SIZE;
+	}
+
+	private synchronized void rescheduleWithFixedDelay(Task<?> task) {
+		if (!shutdown && !task.isCancelled()) {
+			task.time = System.nanoTime() - task.period;
+			enqueue(task);
+			notifyAll();
+		}
+	}
+
+	private final class Task<V> extends FutureTask<V> implements RunnableScheduledFuture<V> {
+
+		private volatile long time;
+		private final long period;
+		private long tick;
+		private final AtomicBoolean running = new AtomicBoolean();
+
+		private Task(Runnable runnable, V result, long time, long period) {
+			super(runnable, result);
+			this.time = time;
+			this.period = period;
+		}
+
+		private Task(Callable<V> callable, long time) {
+			super(callable);
+			this.time = time;
+			this.period = 0L;
+		}
+
+		@Override public boolean isPeriodic() {
+			return period != 0L;
+		}
+
+		private boolean isFixedRate() {
+			return period > 0L;
+		}
+
+		@Override public long getDelay(TimeUnit unit) {
+			return unit.convert(time - System.nanoTime(), TimeUnit.NANOSECONDS);
+		}
+
+		@Override public int compareTo(Delayed other) {
+			if (other == this)
+				return 0;
+			return Long.compare(getDelay(TimeUnit.NANOSECONDS), other.getDelay(TimeUnit.NANOSECONDS));
+		}
+
+		@Override public void run() {
+			if (!isPeriodic())
+				super.run();
+			else if (running.compareAndSet(false, true)) {
+				boolean ok;
+				try {
+					ok = runAndReset();
+				}
+				finally {
+					running.set(false);
+				}
+				if (!ok)
+					cancel(false);
+				else if (!isFixedRate())
+					rescheduleWithFixedDelay(this);
+			}
+		}
+	}
+}
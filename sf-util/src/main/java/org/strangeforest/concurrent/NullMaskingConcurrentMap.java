@@ -0,0 +1,96 @@
+package org.strangeforest.concurrent;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * <p>Thread-safe map based on <tt>ConcurrentHashMap</tt> that permits <tt>null</tt> keys and values, by storing them as a mask object.</p>
+ */
+final class NullMaskingConcurrentMap<K, V> extends AbstractMap<K, V> {
+
+	private final ConcurrentMap<Object, Object> map;
+
+	private static final Object NULL = new Object();
+
+	NullMaskingConcurrentMap() {
+		super();
+		map = new ConcurrentHashMap<>();
+	}
+
+	NullMaskingConcurrentMap(int initialCapacity) {
+		super();
+		map = new ConcurrentHashMap<>(initialCapacity);
+	}
+
+	NullMaskingConcurrentMap(int initialCapacity, float loadFactor) {
+		super();
+		map = new ConcurrentHashMap<>(initialCapacity, loadFactor);
+	}
+
+	static Object mask(Object obj) {
+		return obj != null ? obj : NULL;
+	}
+
+	static <T> T unmask(Object obj) {
+		return obj != NULL ? (T)obj : null;
+	}
+
+	@Override public V get(Object key) {
+		return unmask(map.get(mask(key)));
+	}
+
+	@Override public V put(K key, V value) {
+		return unmask(map.put(mask(key), mask(value)));
+	}
+
+	@Override public V remove(Object key) {
+		return unmask(map.remove(mask(key)));
+	}
+
+	@Override public boolean containsKey(Object key) {
+		return map.containsKey(mask(key));
+	}
+
+	@Override public boolean containsValue(Object value) {
+		return map.containsValue(mask(value));
+	}
+
+	@Override public int size() {
+		return map.size();
+	}
+
+	@Override public boolean isEmpty() {
+		return map.isEmpty();
+	}
+
+	@Override public void clear() {
+		map.clear();
+	}
+
+	private transient Set<Map.Entry<K, V>> entries;
+
+	@Override public Set<Map.Entry<K, V>> entrySet() {
+		if (entries == null)
+			entries = new AbstractSet<Map.Entry<K, V>>() {
+				@Override public int size() {
+					return map.size();
+				}
+				@Override public Iterator<Map.Entry<K, V>> iterator() {
+					Iterator<Map.Entry<Object, Object>> iter = map.entrySet().iterator();
+					return new Iterator<Map.Entry<K, V>>() {
+						@Override public boolean hasNext() {
+							return iter.hasNext();
+						}
+						@Override public Map.Entry<K, V> next() {
+							Map.Entry<Object, Object> entry = iter.next();
+							return new AbstractMap.SimpleImmutableEntry<>(unmask(entry.getKey()), unmask(entry.getValue()));
+						}
+						@Override public void remove() {
+							iter.remove();
+						}
+					};
+				}
+			};
+		return entries;
+	}
+}
@@ -2,24 +2,60 @@ package org.strangeforest.concurrent;
 
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+import java.util.function.*;
+import java.util.stream.*;
 
 import org.strangeforest.util.*;
 
+/**
+ * <p><tt>StreamingIterator</tt> is an <tt>Iterator</tt> over items that are produced by a task running in another thread.</p>
+ * <p>In item mode, items are handed over one by one through a <tt>BlockingQueue</tt>.
+ * In chunked mode, producer fills fixed-size chunks and consumer drains whole chunks, so hand-over synchronization is paid once per chunk.
+ * Producer is blocked when number of buffered items reaches the high watermark, and it is resumed only when consumer drains the buffer down to the low watermark.</p>
+ * <p>Consumer can cancel the iteration, in which case buffered items are discarded and producer's next <tt>put</tt> throws <tt>CancellationException</tt>,
+ * so that producer stops and releases its resources. Error thrown by producer is rethrown to consumer after already buffered items are consumed.</p>
+ * <p>Items can also be consumed as a <tt>Stream</tt>. In chunked mode, its <tt>Spliterator</tt> splits off whole chunks, so that they can be processed in parallel.</p>
+ */
 public class StreamingIterator<T> implements Iterator<T> {
 
-	private final BlockingQueue buffer;
+	private final Buffer buffer;
 	private volatile Object current;
 	private volatile Throwable error;
+	private volatile boolean cancelled;
 
 	private static final Object END_MARKER = new Object();
 
+	/**
+	 * Creates <tt>StreamingIterator</tt> in item mode.
+	 * @param bufferSize number of items that can be buffered.
+	 */
 	public StreamingIterator(int bufferSize) {
 		this(new ArrayBlockingQueue<>(bufferSize+1));
 	}
 
+	/**
+	 * Creates <tt>StreamingIterator</tt> in item mode that uses specified queue as a buffer.
+	 * @param buffer buffer.
+	 */
 	public StreamingIterator(BlockingQueue<T> buffer) {
 		super();
-		this.buffer = buffer;
+		this.buffer = new QueueBuffer((BlockingQueue)buffer);
+	}
+
+	/**
+	 * Creates <tt>StreamingIterator</tt> in chunked mode.
+	 * @param chunkSize number of items in a chunk.
+	 * @param highWatermark number of buffered items at which producer is blocked. Must not be less than chunk size.
+	 * @param lowWatermark number of buffered items at or below which blocked producer is resumed. Must be less than high watermark.
+	 */
+	public StreamingIterator(int chunkSize, int highWatermark, int lowWatermark) {
+		super();
+		if (chunkSize <= 0)
+			throw new IllegalArgumentException("Invalid chunk size: " + chunkSize);
+		if (highWatermark < chunkSize || lowWatermark < 0 || lowWatermark >= highWatermark)
+			throw new IllegalArgumentException("Invalid watermarks: " + highWatermark + ", " + lowWatermark);
+		buffer = new ChunkBuffer(chunkSize, highWatermark, lowWatermark);
 	}
 
 	public void start(Runnable task) {
@@ -49,10 +85,45 @@ public class StreamingIterator<T> implements Iterator<T> {
 			checkError();
 	}
 
+	/**
+	 * Puts item to be iterated. Called by producer.
+	 * @param item item.
+	 * @throws InterruptedException if producer thread is interrupted.
+	 * @throws CancellationException if iteration is cancelled.
+	 */
 	public void put(T item) throws InterruptedException {
+		checkCancelled();
 		buffer.put(item);
 	}
 
+	/**
+	 * Makes items that are put so far available to consumer. Called by producer in chunked mode to publish partially filled chunk.
+	 * @throws InterruptedException if producer thread is interrupted.
+	 * @throws CancellationException if iteration is cancelled.
+	 */
+	public void flush() throws InterruptedException {
+		checkCancelled();
+		buffer.flush();
+	}
+
+	/**
+	 * Cancels the iteration. Buffered items are discarded, <tt>hasNext</tt> returns <tt>false</tt> and producer is stopped on its next <tt>put</tt>.
+	 */
+	public void cancel() {
+		cancelled = true;
+		current = END_MARKER;
+		buffer.cancel();
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	private void checkCancelled() {
+		if (cancelled)
+			throw new CancellationException("Streaming cancelled");
+	}
+
 	private final class RunnableProxy implements Runnable {
 
 		private final Runnable task;
@@ -67,11 +138,12 @@ public class StreamingIterator<T> implements Iterator<T> {
 				task.run();
 			}
 			catch (Throwable th) {
-				error = th;
+				if (!cancelled)
+					error = th;
 			}
 			finally {
 				try {
-					buffer.put(END_MARKER);
+					buffer.end();
 				}
 				catch (InterruptedException ignored) {}
 			}
@@ -79,8 +151,7 @@ public class StreamingIterator<T> implements Iterator<T> {
 	}
 
 	private void checkError() {
-		if (error != null) {
-			current = END_MARKER;
+		if (current == END_MARKER && error != null) {
 			Throwable error = this.error;
 			this.error = null;
 			error.fillInStackTrace();
@@ -110,13 +181,16 @@ public class StreamingIterator<T> implements Iterator<T> {
 	}
 
 	public boolean hasNext(long timeout, TimeUnit unit) throws InterruptedException {
-		if (current == null)
+		if (current == null) {
 			current = buffer.poll(timeout, unit);
+			if (current == null)
+				return false;
+		}
 		return hasNextOrError();
 	}
 
 	private boolean hasNextOrError() {
-		return current != END_MARKER || error != null;
+		return current != END_MARKER || (error != null && !cancelled);
 	}
 
 	@Override public T next() {
@@ -133,4 +207,313 @@ public class StreamingIterator<T> implements Iterator<T> {
 	@Override public void remove() {
 		throw new UnsupportedOperationException();
 	}
+
+
+	// Stream
+
+	/**
+	 * Returns <tt>Spliterator</tt> over remaining items. Size is estimated only after producer has finished.
+	 * @return spliterator.
+	 */
+	public Spliterator<T> spliterator() {
+		return new StreamingSpliterator();
+	}
+
+	/**
+	 * Returns sequential <tt>Stream</tt> over remaining items. Closing the stream cancels the iteration.
+	 * @return stream.
+	 */
+	public Stream<T> stream() {
+		return StreamSupport.stream(spliterator(), false).onClose(this::cancel);
+	}
+
+	private final class StreamingSpliterator extends Spliterators.AbstractSpliterator<T> {
+
+		private StreamingSpliterator() {
+			super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+		}
+
+		@Override public boolean tryAdvance(Consumer<? super T> action) {
+			if (hasNext()) {
+				action.accept(next());
+				return true;
+			}
+			else
+				return false;
+		}
+
+		@Override public Spliterator<T> trySplit() {
+			if (!buffer.isChunked() || current != null)
+				return super.trySplit();
+			Object[] chunk;
+			try {
+				chunk = buffer.takeChunk();
+			}
+			catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				return null;
+			}
+			return chunk != null ? Spliterators.spliterator(chunk, Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.IMMUTABLE) : null;
+		}
+
+		@Override public long estimateSize() {
+			long remaining = buffer.remaining();
+			if (remaining < 0L)
+				return Long.MAX_VALUE;
+			Object current = StreamingIterator.this.current;
+			return current != null && current != END_MARKER ? remaining + 1L : remaining;
+		}
+	}
+
+
+	// Buffers
+
+	private static abstract class Buffer {
+
+		abstract void put(Object item) throws InterruptedException;
+		abstract void flush() throws InterruptedException;
+		abstract void end() throws InterruptedException;
+		abstract Object take() throws InterruptedException;
+		abstract Object poll(long timeout, TimeUnit unit) throws InterruptedException;
+		abstract void cancel();
+		abstract boolean isChunked();
+
+		/**
+		 * Takes whole remaining chunk. Called by consumer in chunked mode.
+		 * @return chunk or <tt>null</tt> if there are no more items.
+		 * @throws InterruptedException if consumer thread is interrupted.
+		 */
+		abstract Object[] takeChunk() throws InterruptedException;
+
+		/**
+		 * Returns number of items that remain to be consumed, if producer has finished.
+		 * @return remaining item count, or -1 if producer has not finished.
+		 */
+		abstract long remaining();
+	}
+
+	private final class QueueBuffer extends Buffer {
+
+		private final BlockingQueue<Object> queue;
+		private volatile boolean ended;
+
+		private QueueBuffer(BlockingQueue<Object> queue) {
+			super();
+			this.queue = queue;
+		}
+
+		@Override void put(Object item) throws InterruptedException {
+			queue.put(item);
+		}
+
+		@Override void flush() {}
+
+		@Override void end() throws InterruptedException {
+			ended = true;
+			if (cancelled)
+				queue.offer(END_MARKER);
+			else
+				queue.put(END_MARKER);
+		}
+
+		@Override Object take() throws InterruptedException {
+			return queue.take();
+		}
+
+		@Override Object poll(long timeout, TimeUnit unit) throws InterruptedException {
+			return queue.poll(timeout, unit);
+		}
+
+		@Override void cancel() {
+			queue.clear();
+		}
+
+		@Override boolean isChunked() {
+			return false;
+		}
+
+		@Override Object[] takeChunk() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override long remaining() {
+			if (!ended)
+				return -1L;
+			int size = queue.size();
+			return size > 0 ? size - 1 : 0;
+		}
+	}
+
+	private final class ChunkBuffer extends Buffer {
+
+		private final int chunkSize;
+		private final int highWatermark;
+		private final int lowWatermark;
+		private final ReentrantLock lock;
+		private final Condition notEmpty;
+		private final Condition notFull;
+		private final Deque<Object[]> chunks; // Guarded by lock
+		private int bufferedItems; // Guarded by lock
+		private boolean ended; // Guarded by lock
+		// Producer side
+		private Object[] producerChunk;
+		private int producerCount;
+		// Consumer side
+		private Object[] consumerChunk;
+		private int consumerPosition;
+
+		private ChunkBuffer(int chunkSize, int highWatermark, int lowWatermark) {
+			super();
+			this.chunkSize = chunkSize;
+			this.highWatermark = highWatermark;
+			this.lowWatermark = lowWatermark;
+			lock = new ReentrantLock();
+			notEmpty = lock.newCondition();
+			notFull = lock.newCondition();
+			chunks = new ArrayDeque<>();
+		}
+
+		@Override void put(Object item) throws InterruptedException {
+			if (producerChunk == null)
+				producerChunk = new Object[chunkSize];
+			producerChunk[producerCount++] = item;
+			if (producerCount == chunkSize)
+				flush();
+		}
+
+		@Override void flush() throws InterruptedException {
+			if (producerCount == 0)
+				return;
+			Object[] chunk = producerCount == chunkSize ? producerChunk : Arrays.copyOf(producerChunk, producerCount);
+			producerChunk = null;
+			producerCount = 0;
+			lock.lockInterruptibly();
+			try {
+				if (bufferedItems >= highWatermark) {
+					while (bufferedItems > lowWatermark && !cancelled)
+						notFull.await();
+				}
+				if (cancelled)
+					throw new CancellationException("Streaming cancelled");
+				chunks.add(chunk);
+				bufferedItems += chunk.length;
+				notEmpty.signal();
+			}
+			finally {
+				lock.unlock();
+			}
+		}
+
+		@Override void end() throws InterruptedException {
+			try {
+				if (!cancelled)
+					flush();
+			}
+			catch (CancellationException ignored) {}
+			finally {
+				lock.lock();
+				try {
+					ended = true;
+					notEmpty.signalAll();
+				}
+				finally {
+					lock.unlock();
+				}
+			}
+		}
+
+		@Override Object take() throws InterruptedException {
+			return nextItem(-1L);
+		}
+
+		@Override Object poll(long timeout, TimeUnit unit) throws InterruptedException {
+			return nextItem(unit.toNanos(timeout));
+		}
+
+		private Object nextItem(long nanos) throws InterruptedException {
+			if (consumerChunk == null || consumerPosition == consumerChunk.length) {
+				consumerChunk = null;
+				Object[] chunk = nextChunk(nanos);
+				if (chunk == null)
+					return null;
+				if (chunk.length == 0)
+					return END_MARKER;
+				consumerChunk = chunk;
+				consumerPosition = 0;
+			}
+			return consumerChunk[consumerPosition++];
+		}
+
+		@Override boolean isChunked() {
+			return true;
+		}
+
+		@Override Object[] takeChunk() throws InterruptedException {
+			if (consumerChunk != null && consumerPosition < consumerChunk.length) {
+				Object[] chunk = consumerPosition == 0 ? consumerChunk : Arrays.copyOfRange(consumerChunk, consumerPosition, consumerChunk.length);
+				consumerChunk = null;
+				return chunk;
+			}
+			Object[] chunk = nextChunk(-1L);
+			return chunk != null && chunk.length > 0 ? chunk : null;
+		}
+
+		/**
+		 * Waits for the next chunk.
+		 * @param nanos time to wait in nanoseconds, or -1 to wait indefinitely.
+		 * @return chunk, empty array if there are no more chunks, or <tt>null</tt> if waiting time elapsed.
+		 */
+		private Object[] nextChunk(long nanos) throws InterruptedException {
+			lock.lockInterruptibly();
+			try {
+				boolean timed = nanos >= 0L;
+				while (chunks.isEmpty()) {
+					if (ended || cancelled)
+						return EMPTY_CHUNK;
+					if (!timed)
+						notEmpty.await();
+					else if (nanos <= 0L)
+						return null;
+					else
+						nanos = notEmpty.awaitNanos(nanos);
+				}
+				Object[] chunk = chunks.poll();
+				bufferedItems -= chunk.length;
+				if (bufferedItems <= lowWatermark)
+					notFull.signal();
+				return chunk;
+			}
+			finally {
+				lock.unlock();
+			}
+		}
+
+		@Override void cancel() {
+			lock.lock();
+			try {
+				chunks.clear();
+				bufferedItems = 0;
+				notFull.signalAll();
+				notEmpty.signalAll();
+			}
+			finally {
+				lock.unlock();
+			}
+		}
+
+		@Override long remaining() {
+			lock.lock();
+			try {
+				if (!ended)
+					return -1L;
+				Object[] chunk = consumerChunk;
+				return bufferedItems + (chunk != null ? chunk.length - consumerPosition : 0);
+			}
+			finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	private static final Object[] EMPTY_CHUNK = new Object[0];
 }
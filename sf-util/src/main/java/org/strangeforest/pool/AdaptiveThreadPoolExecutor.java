@@ -5,26 +5,59 @@ import java.util.concurrent.*;
 import java.util.concurrent.atomic.*;
 import java.util.concurrent.locks.*;
 
+import org.strangeforest.util.*;
+
+/**
+ * <p><tt>AdaptiveThreadPoolExecutor</tt> is thread pool executor that can either prefer adding threads up to <tt>maxPoolSize</tt> before queueing tasks
+ * (thread preference), or prefer queueing tasks and add threads only when the queue is full (queue preference, like <tt>ThreadPoolExecutor</tt>).</p>
+ * <p>Run state and worker count are kept in a single control word that is updated by compare-and-set, and task counters are striped,
+ * so that task submission does not lock. Executor monitor is taken only when workers are added or removed, and on shutdown.</p>
+ * <p>In work-stealing mode each worker has its own task deque. Tasks submitted from worker threads are pushed to the submitting worker's deque
+ * and are taken from it in LIFO order, while tasks submitted from other threads go to the shared queue. Idle workers take tasks from the shared queue,
+ * or steal from the opposite end of other workers' deques, and park if there are none. Pool still grows up to <tt>maxPoolSize</tt>
+ * and shrinks to <tt>corePoolSize</tt> after <tt>keepAliveTime</tt> of idleness. Worker deques are unbounded.</p>
+ * <p>Time each task spends queued and time it runs are recorded into latency histograms, and rejected tasks are counted by cause.
+ * To record queueing time, queued tasks are wrapped, so <tt>getQueue()</tt> does not contain submitted tasks themselves.</p>
+ */
 public class AdaptiveThreadPoolExecutor extends AbstractExecutorService {
 
-	private final int corePoolSize;
+	private volatile int corePoolSize;
 	private final int maxPoolSize;
 	private final BlockingQueue<Runnable> workQueue;
 	private final ThreadFactory threadFactory;
 	private final RejectedExecutionHandler rejectHandler;
-	private volatile int state;
-	private List<Worker> workers;
+	private final AtomicInteger ctl;
+	private final Set<Worker> workers; // Guarded by this
+	private volatile Worker[] workerArray;
+	private final Deque<Worker> idleWorkers;
+	private final ThreadLocal<Worker> currentWorker;
 	private volatile long keepAliveTime;
 	private volatile boolean threadPreference = true;
-	private int pendingWorkers;
-	private int peakPoolSize;
-	private AtomicInteger taskCount;
-	private long completedTaskCount;
+	private volatile boolean workStealing;
+	private final AtomicInteger peakPoolSize;
+	private final AtomicInteger excessWorkers;
+	private final LongAdder submittedTaskCount;
+	private final LongAdder completedTaskCount;
+	private final LongAdder activeCount;
+	private final LatencyHistogram queueWaitTimes;
+	private final LatencyHistogram runTimes;
+	private final LongAdder[] rejectedTaskCounts;
+
+	private static final int COUNT_BITS = Integer.SIZE - 3;
+	private static final int COUNT_MASK = (1 << COUNT_BITS) - 1;
 
 	private static final int RUNNING    = 0;
-	private static final int SHUTDOWN   = 1;
-	private static final int STOP       = 2;
-	private static final int TERMINATED = 3;
+	private static final int SHUTDOWN   = 1 << COUNT_BITS;
+	private static final int STOP       = 2 << COUNT_BITS;
+	private static final int TERMINATED = 3 << COUNT_BITS;
+
+	private static int runStateOf(int c) {
+		return c & ~COUNT_MASK;
+	}
+
+	private static int workerCountOf(int c) {
+		return c & COUNT_MASK;
+	}
 
 	public AdaptiveThreadPoolExecutor(int corePoolSize, int maxPoolSize) {
 		this(0, corePoolSize, maxPoolSize, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), Executors.defaultThreadFactory(), new AbortPolicy());
@@ -54,17 +87,49 @@ public class AdaptiveThreadPoolExecutor extends AbstractExecutorService {
 		this.workQueue = workQueue;
 		this.threadFactory = threadFactory;
 		this.rejectHandler = rejectHandler;
-		workers = new ArrayList<>();
-		pendingWorkers = initPoolSize;
+		ctl = new AtomicInteger(RUNNING | initPoolSize);
+		workers = new HashSet<>();
+		workerArray = new Worker[0];
+		idleWorkers = new ConcurrentLinkedDeque<>();
+		currentWorker = new ThreadLocal<>();
+		peakPoolSize = new AtomicInteger();
+		excessWorkers = new AtomicInteger();
+		submittedTaskCount = new LongAdder();
+		completedTaskCount = new LongAdder();
+		activeCount = new LongAdder();
+		queueWaitTimes = new LatencyHistogram();
+		runTimes = new LatencyHistogram();
+		rejectedTaskCounts = new LongAdder[RejectionCause.values().length];
+		for (int i = 0; i < rejectedTaskCounts.length; i++)
+			rejectedTaskCounts[i] = new LongAdder();
 		for (int i = 0; i < initPoolSize; i++)
 			addWorker(null);
-		taskCount = new AtomicInteger();
 	}
 
 	public int getCorePoolSize() {
 		return corePoolSize;
 	}
 
+	/**
+	 * Sets core pool size. If core pool size is decreased, workers above new core pool size retire after completing their current task,
+	 * even if there are queued tasks. If it is increased, new workers are started for queued tasks.
+	 * @param corePoolSize new core pool size.
+	 */
+	public void setCorePoolSize(int corePoolSize) {
+		if (corePoolSize < 0 || maxPoolSize > 0 && corePoolSize > maxPoolSize)
+			throw new IllegalArgumentException("Invalid corePoolSize: " + corePoolSize);
+		int oldCorePoolSize = this.corePoolSize;
+		this.corePoolSize = corePoolSize;
+		int workerCount = getPoolSize();
+		if (corePoolSize < oldCorePoolSize)
+			excessWorkers.set(Math.max(workerCount - corePoolSize, 0));
+		else {
+			excessWorkers.set(0);
+			for (int i = Math.min(corePoolSize - workerCount, getQueuedTaskCount()); i > 0 && reserveCoreWorker(); i--)
+				addWorker(null);
+		}
+	}
+
 	public int getMaximumPoolSize() {
 		return maxPoolSize;
 	}
@@ -85,38 +150,90 @@ public class AdaptiveThreadPoolExecutor extends AbstractExecutorService {
 		setThreadPreference(false);
 	}
 
-	public synchronized int getPoolSize() {
-		return workers.size();
+	public boolean isWorkStealing() {
+		return workStealing;
 	}
 
-	public synchronized int getActiveCount() {
-		int count = 0;
-		for (Worker worker : workers) {
-			if (worker.isActive())
-				count++;
-		}
-		return count;
+	/**
+	 * Sets work-stealing mode. Mode should be set before tasks are submitted.
+	 * @param workStealing whether workers should have their own task deques and steal tasks from each other.
+	 */
+	public void setWorkStealing(boolean workStealing) {
+		this.workStealing = workStealing;
+	}
+
+	public int getPoolSize() {
+		return workerCountOf(ctl.get());
+	}
+
+	public int getActiveCount() {
+		return activeCount.intValue();
 	}
 
-	public synchronized int getPeakPoolSize() {
-		return peakPoolSize;
+	public int getPeakPoolSize() {
+		return peakPoolSize.get();
 	}
 
 	public long getTaskCount() {
-		return getCompletedTaskCount() + taskCount.get();
+		return submittedTaskCount.sum();
 	}
 
-	public synchronized long getCompletedTaskCount() {
-		long count = completedTaskCount;
-		for (Worker worker : workers)
-			count += worker.completed;
+	public long getCompletedTaskCount() {
+		return completedTaskCount.sum();
+	}
+
+	/**
+	 * Returns times tasks spent waiting in the queue, or waiting for new worker to start, before they started running.
+	 * @return snapshot of queue wait times.
+	 */
+	public LatencyHistogram.Snapshot getQueueWaitTimes() {
+		return queueWaitTimes.snapshot();
+	}
+
+	/**
+	 * Returns times tasks spent running.
+	 * @return snapshot of run times.
+	 */
+	public LatencyHistogram.Snapshot getRunTimes() {
+		return runTimes.snapshot();
+	}
+
+	public long getRejectedTaskCount(RejectionCause cause) {
+		return rejectedTaskCounts[cause.ordinal()].sum();
+	}
+
+	public long getRejectedTaskCount() {
+		long count = 0L;
+		for (LongAdder rejectedTaskCount : rejectedTaskCounts)
+			count += rejectedTaskCount.sum();
 		return count;
 	}
 
+	/**
+	 * Resets latency histograms and rejected task counts. Task counts are not reset.
+	 */
+	public void resetStatistics() {
+		queueWaitTimes.reset();
+		runTimes.reset();
+		for (LongAdder rejectedTaskCount : rejectedTaskCounts)
+			rejectedTaskCount.reset();
+	}
+
 	public BlockingQueue<Runnable> getQueue() {
 		return workQueue;
 	}
 
+	/**
+	 * Returns number of tasks waiting in the shared queue and in worker deques.
+	 * @return number of queued tasks.
+	 */
+	public int getQueuedTaskCount() {
+		int count = workQueue.size();
+		for (Worker worker : workerArray)
+			count += worker.localTasks.size();
+		return count;
+	}
+
 	public ThreadFactory getThreadFactory() {
 		return threadFactory;
 	}
@@ -129,46 +246,79 @@ public class AdaptiveThreadPoolExecutor extends AbstractExecutorService {
 	@Override public void execute(Runnable command) {
 		if (command == null)
 			throw new NullPointerException();
-		if (state == RUNNING) {
-			if (shouldAddWorkerBeforeEnqueue()) {
-				addWorker(command);
-				taskCount.incrementAndGet();
-				return;
+		RejectionCause cause = RejectionCause.SHUTDOWN;
+		if (runStateOf(ctl.get()) == RUNNING) {
+			if (workStealing) {
+				Worker worker = currentWorker.get();
+				if (worker != null) {
+					worker.localTasks.addFirst(new QueuedTask(command));
+					submittedTaskCount.increment();
+					if (!signalIdleWorker() && reserveWorker(true))
+						addWorker(null);
+					return;
+				}
 			}
-			else if (workQueue.offer(command)) {
-				taskCount.incrementAndGet();
-				return;
+			if (reserveWorker(true)) {
+				if (addWorker(command))
+					return;
+				cause = RejectionCause.THREAD_START_FAILED;
 			}
-			else if (shouldAddWorker()) {
-				addWorker(command);
-				taskCount.incrementAndGet();
+			else if (workQueue.offer(new QueuedTask(command))) {
+				submittedTaskCount.increment();
+				if (workStealing)
+					signalIdleWorker();
 				return;
 			}
+			else if (reserveWorker(false)) {
+				if (addWorker(command))
+					return;
+				cause = RejectionCause.THREAD_START_FAILED;
+			}
+			else if (runStateOf(ctl.get()) == RUNNING)
+				cause = RejectionCause.SATURATED;
 		}
+		reject(command, cause);
+	}
+
+	private void reject(Runnable command, RejectionCause cause) {
+		rejectedTaskCounts[cause.ordinal()].increment();
 		rejectHandler.rejectedExecution(command, this);
 	}
 
 	@Override public synchronized void shutdown() {
-		if (state < SHUTDOWN)
-			state = SHUTDOWN;
+		advanceRunState(SHUTDOWN);
 		for (Worker worker : workers)
 			worker.interruptIfIdle();
 		tryTerminate();
 	}
 
 	@Override public synchronized List<Runnable> shutdownNow() {
-		if (state < STOP)
-			state = STOP;
+		advanceRunState(STOP);
 		for (Worker worker : workers)
 			worker.interruptNow();
 		List<Runnable> tasks = drainQueue();
+		for (Worker worker : workers) {
+			for (Runnable task; (task = worker.localTasks.pollLast()) != null; )
+				tasks.add(task);
+		}
+		tasks.replaceAll(QueuedTask::unwrap);
 		tryTerminate();
 		return tasks;
 	}
 
-	private void tryTerminate() {
-		if (state == STOP || state == SHUTDOWN && workers.isEmpty()) {
-			state = TERMINATED;
+	private void advanceRunState(int targetState) {
+		while (true) {
+			int c = ctl.get();
+			if (runStateOf(c) >= targetState || ctl.compareAndSet(c, targetState | workerCountOf(c)))
+				return;
+		}
+	}
+
+	private synchronized void tryTerminate() {
+		int c = ctl.get();
+		int state = runStateOf(c);
+		if (state == STOP || state == SHUTDOWN && workerCountOf(c) == 0) {
+			advanceRunState(TERMINATED);
 			notifyAll();
 		}
 	}
@@ -191,22 +341,23 @@ public class AdaptiveThreadPoolExecutor extends AbstractExecutorService {
 	}
 
 	@Override public boolean isShutdown() {
-		return state != RUNNING;
+		return runStateOf(ctl.get()) != RUNNING;
 	}
 
 	public boolean isTerminating() {
-	    return state == SHUTDOWN || state == STOP;
+		int state = runStateOf(ctl.get());
+		return state == SHUTDOWN || state == STOP;
 	}
 
 	@Override public boolean isTerminated() {
-		return state == TERMINATED;
+		return runStateOf(ctl.get()) == TERMINATED;
 	}
 
 	@Override public synchronized boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
 		long t0 = System.currentTimeMillis();
 		long millis = unit.toMillis(timeout);
 		while (true) {
-			if (state == TERMINATED)
+			if (isTerminated())
 				return true;
 			long toWait = millis - (System.currentTimeMillis() - t0);
 			if (toWait <= 0L)
@@ -215,39 +366,72 @@ public class AdaptiveThreadPoolExecutor extends AbstractExecutorService {
 		}
 	}
 
-	private synchronized boolean shouldAddWorkerBeforeEnqueue() {
-		int workerCount = workers.size() + pendingWorkers;
-		return pendingWorker((maxPoolSize == 0 || workerCount < maxPoolSize)
-		                  && (threadPreference || workerCount == 0 || workerCount < corePoolSize)
-		                  && workerCount <= taskCount.get());
+	/**
+	 * Reserves a worker by incrementing worker count, if a worker should be added.
+	 * @param beforeEnqueue if <tt>true</tt>, worker is reserved only if it should be added before the task is offered to the queue,
+	 * that is with thread preference, or below core pool size, and only when all workers are busy.
+	 * @return <tt>true</tt> if worker has been reserved.
+	 */
+	private boolean reserveWorker(boolean beforeEnqueue) {
+		long outstandingTasks = -1L;
+		while (true) {
+			int c = ctl.get();
+			if (runStateOf(c) != RUNNING)
+				return false;
+			int workerCount = workerCountOf(c);
+			if (maxPoolSize > 0 && workerCount >= maxPoolSize)
+				return false;
+			if (beforeEnqueue) {
+				if (!threadPreference && workerCount > 0 && workerCount >= corePoolSize)
+					return false;
+				if (outstandingTasks < 0L)
+					outstandingTasks = submittedTaskCount.sum() - completedTaskCount.sum();
+				if (workerCount > outstandingTasks)
+					return false;
+			}
+			if (ctl.compareAndSet(c, c + 1))
+				return true;
+		}
 	}
 
-	private synchronized boolean shouldAddWorker() {
-		return pendingWorker(maxPoolSize == 0 || workers.size() + pendingWorkers < maxPoolSize);
+	private boolean reserveCoreWorker() {
+		while (true) {
+			int c = ctl.get();
+			if (runStateOf(c) != RUNNING || workerCountOf(c) >= corePoolSize)
+				return false;
+			if (ctl.compareAndSet(c, c + 1))
+				return true;
+		}
 	}
 
-	private boolean pendingWorker(boolean pending) {
-		if (pending)
-			pendingWorkers++;
-		return pending;
+	private void releaseWorker() {
+		ctl.decrementAndGet();
 	}
 
-	private void addWorker(Runnable firstTask) {
-		Worker worker = new Worker(firstTask);
+	/**
+	 * Starts worker that has already been reserved.
+	 * @param firstTask task to run first or <tt>null</tt>.
+	 * @return <tt>true</tt> if worker has been started.
+	 */
+	private boolean addWorker(Runnable firstTask) {
+		Worker worker = new Worker(firstTask != null ? new QueuedTask(firstTask) : null);
 		Thread thread = threadFactory.newThread(worker);
-		if (thread != null) {
-			worker.thread = thread;
-			doAddWorker(worker);
-			thread.start();
+		if (thread == null) {
+			releaseWorker();
+			tryTerminate();
+			return false;
 		}
-	}
-
-	private synchronized void doAddWorker(Worker worker) {
-		workers.add(worker);
-		pendingWorkers--;
-		int workerCount = workers.size();
-		if (workerCount > peakPoolSize)
-			peakPoolSize = workerCount;
+		worker.thread = thread;
+		synchronized (this) {
+			workers.add(worker);
+			workerArray = workers.toArray(new Worker[workers.size()]);
+		}
+		if (firstTask != null)
+			submittedTaskCount.increment();
+		int workerCount = getPoolSize();
+		for (int peak; workerCount > (peak = peakPoolSize.get()) && !peakPoolSize.compareAndSet(peak, workerCount); );
+		thread.start();
+		return true;
 	}
 
 	private final class Worker implements Runnable {
@@ -255,8 +439,8 @@ public class AdaptiveThreadPoolExecutor extends AbstractExecutorService {
 		private Thread thread;
 		private final ReentrantLock runLock = new ReentrantLock();
 		private Runnable firstTask;
-		private volatile long completed;
 		private boolean removed;
+		private final Deque<Runnable> localTasks = new ConcurrentLinkedDeque<>();
 
 		private Worker(Runnable firstTask) {
 			super();
@@ -264,6 +448,7 @@ public class AdaptiveThreadPoolExecutor extends AbstractExecutorService {
 		}
 
 		@Override public void run() {
+			currentWorker.set(this);
 			try {
 				while (!thread.isInterrupted()) {
 					Runnable task;
@@ -272,33 +457,54 @@ public class AdaptiveThreadPoolExecutor extends AbstractExecutorService {
 						firstTask = null;
 					}
 					else
-						task = getTask();
-					if (task != null)
+						task = getTask(this);
+					if (task != null) {
 						runTask(task);
+						if (excessWorkers.get() > 0 && retireIfExcess(this))
+							break;
+					}
 					else if (removeIfNotNeeded(this))
 						break;
 				}
 			}
 			catch (InterruptedException ignored) {}
 			finally {
-				removeWorker(this);
+				currentWorker.remove();
+				requeueLocalTasks();
+				if (!removed) {
+					releaseWorker();
+					removeWorker(this);
+				}
 			}
 		}
 
 		private void runTask(Runnable task) throws InterruptedException {
 			runLock.lockInterruptibly();
+			activeCount.increment();
+			long startNanos = System.nanoTime();
 			try {
+				if (task instanceof QueuedTask) {
+					QueuedTask queuedTask = (QueuedTask)task;
+					queueWaitTimes.record(startNanos - queuedTask.queuedNanos);
+					task = queuedTask.task;
+				}
 				task.run();
-				completed++;
 			}
 			finally {
+				runTimes.recordSince(startNanos);
+				activeCount.decrement();
+				completedTaskCount.increment();
 				runLock.unlock();
-				taskCount.decrementAndGet();
 			}
 		}
 
-		boolean isActive() {
-			return runLock.isLocked();
+		private void requeueLocalTasks() {
+			for (Runnable task; (task = localTasks.pollLast()) != null; ) {
+				if (workQueue.offer(task))
+					signalIdleWorker();
+				else
+					reject(QueuedTask.unwrap(task), RejectionCause.SATURATED);
+			}
 		}
 
 		void interruptIfIdle() {
@@ -318,46 +524,204 @@ public class AdaptiveThreadPoolExecutor extends AbstractExecutorService {
 		}
 	}
 
-	private Runnable getTask() throws InterruptedException {
-		switch (state) {
+	private Runnable getTask(Worker worker) throws InterruptedException {
+		switch (runStateOf(ctl.get())) {
 			case RUNNING:
+				if (workStealing)
+					return awaitTask(worker);
+				Runnable task = worker.localTasks.pollFirst();
+				if (task != null)
+					return task;
 				return keepAliveTime > 0L ? workQueue.poll(keepAliveTime, TimeUnit.NANOSECONDS) : workQueue.take();
 			case SHUTDOWN:
-				return workQueue.poll();
+				return findTask(worker);
 			default:
 				return null;
 		}
 	}
 
-	private synchronized boolean removeIfNotNeeded(Worker worker) {
-		boolean shouldRemove = shouldRemoveWorker();
-		if (shouldRemove)
-			removeWorker(worker);
-		return shouldRemove;
+
+	// Work stealing
+
+	private Runnable findTask(Worker worker) {
+		Runnable task = worker.localTasks.pollFirst();
+		if (task == null) {
+			task = workQueue.poll();
+			if (task == null)
+				task = steal(worker);
+		}
+		return task;
+	}
+
+	private Runnable steal(Worker thief) {
+		Worker[] workers = workerArray;
+		int count = workers.length;
+		if (count > 1) {
+			int start = ThreadLocalRandom.current().nextInt(count);
+			for (int i = 0; i < count; i++) {
+				Worker victim = workers[(start + i) % count];
+				if (victim != thief) {
+					Runnable task = victim.localTasks.pollLast();
+					if (task != null)
+						return task;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Finds a task or parks the worker until a task is submitted or <tt>keepAliveTime</tt> elapses.
+	 * Worker is registered as idle before the last check for tasks, so that a task submitted meanwhile is not missed.
+	 */
+	private Runnable awaitTask(Worker worker) throws InterruptedException {
+		Runnable task = findTask(worker);
+		if (task != null)
+			return task;
+		long keepAliveTime = this.keepAliveTime;
+		long deadline = System.nanoTime() + keepAliveTime;
+		while (true) {
+			idleWorkers.addFirst(worker);
+			task = findTask(worker);
+			if (task == null && runStateOf(ctl.get()) == RUNNING) {
+				if (keepAliveTime > 0L) {
+					long nanos = deadline - System.nanoTime();
+					if (nanos > 0L)
+						LockSupport.parkNanos(this, nanos);
+				}
+				else
+					LockSupport.park(this);
+			}
+			idleWorkers.remove(worker);
+			if (task != null)
+				return task;
+			if (Thread.interrupted())
+				throw new InterruptedException();
+			if (keepAliveTime > 0L && deadline - System.nanoTime() <= 0L || runStateOf(ctl.get()) != RUNNING)
+				return findTask(worker);
+		}
+	}
+
+	/**
+	 * Wakes up the most recently parked idle worker, so that workers idle for longer can expire.
+	 */
+	private boolean signalIdleWorker() {
+		Worker worker = idleWorkers.pollFirst();
+		if (worker == null)
+			return false;
+		LockSupport.unpark(worker.thread);
+		return true;
+	}
+
+	private boolean hasQueuedTasks() {
+		if (!workQueue.isEmpty())
+			return true;
+		for (Worker worker : workerArray) {
+			if (!worker.localTasks.isEmpty())
+				return true;
+		}
+		return false;
+	}
+
+
+	private boolean removeIfNotNeeded(Worker worker) {
+		while (true) {
+			int c = ctl.get();
+			if (!shouldRemoveWorker(c))
+				return false;
+			if (ctl.compareAndSet(c, c - 1)) {
+				removeWorker(worker);
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Retires worker after core pool size has been decreased, while the pool is still above it.
+	 */
+	private boolean retireIfExcess(Worker worker) {
+		while (true) {
+			int excess = excessWorkers.get();
+			if (excess <= 0)
+				return false;
+			int c = ctl.get();
+			if (runStateOf(c) != RUNNING || workerCountOf(c) <= corePoolSize) {
+				excessWorkers.compareAndSet(excess, 0);
+				return false;
+			}
+			if (excessWorkers.compareAndSet(excess, excess - 1)) {
+				while (workerCountOf(c = ctl.get()) > corePoolSize) {
+					if (ctl.compareAndSet(c, c - 1)) {
+						removeWorker(worker);
+						return true;
+					}
+				}
+				return false;
+			}
+		}
 	}
 
-	private boolean shouldRemoveWorker() {
-		switch (state) {
+	private boolean shouldRemoveWorker(int c) {
+		switch (runStateOf(c)) {
 			case RUNNING:
-				return workers.size() > corePoolSize && workQueue.isEmpty();
+				return workerCountOf(c) > corePoolSize && !hasQueuedTasks();
 			case SHUTDOWN:
-				return workQueue.isEmpty();
+				return !hasQueuedTasks();
 			default:
 				return true;
 		}
 	}
 
-	private synchronized void removeWorker(Worker worker) {
-		if (!worker.removed)
-			doRemoveWorker(worker);
+	private void removeWorker(Worker worker) {
+		worker.removed = true;
+		synchronized (this) {
+			workers.remove(worker);
+			workerArray = workers.toArray(new Worker[workers.size()]);
+		}
+		tryTerminate();
 	}
 
-	private void doRemoveWorker(Worker worker) {
-		workers.remove(worker);
-		completedTaskCount += worker.completed;
-		if (workers.isEmpty())
-			tryTerminate();
-		worker.removed = true;
+	/**
+	 * Task wrapper that records the time task has been queued. It is comparable if the task is, so that priority queues can be used.
+	 */
+	private static final class QueuedTask implements Runnable, Comparable<QueuedTask> {
+
+		private final Runnable task;
+		private final long queuedNanos;
+
+		private QueuedTask(Runnable task) {
+			super();
+			this.task = task;
+			queuedNanos = System.nanoTime();
+		}
+
+		@Override public void run() {
+			task.run();
+		}
+
+		@Override public int compareTo(QueuedTask other) {
+			return ((Comparable<Runnable>)task).compareTo(other.task);
+		}
+
+		private static Runnable unwrap(Runnable task) {
+			return task instanceof QueuedTask ? ((QueuedTask)task).task : task;
+		}
+
+		@Override public String toString() {
+			return task.toString();
+		}
+	}
+
+	/**
+	 * Cause of task rejection.
+	 */
+	public enum RejectionCause {
+		/** Executor has been shut down. */
+		SHUTDOWN,
+		/** Queue is full and pool has reached its maximum size. */
+		SATURATED,
+		/** Thread factory failed to create a worker thread. */
+		THREAD_START_FAILED
 	}
 
 	public interface RejectedExecutionHandler {
@@ -0,0 +1,372 @@
+package org.strangeforest.pool;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * <p><tt>PoolSizeController</tt> tunes core pool size of <tt>AdaptiveThreadPoolExecutor</tt> by hill-climbing.</p>
+ * <p>Every interval it samples completed-task throughput and queueing delay, and moves core pool size one step within configured bounds.
+ * It keeps moving in the same direction while throughput improves, reverses when throughput drops, and backs off the last move if it raised queueing delay
+ * without improving throughput. When throughput is flat, it trims core pool size, as the same throughput can be achieved with fewer threads.
+ * This finds the lowest concurrency that maximizes throughput, typically for blocking workloads bound by a shared resource like a database.</p>
+ * <p>Queueing delay is estimated from queued task count and throughput by Little's law, so tasks are not timestamped.
+ * As core pool size determines concurrency only if tasks are queued rather than run by new threads, controller should be used with queue preference.</p>
+ * <p>Decisions are recorded and exposed through <tt>Statistics</tt>. Sampling methods can be overridden to drive the controller by a different clock or load source.</p>
+ */
+public class PoolSizeController {
+
+	private final AdaptiveThreadPoolExecutor executor;
+	private final int minPoolSize;
+	private final int maxPoolSize;
+	private final long interval;
+	private volatile int step = DEFAULT_STEP;
+	private volatile double tolerance = DEFAULT_TOLERANCE;
+	private ScheduledFuture<?> controllerFuture; // Guarded by this
+
+	// Sampling state, guarded by this
+	private long lastSampleTime;
+	private long lastCompleted;
+	private double lastThroughput;
+	private double lastQueueDelay;
+	private int lastMove;
+	private boolean sampled;
+
+	// Decisions, guarded by this
+	private final Deque<Decision> decisions;
+	private final EnumMap<Action, Long> actionCounts;
+	private double bestThroughput;
+	private int bestPoolSize;
+
+	public static final int DEFAULT_STEP = 1;
+	public static final double DEFAULT_TOLERANCE = 0.05;
+	public static final int DECISION_HISTORY_SIZE = 100;
+
+	/**
+	 * Decision action.
+	 */
+	public enum Action {
+		/** No change, because the pool is idle, this is the first sample or core pool size is at the bound. */
+		HOLD,
+		/** Previous sample did not change core pool size, so it is moved up if tasks are queued, otherwise down. */
+		PROBE,
+		/** Throughput improved, so core pool size is moved further in the same direction. */
+		CLIMB,
+		/** Throughput dropped, so previous move is reversed. */
+		REVERSE,
+		/** Queueing delay rose without throughput improvement, so previous move is reversed. */
+		BACK_OFF,
+		/** Throughput is flat, so core pool size is decreased. */
+		TRIM
+	}
+
+	/**
+	 * Creates controller.
+	 * @param executor executor whose core pool size is controlled.
+	 * @param minPoolSize minimum core pool size.
+	 * @param maxPoolSize maximum core pool size.
+	 * @param interval sampling interval in milliseconds.
+	 */
+	public PoolSizeController(AdaptiveThreadPoolExecutor executor, int minPoolSize, int maxPoolSize, long interval) {
+		super();
+		if (minPoolSize < 1)
+			throw new IllegalArgumentException("Invalid minPoolSize: " + minPoolSize);
+		int executorMaxPoolSize = executor.getMaximumPoolSize();
+		if (maxPoolSize < minPoolSize || executorMaxPoolSize > 0 && maxPoolSize > executorMaxPoolSize)
+			throw new IllegalArgumentException("Invalid maxPoolSize: " + maxPoolSize);
+		if (interval <= 0L)
+			throw new IllegalArgumentException("Invalid interval: " + interval);
+		this.executor = executor;
+		this.minPoolSize = minPoolSize;
+		this.maxPoolSize = maxPoolSize;
+		this.interval = interval;
+		decisions = new ArrayDeque<>(DECISION_HISTORY_SIZE);
+		actionCounts = new EnumMap<>(Action.class);
+		for (Action action : Action.values())
+			actionCounts.put(action, 0L);
+	}
+
+	public AdaptiveThreadPoolExecutor getExecutor() {
+		return executor;
+	}
+
+	public int getMinPoolSize() {
+		return minPoolSize;
+	}
+
+	public int getMaxPoolSize() {
+		return maxPoolSize;
+	}
+
+	public long getInterval() {
+		return interval;
+	}
+
+	public int getStep() {
+		return step;
+	}
+
+	public void setStep(int step) {
+		if (step < 1)
+			throw new IllegalArgumentException("Invalid step: " + step);
+		this.step = step;
+	}
+
+	public double getTolerance() {
+		return tolerance;
+	}
+
+	/**
+	 * Sets relative change of throughput or queueing delay below which the change is considered as noise.
+	 * @param tolerance relative tolerance.
+	 */
+	public void setTolerance(double tolerance) {
+		if (tolerance < 0.0)
+			throw new IllegalArgumentException("Invalid tolerance: " + tolerance);
+		this.tolerance = tolerance;
+	}
+
+
+	// Lifecycle
+
+	/**
+	 * Brings core pool size within bounds and starts periodic sampling.
+	 */
+	public synchronized void start() {
+		if (controllerFuture != null)
+			return;
+		int poolSize = executor.getCorePoolSize();
+		if (poolSize < minPoolSize || poolSize > maxPoolSize)
+			executor.setCorePoolSize(Math.max(minPoolSize, Math.min(poolSize, maxPoolSize)));
+		sampled = false;
+		controllerFuture = ResourcePoolExecutor.schedule(this::adjust, interval);
+	}
+
+	public synchronized void stop() {
+		if (controllerFuture != null) {
+			ResourcePoolExecutor.cancel(controllerFuture);
+			controllerFuture = null;
+		}
+	}
+
+	public synchronized boolean isStarted() {
+		return controllerFuture != null;
+	}
+
+
+	// Control
+
+	/**
+	 * Samples the executor and adjusts its core pool size. It is called every interval when controller is started.
+	 * @return decision made.
+	 */
+	public synchronized Decision adjust() {
+		long now = nanoTime();
+		long completed = completedTaskCount();
+		int queued = queuedTaskCount();
+		int poolSize = executor.getCorePoolSize();
+		if (!sampled) {
+			sampled = true;
+			lastSampleTime = now;
+			lastCompleted = completed;
+			lastMove = 0;
+			return record(Action.HOLD, poolSize, poolSize, 0.0, 0.0);
+		}
+		double seconds = Math.max(now - lastSampleTime, 1L) / 1.0E9;
+		long completedInInterval = completed - lastCompleted;
+		double throughput = completedInInterval / seconds;
+		double queueDelay = throughput > 0.0 ? queued / throughput : (queued > 0 ? seconds : 0.0);
+		lastSampleTime = now;
+		lastCompleted = completed;
+
+		Action action;
+		int move;
+		if (completedInInterval == 0L && queued == 0) {
+			action = Action.HOLD;
+			move = 0;
+		}
+		else if (lastMove == 0) {
+			action = Action.PROBE;
+			move = queued > 0 ? step : -step;
+		}
+		else if (throughput > lastThroughput * (1.0 + tolerance)) {
+			action = Action.CLIMB;
+			move = lastMove;
+		}
+		else if (queueDelay > lastQueueDelay * (1.0 + tolerance) && queueDelay - lastQueueDelay > seconds * tolerance) {
+			action = Action.BACK_OFF;
+			move = -lastMove;
+		}
+		else if (throughput < lastThroughput * (1.0 - tolerance)) {
+			action = Action.REVERSE;
+			move = -lastMove;
+		}
+		else {
+			action = Action.TRIM;
+			move = -step;
+		}
+		int newPoolSize = Math.max(minPoolSize, Math.min(poolSize + move, maxPoolSize));
+		if (newPoolSize == poolSize)
+			action = Action.HOLD;
+		else
+			executor.setCorePoolSize(newPoolSize);
+		lastMove = newPoolSize - poolSize;
+		lastThroughput = throughput;
+		lastQueueDelay = queueDelay;
+		if (throughput > bestThroughput) {
+			bestThroughput = throughput;
+			bestPoolSize = poolSize;
+		}
+		return record(action, poolSize, newPoolSize, throughput, queueDelay);
+	}
+
+	/**
+	 * Returns current time used to measure sampling intervals.
+	 * @return current time in nanoseconds.
+	 */
+	protected long nanoTime() {
+		return System.nanoTime();
+	}
+
+	/**
+	 * Returns number of tasks completed by the executor, from which throughput is sampled.
+	 * @return completed task count.
+	 */
+	protected long completedTaskCount() {
+		return executor.getCompletedTaskCount();
+	}
+
+	/**
+	 * Returns number of tasks queued in the executor, from which queueing delay is estimated.
+	 * @return queued task count.
+	 */
+	protected int queuedTaskCount() {
+		return executor.getQueuedTaskCount();
+	}
+
+	private Decision record(Action action, int poolSize, int newPoolSize, double throughput, double queueDelay) {
+		Decision decision = new Decision(System.currentTimeMillis(), action, poolSize, newPoolSize, throughput, queueDelay * 1000.0);
+		if (decisions.size() >= DECISION_HISTORY_SIZE)
+			decisions.removeFirst();
+		decisions.addLast(decision);
+		actionCounts.merge(action, 1L, Long::sum);
+		return decision;
+	}
+
+	public synchronized Statistics getStatistics() {
+		return new Statistics(this);
+	}
+
+
+	/**
+	 * <p>Single decision of the controller.</p>
+	 */
+	public static class Decision implements Serializable {
+
+		private final Date time;
+		private final Action action;
+		private final int poolSize, newPoolSize;
+		private final double throughput, queueDelay;
+
+		private Decision(long time, Action action, int poolSize, int newPoolSize, double throughput, double queueDelay) {
+			super();
+			this.time = new Date(time);
+			this.action = action;
+			this.poolSize = poolSize;
+			this.newPoolSize = newPoolSize;
+			this.throughput = throughput;
+			this.queueDelay = queueDelay;
+		}
+
+		public Date getTime() {
+			return time;
+		}
+
+		public Action getAction() {
+			return action;
+		}
+
+		public int getPoolSize() {
+			return poolSize;
+		}
+
+		public int getNewPoolSize() {
+			return newPoolSize;
+		}
+
+		/**
+		 * Returns throughput sampled in the interval before decision.
+		 * @return throughput in tasks per second.
+		 */
+		public double getThroughput() {
+			return throughput;
+		}
+
+		/**
+		 * Returns estimated queueing delay at the time of decision.
+		 * @return queueing delay in milliseconds.
+		 */
+		public double getQueueDelay() {
+			return queueDelay;
+		}
+
+		@Override public String toString() {
+			return String.format("%1$tT.%1$tL %2$s %3$d->%4$d throughput=%5$.1f/s queueDelay=%6$.1fms", time, action, poolSize, newPoolSize, throughput, queueDelay);
+		}
+	}
+
+	/**
+	 * <p>Provides pool size controller statistics information.</p>
+	 */
+	public static class Statistics implements Serializable {
+
+		private final int poolSize, bestPoolSize;
+		private final double bestThroughput;
+		private final Map<Action, Long> actionCounts;
+		private final List<Decision> decisions;
+
+		private Statistics(PoolSizeController controller) {
+			super();
+			poolSize = controller.executor.getCorePoolSize();
+			bestPoolSize = controller.bestPoolSize;
+			bestThroughput = controller.bestThroughput;
+			actionCounts = new EnumMap<>(controller.actionCounts);
+			decisions = new ArrayList<>(controller.decisions);
+		}
+
+		public int getPoolSize() {
+			return poolSize;
+		}
+
+		/**
+		 * Returns core pool size at which the best throughput has been sampled.
+		 * @return core pool size with the best throughput.
+		 */
+		public int getBestPoolSize() {
+			return bestPoolSize;
+		}
+
+		public double getBestThroughput() {
+			return bestThroughput;
+		}
+
+		public long getActionCount(Action action) {
+			return actionCounts.get(action);
+		}
+
+		public long getDecisionCount() {
+			long count = 0L;
+			for (long actionCount : actionCounts.values())
+				count += actionCount;
+			return count;
+		}
+
+		/**
+		 * Returns up to last <tt>DECISION_HISTORY_SIZE</tt> decisions, oldest first.
+		 * @return recent decisions.
+		 */
+		public List<Decision> getDecisions() {
+			return decisions;
+		}
+	}
+}
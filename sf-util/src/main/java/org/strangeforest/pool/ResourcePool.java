@@ -1,14 +1,33 @@
 package org.strangeforest.pool;
 
 import java.io.*;
+import java.lang.ref.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import java.util.function.*;
+import javax.management.*;
+
+import org.strangeforest.util.*;
 
 /**
  * <p>ResourcePool is base abstract class the implements resource (object) pooling.</p>
  * <p>Implementation of ResourceManager is responsible for allocating, releasing and testing resources.
  * Note that ResourceManager methods are never called from within synchronized blocks
  * (except from initPool/destroyPool methods), thus maximizing scalability.
+ * <p>Resources are borrowed and returned without locking. Each pooled resource has an atomic state (idle, busy or removed) and is borrowed by
+ * compare-and-set of its state. Borrowing thread first tries resources it has recently returned, then scans the shared list of all resources.
+ * When there is no idle resource and the pool cannot grow, borrowing thread waits in a FIFO waiter queue. Returned resource is handed over directly
+ * to the oldest waiter, so that waiting threads are not overtaken by newcomers. Threads that borrow a resource with priority wait in a separate lane,
+ * which is always served first. Pool monitor is taken only when the pool grows or shrinks.</p>
+ * <p>Resource can also be acquired asynchronously with <tt>getResourceAsync</tt>, in which case no thread is blocked while waiting.
+ * Resource allocation and checking, which may block, are then performed by <tt>asyncExecutor</tt>, which is <tt>ForkJoinPool.commonPool()</tt> by default.</p>
+ * <p>By default resources are allocated by the thread requesting the resource. If <tt>allocationExecutor</tt> is set, resources are allocated in background instead,
+ * several in parallel (up to <tt>maxPendingCount</tt>), and waiting threads are fed from background allocations. Background allocator also keeps <tt>minIdleCount</tt>
+ * idle resources proactively and replaces resources before they reach <tt>maxLiveTime</tt>.</p>
+ * <p>Housekeeper keeps resources in an index ordered by the earliest time resource can reach <tt>maxIdleTime</tt>, <tt>maxBusyTime</tt> or <tt>maxLiveTime</tt>,
+ * so that each run checks only the resources that are due, in small batches, without blocking borrowing threads.</p>
  * <p>ResourcePool has following properties:</p>
  * <ul><li><i>InitialPoolSize</i> - Size of pool after initialization with init() method.</li>
  * <li><i>MinPoolSize</i> - Idle resources will not be released when pool size is equal or less than MinPoolSize.</li>
@@ -20,7 +39,10 @@ import java.util.concurrent.*;
  * <li><i>MaxIdleTime</i> - After being idle more than MaxIdleTime resources will be released and removed from pool (depending on MinPoolSize parameter).</li>
  * <li><i>MaxBusyTime</i> - Resources held by client more than MaxBusyTime will be released and removed from pool. A value of 0 indicates there is no limit.</li>
  * <li><i>MaxLiveTime</i> - Maximum time a resource can live MaxLiveTime after allocation resource will be released. A value of 0 indicates resource will never be released.</li>
- * <li><i>PropertyCycle</i> - Period of maintenance task scheduling.</li></ul>
+ * <li><i>PropertyCycle</i> - Period of maintenance task scheduling.</li>
+ * <li><i>Name</i> - Name of the pool. If not set, it is generated from the class name when the pool is initialized.</li></ul>
+ * <p>While initialized, the pool is registered as MBean <tt>org.strangeforest:type=ResourcePool,name=&lt;Name&gt;</tt>,
+ * that exposes pool statistics and allows pool sizing properties to be changed at runtime.</p>
  */
 public class ResourcePool<R> {
 
@@ -36,21 +58,39 @@ public class ResourcePool<R> {
 	public static final long DEFAULT_MAX_LIVE_TIME = 24*60*60*1000L;
 	public static final long DEFAULT_PROPERTY_CYCLE =      60*1000L;
 
+	private static final int RECENTLY_USED_SIZE = 16;
+	private static final int HOUSEKEEPING_BATCH_SIZE = 32;
+	private static final Object CAPACITY_FREED = new Object();
+	private static final AtomicInteger POOL_SEQUENCE = new AtomicInteger();
+
 	private ResourceManager<R> manager;
-	private Deque<PooledResource<R>> idlePool;
-	private Map<R, PooledResource<R>> busyPool;
-	private Set<PooledResource<R>> dirtyPool;
+	private final List<PooledResource<R>> resources;
+	private final ConcurrentMap<R, PooledResource<R>> resourceMap;
+	private final ThreadLocal<List<WeakReference<PooledResource<R>>>> recentlyUsed;
+	private final Deque<Waiter> waiters, priorityWaiters;
+	private final AtomicInteger waiterCount;
+	private final Set<PooledResource<R>> dirtyPool; // Guarded by this
+	private final LongAdder idleCount;
+	private final PriorityQueue<PooledResource<R>> housekeepingIndex; // Guarded by itself
+	private final Queue<PooledResource<R>> unindexed;
+	private volatile boolean reindex;
 	private volatile boolean initialized;
 	private ScheduledFuture housekeeperFuture;
+	private volatile Executor asyncExecutor;
+	private volatile Executor allocationExecutor;
+	private final AtomicBoolean replenishing;
 	private ResourcePoolLogger logger;
+	private volatile String name;
+	private ObjectName mBeanName; // Guarded by this
 
-	private int initialPoolSize, minPoolSize, maxPoolSize, minIdleCount, maxPendingCount;
-	private long checkTime, maxWaitTime, maxIdleTime, maxBusyTime, maxLiveTime, propertyCycle;
+	private volatile int initialPoolSize, minPoolSize, maxPoolSize, minIdleCount, maxPendingCount;
+	private volatile long checkTime, maxWaitTime, maxIdleTime, maxBusyTime, maxLiveTime, propertyCycle;
 	private long initTime, peakPoolTime;
 	private int peakPoolSize, cntAllocs, cntReleases, cntPending;
-	private long totalAllocTime, totalReleaseTime, totalWaitTime;
-	private long cntGets, cntReturns, cntChecks;
-	private int cntFailedAllocs, cntFailedChecks, cntFailedGets, cntBusyTimeouts;
+	private long totalAllocTime, totalReleaseTime;
+	private int cntFailedAllocs, cntBusyTimeouts;
+	private final LongAdder cntGets, cntReturns, cntChecks, cntFailedChecks, cntFailedGets, totalWaitTime;
+	private final LatencyHistogram waitTimes, priorityWaitTimes;
 
 	public ResourcePool() {
 		this(DEFAULT_INITIAL_POOL_SIZE, DEFAULT_MIN_POOL_SIZE, DEFAULT_MAX_POOL_SIZE);
@@ -75,6 +115,26 @@ public class ResourcePool<R> {
 		this.maxBusyTime = maxBusyTime;
 		this.maxLiveTime = maxLiveTime;
 		this.propertyCycle = propertyCycle;
+		resources = new CopyOnWriteArrayList<>();
+		resourceMap = new ConcurrentHashMap<>();
+		recentlyUsed = ThreadLocal.withInitial(ArrayList::new);
+		waiters = new ConcurrentLinkedDeque<>();
+		priorityWaiters = new ConcurrentLinkedDeque<>();
+		waiterCount = new AtomicInteger();
+		dirtyPool = new HashSet<>();
+		idleCount = new LongAdder();
+		housekeepingIndex = new PriorityQueue<>(Comparator.comparingLong(pooledRes -> pooledRes.deadline));
+		unindexed = new ConcurrentLinkedQueue<>();
+		cntGets = new LongAdder();
+		cntReturns = new LongAdder();
+		cntChecks = new LongAdder();
+		cntFailedChecks = new LongAdder();
+		cntFailedGets = new LongAdder();
+		totalWaitTime = new LongAdder();
+		waitTimes = new LatencyHistogram();
+		priorityWaitTimes = new LatencyHistogram();
+		asyncExecutor = ForkJoinPool.commonPool();
+		replenishing = new AtomicBoolean();
 	}
 
 	public synchronized ResourceManager<R> getResourceManager() {
@@ -88,48 +148,45 @@ public class ResourcePool<R> {
 	/**
 	 * Initializes the pool and allocates specified <tt>initialPoolSize</tt> resources.
 	 */
-	public synchronized void init() {
-		checkIfNotInitialized();
-		checkResourceManager();
-		initTime = System.currentTimeMillis();
-		idlePool = new LinkedList<>();
-		busyPool = new HashMap<>(maxPoolSize);
-		dirtyPool = new HashSet<>();
-		initialized = true;
-		scheduleHousekeeper();
+	public void init() {
+		synchronized (this) {
+			checkIfNotInitialized();
+			checkResourceManager();
+			initTime = System.currentTimeMillis();
+			initialized = true;
+			scheduleHousekeeper();
+			registerMBean();
+		}
 		preallocate(initialPoolSize);
 	}
 
+	/**
+	 * Allocates resources and adds them to the pool. If <tt>allocationExecutor</tt> is set, resources are allocated in parallel, up to <tt>maxPendingCount</tt> at a time,
+	 * and this method waits for all of them to be allocated.
+	 * @param count number of resources to allocate.
+	 */
 	protected void preallocate(int count) {
-		for (int i = 0; i < count; i++) {
-			synchronized (this) {
-				if (maxPoolSize > 0 && getSize() + cntPending >= maxPoolSize)
-					return;
-				cntPending++;
+		Executor allocator = allocationExecutor;
+		if (allocator == null) {
+			for (int i = 0; i < count && reservePending(); i++)
+				returnToPool(allocateReserved(false));
+		}
+		else if (count > 0) {
+			AtomicInteger remaining = new AtomicInteger(count);
+			int parallelism = maxPendingCount > 0 ? Math.min(count, maxPendingCount) : count;
+			CompletableFuture<?>[] allocations = new CompletableFuture<?>[parallelism];
+			for (int i = 0; i < parallelism; i++) {
+				allocations[i] = CompletableFuture.runAsync(() -> {
+					while (remaining.getAndDecrement() > 0 && reservePending())
+						returnToPool(allocateReserved(false));
+				}, allocator);
 			}
-			long t0 = System.currentTimeMillis();
-			R resource;
 			try {
-				resource = manager.allocateResource();
-			}
-			catch (Throwable th) {
-				synchronized (this) {
-					cntPending--;
-					cntFailedAllocs++;
-				}
-				throw th instanceof PoolException ? (PoolException)th : new PoolException("Error allocating resource.", th);
+				CompletableFuture.allOf(allocations).join();
 			}
-			synchronized (this) {
-				long now = System.currentTimeMillis();
-				cntPending--;
-				cntAllocs++;
-				totalAllocTime += now - t0;
-				idlePool.addLast(new PooledResource<>(resource));
-				int size = getSize();
-				if (size > peakPoolSize) {
-					peakPoolSize = size;
-					peakPoolTime = now;
-				}
+			catch (CompletionException ex) {
+				Throwable cause = ex.getCause();
+				throw cause instanceof PoolException ? (PoolException)cause : new PoolException("Error allocating resource.", cause);
 			}
 		}
 	}
@@ -137,12 +194,18 @@ public class ResourcePool<R> {
 	/**
 	 * Releases all allocated resources and destroys the pool.
 	 */
-	public synchronized void destroy() {
-		if (isInitialized()) {
+	public void destroy() {
+		synchronized (this) {
+			if (!isInitialized())
+				return;
 			cancelHousekeeper();
+			unregisterMBean();
 			releaseResources(false);
 			initialized = false;
 		}
+		// Wake up waiting threads outside of the monitor, they will fail as pool is not initialized anymore.
+		// Threads queued after this see that pool is not initialized and leave the queue by themselves.
+		while (handOffToWaiter(CAPACITY_FREED));
 	}
 
 	private void scheduleHousekeeper() {
@@ -156,6 +219,38 @@ public class ResourcePool<R> {
 		}
 	}
 
+	private void registerMBean() {
+		if (name == null)
+			name = getClass().getSimpleName() + '-' + POOL_SEQUENCE.incrementAndGet();
+		try {
+			mBeanName = registerMBean(name);
+		}
+		catch (IllegalStateException ex) {
+			logError("Error registering pool MBean.", ex);
+		}
+	}
+
+	/**
+	 * Registers pool MBean. Subclasses can override this method to register MBean with extended management interface.
+	 * @param name pool name.
+	 * @return object name of the registered MBean.
+	 */
+	protected ObjectName registerMBean(String name) {
+		return MBeanUtil.register(new ResourcePoolMBeanImpl<>(this), ResourcePoolMBean.class, "ResourcePool", name);
+	}
+
+	private void unregisterMBean() {
+		if (mBeanName != null) {
+			try {
+				MBeanUtil.unregister(mBeanName);
+			}
+			catch (IllegalStateException ex) {
+				logError("Error unregistering pool MBean.", ex);
+			}
+			mBeanName = null;
+		}
+	}
+
 	protected boolean isInitialized() {
 		return initialized;
 	}
@@ -179,146 +274,447 @@ public class ResourcePool<R> {
 	// Resource management
 
 	public R getResource() {
+		return getResource(false);
+	}
+
+	/**
+	 * Gets resource from the pool. If there is no idle resource and the pool has reached its maximum size, waits for a resource to be returned.
+	 * @param priority if <tt>true</tt>, waits in the priority lane, whose waiters are served before all other waiters.
+	 * @return resource.
+	 * @throws PoolException if resource cannot be allocated or <tt>maxWaitTime</tt> elapses.
+	 */
+	public R getResource(boolean priority) {
+		checkIfInitialized();
+		long startNanos = System.nanoTime();
 		long t0 = 0L;
-		PooledResource<R> pooledRes;
+		boolean requeued = false;
 		while (true) {
-			boolean needsChecking;
-			synchronized (this) {
-				checkIfInitialized();
-				if (idlePool.isEmpty()) {
-					if ((maxPoolSize > 0 && busyPool.size() + cntPending >= maxPoolSize)
-					 || (maxPendingCount > 0 && cntPending >= maxPendingCount)) {
-						if (t0 == 0L)
-							t0 = System.currentTimeMillis();
-						long toWait;
-						if (maxWaitTime == 0L)
-							toWait = 0L;
-						else {
-							toWait = maxWaitTime-(System.currentTimeMillis()-t0);
-							if (toWait <= 0L || maxWaitTime < 0L) {
-								cntFailedGets++;
-								throw new PoolException("Maximum number of resources already allocated.");
-							}
-						}
-						try {
-							wait(toWait);
-						}
-						catch (InterruptedException ignored) {}
-						continue;
-					}
-					else {
-						cntPending++;
-						break;
-					}
-				}
+			PooledResource<R> pooledRes = null;
+			// Idle resources are not taken from the pool when there are waiters, otherwise waiters could be starved by newcomers
+			if (waiterCount.get() == 0) {
+				pooledRes = borrowRecentlyUsed();
+				if (pooledRes == null)
+					pooledRes = borrowShared();
+			}
+			R resource;
+			if (pooledRes == null) {
+				boolean reserved = reservePending();
+				Executor allocator = allocationExecutor;
+				// Thread that must not wait allocates resource by itself
+				if (reserved && (allocator == null || maxWaitTime < 0L))
+					resource = allocate(t0);
 				else {
-					pooledRes = idlePool.removeFirst();
-					busyPool.put(pooledRes.resource, pooledRes);
-					long now = System.currentTimeMillis();
-					needsChecking = checkTime >= 0 && pooledRes.checkTime + checkTime <= now;
-					if (needsChecking)
-						pooledRes.checkTime = now;
-					else {
-						cntGets++;
-						if (t0 != 0L)
-							totalWaitTime += now - t0;
-					}
-					pooledRes.getTime = now;
+					if (t0 == 0L)
+						t0 = System.currentTimeMillis();
+					pooledRes = awaitHandoff(priority, requeued, t0, reserved ? () -> allocateInBackground(allocator, null) : null);
+					requeued = true;
+					if (pooledRes == null)
+						continue;
+					resource = checkBorrowed(pooledRes, t0);
 				}
 			}
-			if (!needsChecking)
-				return pooledRes.resource;
-			else {
-				if (manager.checkResource(pooledRes.resource)) {
-					synchronized (this) {
-						cntChecks++;
-						cntGets++;
-						totalWaitTime += System.currentTimeMillis() - (t0 != 0L ? t0 : pooledRes.checkTime);
-					}
-					return pooledRes.resource;
-				}
+			else
+				resource = checkBorrowed(pooledRes, t0);
+			if (resource != null) {
+				(priority ? priorityWaitTimes : waitTimes).recordSince(startNanos);
+				replenish();
+				return resource;
+			}
+		}
+	}
+
+	public CompletableFuture<R> getResourceAsync() {
+		return getResourceAsync(false);
+	}
+
+	/**
+	 * Gets resource from the pool asynchronously. Returned future completes when an idle resource is found, resource is allocated or returned resource is handed over to it.
+	 * Future completes exceptionally with <tt>PoolException</tt> if resource cannot be allocated or <tt>maxWaitTime</tt> elapses.
+	 * If the future is cancelled, it stops waiting and resource that is handed over to it meanwhile is returned to the pool.
+	 * @param priority if <tt>true</tt>, waits in the priority lane, whose waiters are served before all other waiters.
+	 * @return future of resource.
+	 */
+	public CompletableFuture<R> getResourceAsync(boolean priority) {
+		return getResourceAsync(priority, Function.identity());
+	}
+
+	/**
+	 * Gets resource from the pool asynchronously and maps it. Mapping function is applied just before the future is completed,
+	 * so that resource is returned to the pool if the future has been cancelled meanwhile.
+	 * @param priority if <tt>true</tt>, waits in the priority lane.
+	 * @param mapper function mapping the resource.
+	 * @return future of mapped resource.
+	 */
+	protected <T> CompletableFuture<T> getResourceAsync(boolean priority, Function<? super R, ? extends T> mapper) {
+		checkIfInitialized();
+		AsyncAcquisition<T> acquisition = new AsyncAcquisition<>(priority, mapper);
+		acquisition.acquire(false);
+		return acquisition.future;
+	}
+
+	private PooledResource<R> borrowRecentlyUsed() {
+		List<WeakReference<PooledResource<R>>> recent = recentlyUsed.get();
+		for (int i = recent.size() - 1; i >= 0; i--) {
+			PooledResource<R> pooledRes = recent.remove(i).get();
+			if (pooledRes != null && borrow(pooledRes))
+				return pooledRes;
+		}
+		return null;
+	}
+
+	private PooledResource<R> borrowShared() {
+		for (PooledResource<R> pooledRes : resources) {
+			if (borrow(pooledRes))
+				return pooledRes;
+		}
+		return null;
+	}
+
+	/**
+	 * Waits in the waiter queue for a resource to be handed over by returning thread or for pool capacity to be freed.
+	 * @param requeued whether the thread has already waited, in which case it is queued first to keep its position.
+	 * @param allocation background allocation to start once the thread is queued, or <tt>null</tt>.
+	 * @return borrowed resource, or <tt>null</tt> if capacity has been freed, so that resource can be allocated.
+	 */
+	private PooledResource<R> awaitHandoff(boolean priority, boolean requeued, long t0, Runnable allocation) {
+		long maxWaitTime = this.maxWaitTime;
+		if (maxWaitTime < 0L)
+			throw maximumAllocated();
+		Deque<Waiter> queue = priority ? priorityWaiters : waiters;
+		Waiter waiter = new Waiter();
+		boolean interrupted = false;
+		waiterCount.incrementAndGet();
+		if (requeued)
+			queue.addFirst(waiter);
+		else
+			queue.addLast(waiter);
+		try {
+			if (allocation != null)
+				allocation.run();
+			// Pool could have been destroyed after waiters have been woken up, waiter then fails when it tries to allocate
+			if (!initialized && waiter.cancel())
+				return null;
+			// Resource could have been returned before returning thread noticed this waiter
+			PooledResource<R> pooledRes = borrowShared();
+			if (pooledRes != null) {
+				if (!waiter.cancel())
+					passOn(waiter.handedOff);
+				return pooledRes;
+			}
+			// Capacity could have been freed after the thread failed to reserve it, but before it was queued, so that the signal was not received
+			if (allocation == null && hasFreeCapacity() && waiter.cancel())
+				return null;
+			Object handedOff;
+			while ((handedOff = waiter.handedOff) == null) {
+				if (maxWaitTime == 0L)
+					LockSupport.park(this);
 				else {
-					synchronized (this) {
-						cntFailedChecks++;
-						busyPool.remove(pooledRes.resource);
-						dirtyPool.add(pooledRes);
-						notify();
+					long toWait = maxWaitTime - (System.currentTimeMillis() - t0);
+					if (toWait <= 0L) {
+						if (waiter.cancel())
+							throw maximumAllocated();
+						continue;
 					}
+					LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(toWait));
 				}
+				if (Thread.interrupted())
+					interrupted = true;
+			}
+			if (handedOff == CAPACITY_FREED)
+				return null;
+			if (handedOff instanceof AllocationFailure) {
+				cntFailedGets.increment();
+				throw ((AllocationFailure)handedOff).exception;
 			}
+			pooledRes = (PooledResource<R>)handedOff;
+			// Resource could have been removed by housekeeper meanwhile
+			return pooledRes.isBusy() ? pooledRes : null;
 		}
-		// Allocate new resource
-		R resource;
+		finally {
+			queue.removeFirstOccurrence(waiter);
+			waiterCount.decrementAndGet();
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	private PoolException maximumAllocated() {
+		cntFailedGets.increment();
+		return new PoolException("Maximum number of resources already allocated.");
+	}
+
+	private boolean needsCheck(PooledResource<R> pooledRes, long now) {
+		long checkTime = this.checkTime;
+		return checkTime >= 0L && pooledRes.checkTime + checkTime <= now;
+	}
+
+	private R checkBorrowed(PooledResource<R> pooledRes, long t0) {
+		long now = System.currentTimeMillis();
+		if (needsCheck(pooledRes, now)) {
+			pooledRes.checkTime = now;
+			if (!manager.checkResource(pooledRes.resource)) {
+				cntFailedChecks.increment();
+				if (pooledRes.remove(PooledResource.BUSY))
+					removeFromBag(pooledRes, true);
+				return null;
+			}
+			cntChecks.increment();
+			if (t0 == 0L)
+				t0 = now;
+			now = System.currentTimeMillis();
+		}
+		pooledRes.borrowed(now);
+		cntGets.increment();
+		if (t0 != 0L)
+			totalWaitTime.add(now - t0);
+		return pooledRes.resource;
+	}
+
+	private R allocate(long t0) {
 		long t1 = System.currentTimeMillis();
+		PooledResource<R> pooledRes;
+		try {
+			pooledRes = allocateReserved(false);
+		}
+		catch (PoolException ex) {
+			cntFailedGets.increment();
+			throw ex;
+		}
+		long now = System.currentTimeMillis();
+		pooledRes.borrowed(now);
+		cntGets.increment();
+		totalWaitTime.add(now - (t0 != 0L ? t0 : t1));
+		return pooledRes.resource;
+	}
+
+	/**
+	 * Allocates resource for which allocation has already been reserved and adds it to the pool as busy.
+	 * @param background if <tt>true</tt>, allocation failure is handed over to the oldest waiter.
+	 * @return allocated resource.
+	 */
+	private PooledResource<R> allocateReserved(boolean background) {
+		long t0 = System.currentTimeMillis();
+		R resource;
 		try {
 			resource = manager.allocateResource();
 		}
 		catch (Throwable th) {
-			synchronized (this) {
-				cntPending--;
-				cntFailedAllocs++;
-				cntFailedGets++;
-				notify();
+			PoolException ex = th instanceof PoolException ? (PoolException)th : new PoolException("Error allocating resource.", th);
+			allocationFailed(background ? ex : null);
+			throw ex;
+		}
+		PooledResource<R> pooledRes = new PooledResource<>(resource);
+		addResource(pooledRes, t0);
+		return pooledRes;
+	}
+
+	/**
+	 * Allocates resource for which allocation has already been reserved in background and hands it over to the oldest waiter.
+	 * @param replaced resource that is replaced by the allocated one, or <tt>null</tt>.
+	 */
+	private void allocateInBackground(Executor allocator, PooledResource<R> replaced) {
+		Runnable allocation = () -> {
+			PooledResource<R> pooledRes;
+			try {
+				pooledRes = allocateReserved(true);
+			}
+			catch (PoolException ex) {
+				logError("Error allocating resource in background.", ex);
+				return;
+			}
+			if (replaced != null)
+				retire(replaced);
+			returnToPool(pooledRes);
+		};
+		try {
+			allocator.execute(allocation);
+		}
+		catch (RejectedExecutionException ex) {
+			allocation.run();
+		}
+	}
+
+	/**
+	 * Allocates resources in background, so that there are at least <tt>minIdleCount</tt> idle resources.
+	 */
+	private void replenish() {
+		Executor allocator = allocationExecutor;
+		if (allocator == null || minIdleCount <= 0 || !replenishing.compareAndSet(false, true))
+			return;
+		Runnable replenishment = () -> {
+			try {
+				int missing;
+				synchronized (this) {
+					missing = minIdleCount - cntPending;
+				}
+				for (missing -= getIdleCount(); missing > 0 && isInitialized() && reservePending(); missing--)
+					allocateInBackground(allocator, null);
+			}
+			finally {
+				replenishing.set(false);
 			}
-			throw th instanceof PoolException ? (PoolException)th : new PoolException("Error allocating resource.", th);
+		};
+		try {
+			allocator.execute(replenishment);
+		}
+		catch (RejectedExecutionException ex) {
+			replenishing.set(false);
+		}
+	}
+
+	/**
+	 * Removes resource that has been replaced. Busy resource is removed when returned.
+	 */
+	private void retire(PooledResource<R> pooledRes) {
+		if (removeIdle(pooledRes)) {
+			removeFromBag(pooledRes, false);
+			doReleaseResource(pooledRes);
+		}
+		else
+			pooledRes.isDirty = true;
+	}
+
+	private synchronized boolean reservePending() {
+		checkIfInitialized();
+		if (!hasFreeCapacity())
+			return false;
+		cntPending++;
+		return true;
+	}
+
+	private synchronized boolean hasFreeCapacity() {
+		return (maxPoolSize <= 0 || resources.size() + cntPending < maxPoolSize)
+		    && (maxPendingCount <= 0 || cntPending < maxPendingCount);
+	}
+
+	/**
+	 * Releases allocation reservation after failed allocation.
+	 * @param exception allocation failure to hand over to the oldest waiter, or <tt>null</tt>. Next waiter is signalled that capacity has been freed.
+	 */
+	private void allocationFailed(PoolException exception) {
+		synchronized (this) {
+			cntPending--;
+			cntFailedAllocs++;
 		}
-		pooledRes = new PooledResource<>(resource);
+		if (exception != null)
+			handOffToWaiter(new AllocationFailure(exception));
+		signalCapacityFreed();
+	}
+
+	private long addResource(PooledResource<R> pooledRes, long t0) {
+		long now;
 		synchronized (this) {
-			long now = System.currentTimeMillis();
+			now = System.currentTimeMillis();
 			cntPending--;
 			cntAllocs++;
-			totalAllocTime += now - t1;
-			pooledRes.getTime = now;
-			busyPool.put(resource, pooledRes);
-			int size = getSize();
+			totalAllocTime += now - t0;
+			resourceMap.put(pooledRes.resource, pooledRes);
+			resources.add(pooledRes);
+			unindexed.offer(pooledRes);
+			int size = resources.size();
 			if (size > peakPoolSize) {
 				peakPoolSize = size;
 				peakPoolTime = now;
 			}
-			cntGets++;
-			totalWaitTime += now - (t0 != 0L ? t0 : t1);
-			notify();
 		}
-		return resource;
+		if (maxPendingCount > 0)
+			signalCapacityFreed();
+		return now;
+	}
+
+	/**
+	 * Hands busy resource over to the oldest waiter, or makes it idle if there are no waiters.
+	 */
+	private void returnToPool(PooledResource<R> pooledRes) {
+		while (!handOffToWaiter(pooledRes)) {
+			if (!release(pooledRes))
+				return;
+			// Waiter could have been queued after it has scanned for idle resources, but before resource has been released
+			if (waiterCount.get() == 0 || !borrow(pooledRes))
+				return;
+		}
+	}
+
+	/**
+	 * Wakes up the oldest waiter, if there is any, so that it can allocate a new resource.
+	 */
+	private void signalCapacityFreed() {
+		handOffToWaiter(CAPACITY_FREED);
+	}
+
+	/**
+	 * Hands busy resource or capacity freed signal over to the oldest waiter. Priority lane waiters are served first.
+	 * @return <tt>true</tt> if handed over.
+	 */
+	private boolean handOffToWaiter(Object handedOff) {
+		Waiter waiter;
+		while ((waiter = priorityWaiters.pollFirst()) != null || (waiter = waiters.pollFirst()) != null) {
+			if (waiter.handOff(handedOff))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Passes resource or capacity freed signal that has been handed over to a thread that does not need it anymore to the next waiter.
+	 */
+	private void passOn(Object handedOff) {
+		if (handedOff == CAPACITY_FREED)
+			signalCapacityFreed();
+		else if (handedOff instanceof PooledResource)
+			returnToPool((PooledResource<R>)handedOff);
 	}
 
-	public synchronized void returnResource(R returned, boolean toEnd) {
+	public void returnResource(R returned, boolean toEnd) {
 		checkIfInitialized();
-		PooledResource<R> pooledRes = busyPool.remove(returned);
-		if (pooledRes == null)
+		PooledResource<R> pooledRes = resourceMap.get(returned);
+		if (pooledRes == null || !pooledRes.isBusy())
 			return;
-		pooledRes.returnTime = System.currentTimeMillis();
-		cntReturns++;
-		if (!pooledRes.isDirty) {
-			if (toEnd)
-				idlePool.addLast(pooledRes);
-			else
-				idlePool.addFirst(pooledRes);
+		pooledRes.returned(System.currentTimeMillis());
+		if (pooledRes.isDirty) {
+			if (pooledRes.remove(PooledResource.BUSY)) {
+				cntReturns.increment();
+				removeFromBag(pooledRes, true);
+			}
+		}
+		else {
+			cntReturns.increment();
+			if (!toEnd) {
+				List<WeakReference<PooledResource<R>>> recent = recentlyUsed.get();
+				if (recent.size() >= RECENTLY_USED_SIZE)
+					recent.remove(0);
+				recent.add(new WeakReference<>(pooledRes));
+			}
+			returnToPool(pooledRes);
 		}
-		else
-			dirtyPool.add(pooledRes);
-		notify();
 	}
 
-	public synchronized void removeResource(R dirty, boolean synchronously) {
+	public void removeResource(R dirty, boolean synchronously) {
 		checkIfInitialized();
-		PooledResource<R> pooledRes = busyPool.remove(dirty);
-		if (pooledRes == null)
+		PooledResource<R> pooledRes = resourceMap.get(dirty);
+		if (pooledRes == null || !pooledRes.remove(PooledResource.BUSY))
 			return;
+		removeFromBag(pooledRes, !synchronously);
 		if (synchronously)
 			doReleaseResource(pooledRes);
-		else
-			dirtyPool.add(pooledRes);
-		notify();
 	}
 
-	protected List<PooledResource<R>> getPooledResources() {
-		List<PooledResource<R>> resources = new ArrayList<>();
-		synchronized (this) {
-			resources.addAll(busyPool.values());
-			resources.addAll(idlePool);
+	/**
+	 * Removes resource, whose state has already been set to removed, from the pool.
+	 */
+	private void removeFromBag(PooledResource<R> pooledRes, boolean toDirty) {
+		resourceMap.remove(pooledRes.resource, pooledRes);
+		resources.remove(pooledRes);
+		if (toDirty) {
+			synchronized (this) {
+				dirtyPool.add(pooledRes);
+			}
 		}
-		return resources;
+		signalCapacityFreed();
+	}
+
+	protected List<PooledResource<R>> getPooledResources() {
+		return new ArrayList<>(resources);
 	}
 
 	private void doReleaseResource(PooledResource<R> pooledRes) {
@@ -337,8 +733,88 @@ public class ResourcePool<R> {
 	 * Returns pool size (number of allocated resources).
 	 * @return number of allocated resources.
 	 */
-	public synchronized int getSize() {
-		return idlePool.size() + busyPool.size();
+	public int getSize() {
+		return resources.size();
+	}
+
+	/**
+	 * Returns number of idle resources.
+	 * @return number of idle resources.
+	 */
+	public int getIdleCount() {
+		return idleCount.intValue();
+	}
+
+	/**
+	 * Returns number of resources held by clients.
+	 * @return number of busy resources.
+	 */
+	public int getBusyCount() {
+		int count = 0;
+		for (PooledResource<R> pooledRes : resources) {
+			if (pooledRes.isBusy())
+				count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Returns number of resources being allocated.
+	 * @return number of pending resources.
+	 */
+	public synchronized int getPendingCount() {
+		return cntPending;
+	}
+
+	/**
+	 * Returns number of clients waiting for a resource.
+	 * @return number of waiting clients.
+	 */
+	public int getWaitingCount() {
+		return waiterCount.get();
+	}
+
+	public long getGetCount() {
+		return cntGets.sum();
+	}
+
+	public long getFailedGetCount() {
+		return cntFailedGets.sum();
+	}
+
+	/**
+	 * Returns times clients waited for a resource, including priority clients.
+	 * @return snapshot of wait times.
+	 */
+	public LatencyHistogram.Snapshot getWaitTimes() {
+		return waitTimes.snapshot().plus(priorityWaitTimes.snapshot());
+	}
+
+	private boolean borrow(PooledResource<R> pooledRes) {
+		if (pooledRes.borrow()) {
+			idleCount.decrement();
+			return true;
+		}
+		else
+			return false;
+	}
+
+	private boolean release(PooledResource<R> pooledRes) {
+		if (pooledRes.release()) {
+			idleCount.increment();
+			return true;
+		}
+		else
+			return false;
+	}
+
+	private boolean removeIdle(PooledResource<R> pooledRes) {
+		if (pooledRes.remove(PooledResource.IDLE)) {
+			idleCount.decrement();
+			return true;
+		}
+		else
+			return false;
 	}
 
 	/**
@@ -350,7 +826,7 @@ public class ResourcePool<R> {
 	}
 
 	/**
-	 * Returns statistics information as a consistent snapshot of current pool state.
+	 * Returns statistics information as a snapshot of current pool state.
 	 * @return statistics information.
 	 */
 	public synchronized Statistics<R> getStatistics() {
@@ -362,38 +838,65 @@ public class ResourcePool<R> {
 	 */
 	public synchronized void resetStatistics() {
 		peakPoolSize = cntAllocs = cntReleases = 0;
-		peakPoolTime = totalAllocTime = totalReleaseTime = totalWaitTime = 0L;
-		cntGets = cntReturns = cntChecks = 0L;
-		cntFailedAllocs = cntFailedChecks = cntFailedGets = cntBusyTimeouts = 0;
+		peakPoolTime = totalAllocTime = totalReleaseTime = 0L;
+		cntFailedAllocs = cntBusyTimeouts = 0;
+		cntGets.reset();
+		cntReturns.reset();
+		cntChecks.reset();
+		cntFailedChecks.reset();
+		cntFailedGets.reset();
+		totalWaitTime.reset();
+		waitTimes.reset();
+		priorityWaitTimes.reset();
 	}
 
 
 	// Housekeeping methods
 
 	private void releaseIdleTimedOutDeadAndDirtyResources() {
+		checkIfInitialized();
+		long now = System.currentTimeMillis();
+		int size = getSize();
+		int idleCount = getIdleCount();
+		List<PooledResource<R>> batch = new ArrayList<>(HOUSEKEEPING_BATCH_SIZE);
 		List<PooledResource<R>> forRemoval = new ArrayList<>();
-		synchronized (this) {
-			checkIfInitialized();
-			long now = System.currentTimeMillis();
-			for (Iterator<PooledResource<R>> idleResources = idlePool.iterator(); idleResources.hasNext();) {
-				PooledResource<R> pooledRes = idleResources.next();
-				if (isIdleTimedout(pooledRes, now) || isLiveTimedout(pooledRes, now)) {
-					idleResources.remove();
-					forRemoval.add(pooledRes);
+		do {
+			batch.clear();
+			pollDueResources(batch, now);
+			for (PooledResource<R> pooledRes : batch) {
+				replaceIfExpiring(pooledRes, now);
+				if (pooledRes.isIdle()) {
+					if ((isIdleTimedout(pooledRes, now, size, idleCount) || isLiveTimedout(pooledRes, now)) && removeIdle(pooledRes)) {
+						removeFromBag(pooledRes, false);
+						forRemoval.add(pooledRes);
+						size--;
+						idleCount--;
+					}
 				}
-			}
-			for (Iterator<PooledResource<R>> busyResources = busyPool.values().iterator(); busyResources.hasNext(); ) {
-				PooledResource<R> pooledRes = busyResources.next();
-				if (maxBusyTime > 0 && pooledRes.getTime + maxBusyTime <= now) {
-					busyResources.remove();
-					forRemoval.add(pooledRes);
-					cntBusyTimeouts++;
-					notify();
-					logError("Resource maxBusyTime violated: " + pooledRes, null);
+				else if (pooledRes.isBusy()) {
+					long busySince = pooledRes.busySince;
+					if (maxBusyTime > 0 && busySince != 0L && busySince + maxBusyTime <= now) {
+						if (pooledRes.remove(PooledResource.BUSY)) {
+							removeFromBag(pooledRes, false);
+							forRemoval.add(pooledRes);
+							size--;
+							synchronized (this) {
+								cntBusyTimeouts++;
+							}
+							logError("Resource maxBusyTime violated: " + pooledRes, null);
+						}
+					}
+					else if (isLiveTimedout(pooledRes, now))
+						pooledRes.isDirty = true;
 				}
-				else if (maxLiveTime > 0 && pooledRes.allocTime + maxLiveTime <= now)
-					pooledRes.isDirty = true;
 			}
+			reindexResources(batch, now);
+			for (PooledResource<R> pooledRes : forRemoval)
+				doReleaseResource(pooledRes);
+			forRemoval.clear();
+		}
+		while (batch.size() == HOUSEKEEPING_BATCH_SIZE);
+		synchronized (this) {
 			forRemoval.addAll(dirtyPool);
 			dirtyPool.clear();
 		}
@@ -401,36 +904,102 @@ public class ResourcePool<R> {
 			doReleaseResource(pooledRes);
 	}
 
+	/**
+	 * Polls next batch of resources that are due for housekeeping from the housekeeping index. New resources are due immediately.
+	 */
+	private void pollDueResources(List<PooledResource<R>> batch, long now) {
+		synchronized (housekeepingIndex) {
+			if (reindex) {
+				reindex = false;
+				for (PooledResource<R> pooledRes : housekeepingIndex)
+					pooledRes.indexed = false;
+				housekeepingIndex.clear();
+				unindexed.addAll(resources);
+			}
+			for (PooledResource<R> pooledRes; (pooledRes = unindexed.poll()) != null; ) {
+				if (!pooledRes.indexed) {
+					pooledRes.indexed = true;
+					pooledRes.deadline = now;
+					housekeepingIndex.add(pooledRes);
+				}
+			}
+			for (PooledResource<R> pooledRes; batch.size() < HOUSEKEEPING_BATCH_SIZE && (pooledRes = housekeepingIndex.peek()) != null && pooledRes.deadline <= now; )
+				batch.add(housekeepingIndex.poll());
+		}
+	}
+
+	/**
+	 * Puts resources that have been checked back to the housekeeping index with their next deadlines. Removed resources are dropped from the index.
+	 */
+	private void reindexResources(List<PooledResource<R>> batch, long now) {
+		synchronized (housekeepingIndex) {
+			for (PooledResource<R> pooledRes : batch) {
+				if (pooledRes.isRemoved())
+					pooledRes.indexed = false;
+				else {
+					pooledRes.deadline = nextDeadline(pooledRes, now);
+					housekeepingIndex.add(pooledRes);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the earliest time the resource can reach <tt>maxIdleTime</tt>, <tt>maxBusyTime</tt>, <tt>maxLiveTime</tt> or the time it should be replaced,
+	 * regardless of whether it is borrowed or returned meanwhile.
+	 */
+	private long nextDeadline(PooledResource<R> pooledRes, long now) {
+		long deadline = Long.MAX_VALUE;
+		if (maxIdleTime > 0L)
+			deadline = Math.min(deadline, (pooledRes.isIdle() ? pooledRes.returnTime : now) + maxIdleTime);
+		if (maxBusyTime > 0L) {
+			long busySince = pooledRes.busySince;
+			deadline = Math.min(deadline, (pooledRes.isBusy() && busySince != 0L ? busySince : now) + maxBusyTime);
+		}
+		if (maxLiveTime > 0L && !pooledRes.isDirty) {
+			long liveDeadline = pooledRes.allocTime + maxLiveTime;
+			if (allocationExecutor != null && !pooledRes.replaced)
+				liveDeadline -= propertyCycle;
+			deadline = Math.min(deadline, liveDeadline);
+		}
+		// Resource that is kept despite being due, ie. because of minPoolSize, is checked again in the next run
+		return deadline > now ? deadline : now + propertyCycle;
+	}
+
+	/**
+	 * Allocates replacement in background for resource that would reach <tt>maxLiveTime</tt> before the next housekeeping.
+	 */
+	private void replaceIfExpiring(PooledResource<R> pooledRes, long now) {
+		Executor allocator = allocationExecutor;
+		if (allocator != null && maxLiveTime > 0 && !pooledRes.replaced && !pooledRes.isRemoved()
+		 && pooledRes.allocTime + maxLiveTime - propertyCycle <= now && reservePending()) {
+			pooledRes.replaced = true;
+			allocateInBackground(allocator, pooledRes);
+		}
+	}
+
 	private void preallocate() {
-		int count = 0;
-		synchronized (this) {
-			checkIfInitialized();
-			int idleSize = idlePool.size();
-			if (idleSize < minIdleCount)
-				count = minIdleCount - idleSize;
+		checkIfInitialized();
+		if (allocationExecutor != null) {
+			replenish();
+			return;
 		}
-		if (count > 0)
-			preallocate(count);
+		int idleSize = getIdleCount();
+		if (idleSize < minIdleCount)
+			preallocate(minIdleCount - idleSize);
 	}
 
 	protected void releaseResources(boolean graceful) {
 		List<PooledResource<R>> forRemoval = new ArrayList<>();
-		synchronized (this) {
-			for (Iterator<PooledResource<R>> idleResources = idlePool.iterator(); idleResources.hasNext(); ) {
-				PooledResource<R> pooledRes = idleResources.next();
-				idleResources.remove();
+		for (PooledResource<R> pooledRes : resources) {
+			if (removeIdle(pooledRes) || (!graceful && pooledRes.remove(PooledResource.BUSY))) {
+				removeFromBag(pooledRes, false);
 				forRemoval.add(pooledRes);
 			}
-			for (Iterator<PooledResource<R>> busyResources = busyPool.values().iterator(); busyResources.hasNext(); ) {
-				PooledResource<R> pooledRes = busyResources.next();
-				if (graceful)
-					pooledRes.isDirty = true;
-				else {
-					busyResources.remove();
-					forRemoval.add(pooledRes);
-					notify();
-				}
-			}
+			else if (graceful)
+				pooledRes.isDirty = true;
+		}
+		synchronized (this) {
 			forRemoval.addAll(dirtyPool);
 			dirtyPool.clear();
 		}
@@ -442,13 +1011,25 @@ public class ResourcePool<R> {
 		return (maxLiveTime > 0 && pooledRes.allocTime + maxLiveTime <= now);
 	}
 
-	private boolean isIdleTimedout(PooledResource<R> pooledRes, long now) {
-		return maxIdleTime > 0 && getSize() > minPoolSize && pooledRes.returnTime + maxIdleTime <= now && idlePool.size() > minIdleCount;
+	private boolean isIdleTimedout(PooledResource<R> pooledRes, long now, int size, int idleCount) {
+		return maxIdleTime > 0 && size > minPoolSize && pooledRes.returnTime + maxIdleTime <= now && idleCount > minIdleCount;
 	}
 
 
 	// Logging
 
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Sets pool name. Name should be set before the pool is initialized, as pool MBean is registered under it.
+	 * @param name pool name.
+	 */
+	public void setName(String name) {
+		this.name = name;
+	}
+
 	public synchronized ResourcePoolLogger getLogger() {
 		return logger;
 	}
@@ -500,11 +1081,13 @@ public class ResourcePool<R> {
 		return maxPoolSize;
 	}
 
-	public synchronized void setMaxPoolSize(int maxPoolSize) {
-		this.maxPoolSize = maxPoolSize;
-		if (maxPoolSize < minPoolSize)
-			minPoolSize = maxPoolSize;
-		notifyAll();
+	public void setMaxPoolSize(int maxPoolSize) {
+		synchronized (this) {
+			this.maxPoolSize = maxPoolSize;
+			if (maxPoolSize < minPoolSize)
+				minPoolSize = maxPoolSize;
+		}
+		signalCapacityFreed();
 	}
 
 	public synchronized int getMinIdleCount() {
@@ -519,9 +1102,11 @@ public class ResourcePool<R> {
 		return maxPendingCount;
 	}
 
-	public synchronized void setMaxPendingCount(int maxPendingCount) {
-		this.maxPendingCount = maxPendingCount;
-		notifyAll();
+	public void setMaxPendingCount(int maxPendingCount) {
+		synchronized (this) {
+			this.maxPendingCount = maxPendingCount;
+		}
+		signalCapacityFreed();
 	}
 
 	public synchronized long getCheckTime() {
@@ -546,6 +1131,7 @@ public class ResourcePool<R> {
 
 	public synchronized void setMaxIdleTime(long maxIdleTime) {
 		this.maxIdleTime = maxIdleTime;
+		reindex = true;
 	}
 
 	public synchronized long getMaxBusyTime() {
@@ -554,6 +1140,7 @@ public class ResourcePool<R> {
 
 	public synchronized void setMaxBusyTime(long maxBusyTime) {
 		this.maxBusyTime = maxBusyTime;
+		reindex = true;
 	}
 
 	public synchronized long getMaxLiveTime() {
@@ -562,6 +1149,7 @@ public class ResourcePool<R> {
 
 	public synchronized void setMaxLiveTime(long maxLiveTime) {
 		this.maxLiveTime = maxLiveTime;
+		reindex = true;
 	}
 
 	public synchronized long getPropertyCycle() {
@@ -571,6 +1159,7 @@ public class ResourcePool<R> {
 	public synchronized void setPropertyCycle(long propertyCycle) {
 		if (propertyCycle != this.propertyCycle) {
 			this.propertyCycle = propertyCycle;
+			reindex = true;
 			if (isInitialized()) {
 				cancelHousekeeper();
 				scheduleHousekeeper();
@@ -578,6 +1167,31 @@ public class ResourcePool<R> {
 		}
 	}
 
+	public Executor getAllocationExecutor() {
+		return allocationExecutor;
+	}
+
+	/**
+	 * Sets executor that allocates resources in background. If <tt>null</tt>, which is default, resources are allocated by the threads requesting them.
+	 * @param allocationExecutor executor for background allocation, or <tt>null</tt>.
+	 */
+	public void setAllocationExecutor(Executor allocationExecutor) {
+		this.allocationExecutor = allocationExecutor;
+		reindex = true;
+	}
+
+	public Executor getAsyncExecutor() {
+		return asyncExecutor;
+	}
+
+	/**
+	 * Sets executor that performs potentially blocking work of asynchronous resource acquisition, like allocating and checking resources.
+	 * @param asyncExecutor executor for asynchronous resource acquisition.
+	 */
+	public void setAsyncExecutor(Executor asyncExecutor) {
+		this.asyncExecutor = Objects.requireNonNull(asyncExecutor);
+	}
+
 
 	// Helper classes
 
@@ -593,18 +1207,290 @@ public class ResourcePool<R> {
 		}
 	}
 
+	/**
+	 * <p>Failure of background allocation, handed over to a waiter.</p>
+	 */
+	private static final class AllocationFailure {
+
+		private final PoolException exception;
+
+		private AllocationFailure(PoolException exception) {
+			super();
+			this.exception = exception;
+		}
+	}
+
+	/**
+	 * <p>Thread waiting for a resource.</p>
+	 */
+	private static class Waiter {
+
+		private static final Object CANCELLED = new Object();
+		private static final AtomicReferenceFieldUpdater<Waiter, Object> HANDED_OFF_UPDATER = AtomicReferenceFieldUpdater.newUpdater(Waiter.class, Object.class, "handedOff");
+
+		private final Thread thread;
+		private volatile Object handedOff;
+
+		private Waiter() {
+			this(Thread.currentThread());
+		}
+
+		private Waiter(Thread thread) {
+			super();
+			this.thread = thread;
+		}
+
+		boolean handOff(Object handedOff) {
+			if (HANDED_OFF_UPDATER.compareAndSet(this, null, handedOff)) {
+				wakeUp(handedOff);
+				return true;
+			}
+			else
+				return false;
+		}
+
+		protected void wakeUp(Object handedOff) {
+			LockSupport.unpark(thread);
+		}
+
+		boolean cancel() {
+			return HANDED_OFF_UPDATER.compareAndSet(this, null, CANCELLED);
+		}
+	}
+
+	/**
+	 * <p>Waiter queued on behalf of asynchronous acquisition. Handed over resource or signal is processed by <tt>asyncExecutor</tt>.</p>
+	 */
+	private final class AsyncWaiter extends Waiter {
+
+		private final AsyncAcquisition<?> acquisition;
+
+		private AsyncWaiter(AsyncAcquisition<?> acquisition) {
+			super(null);
+			this.acquisition = acquisition;
+		}
+
+		@Override protected void wakeUp(Object handedOff) {
+			waiterCount.decrementAndGet();
+			acquisition.dispatch(() -> acquisition.handedOff(handedOff));
+		}
+
+		private boolean leave() {
+			if (cancel()) {
+				(acquisition.priority ? priorityWaiters : waiters).removeFirstOccurrence(this);
+				waiterCount.decrementAndGet();
+				return true;
+			}
+			else
+				return false;
+		}
+	}
+
+	/**
+	 * <p>Asynchronous resource acquisition. Each time it waits, new waiter is queued.</p>
+	 */
+	private final class AsyncAcquisition<T> {
+
+		private final boolean priority;
+		private final Function<? super R, ? extends T> mapper;
+		private final CompletableFuture<T> future;
+		private final long startNanos;
+		private long t0;
+		private volatile AsyncWaiter waiter;
+		private volatile ScheduledFuture<?> timeout;
+
+		private AsyncAcquisition(boolean priority, Function<? super R, ? extends T> mapper) {
+			super();
+			this.priority = priority;
+			this.mapper = mapper;
+			future = new CompletableFuture<>();
+			startNanos = System.nanoTime();
+			future.whenComplete((result, th) -> {
+				ScheduledFuture<?> timeout = this.timeout;
+				if (timeout != null)
+					timeout.cancel(false);
+				AsyncWaiter waiter = this.waiter;
+				if (future.isCancelled() && waiter != null)
+					waiter.leave();
+			});
+		}
+
+		private void acquire(boolean requeued) {
+			try {
+				if (future.isDone())
+					return;
+				if (!requeued && waiterCount.get() == 0) {
+					PooledResource<R> pooledRes = borrowShared();
+					if (pooledRes != null) {
+						completeChecked(pooledRes);
+						return;
+					}
+				}
+				if (reservePending()) {
+					Executor allocator = allocationExecutor;
+					if (allocator == null || maxWaitTime < 0L)
+						dispatch(this::allocateAndComplete);
+					else
+						await(requeued, () -> allocateInBackground(allocator, null));
+				}
+				else
+					await(requeued, null);
+			}
+			catch (Throwable th) {
+				future.completeExceptionally(th);
+			}
+		}
+
+		private void await(boolean requeued, Runnable allocation) {
+			long maxWaitTime = ResourcePool.this.maxWaitTime;
+			if (t0 == 0L)
+				t0 = System.currentTimeMillis();
+			long toWait = maxWaitTime - (System.currentTimeMillis() - t0);
+			if (maxWaitTime < 0L || (maxWaitTime > 0L && toWait <= 0L)) {
+				// Reserved allocation still feeds the pool
+				if (allocation != null)
+					allocation.run();
+				throw maximumAllocated();
+			}
+			AsyncWaiter waiter = new AsyncWaiter(this);
+			this.waiter = waiter;
+			waiterCount.incrementAndGet();
+			Deque<Waiter> queue = priority ? priorityWaiters : waiters;
+			if (requeued)
+				queue.addFirst(waiter);
+			else
+				queue.addLast(waiter);
+			if (allocation != null)
+				allocation.run();
+			// Future could have been cancelled before waiter has been set
+			if (future.isDone()) {
+				waiter.leave();
+				return;
+			}
+			// Pool could have been destroyed after waiters have been woken up
+			if (!initialized) {
+				if (waiter.leave())
+					checkIfInitialized();
+				return;
+			}
+			if (maxWaitTime > 0L && timeout == null)
+				timeout = ResourcePoolExecutor.schedule(this::timedOut, toWait, TimeUnit.MILLISECONDS);
+			// Resource could have been returned before returning thread noticed this waiter
+			PooledResource<R> pooledRes = borrowShared();
+			if (pooledRes != null) {
+				if (waiter.leave())
+					completeChecked(pooledRes);
+				else
+					returnToPool(pooledRes);
+			}
+			// Capacity could have been freed after the acquisition failed to reserve it, but before it was queued, so that the signal was not received
+			else if (allocation == null && hasFreeCapacity() && waiter.leave())
+				acquire(true);
+		}
+
+		private void timedOut() {
+			AsyncWaiter waiter = this.waiter;
+			if (waiter != null && waiter.leave())
+				future.completeExceptionally(maximumAllocated());
+		}
+
+		private void handedOff(Object handedOff) {
+			if (handedOff == CAPACITY_FREED) {
+				if (future.isDone())
+					signalCapacityFreed();
+				else
+					acquire(true);
+			}
+			else if (handedOff instanceof AllocationFailure) {
+				if (future.completeExceptionally(((AllocationFailure)handedOff).exception))
+					cntFailedGets.increment();
+			}
+			else {
+				PooledResource<R> pooledRes = (PooledResource<R>)handedOff;
+				if (future.isDone())
+					returnToPool(pooledRes);
+				// Resource could have been removed by housekeeper meanwhile
+				else if (!pooledRes.isBusy())
+					acquire(true);
+				else
+					complete(pooledRes);
+			}
+		}
+
+		private void completeChecked(PooledResource<R> pooledRes) {
+			if (needsCheck(pooledRes, System.currentTimeMillis()))
+				dispatch(() -> complete(pooledRes));
+			else
+				complete(pooledRes);
+		}
+
+		private void complete(PooledResource<R> pooledRes) {
+			R resource = checkBorrowed(pooledRes, t0);
+			if (resource != null)
+				complete(resource);
+			else
+				acquire(false);
+		}
+
+		private void allocateAndComplete() {
+			complete(allocate(t0));
+		}
+
+		private void complete(R resource) {
+			(priority ? priorityWaitTimes : waitTimes).recordSince(startNanos);
+			replenish();
+			boolean completed;
+			try {
+				completed = future.complete(mapper.apply(resource));
+			}
+			catch (Throwable th) {
+				completed = false;
+				future.completeExceptionally(th);
+			}
+			if (!completed)
+				returnResource(resource, true);
+		}
+
+		private void dispatch(Runnable task) {
+			Runnable guardedTask = () -> {
+				try {
+					task.run();
+				}
+				catch (Throwable th) {
+					future.completeExceptionally(th);
+				}
+			};
+			try {
+				asyncExecutor.execute(guardedTask);
+			}
+			catch (RejectedExecutionException ex) {
+				guardedTask.run();
+			}
+		}
+	}
+
 	/**
 	 * <p>Pooled resource holder.</p>
 	 */
 	public static final class PooledResource<R> {
 
+		private static final int IDLE    = 0;
+		private static final int BUSY    = 1;
+		private static final int REMOVED = 2;
+
+		private static final AtomicIntegerFieldUpdater<PooledResource> STATE_UPDATER = AtomicIntegerFieldUpdater.newUpdater(PooledResource.class, "state");
+
 		private final R resource;
-		private long allocTime, checkTime, getTime, returnTime;
-		private boolean isDirty;
+		private volatile int state;
+		private volatile long allocTime, checkTime, getTime, returnTime, busySince;
+		private volatile boolean isDirty, replaced;
+		private long deadline; // Guarded by housekeeping index
+		private boolean indexed; // Guarded by housekeeping index
 
 		private PooledResource(R resource) {
 			super();
 			this.resource = resource;
+			state = BUSY;
 			allocTime = System.currentTimeMillis();
 			checkTime = allocTime;
 			getTime = allocTime;
@@ -615,6 +1501,40 @@ public class ResourcePool<R> {
 			return resource;
 		}
 
+		private boolean isIdle() {
+			return state == IDLE;
+		}
+
+		private boolean isBusy() {
+			return state == BUSY;
+		}
+
+		private boolean isRemoved() {
+			return state == REMOVED;
+		}
+
+		private boolean borrow() {
+			return state == IDLE && STATE_UPDATER.compareAndSet(this, IDLE, BUSY);
+		}
+
+		private void borrowed(long now) {
+			getTime = now;
+			busySince = now;
+		}
+
+		private void returned(long now) {
+			returnTime = now;
+			busySince = 0L;
+		}
+
+		private boolean release() {
+			return STATE_UPDATER.compareAndSet(this, BUSY, IDLE);
+		}
+
+		private boolean remove(int expectedState) {
+			return STATE_UPDATER.compareAndSet(this, expectedState, REMOVED);
+		}
+
 		private Date allocationTime() {
 			return new Date(allocTime);
 		}
@@ -647,6 +1567,7 @@ public class ResourcePool<R> {
 		private long allocTime, releaseTime, waitTime;
 		private long gets, returns, checks;
 		private int failedAllocs, failedChecks, failedGets, busyTimeouts;
+		private LatencyHistogram.Snapshot waitTimes, priorityWaitTimes;
 		private List<ResourceInfo> info;
 
 		protected Statistics(ResourcePool<R> pool) {
@@ -655,27 +1576,34 @@ public class ResourcePool<R> {
 			size = pool.getSize();
 			peak = pool.peakPoolSize;
 			peakTime = pool.peakPoolTime != 0L ? new Date(pool.peakPoolTime) : null;
-			busy = pool.busyPool.size();
-			idle = pool.idlePool.size();
+			List<PooledResource<R>> resources = pool.getPooledResources();
 			allocs = pool.cntAllocs;
 			releases = pool.cntReleases;
 			pending = pool.cntPending;
 			allocTime = allocs != 0 ? pool.totalAllocTime/allocs : 0L;
 			releaseTime = releases != 0 ? pool.totalReleaseTime/releases : 0L;
-			gets = pool.cntGets;
-			returns = pool.cntReturns;
-			checks = pool.cntChecks;
-			waitTime = gets != 0L ? pool.totalWaitTime/gets : 0L;
+			gets = pool.cntGets.sum();
+			returns = pool.cntReturns.sum();
+			checks = pool.cntChecks.sum();
+			waitTime = gets != 0L ? pool.totalWaitTime.sum()/gets : 0L;
 			failedAllocs = pool.cntFailedAllocs;
-			failedChecks = pool.cntFailedChecks;
-			failedGets = pool.cntFailedGets;
+			failedChecks = pool.cntFailedChecks.intValue();
+			failedGets = pool.cntFailedGets.intValue();
 			busyTimeouts = pool.cntBusyTimeouts;
-
-			info = new ArrayList<>(size);
-			for (PooledResource<R> pooledRes : pool.busyPool.values())
-				info.add(createResourceInfo(pooledRes, true));
-			for (PooledResource<R> pooledRes : pool.idlePool)
-				info.add(createResourceInfo(pooledRes, false));
+			waitTimes = pool.waitTimes.snapshot();
+			priorityWaitTimes = pool.priorityWaitTimes.snapshot();
+
+			info = new ArrayList<>(resources.size());
+			for (PooledResource<R> pooledRes : resources) {
+				boolean isBusy = pooledRes.isBusy();
+				if (isBusy)
+					busy++;
+				else if (pooledRes.isIdle())
+					idle++;
+				else
+					continue;
+				info.add(createResourceInfo(pooledRes, isBusy));
+			}
 		}
 
 		public Date getInitializationTime() {
@@ -763,6 +1691,22 @@ public class ResourcePool<R> {
 			return busyTimeouts;
 		}
 
+		/**
+		 * Returns histogram of times spent getting resources without priority, including waiting, allocation and checking.
+		 * @return wait time histogram snapshot.
+		 */
+		public LatencyHistogram.Snapshot getWaitTimes() {
+			return waitTimes;
+		}
+
+		/**
+		 * Returns histogram of times spent getting resources with priority, including waiting, allocation and checking.
+		 * @return priority wait time histogram snapshot.
+		 */
+		public LatencyHistogram.Snapshot getPriorityWaitTimes() {
+			return priorityWaitTimes;
+		}
+
 		/**
 		 * Returns <tt>List</tt> of <tt>ResourceInfo</tt> objects.
 		 * @return <tt>List</tt> of <tt>ResourceInfo</tt> objects.
@@ -6,23 +6,15 @@ import org.strangeforest.concurrent.*;
 
 abstract class ResourcePoolExecutor {
 
-	private static ScheduledExecutorService executor;
-	private static int taskCounter;
+	public static ScheduledFuture<?> schedule(Runnable task, long period) {
+		return MaintenanceScheduler.getInstance().scheduleAtFixedRate(task, period, period, TimeUnit.MILLISECONDS);
+	}
 
-	public synchronized static ScheduledFuture<?> schedule(Runnable task, long period) {
-		if (executor == null)
-			executor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("Resource Pools Housekeeper", true, true));
-		ScheduledFuture<?> schedule = executor.scheduleAtFixedRate(task, period, period, TimeUnit.MILLISECONDS);
-		taskCounter++;
-		return schedule;
+	public static ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+		return MaintenanceScheduler.getInstance().schedule(task, delay, unit);
 	}
 
-	public synchronized static void cancel(ScheduledFuture<?> schedule) {
+	public static void cancel(ScheduledFuture<?> schedule) {
 		schedule.cancel(true);
-		taskCounter--;
-		if (taskCounter == 0) {
-			executor.shutdown();
-			executor = null;
-		}
 	}
 }
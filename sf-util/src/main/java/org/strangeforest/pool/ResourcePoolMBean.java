@@ -0,0 +1,35 @@
+package org.strangeforest.pool;
+
+/**
+ * <p>Management interface of <tt>ResourcePool</tt>. Wait times are in milliseconds.</p>
+ */
+public interface ResourcePoolMBean {
+
+	String getName();
+
+	int getSize();
+	int getPeakSize();
+	int getBusyCount();
+	int getIdleCount();
+	int getPendingCount();
+	int getWaitingCount();
+
+	long getGetCount();
+	long getFailedGetCount();
+	double getWaitTimeMean();
+	double getWaitTimeP50();
+	double getWaitTimeP99();
+	double getWaitTimeP999();
+	double getWaitTimeMax();
+
+	int getMinPoolSize();
+	void setMinPoolSize(int minPoolSize);
+	int getMaxPoolSize();
+	void setMaxPoolSize(int maxPoolSize);
+	int getMinIdleCount();
+	void setMinIdleCount(int minIdleCount);
+	long getMaxWaitTime();
+	void setMaxWaitTime(long maxWaitTime);
+
+	void resetStatistics();
+}
@@ -0,0 +1,112 @@
+package org.strangeforest.pool;
+
+import java.util.concurrent.*;
+
+import org.strangeforest.util.*;
+
+/**
+ * <p>Standard MBean implementation that exposes <tt>ResourcePool</tt> through <tt>ResourcePoolMBean</tt> management interface.</p>
+ */
+public class ResourcePoolMBeanImpl<P extends ResourcePool<?>> implements ResourcePoolMBean {
+
+	protected final P pool;
+
+	public ResourcePoolMBeanImpl(P pool) {
+		super();
+		this.pool = pool;
+	}
+
+	@Override public String getName() {
+		return pool.getName();
+	}
+
+	@Override public int getSize() {
+		return pool.getSize();
+	}
+
+	@Override public int getPeakSize() {
+		return pool.getPeakSize();
+	}
+
+	@Override public int getBusyCount() {
+		return pool.getBusyCount();
+	}
+
+	@Override public int getIdleCount() {
+		return pool.getIdleCount();
+	}
+
+	@Override public int getPendingCount() {
+		return pool.getPendingCount();
+	}
+
+	@Override public int getWaitingCount() {
+		return pool.getWaitingCount();
+	}
+
+	@Override public long getGetCount() {
+		return pool.getGetCount();
+	}
+
+	@Override public long getFailedGetCount() {
+		return pool.getFailedGetCount();
+	}
+
+	@Override public double getWaitTimeMean() {
+		return pool.getWaitTimes().getMean() / NANOS_PER_MILLI;
+	}
+
+	@Override public double getWaitTimeP50() {
+		return pool.getWaitTimes().getPercentile(50.0) / NANOS_PER_MILLI;
+	}
+
+	@Override public double getWaitTimeP99() {
+		return pool.getWaitTimes().getPercentile(99.0) / NANOS_PER_MILLI;
+	}
+
+	@Override public double getWaitTimeP999() {
+		return pool.getWaitTimes().getPercentile(99.9) / NANOS_PER_MILLI;
+	}
+
+	@Override public double getWaitTimeMax() {
+		return pool.getWaitTimes().getMax() / NANOS_PER_MILLI;
+	}
+
+	@Override public int getMinPoolSize() {
+		return pool.getMinPoolSize();
+	}
+
+	@Override public void setMinPoolSize(int minPoolSize) {
+		pool.setMinPoolSize(minPoolSize);
+	}
+
+	@Override public int getMaxPoolSize() {
+		return pool.getMaxPoolSize();
+	}
+
+	@Override public void setMaxPoolSize(int maxPoolSize) {
+		pool.setMaxPoolSize(maxPoolSize);
+	}
+
+	@Override public int getMinIdleCount() {
+		return pool.getMinIdleCount();
+	}
+
+	@Override public void setMinIdleCount(int minIdleCount) {
+		pool.setMinIdleCount(minIdleCount);
+	}
+
+	@Override public long getMaxWaitTime() {
+		return pool.getMaxWaitTime();
+	}
+
+	@Override public void setMaxWaitTime(long maxWaitTime) {
+		pool.setMaxWaitTime(maxWaitTime);
+	}
+
+	@Override public void resetStatistics() {
+		pool.resetStatistics();
+	}
+
+	private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1L);
+}
@@ -0,0 +1,197 @@
+package org.strangeforest.util;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * <p><tt>LatencyHistogram</tt> is a thread-safe histogram of latencies with fixed log-linear buckets.</p>
+ * <p>Each power of two of nanoseconds is split into 4 linear buckets, so the relative error of reported percentiles is at most 25%,
+ * for latencies ranging from nanoseconds to days. Recording is lock-free. Bucket counters are <tt>LongAdder</tt>s,
+ * so threads recording the same latencies concurrently do not contend on a shared counter.</p>
+ */
+public class LatencyHistogram {
+
+	private final LongAdder[] buckets;
+	private final LongAdder count;
+	private final LongAdder total;
+	private final AtomicLong max;
+
+	private static final int SUB_BUCKET_BITS = 2;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	public LatencyHistogram() {
+		super();
+		buckets = new LongAdder[BUCKET_COUNT];
+		for (int i = 0; i < BUCKET_COUNT; i++)
+			buckets[i] = new LongAdder();
+		count = new LongAdder();
+		total = new LongAdder();
+		max = new AtomicLong();
+	}
+
+	/**
+	 * Records latency.
+	 * @param nanos latency in nanoseconds. Negative latencies are recorded as 0.
+	 */
+	public void record(long nanos) {
+		if (nanos < 0L)
+			nanos = 0L;
+		buckets[bucketIndex(nanos)].increment();
+		count.increment();
+		total.add(nanos);
+		long currentMax;
+		while (nanos > (currentMax = max.get()) && !max.compareAndSet(currentMax, nanos));
+	}
+
+	/**
+	 * Records latency since the specified start time.
+	 * @param startNanos start time as returned by <tt>System.nanoTime()</tt>.
+	 */
+	public void recordSince(long startNanos) {
+		record(System.nanoTime() - startNanos);
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	public void reset() {
+		for (int i = 0; i < BUCKET_COUNT; i++)
+			buckets[i].reset();
+		count.reset();
+		total.reset();
+		max.set(0L);
+	}
+
+	/**
+	 * Returns immutable snapshot of the histogram.
+	 * @return snapshot.
+	 */
+	public Snapshot snapshot() {
+		long[] counts = new long[BUCKET_COUNT];
+		for (int i = 0; i < BUCKET_COUNT; i++)
+			counts[i] = buckets[i].sum();
+		return new Snapshot(counts, total.sum(), max.get());
+	}
+
+	static int bucketIndex(long nanos) {
+		if (nanos < SUB_BUCKETS)
+			return (int)nanos;
+		int magnitude = 63 - Long.numberOfLeadingZeros(nanos);
+		int subBucket = (int)(nanos >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * Returns the highest latency that falls into the specified bucket.
+	 * @param index bucket index.
+	 * @return bucket upper bound in nanoseconds.
+	 */
+	static long bucketUpperBound(int index) {
+		if (index < SUB_BUCKETS)
+			return index;
+		int magnitude = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		int subBucket = index % SUB_BUCKETS;
+		long lowerBound = (1L << magnitude) + ((long)subBucket << (magnitude - SUB_BUCKET_BITS));
+		return lowerBound + (1L << (magnitude - SUB_BUCKET_BITS)) - 1L;
+	}
+
+	/**
+	 * <p>Immutable snapshot of <tt>LatencyHistogram</tt>.</p>
+	 */
+	public static final class Snapshot implements Serializable {
+
+		private final long[] counts;
+		private final long count;
+		private final long total;
+		private final long max;
+
+		public static final Snapshot EMPTY = new Snapshot(new long[BUCKET_COUNT], 0L, 0L);
+
+		private Snapshot(long[] counts, long total, long max) {
+			super();
+			this.counts = counts;
+			long count = 0L;
+			for (long bucketCount : counts)
+				count += bucketCount;
+			this.count = count;
+			this.total = total;
+			this.max = max;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * Returns sum of all recorded latencies.
+		 * @return total latency in nanoseconds.
+		 */
+		public long getTotal() {
+			return total;
+		}
+
+		public long getMax() {
+			return max;
+		}
+
+		public double getMean() {
+			return count > 0L ? (double)total / count : 0.0;
+		}
+
+		/**
+		 * Returns latency percentile, as the upper bound of the bucket the percentile falls into.
+		 * @param percentile percentile between 0 and 100, ie. 99.9.
+		 * @return percentile latency in nanoseconds, or 0 if there are no recorded latencies.
+		 */
+		public long getPercentile(double percentile) {
+			if (percentile < 0.0 || percentile > 100.0)
+				throw new IllegalArgumentException("Invalid percentile: " + percentile);
+			if (count == 0L)
+				return 0L;
+			long rank = Math.max((long)Math.ceil(count * percentile / 100.0), 1L);
+			long cumulative = 0L;
+			for (int i = 0; i < counts.length; i++) {
+				cumulative += counts[i];
+				if (cumulative >= rank)
+					return Math.min(bucketUpperBound(i), max);
+			}
+			return max;
+		}
+
+		/**
+		 * Returns non-empty buckets as map of bucket upper bound in nanoseconds to count.
+		 * @return map of bucket upper bounds to counts.
+		 */
+		public SortedMap<Long, Long> getBuckets() {
+			SortedMap<Long, Long> buckets = new TreeMap<>();
+			for (int i = 0; i < counts.length; i++) {
+				if (counts[i] != 0L)
+					buckets.put(bucketUpperBound(i), counts[i]);
+			}
+			return buckets;
+		}
+
+		/**
+		 * Returns snapshot that combines this and the other snapshot.
+		 * @param other other snapshot.
+		 * @return combined snapshot.
+		 */
+		public Snapshot plus(Snapshot other) {
+			long[] counts = new long[BUCKET_COUNT];
+			for (int i = 0; i < BUCKET_COUNT; i++)
+				counts[i] = this.counts[i] + other.counts[i];
+			return new Snapshot(counts, total + other.total, Math.max(max, other.max));
+		}
+
+		@Override public String toString() {
+			return String.format("count=%d, mean=%.3fms, p50=%.3fms, p99=%.3fms, max=%.3fms",
+				count, getMean() / NANOS_PER_MILLI, getPercentile(50.0) / NANOS_PER_MILLI, getPercentile(99.0) / NANOS_PER_MILLI, max / NANOS_PER_MILLI);
+		}
+
+		private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1L);
+	}
+}
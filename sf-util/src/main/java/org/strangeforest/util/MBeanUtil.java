@@ -0,0 +1,56 @@
+package org.strangeforest.util;
+
+import java.lang.management.*;
+import javax.management.*;
+
+/**
+ * <p>Utility class for registering standard MBeans with the platform MBean server.</p>
+ * <p>MBeans are registered under name <tt>org.strangeforest:type=&lt;type&gt;,name=&lt;name&gt;</tt>.</p>
+ */
+public abstract class MBeanUtil {
+
+	public static final String DOMAIN = "org.strangeforest";
+
+	public static ObjectName objectName(String type, String name) {
+		try {
+			return new ObjectName(DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+		}
+		catch (MalformedObjectNameException ex) {
+			throw new IllegalArgumentException("Invalid MBean name: " + name, ex);
+		}
+	}
+
+	/**
+	 * Registers standard MBean with the platform MBean server.
+	 * @param mbean MBean implementation.
+	 * @param mbeanInterface MBean management interface, only its attributes and operations are exposed.
+	 * @param type MBean type.
+	 * @param name MBean name.
+	 * @return object name MBean is registered under.
+	 * @throws IllegalStateException if MBean can not be registered, ie. MBean with the same name is already registered.
+	 */
+	public static <T> ObjectName register(T mbean, Class<T> mbeanInterface, String type, String name) {
+		ObjectName objectName = objectName(type, name);
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(new StandardMBean(mbean, mbeanInterface), objectName);
+			return objectName;
+		}
+		catch (JMException ex) {
+			throw new IllegalStateException("Can not register MBean " + objectName, ex);
+		}
+	}
+
+	/**
+	 * Unregisters MBean from the platform MBean server. MBean that is not registered is ignored.
+	 * @param objectName object name of MBean.
+	 */
+	public static void unregister(ObjectName objectName) {
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+		}
+		catch (InstanceNotFoundException ignored) {}
+		catch (JMException ex) {
+			throw new IllegalStateException("Can not unregister MBean " + objectName, ex);
+		}
+	}
+}
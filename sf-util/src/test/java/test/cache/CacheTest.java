@@ -1,6 +1,8 @@
 package test.cache;
 
+import java.nio.charset.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import org.junit.*;
 import org.strangeforest.cache.*;
@@ -20,7 +22,278 @@ public class CacheTest {
 		test(new MLFUCache<>(5), new MLFUCache<>(5));
 	}
 
+	@Test
+	public void testConcurrentCache() throws Exception {
+		test(new ConcurrentCache<>(5), new ConcurrentCache<>(5), false);
+	}
+
+	@Test
+	public void testSegmentedCache() throws Exception {
+		test(new SegmentedCache<>(5, 1), new SegmentedCache<>(5, 1));
+	}
+
+	@Test
+	public void testSegmentedCacheSegments() throws Exception {
+		SegmentedCache<Integer, Integer> cache = new SegmentedCache<>(100, 4, MLFUCache::new);
+		assertEquals(4, cache.getSegmentCount());
+		for (int i = 0; i < 1000; i++)
+			cache.put(i, i);
+		assertEquals(100, cache.size());
+		for (int i = 0; i < 1000; i++)
+			cache.get(i);
+
+		CacheStatistics stats = cache.getStatistics();
+		assertEquals(100, stats.size());
+		assertEquals(100, stats.capacity());
+		assertEquals(1000, stats.gets());
+		assertEquals(100, stats.hits());
+
+		cache.setCapacity(40);
+		assertEquals(40, cache.size());
+		int count = 0;
+		for (Iterator<Map.Entry<Integer, Integer>> iter = cache.entrySet().iterator(); iter.hasNext(); count++) {
+			Map.Entry<Integer, Integer> entry = iter.next();
+			assertEquals(entry.getKey(), entry.getValue());
+			if (entry.getKey() % 2 == 0)
+				iter.remove();
+		}
+		assertEquals(40, count);
+		for (Integer key : cache.keySet())
+			assertTrue(key % 2 != 0);
+
+		cache.setExpiryPeriod(20);
+		cache.put(1000, 1000);
+		Thread.sleep(30);
+		assertNull(cache.get(1000));
+		cache.removeExpiredEntries();
+		assertTrue(cache.isEmpty());
+	}
+
+	@Test
+	public void testOffHeapCache() throws Exception {
+		test(new OffHeapCache<>(5, 1 << 16, 64, new SerializationCodec<>()), new OffHeapCache<>(5, 1 << 16, 64, new SerializationCodec<>()), false);
+	}
+
+	@Test
+	public void testOffHeapCacheMemoryLimit() throws Exception {
+		Codec<String> codec = new Codec<String>() {
+			@Override public byte[] encode(String value) {
+				return value.getBytes(StandardCharsets.UTF_8);
+			}
+			@Override public String decode(byte[] bytes) {
+				return new String(bytes, StandardCharsets.UTF_8);
+			}
+		};
+		OffHeapCache<Integer, String> cache = new OffHeapCache<>(0, 800, 16, codec);
+		String value = String.join("", Collections.nCopies(100, "x"));
+		for (int i = 0; i < 10; i++)
+			cache.put(i, value + i);
+		assertEquals(800, cache.getMemorySize());
+		assertEquals(7, cache.size());
+		assertEquals(7 * 112, cache.getUsedMemory());
+		assertFalse(cache.containsKey(0));
+		assertFalse(cache.containsKey(2));
+		assertEquals(value + 9, cache.get(9));
+
+		cache.get(3);
+		cache.put(10, value + 10);
+		assertTrue(cache.containsKey(3));
+		assertFalse(cache.containsKey(4));
+
+		assertNull(cache.put(11, String.join("", Collections.nCopies(1000, "y"))));
+		assertFalse(cache.containsKey(11));
+		assertEquals(value + 3, cache.remove(3));
+		assertEquals(6 * 112, cache.getUsedMemory());
+		cache.clear();
+		assertEquals(0, cache.getUsedMemory());
+	}
+
+	@Test
+	public void testTieredCache() throws Exception {
+		TieredCache<Integer, Integer> cache = new TieredCache<>(3, 1 << 16);
+		List<Integer> removed = new ArrayList<>();
+		cache.addCacheListener(entry -> removed.add(entry.getKey()));
+		for (int i = 1; i <= 5; i++)
+			cache.put(i, 10*i);
+		assertEquals(5, cache.size());
+		assertEquals(3, cache.getHeapTier().size());
+		assertEquals(2, cache.getOffHeapTier().size());
+		assertTrue(cache.getOffHeapTier().containsKey(1));
+
+		assertEquals(10, cache.get(1).intValue());
+		assertTrue(cache.getHeapTier().containsKey(1));
+		assertFalse(cache.getOffHeapTier().containsKey(1));
+		assertTrue(cache.getOffHeapTier().containsKey(3));
+		assertEquals(5, cache.size());
+
+		assertEquals(20, cache.put(2, 21).intValue());
+		assertEquals(21, cache.get(2).intValue());
+		assertEquals(30, cache.remove(3).intValue());
+		assertEquals(4, cache.size());
+		assertEquals(Collections.singletonList(3), removed);
+		assertEquals(new HashSet<>(Arrays.asList(1, 2, 4, 5)), cache.keySet());
+		assertEquals(1.0, cache.getStatistics().hitRatio(), 0.0);
+	}
+
+	@Test
+	public void testTieredCacheExpiryAcrossTiers() throws Exception {
+		TieredCache<Integer, Integer> cache = new TieredCache<>(1, 1 << 16);
+		cache.setExpiryPeriod(200L);
+		List<RemovalCause> causes = new ArrayList<>();
+		cache.addCacheListener(new CacheListener<Integer, Integer>() {
+			@Override public void entryRemoved(Map.Entry<Integer, Integer> entry) {}
+			@Override public void entryRemoved(Map.Entry<Integer, Integer> entry, RemovalCause cause) {
+				if (entry.getKey() == 1)
+					causes.add(cause);
+			}
+		});
+		cache.put(1, 10);
+		cache.put(2, 20);
+		// Entry 1 keeps moving between tiers, but still expires
+		for (int i = 0; i < 3; i++) {
+			Thread.sleep(40L);
+			assertEquals(10, cache.get(1).intValue());
+			assertEquals(20, cache.get(2).intValue());
+		}
+		Thread.sleep(150L);
+		assertNull(cache.get(1));
+
+		// Entry already expired in the heap tier is not demoted
+		cache.clear();
+		cache.put(1, 10, 50L);
+		Thread.sleep(100L);
+		causes.clear();
+		cache.put(2, 20);
+		assertEquals(Collections.singletonList(RemovalCause.EXPIRED), causes);
+		assertFalse(cache.getOffHeapTier().containsKey(1));
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void testTinyLFUCache() throws Exception {
+		Cache<Integer, Integer> cache = new TinyLFUCache<>(5);
+		final List<Integer> removed = new ArrayList<>();
+		cache.addCacheListener(entry -> removed.add(entry.getKey()));
+		for (int i = 1; i <= 5; i++)
+			cache.put(i, 10*i);
+		for (int i = 1; i <= 5; i++)
+			assertEquals(10*i, cache.get(i).intValue());
+
+		// One-off keys are not admitted in place of frequently accessed ones
+		for (int i = 6; i <= 10; i++)
+			cache.put(i, 10*i);
+		assertEquals(5, cache.size());
+		for (int i = 1; i <= 4; i++)
+			assertTrue(cache.containsKey(i));
+		assertTrue(cache.containsKey(10));
+		assertEquals(Arrays.asList(5, 6, 7, 8, 9), removed);
+
+		// Frequently accessed new key is admitted
+		for (int i = 0; i < 5; i++)
+			cache.get(11);
+		cache.put(11, 110);
+		cache.put(12, 120);
+		assertTrue(cache.containsKey(11));
+		assertEquals(5, cache.size());
+
+		assertEquals(110, cache.remove(11).intValue());
+		assertNull(cache.get(11));
+		assertEquals(4, cache.size());
+		cache.setCapacity(2);
+		assertEquals(2, cache.size());
+		cache.clear();
+		assertTrue(cache.isEmpty());
+	}
+
+	@Test
+	public void testTinyLFUCacheEntries() throws Exception {
+		Cache<Integer, String> cache = new TinyLFUCache<>();
+		cache.setWeigher((key, value) -> value.length());
+		cache.put(1, "aaa");
+		cache.put(2, "bbb", 20L);
+
+		for (Map.Entry<Integer, String> entry : cache.entrySet()) {
+			if (entry.getKey() == 1)
+				assertEquals("aaa", entry.setValue("aaaaa"));
+		}
+		assertEquals("aaaaa", cache.get(1));
+		assertEquals(8, cache.getWeight());
+
+		// Expired entries are not iterated
+		Thread.sleep(40L);
+		List<Integer> keys = new ArrayList<>();
+		for (Map.Entry<Integer, String> entry : cache.entrySet())
+			keys.add(entry.getKey());
+		assertEquals(Collections.singletonList(1), keys);
+
+		Iterator<Map.Entry<Integer, String>> iter = cache.entrySet().iterator();
+		iter.next();
+		iter.remove();
+		assertTrue(cache.isEmpty());
+		assertEquals(0, cache.getWeight());
+	}
+
+	@Test
+	public void testHitRatio() throws Exception {
+		final int capacity = 500;
+		final int keys = 20000;
+		final int accesses = 200000;
+		List<Cache<Integer, Integer>> caches = Arrays.asList(new LRUCache<>(capacity), new MLFUCache<>(capacity), new TinyLFUCache<>(capacity));
+
+		float[] zipfRatios = hitRatios(caches, zipfTrace(keys, accesses, 0));
+		float[] scanRatios = hitRatios(caches, scanTrace(keys, accesses, 0));
+		System.out.printf("Hit ratio [LRU, MLFU, TinyLFU]: Zipf %s, Zipf with scans %s%n", Arrays.toString(zipfRatios), Arrays.toString(scanRatios));
+
+		assertTrue(zipfRatios[2] > zipfRatios[0]);
+		assertTrue(zipfRatios[2] > zipfRatios[1]);
+		assertTrue(scanRatios[2] > scanRatios[0] + 0.05f);
+		assertTrue(scanRatios[2] > scanRatios[1]);
+	}
+
+	private static float[] hitRatios(List<Cache<Integer, Integer>> caches, int[] trace) {
+		float[] ratios = new float[caches.size()];
+		for (int i = 0; i < ratios.length; i++) {
+			Cache<Integer, Integer> cache = caches.get(i);
+			cache.clear();
+			cache.resetStatistics();
+			for (int key : trace) {
+				if (cache.get(key) == null)
+					cache.put(key, key);
+			}
+			ratios[i] = cache.getStatistics().hitRatio();
+		}
+		return ratios;
+	}
+
+	private static int[] zipfTrace(int keys, int accesses, long seed) {
+		double[] cdf = new double[keys];
+		double sum = 0.0;
+		for (int i = 0; i < keys; i++)
+			cdf[i] = sum += 1.0/(i + 1);
+		Random rnd = new Random(seed);
+		int[] trace = new int[accesses];
+		for (int i = 0; i < accesses; i++) {
+			int index = Arrays.binarySearch(cdf, rnd.nextDouble()*sum);
+			trace[i] = index >= 0 ? index : -index - 1;
+		}
+		return trace;
+	}
+
+	private static int[] scanTrace(int keys, int accesses, long seed) {
+		int[] trace = zipfTrace(keys, accesses, seed);
+		int scanKey = keys;
+		for (int i = 0; i < accesses; i += 5000) {
+			for (int j = i; j < Math.min(i + 1000, accesses); j++)
+				trace[j] = scanKey++;
+		}
+		return trace;
+	}
+
 	private static void test(Cache<Integer, Integer> cache, Cache<Integer, Integer> cache2) {
+		test(cache, cache2, true);
+	}
+
+	private static void test(Cache<Integer, Integer> cache, Cache<Integer, Integer> cache2, boolean ordered) {
 		for (int i = 1; i <= 10; i++)
 			cache.put(i, 10*i);
 
@@ -36,7 +309,8 @@ public class CacheTest {
 		cache2.put(10, 101);
 
 		assertEquals(cache, cache2);
-		assertEquals(cache.toString(), cache2.toString());
+		if (ordered)
+			assertEquals(cache.toString(), cache2.toString());
 	}
 
 	@Test
@@ -60,6 +334,197 @@ public class CacheTest {
 		assertEquals(cache.size(), 0);
 	}
 
+	@Test
+	public void testConcurrentCacheExpiryPeriod() throws Exception {
+		Cache<Integer, Integer> cache = new ConcurrentCache<>(5);
+		cache.setExpiryPeriod(25);
+		cache.put(1, 1);
+		cache.put(2, 2);
+		assertEquals(cache.get(1).intValue(), 1);
+		Thread.sleep(40);
+		assertNull(cache.get(1));
+		assertFalse(cache.containsKey(2));
+		assertEquals(cache.size(), 2);
+		cache.removeExpiredEntries();
+		assertEquals(cache.size(), 0);
+	}
+
+	@Test
+	public void testConcurrentCacheConcurrency() throws Exception {
+		final Cache<Integer, Integer> cache = new ConcurrentCache<>(100);
+		final List<Integer> removed = Collections.synchronizedList(new ArrayList<>());
+		cache.addCacheListener(entry -> removed.add(entry.getKey()));
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int i = 0; i < 8; i++) {
+				final int seed = i;
+				futures.add(executor.submit(() -> {
+					Random rnd = new Random(seed);
+					for (int j = 0; j < 20000; j++) {
+						Integer key = rnd.nextInt(500);
+						Integer value = cache.get(key);
+						if (value == null)
+							cache.put(key, key);
+						else
+							assertEquals(key, value);
+					}
+				}));
+			}
+			// Assertion failures in workers are rethrown here
+			for (Future<?> future : futures)
+				future.get();
+		}
+		finally {
+			executor.shutdownNow();
+		}
+
+		assertEquals(100, cache.size());
+		assertEquals(100, cache.keySet().size());
+		for (Map.Entry<Integer, Integer> entry : cache.entrySet())
+			assertEquals(entry.getKey(), entry.getValue());
+		CacheStatistics stats = cache.getStatistics();
+		assertEquals(8*20000, stats.gets());
+		assertTrue(stats.hits() > 0);
+		assertTrue(removed.size() >= stats.gets() - stats.hits() - 500);
+	}
+
+	@Test
+	public void testConcurrentCacheClearDuringPuts() throws Exception {
+		final ConcurrentCache<Integer, Integer> cache = new ConcurrentCache<>(50);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int i = 0; i < 4; i++) {
+				final int seed = i;
+				futures.add(executor.submit(() -> {
+					Random rnd = new Random(seed);
+					for (int j = 0; j < 20000; j++) {
+						Integer key = rnd.nextInt(200);
+						if (cache.get(key) == null)
+							cache.put(key, key);
+						if (j % 10 == seed)
+							cache.clear();
+					}
+				}));
+			}
+			for (Future<?> future : futures)
+				future.get();
+		}
+		finally {
+			executor.shutdownNow();
+		}
+
+		// Every entry left in the cache must still be evictable
+		for (int i = 1000; i < 1100; i++)
+			cache.put(i, i);
+		assertEquals(50, cache.size());
+		for (int i = 1050; i < 1100; i++)
+			assertEquals(Integer.valueOf(i), cache.get(i));
+		cache.clear();
+		assertEquals(0, cache.size());
+		assertEquals(0L, cache.getWeight());
+	}
+
+	@Test
+	public void testTimeToLive() throws Exception {
+		testTimeToLive(new LRUCache<>(10));
+		testTimeToLive(new TinyLFUCache<>(10));
+		testTimeToLive(new ConcurrentCache<>(10));
+		testTimeToLive(new SegmentedCache<>(10, 2));
+		testTimeToLive(new OffHeapCache<>(10, 1 << 16, 64, new SerializationCodec<>()));
+	}
+
+	private static void testTimeToLive(Cache<Integer, Integer> cache) throws Exception {
+		cache.setExpiryPeriod(1000);
+		final List<Integer> removed = Collections.synchronizedList(new ArrayList<>());
+		cache.addCacheListener(entry -> removed.add(entry.getKey()));
+		cache.put(1, 1, 20);
+		cache.put(2, 2);
+		cache.put(3, 3, 20);
+		cache.put(3, 3);
+		cache.put(4, 4, 5000);
+		Thread.sleep(40);
+		cache.removeExpiredEntries();
+		assertEquals(Collections.singletonList(1), removed);
+		assertEquals(3, cache.size());
+
+		cache.setExpiryPeriod(20);
+		Thread.sleep(40);
+		assertNull(cache.get(2));
+		cache.removeExpiredEntries();
+		assertEquals(1, cache.size());
+		assertEquals(4, cache.get(4).intValue());
+	}
+
+	@Test
+	public void testMaximumWeight() throws Exception {
+		testMaximumWeight(new LRUCache<>());
+		testMaximumWeight(new TinyLFUCache<>());
+		testMaximumWeight(new ConcurrentCache<>());
+		testMaximumWeight(new SegmentedCache<>(0, 1));
+		testMaximumWeight(new OffHeapCache<>(1 << 16));
+	}
+
+	private static void testMaximumWeight(Cache<Integer, String> cache) {
+		cache.setWeigher((key, value) -> value.length());
+		cache.setMaximumWeight(10);
+		cache.put(1, "aaa");
+		cache.put(2, "bbb");
+		cache.put(3, "ccc");
+		assertEquals(3, cache.size());
+		assertEquals(9, cache.getWeight());
+
+		cache.put(4, "dd");
+		assertEquals(3, cache.size());
+		assertEquals(8, cache.getWeight());
+		assertFalse(cache.containsKey(1));
+
+		cache.put(2, "bbbbbbbb");
+		assertEquals(10, cache.getWeight());
+		assertTrue(cache.containsKey(2));
+		assertTrue(cache.containsKey(4));
+
+		cache.setWeigher(Weigher.singleton());
+		assertEquals(2, cache.getWeight());
+		cache.remove(2);
+		assertEquals(1, cache.getWeight());
+		cache.clear();
+		assertEquals(0, cache.getWeight());
+	}
+
+	@Test
+	public void testTimerWheel() throws Exception {
+		long t0 = 1000000L;
+		TimerWheel<TestTimer> wheel = new TimerWheel<>(t0);
+		Random rnd = new Random(0);
+		List<TestTimer> timers = new ArrayList<>();
+		for (int i = 0; i < 10000; i++) {
+			TestTimer timer = new TestTimer();
+			long delay = (long)Math.pow(10.0, rnd.nextDouble() * 10.0);
+			wheel.schedule(timer, t0 + delay);
+			timers.add(timer);
+		}
+		TestTimer descheduled = timers.get(0);
+		wheel.deschedule(descheduled);
+		assertFalse(descheduled.isScheduled());
+		assertEquals(timers.size() - 1, wheel.size());
+
+		List<TestTimer> expired = new ArrayList<>();
+		for (long now = t0; !wheel.isEmpty(); now += rnd.nextInt(1 << 28)) {
+			final long time = now;
+			wheel.advance(time, timer -> {
+				assertTrue(timer.getExpiryTime() <= time);
+				assertTrue(timer.getExpiryTime() > time - (1 << 28));
+				expired.add(timer);
+			});
+		}
+		assertEquals(timers.size() - 1, expired.size());
+		assertFalse(expired.contains(descheduled));
+	}
+
+	private static final class TestTimer extends TimerWheel.Timer {}
+
 	@Test
 	public void testBackgroundExpiry() throws Exception {
 		Cache<Integer, Integer> cache = new LRUCache<>(5);
@@ -76,6 +541,80 @@ public class CacheTest {
 		cache.stopBackgroundExpiry();
 	}
 
+	@Test
+	public void testStatistics() throws Exception {
+		testStatistics(new LRUCache<>(3));
+		testStatistics(new TinyLFUCache<>(3));
+		testStatistics(new ConcurrentCache<>(3));
+		testStatistics(new SegmentedCache<>(3, 1));
+		testStatistics(new OffHeapCache<>(3, 1 << 16, 64, new SerializationCodec<>()));
+	}
+
+	private static void testStatistics(Cache<Integer, Integer> cache) throws Exception {
+		Map<RemovalCause, Integer> causes = new EnumMap<>(RemovalCause.class);
+		cache.addCacheListener(new CacheListener<Integer, Integer>() {
+			@Override public void entryRemoved(Map.Entry<Integer, Integer> entry) {
+				fail("Removal cause expected");
+			}
+			@Override public void entryRemoved(Map.Entry<Integer, Integer> entry, RemovalCause cause) {
+				causes.merge(cause, 1, Integer::sum);
+			}
+		});
+		for (int i = 1; i <= 5; i++)
+			cache.put(i, i);
+		cache.get(5);
+		cache.get(0);
+		cache.remove(5);
+		cache.put(6, 6, 10L);
+		Thread.sleep(20L);
+		cache.removeExpiredEntries();
+
+		String name = cache.getClass().getSimpleName();
+		CacheStatistics stats = cache.getStatistics();
+		assertEquals(name, 2L, stats.gets());
+		assertEquals(name, 1L, stats.hits());
+		assertEquals(name, 1L, stats.misses());
+		assertEquals(name, 0.5f, stats.missRatio(), 0.0f);
+		assertEquals(name, 1L, stats.removalCount(RemovalCause.EXPLICIT));
+		assertEquals(name, 1L, stats.removalCount(RemovalCause.EXPIRED));
+		assertEquals(name, 2L, stats.removalCount(RemovalCause.SIZE));
+		assertEquals(name, 3L, stats.evictionCount());
+		assertEquals(name, 0L, stats.loadCount());
+		assertEquals(name, 1, causes.get(RemovalCause.EXPLICIT).intValue());
+		assertEquals(name, 1, causes.get(RemovalCause.EXPIRED).intValue());
+		assertEquals(name, 2, causes.get(RemovalCause.SIZE).intValue());
+
+		cache.resetStatistics();
+		stats = cache.getStatistics();
+		assertEquals(name, 0L, stats.gets());
+		assertEquals(name, 0L, stats.evictionCount());
+	}
+
+	@Test
+	public void testTieredCacheRemovalCauses() throws Exception {
+		TieredCache<String, String> cache = new TieredCache<>(new LRUCache<>(2), new OffHeapCache<>(0, 4096, 16, new SerializationCodec<>()));
+		List<RemovalCause> causes = new ArrayList<>();
+		cache.addCacheListener(new CacheListener<String, String>() {
+			@Override public void entryRemoved(Map.Entry<String, String> entry) {}
+			@Override public void entryRemoved(Map.Entry<String, String> entry, RemovalCause cause) {
+				causes.add(cause);
+			}
+		});
+		cache.put("a", "A");
+		cache.put("b", "B");
+		cache.put("c", "C");
+		assertTrue(causes.isEmpty());
+		assertEquals("A", cache.get("a"));
+		assertNull(cache.get("d"));
+		cache.remove("b");
+		assertEquals(Collections.singletonList(RemovalCause.EXPLICIT), causes);
+		CacheStatistics stats = cache.getStatistics();
+		assertEquals(1L, stats.hits());
+		assertEquals(1L, stats.misses());
+		assertEquals(1L, stats.removalCount(RemovalCause.EXPLICIT));
+		assertEquals(0L, stats.evictionCount());
+	}
+
 	@Test
 	public void testSoftness() {
 		Map<Integer, Integer> map = new SoftHashMap<>();
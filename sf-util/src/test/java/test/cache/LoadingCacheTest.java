@@ -0,0 +1,189 @@
+package test.cache;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import org.junit.*;
+import org.strangeforest.cache.*;
+
+import static org.junit.Assert.*;
+
+public class LoadingCacheTest {
+
+	@Test
+	public void testGetAsync() throws Exception {
+		AtomicInteger loads = new AtomicInteger();
+		LoadingCache<Integer, String> cache = new LoadingCache<>(key -> {
+			loads.incrementAndGet();
+			return CompletableFuture.completedFuture(key > 0 ? "V" + key : null);
+		});
+		assertEquals("V1", cache.getAsync(1).get());
+		assertEquals("V1", cache.get(1));
+		assertNull(cache.get(-1));
+		assertNull(cache.get(-1));
+		assertEquals(3, loads.get());
+		assertEquals(1, cache.getCache().size());
+		assertEquals(0, cache.getLoadingCount());
+	}
+
+	@Test
+	public void testSingleFlight() throws Exception {
+		AtomicInteger loads = new AtomicInteger();
+		CompletableFuture<String> loaded = new CompletableFuture<>();
+		LoadingCache<Integer, String> cache = new LoadingCache<>(key -> {
+			loads.incrementAndGet();
+			return loaded;
+		});
+		List<CompletableFuture<String>> futures = new ArrayList<>();
+		for (int i = 0; i < 10; i++)
+			futures.add(cache.getAsync(1));
+		assertEquals(1, loads.get());
+		assertEquals(1, cache.getLoadingCount());
+		for (CompletableFuture<String> future : futures)
+			assertFalse(future.isDone());
+
+		loaded.complete("V1");
+		for (CompletableFuture<String> future : futures)
+			assertEquals("V1", future.get());
+		assertEquals("V1", cache.getIfPresent(1));
+		assertEquals(0, cache.getLoadingCount());
+	}
+
+	@Test
+	public void testCallerCancellationDoesNotAffectOtherCallers() throws Exception {
+		CompletableFuture<String> loaded = new CompletableFuture<>();
+		LoadingCache<Integer, String> cache = new LoadingCache<>(key -> loaded);
+		CompletableFuture<String> future1 = cache.getAsync(1);
+		CompletableFuture<String> future2 = cache.getAsync(1);
+		CompletableFuture<String> future3 = cache.getAsync(1);
+		future1.cancel(false);
+		future2.complete("Other");
+
+		loaded.complete("V1");
+		assertTrue(future1.isCancelled());
+		assertEquals("Other", future2.get());
+		assertEquals("V1", future3.get());
+		assertEquals("V1", cache.getIfPresent(1));
+	}
+
+	@Test
+	public void testNoDuplicateLoadWhileLoadedValueIsPut() throws Exception {
+		AtomicInteger loads = new AtomicInteger();
+		List<CompletableFuture<String>> futures = new ArrayList<>();
+		AtomicReference<LoadingCache<Integer, String>> cacheRef = new AtomicReference<>();
+		ConcurrentCache<Integer, String> underlying = new ConcurrentCache<Integer, String>() {
+			@Override public String put(Integer key, String value) {
+				// Request arriving while loaded value is being put must share the load
+				futures.add(cacheRef.get().getAsync(key));
+				return super.put(key, value);
+			}
+		};
+		CompletableFuture<String> loaded = new CompletableFuture<>();
+		LoadingCache<Integer, String> cache = new LoadingCache<>(underlying, key -> {
+			loads.incrementAndGet();
+			return loaded;
+		});
+		cacheRef.set(cache);
+		CompletableFuture<String> future = cache.getAsync(1);
+		loaded.complete("V1");
+		assertEquals("V1", future.get());
+		assertEquals(1, futures.size());
+		assertEquals("V1", futures.get(0).get());
+		assertEquals(1, loads.get());
+	}
+
+	@Test
+	public void testFailuresAreNotCached() throws Exception {
+		AtomicInteger loads = new AtomicInteger();
+		LoadingCache<Integer, String> cache = new LoadingCache<>(key -> {
+			if (loads.incrementAndGet() == 1) {
+				CompletableFuture<String> failed = new CompletableFuture<>();
+				failed.completeExceptionally(new IllegalStateException("Boom"));
+				return failed;
+			}
+			return CompletableFuture.completedFuture("V" + key);
+		});
+		try {
+			cache.get(1);
+			fail("Exception expected");
+		}
+		catch (CompletionException ex) {
+			assertTrue(ex.getCause() instanceof IllegalStateException);
+		}
+		assertNull(cache.getIfPresent(1));
+		assertEquals("V1", cache.get(1));
+		assertEquals(2, loads.get());
+	}
+
+	@Test
+	public void testRefreshAfterWrite() throws Exception {
+		AtomicInteger loads = new AtomicInteger();
+		List<CompletableFuture<String>> reloads = new ArrayList<>();
+		LoadingCache<Integer, String> cache = new LoadingCache<>(new AsyncCacheLoader<Integer, String>() {
+			@Override public CompletableFuture<String> load(Integer key) {
+				loads.incrementAndGet();
+				return CompletableFuture.completedFuture("V" + key);
+			}
+			@Override public CompletableFuture<String> reload(Integer key, String oldValue) {
+				CompletableFuture<String> reload = new CompletableFuture<>();
+				reloads.add(reload);
+				return reload;
+			}
+		});
+		cache.setRefreshAfterWrite(10L);
+		assertEquals("V1", cache.get(1));
+		assertEquals("V1", cache.get(1));
+		assertTrue(reloads.isEmpty());
+
+		Thread.sleep(20L);
+		assertEquals("V1", cache.get(1));
+		assertEquals("V1", cache.get(1));
+		assertEquals(1, reloads.size());
+
+		reloads.get(0).complete("V1'");
+		assertEquals("V1'", cache.get(1));
+		assertEquals(1, loads.get());
+
+		Thread.sleep(20L);
+		assertEquals("V1'", cache.get(1));
+		reloads.get(1).completeExceptionally(new IllegalStateException("Boom"));
+		assertEquals("V1'", cache.get(1));
+	}
+
+	@Test
+	public void testGetAllAsync() throws Exception {
+		List<Set<Integer>> batches = new ArrayList<>();
+		LoadingCache<Integer, String> cache = new LoadingCache<>(AsyncCacheLoader.fromBatch(keys -> {
+			batches.add(keys);
+			Map<Integer, String> values = new HashMap<>();
+			for (Integer key : keys) {
+				if (key > 0)
+					values.put(key, "V" + key);
+			}
+			return values;
+		}, Runnable::run));
+		cache.put(1, "V1");
+
+		Map<Integer, String> values = cache.getAllAsync(Arrays.asList(1, 2, 3, -1, 2)).get();
+		assertEquals(3, values.size());
+		assertEquals("V1", values.get(1));
+		assertEquals("V2", values.get(2));
+		assertEquals("V3", values.get(3));
+		assertEquals(Collections.singletonList(new HashSet<>(Arrays.asList(2, 3, -1))), batches);
+
+		assertEquals(values, cache.getAllAsync(Arrays.asList(1, 2, 3)).get());
+		assertEquals(1, batches.size());
+	}
+
+	@Test
+	public void testInvalidateDiscardsLoadInProgress() throws Exception {
+		CompletableFuture<String> loaded = new CompletableFuture<>();
+		LoadingCache<Integer, String> cache = new LoadingCache<>(key -> loaded);
+		CompletableFuture<String> future = cache.getAsync(1);
+		cache.invalidate(1);
+		loaded.complete("V1");
+		assertEquals("V1", future.get());
+		assertNull(cache.getIfPresent(1));
+	}
+}
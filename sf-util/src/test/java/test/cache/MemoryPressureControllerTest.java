@@ -0,0 +1,146 @@
+package test.cache;
+
+import java.lang.management.*;
+
+import org.junit.*;
+import org.strangeforest.cache.*;
+import org.strangeforest.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class MemoryPressureControllerTest {
+
+	@Test
+	public void testShrinkByFairShare() {
+		MemoryPressureController controller = new MemoryPressureController(0.6, 0.85, 0.2, 0.5);
+		Cache<Integer, Integer> small = filledCache(0, 100);
+		Cache<Integer, Integer> medium = filledCache(0, 400);
+		Cache<Integer, Integer> large = filledCache(1000, 500);
+		controller.register(small);
+		controller.register(medium);
+		controller.register(large);
+
+		controller.adjust(0.7);
+		assertEquals(1000, small.size() + medium.size() + large.size());
+
+		controller.adjust(0.9);
+		assertEquals(100, small.size());
+		assertEquals(0, small.getCapacity());
+		assertEquals(350, medium.size());
+		assertEquals(350, large.size());
+		assertFalse(large.containsKey(0));
+		assertTrue(large.containsKey(499));
+
+		controller.adjust(0.9);
+		assertEquals(100, small.size());
+		assertEquals(270, medium.getCapacity());
+		assertEquals(270, large.getCapacity());
+	}
+
+	@Test
+	public void testGrowBack() {
+		MemoryPressureController controller = new MemoryPressureController(0.6, 0.85, 0.5, 0.5);
+		Cache<Integer, Integer> limited = filledCache(200, 200);
+		Cache<Integer, Integer> unlimited = filledCache(0, 200);
+		controller.register(limited);
+		controller.register(unlimited, 80);
+
+		controller.adjust(0.9);
+		assertEquals(100, limited.getCapacity());
+		assertEquals(100, unlimited.getCapacity());
+		controller.adjust(0.9);
+		assertEquals(50, limited.getCapacity());
+		assertEquals(80, unlimited.getCapacity());
+
+		controller.adjust(0.5);
+		assertEquals(75, limited.getCapacity());
+		assertEquals(120, unlimited.getCapacity());
+		controller.adjust(0.5);
+		controller.adjust(0.5);
+		assertEquals(168, limited.getCapacity());
+		assertEquals(0, unlimited.getCapacity());
+		controller.adjust(0.5);
+		assertEquals(200, limited.getCapacity());
+
+		controller.adjust(0.9);
+		controller.unregister(limited);
+		assertEquals(200, limited.getCapacity());
+		assertFalse(controller.isRegistered(limited));
+	}
+
+	@Test
+	public void testCapacitySetThroughControllerIsKept() {
+		MemoryPressureController controller = new MemoryPressureController(0.6, 0.85, 0.5, 0.5);
+		Cache<Integer, Integer> cache = filledCache(200, 200);
+		controller.register(cache);
+
+		controller.adjust(0.9);
+		assertEquals(100, cache.getCapacity());
+		controller.setCapacity(cache, 120);
+		assertEquals(120, cache.getCapacity());
+
+		controller.adjust(0.5);
+		assertEquals(120, cache.getCapacity());
+		controller.adjust(0.9);
+		assertEquals(50, cache.getCapacity());
+		for (int i = 0; i < 5; i++)
+			controller.adjust(0.5);
+		assertEquals(120, cache.getCapacity());
+
+		controller.setCapacity(cache, 150);
+		controller.unregister(cache);
+		assertEquals(150, cache.getCapacity());
+	}
+
+	@Test
+	public void testRepeatedCollectionsWithUnchangedUsageShrinkOnce() {
+		MemoryPressureController controller = new MemoryPressureController(0.6, 0.85, 0.2, 0.5);
+		controller.setMinShrinkInterval(0L);
+		Cache<Integer, Integer> cache = filledCache(0, 1000);
+		controller.register(cache);
+
+		MemoryUsage high = new MemoryUsage(0L, 900L, 1000L, 1000L);
+		for (int i = 0; i < 10; i++)
+			controller.collected(high);
+		assertEquals(800, cache.getCapacity());
+		assertEquals(0.9, controller.getOccupancy(), 0.0);
+
+		controller.collected(new MemoryUsage(0L, 880L, 1000L, 1000L));
+		assertEquals(640, cache.getCapacity());
+		controller.collected(new MemoryUsage(0L, 880L, 1000L, 1000L));
+		assertEquals(640, cache.getCapacity());
+	}
+
+	@Test
+	public void testShrinksAreRateLimited() {
+		MemoryPressureController controller = new MemoryPressureController(0.6, 0.85, 0.2, 0.5);
+		controller.setMinShrinkInterval(60000L);
+		Cache<Integer, Integer> cache = filledCache(0, 1000);
+		controller.register(cache);
+
+		for (int used = 900; used < 950; used++)
+			controller.collected(new MemoryUsage(0L, used, 1000L, 1000L));
+		assertEquals(800, cache.getCapacity());
+
+		// Growing back is not rate-limited
+		controller.collected(new MemoryUsage(0L, 500L, 1000L, 1000L));
+		assertEquals(0, cache.getCapacity());
+	}
+
+	@Test
+	public void testStartAndStop() {
+		MemoryPressureController controller = new MemoryPressureController();
+		controller.start();
+		System.gc();
+		controller.stop();
+		assertTrue(controller.getOccupancy() >= 0.0);
+	}
+
+	private static Cache<Integer, Integer> filledCache(int capacity, int size) {
+		Cache<Integer, Integer> cache = new LockableLRUCache<>(capacity);
+		LockableCache<Integer, Integer> lockableCache = (LockableCache<Integer, Integer>)cache;
+		for (int i = 0; i < size; i++)
+			lockableCache.lockedPut(i, i);
+		return cache;
+	}
+}
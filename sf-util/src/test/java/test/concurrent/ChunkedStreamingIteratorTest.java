@@ -0,0 +1,255 @@
+package test.concurrent;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.stream.*;
+
+import org.junit.*;
+import org.strangeforest.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class ChunkedStreamingIteratorTest {
+
+	private static final int ITEM_COUNT = 1000;
+	private static final String BOOOM = "Booom!!!";
+
+	@Test
+	public void testChunkedIterator() {
+		StreamingIterator<Integer> iter = new StreamingIterator<>(16, 64, 16);
+		iter.start(() -> produce(iter, ITEM_COUNT));
+
+		List<Integer> list = new ArrayList<>();
+		while (iter.hasNext())
+			list.add(iter.next());
+		assertEquals(ITEM_COUNT, list.size());
+		for (int i = 0; i < ITEM_COUNT; i++)
+			assertEquals(i, list.get(i).intValue());
+	}
+
+	@Test
+	public void testEmptyChunkedIterator() {
+		StreamingIterator<Integer> iter = new StreamingIterator<>(16, 64, 16);
+		iter.start(() -> {});
+
+		assertFalse(iter.hasNext());
+	}
+
+	@Test
+	public void testFlush() throws InterruptedException {
+		StreamingIterator<Integer> iter = new StreamingIterator<>(16, 64, 16);
+		CountDownLatch consumed = new CountDownLatch(1);
+		iter.start(() -> {
+			try {
+				iter.put(1);
+				iter.flush();
+				consumed.await();
+				iter.put(2);
+			}
+			catch (InterruptedException ignored) {}
+		});
+
+		assertTrue(iter.hasNext(1L, TimeUnit.SECONDS));
+		assertEquals(1, iter.next().intValue());
+		consumed.countDown();
+		assertEquals(2, iter.next().intValue());
+		assertFalse(iter.hasNext());
+	}
+
+	@Test(timeout = 5000L)
+	public void testTimeoutWithSlowProducer() throws InterruptedException {
+		StreamingIterator<Integer> iter = new StreamingIterator<>(16, 64, 16);
+		CountDownLatch timedOut = new CountDownLatch(1);
+		iter.start(() -> {
+			try {
+				timedOut.await();
+				iter.put(1);
+			}
+			catch (InterruptedException ignored) {}
+		});
+
+		assertFalse(iter.hasNext(50L, TimeUnit.MILLISECONDS));
+		assertFalse(iter.hasNext(50L, TimeUnit.MILLISECONDS));
+		timedOut.countDown();
+		assertEquals(1, iter.next().intValue());
+		assertFalse(iter.hasNext());
+	}
+
+	@Test
+	public void testWatermarks() throws InterruptedException {
+		StreamingIterator<Integer> iter = new StreamingIterator<>(10, 30, 10);
+		AtomicInteger produced = new AtomicInteger();
+		iter.start(() -> {
+			try {
+				for (int i = 0; i < 100; i++) {
+					iter.put(i);
+					produced.incrementAndGet();
+				}
+			}
+			catch (InterruptedException ignored) {}
+		});
+
+		// Producer fills buffer up to high watermark and blocks publishing the next chunk
+		awaitStable(produced);
+		assertEquals(39, produced.get());
+
+		// Draining one chunk leaves buffer above low watermark, so producer is still blocked
+		for (int i = 0; i < 10; i++)
+			assertEquals(i, iter.next().intValue());
+		awaitStable(produced);
+		assertEquals(39, produced.get());
+
+		// Draining down to low watermark resumes producer
+		for (int i = 10; i < 20; i++)
+			assertEquals(i, iter.next().intValue());
+		awaitStable(produced);
+		assertTrue(produced.get() > 39);
+
+		int count = 20;
+		while (iter.hasNext()) {
+			assertEquals(count, iter.next().intValue());
+			count++;
+		}
+		assertEquals(100, count);
+	}
+
+	@Test
+	public void testCancel() throws InterruptedException {
+		StreamingIterator<Integer> iter = new StreamingIterator<>(10, 20, 10);
+		CountDownLatch stopped = new CountDownLatch(1);
+		AtomicReference<Throwable> producerError = new AtomicReference<>();
+		iter.start(() -> {
+			try {
+				for (int i = 0; i < ITEM_COUNT; i++)
+					iter.put(i);
+			}
+			catch (Throwable th) {
+				producerError.set(th);
+			}
+			finally {
+				stopped.countDown();
+			}
+		});
+
+		assertEquals(0, iter.next().intValue());
+		iter.cancel();
+
+		assertTrue(iter.isCancelled());
+		assertFalse(iter.hasNext());
+		assertTrue(stopped.await(1L, TimeUnit.SECONDS));
+		assertTrue(producerError.get() instanceof CancellationException);
+	}
+
+	@Test
+	public void testCancelInItemMode() throws InterruptedException {
+		StreamingIterator<Integer> iter = new StreamingIterator<>(1);
+		CountDownLatch stopped = new CountDownLatch(1);
+		iter.start(() -> {
+			try {
+				for (int i = 0; i < ITEM_COUNT; i++)
+					iter.put(i);
+			}
+			catch (InterruptedException ignored) {}
+			finally {
+				stopped.countDown();
+			}
+		});
+
+		assertEquals(0, iter.next().intValue());
+		iter.cancel();
+
+		assertFalse(iter.hasNext());
+		assertTrue(stopped.await(1L, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testStream() {
+		StreamingIterator<Integer> iter = new StreamingIterator<>(16, 64, 16);
+		iter.start(() -> produce(iter, ITEM_COUNT));
+
+		assertEquals(ITEM_COUNT * (ITEM_COUNT - 1) / 2, iter.stream().mapToInt(Integer::intValue).sum());
+	}
+
+	@Test
+	public void testStreamInItemMode() {
+		StreamingIterator<Integer> iter = new StreamingIterator<>(10);
+		iter.start(() -> produce(iter, ITEM_COUNT));
+
+		assertEquals(IntStream.range(0, ITEM_COUNT).boxed().collect(Collectors.toList()), iter.stream().collect(Collectors.toList()));
+	}
+
+	@Test
+	public void testParallelStream() {
+		StreamingIterator<Integer> iter = new StreamingIterator<>(16, 64, 16);
+		iter.start(() -> produce(iter, ITEM_COUNT));
+
+		List<Integer> list = StreamSupport.stream(iter.spliterator(), true).collect(Collectors.toList());
+		assertEquals(IntStream.range(0, ITEM_COUNT).boxed().collect(Collectors.toList()), list);
+	}
+
+	@Test
+	public void testSplitWholeChunk() {
+		StreamingIterator<Integer> iter = new StreamingIterator<>(10, 100, 10);
+		iter.start(() -> produce(iter, 25));
+
+		Spliterator<Integer> spliterator = iter.spliterator();
+		Spliterator<Integer> chunk = spliterator.trySplit();
+		assertNotNull(chunk);
+		assertEquals(10L, chunk.estimateSize());
+		while (spliterator.estimateSize() == Long.MAX_VALUE)
+			Thread.yield();
+		assertEquals(15L, spliterator.estimateSize());
+
+		List<Integer> list = new ArrayList<>();
+		chunk.forEachRemaining(list::add);
+		spliterator.forEachRemaining(list::add);
+		assertEquals(IntStream.range(0, 25).boxed().collect(Collectors.toList()), list);
+		assertNull(spliterator.trySplit());
+	}
+
+	@Test
+	public void testErrorInChunkedStreaming() {
+		StreamingIterator<Integer> iter = new StreamingIterator<>(16, 64, 16);
+		iter.start(() -> {
+			produce(iter, 20);
+			throw new IllegalStateException(BOOOM);
+		});
+
+		int count = 0;
+		try {
+			while (iter.hasNext()) {
+				iter.next();
+				count++;
+			}
+			fail("Unreachable reached!");
+		}
+		catch (IllegalStateException ex) {
+			assertEquals(BOOOM, ex.getMessage());
+			assertEquals(20, count);
+			assertFalse(iter.hasNext());
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidWatermarks() {
+		new StreamingIterator<Integer>(10, 20, 20);
+	}
+
+	private static void produce(StreamingIterator<Integer> iter, int count) {
+		try {
+			for (int i = 0; i < count; i++)
+				iter.put(i);
+		}
+		catch (InterruptedException ignored) {}
+	}
+
+	private static void awaitStable(AtomicInteger counter) throws InterruptedException {
+		int last;
+		do {
+			last = counter.get();
+			Thread.sleep(50L);
+		}
+		while (counter.get() != last);
+	}
+}
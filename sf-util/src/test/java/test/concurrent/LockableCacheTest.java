@@ -1,6 +1,9 @@
 package test.concurrent;
 
+import java.lang.management.*;
 import java.util.*;
+import java.util.concurrent.*;
+import javax.management.*;
 
 import org.junit.*;
 import org.strangeforest.cache.*;
@@ -41,7 +44,21 @@ public class LockableCacheTest {
 	public void testConcurrency() throws Exception {
 		Thread.sleep(1000);
 //		long t0 = System.currentTimeMillis();
-		LockableCache<String, Long> cache = new LockableLRUCache<>(SIZE, new SoftHashMap<>());
+		testConcurrency(new LockableLRUCache<>(SIZE, new SoftHashMap<>()));
+//		System.out.println((System.currentTimeMillis()-t0)/1000.0);
+	}
+
+	@Test
+	public void testTinyLFUCacheConcurrency() throws Exception {
+		testConcurrency(new LockableTinyLFUCache<>(SIZE));
+	}
+
+	@Test
+	public void testConcurrentCacheConcurrency() throws Exception {
+		testConcurrency(new LockableConcurrentCache<>(SIZE));
+	}
+
+	private void testConcurrency(LockableCache<String, Long> cache) throws Exception {
 //		Cache<String, Long> cache = new LRUCache<String, Long>(SIZE, new SoftHashMap());
 		Thread[] threads = new Thread[THREADS];
 		for (int i = 0; i < THREADS; i++) {
@@ -66,7 +83,69 @@ public class LockableCacheTest {
 		assertEquals("Test failed: " + sum + "!=" + THREADS*COUNT, THREADS*COUNT, sum);
 
 		System.out.println("Hit ratio: " + cache.getStatistics().hitRatio());
-//		System.out.println((System.currentTimeMillis()-t0)/1000.0);
+	}
+
+	@Test
+	public void testLoadStatistics() {
+		LockableCache<String, String> cache = new LockableLRUCache<>(10);
+		assertEquals("A", cache.lockedGet("a", key -> "A"));
+		assertEquals("A", cache.lockedGet("a", key -> "B"));
+		try {
+			cache.lockedGet("b", key -> {
+				throw new IllegalStateException();
+			});
+			fail("Exception expected");
+		}
+		catch (IllegalStateException ignored) {}
+
+		CacheStatistics stats = cache.getStatistics();
+		assertEquals(1, stats.size());
+		assertEquals(1L, stats.hits());
+		assertEquals(2L, stats.loadCount());
+		assertEquals(1L, stats.loadSuccessCount());
+		assertEquals(1L, stats.loadFailureCount());
+		assertEquals(2L, stats.loadTimes().getCount());
+		assertTrue(stats.totalLoadTime() >= 0L);
+		cache.resetStatistics();
+		assertEquals(0L, cache.getStatistics().loadCount());
+	}
+
+	@Test
+	public void testAsyncLoadStatistics() throws Exception {
+		LockableCache<String, String> cache = new LockableLRUCache<>(10);
+		assertEquals("A", cache.lockedGetAsync("a", key -> CompletableFuture.completedFuture("A")).get());
+		CompletableFuture<String> failed = new CompletableFuture<>();
+		failed.completeExceptionally(new IllegalStateException());
+		assertTrue(cache.lockedGetAsync("b", key -> failed).isCompletedExceptionally());
+
+		CacheStatistics stats = cache.getStatistics();
+		assertEquals(1, stats.size());
+		assertEquals(1L, stats.loadSuccessCount());
+		assertEquals(1L, stats.loadFailureCount());
+	}
+
+	@Test
+	public void testMBean() throws Exception {
+		LockableCache<String, String> cache = new LockableLRUCache<>(10);
+		cache.registerMBean("test-cache");
+		try {
+			assertEquals("A", cache.lockedGet("a", key -> "A"));
+			assertEquals("A", cache.lockedGet("a", key -> "B"));
+
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = MBeanUtil.objectName("LockableCache", "test-cache");
+			assertEquals(1, server.getAttribute(name, "Size"));
+			assertEquals(0.5f, (Float)server.getAttribute(name, "HitRatio"), 0.0001f);
+			assertEquals(1L, server.getAttribute(name, "LoadSuccessCount"));
+			server.setAttribute(name, new Attribute("Capacity", 20));
+			assertEquals(20, cache.getCapacity());
+			server.invoke(name, "resetStatistics", null, null);
+			assertEquals(0L, cache.getStatistics().gets());
+		}
+		finally {
+			cache.unregisterMBean();
+		}
+		assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(MBeanUtil.objectName("LockableCache", "test-cache")));
 	}
 
 	private static final String KEY = "key";
@@ -2,6 +2,7 @@ package test.concurrent;
 
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 import org.junit.*;
 import org.strangeforest.concurrent.*;
@@ -42,6 +43,552 @@ public class LockableMapTest {
 		assertEquals("Test failed: " + sum + "!=" + THREADS * COUNT, THREADS * COUNT, sum);
 	}
 
+	@Test
+	public void testDifferentKeysDoNotBlock() throws Exception {
+		LockableMap<String, Long> map = new LockableHashMap<>();
+		CountDownLatch locked = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(1);
+		ThreadUtil.runInThread(() -> {
+			map.lock("1");
+			try {
+				locked.countDown();
+				done.await();
+			}
+			catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+			finally {
+				map.unlock("1");
+			}
+		});
+		locked.await();
+		try {
+			assertFalse(map.tryLock("1"));
+			assertTrue(map.tryLock("2", 100L, TimeUnit.MILLISECONDS));
+			map.put("2", 2L);
+			map.unlock("2");
+			assertEquals(2L, map.get("2").longValue());
+			assertEquals(Collections.singleton("1"), map.lockedKeySetSnapshot());
+		}
+		finally {
+			done.countDown();
+		}
+	}
+
+	@Test
+	public void testSharedLock() throws Exception {
+		LockableMap<String, Long> map = new LockableHashMap<>();
+		map.lockedPut("1", 1L);
+		map.lockShared("1");
+		try {
+			FutureTask<Boolean> sharedTask = new FutureTask<>(() -> {
+				boolean locked = map.tryLockShared("1");
+				if (locked)
+					map.unlockShared("1");
+				return locked;
+			});
+			FutureTask<Boolean> exclusiveTask = new FutureTask<>(() -> map.tryLock("1", 20L, TimeUnit.MILLISECONDS));
+			ThreadUtil.runInThread(sharedTask);
+			ThreadUtil.runInThread(exclusiveTask);
+			assertTrue(sharedTask.get());
+			assertFalse(exclusiveTask.get());
+			assertFalse(map.isLocked("1"));
+		}
+		finally {
+			map.unlockShared("1");
+		}
+		assertTrue(map.tryLock("1"));
+		map.unlock("1");
+	}
+
+	@Test
+	public void testNullKeysAndValues() throws Exception {
+		LockableMap<String, Long> map = new LockableHashMap<>();
+		AtomicInteger loads = new AtomicInteger();
+		assertNull(map.lockedGet(KEY, key -> {
+			loads.incrementAndGet();
+			return null;
+		}));
+		assertNull(map.lockedGet(KEY, key -> {
+			loads.incrementAndGet();
+			return 1L;
+		}));
+		assertEquals(1, loads.get());
+		assertTrue(map.containsKey(KEY));
+		assertTrue(map.containsValue(null));
+
+		map.lockedPut(null, 2L);
+		assertEquals(2L, map.get(null).longValue());
+		assertEquals(2L, map.lockedGetAsync(null, key -> CompletableFuture.completedFuture(3L)).get().longValue());
+		map.lock(null);
+		try {
+			assertTrue(map.isLocked(null));
+			assertEquals(Collections.singleton(null), map.lockedKeySetSnapshot());
+		}
+		finally {
+			map.unlock(null);
+		}
+		assertEquals(new HashSet<>(Arrays.asList(null, KEY)), map.keySetSnapshot());
+		assertEquals(2L, map.lockedRemove(null).longValue());
+		map.clear();
+		assertTrue(map.isEmpty());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testUnlockSharedWhenNotLocked() {
+		new LockableHashMap<String, Long>().unlockShared("1");
+	}
+
+	@Test
+	public void testOptimisticRead() {
+		LockableMap<String, Long> map = new LockableHashMap<>();
+		long stamp = map.tryOptimisticRead("1");
+		assertNotEquals(0L, stamp);
+		assertTrue(map.validate("1", stamp));
+		map.lockedPut("1", 1L);
+		assertFalse(map.validate("1", stamp));
+
+		stamp = map.tryOptimisticRead("1");
+		assertNotEquals(0L, stamp);
+		assertTrue(map.validate("1", stamp));
+		map.lock("1");
+		assertFalse(map.validate("1", stamp));
+		assertEquals(0L, map.tryOptimisticRead("1"));
+		map.put("1", 2L);
+		map.unlock("1");
+		assertFalse(map.validate("1", stamp));
+
+		stamp = map.tryOptimisticRead("1");
+		map.lockShared("1");
+		map.unlockShared("1");
+		assertTrue(map.validate("1", stamp));
+		assertEquals(2L, map.optimisticGet("1").longValue());
+		assertNull(map.optimisticGet("2"));
+		assertTrue(map.lockedKeySetSnapshot().isEmpty());
+	}
+
+	@Test
+	public void testOptimisticReadAcrossLockRemoval() {
+		LockableMap<String, Long> map = new LockableHashMap<>();
+		map.lockShared("1");
+		long stamp = map.tryOptimisticRead("1");
+		map.unlockShared("1");
+		assertTrue(map.validate("1", stamp));
+
+		// Lock is removed after each use, as the key is not in the map
+		map.lock("1");
+		map.unlock("1");
+		map.lockShared("1");
+		try {
+			assertFalse(map.validate("1", stamp));
+		}
+		finally {
+			map.unlockShared("1");
+		}
+		assertFalse(map.validate("1", stamp));
+	}
+
+	@Test
+	public void testTryClearWhileLockedShared() {
+		LockableMap<String, Long> map = new LockableHashMap<>();
+		map.lockedPut("1", 1L);
+		map.lockedPut("2", 2L);
+		map.lockShared("2");
+		try {
+			map.tryClear();
+			assertEquals(1, map.size());
+		}
+		finally {
+			map.unlockShared("2");
+		}
+		assertTrue(map.isEmpty());
+	}
+
+	@Test
+	public void testLockedGetAsyncSharesLoad() throws Exception {
+		LockableHashMap<String, Long> map = new LockableHashMap<>();
+		CompletableFuture<Long> load = new CompletableFuture<>();
+		AtomicInteger loadCount = new AtomicInteger();
+		List<CompletableFuture<Long>> futures = new ArrayList<>();
+		for (int i = 0; i < THREADS; i++) {
+			futures.add(map.lockedGetAsync("1", key -> {
+				loadCount.incrementAndGet();
+				return load;
+			}));
+		}
+		assertEquals(1, loadCount.get());
+		assertEquals(1, map.getLoadsInProgress());
+		assertFalse(map.containsKey("1"));
+		assertTrue(map.lockedKeySetSnapshot().isEmpty());
+
+		load.complete(1L);
+		for (CompletableFuture<Long> future : futures)
+			assertEquals(Long.valueOf(1L), future.get(1L, TimeUnit.SECONDS));
+		assertEquals(Long.valueOf(1L), map.get("1"));
+		assertEquals(0, map.getLoadsInProgress());
+
+		CompletableFuture<Long> cached = map.lockedGetAsync("1", key -> {
+			throw new AssertionError("Should not be loaded");
+		});
+		assertTrue(cached.isDone());
+		assertEquals(Long.valueOf(1L), cached.get());
+	}
+
+	@Test
+	public void testLockedGetAsyncFailureIsNotCached() throws Exception {
+		LockableHashMap<String, Long> map = new LockableHashMap<>();
+		CompletableFuture<Long> failed = map.lockedGetAsync("1", key -> {
+			CompletableFuture<Long> future = new CompletableFuture<>();
+			future.completeExceptionally(new IllegalStateException("Booom!!!"));
+			return future;
+		});
+		try {
+			failed.get(1L, TimeUnit.SECONDS);
+			fail("Unreachable reached!");
+		}
+		catch (ExecutionException ex) {
+			assertTrue(ex.getCause() instanceof IllegalStateException);
+		}
+		assertFalse(map.containsKey("1"));
+		assertEquals(0, map.getLoadsInProgress());
+
+		CompletableFuture<Long> thrown = map.lockedGetAsync("1", key -> {
+			throw new IllegalStateException("Booom!!!");
+		});
+		assertTrue(thrown.isCompletedExceptionally());
+		assertEquals(0, map.getLoadsInProgress());
+
+		assertEquals(Long.valueOf(2L), map.lockedGetAsync("1", key -> CompletableFuture.completedFuture(2L)).get(1L, TimeUnit.SECONDS));
+		assertEquals(Long.valueOf(2L), map.get("1"));
+	}
+
+	@Test(timeout = 5000L)
+	public void testLockedGetAsyncCompletionDoesNotWaitForLock() throws Exception {
+		LockableHashMap<String, Long> map = new LockableHashMap<>();
+		CompletableFuture<Long> load = new CompletableFuture<>();
+		CompletableFuture<Long> future = map.lockedGetAsync("1", key -> load);
+		CountDownLatch locked = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		Thread locker = new Thread(() -> {
+			map.lock("1");
+			try {
+				locked.countDown();
+				release.await();
+			}
+			catch (InterruptedException ignored) {}
+			finally {
+				map.unlock("1");
+			}
+		});
+		locker.start();
+		locked.await();
+
+		load.complete(1L);
+		assertEquals(Long.valueOf(1L), future.get(1L, TimeUnit.SECONDS));
+		assertEquals(0, map.getLoadsInProgress());
+		assertFalse(map.containsKey("1"));
+
+		release.countDown();
+		locker.join();
+		assertEquals(Long.valueOf(2L), map.lockedGetAsync("1", key -> CompletableFuture.completedFuture(2L)).get(1L, TimeUnit.SECONDS));
+		assertEquals(Long.valueOf(2L), map.get("1"));
+	}
+
+	@Test
+	public void testLockedGetAsyncDoesNotOverwrite() throws Exception {
+		LockableHashMap<String, Long> map = new LockableHashMap<>();
+		CompletableFuture<Long> load = new CompletableFuture<>();
+		CompletableFuture<Long> future = map.lockedGetAsync("1", key -> load);
+		map.lockedPut("1", 2L);
+		load.complete(1L);
+
+		assertEquals(Long.valueOf(2L), future.get(1L, TimeUnit.SECONDS));
+		assertEquals(Long.valueOf(2L), map.get("1"));
+	}
+
+	@Test
+	public void testLockedGetAsyncCallerCancelDoesNotAffectOthers() throws Exception {
+		LockableHashMap<String, Long> map = new LockableHashMap<>();
+		CompletableFuture<Long> load = new CompletableFuture<>();
+		CompletableFuture<Long> future1 = map.lockedGetAsync("1", key -> load);
+		CompletableFuture<Long> future2 = map.lockedGetAsync("1", key -> load);
+		future1.cancel(false);
+		load.complete(1L);
+
+		assertEquals(Long.valueOf(1L), future2.get(1L, TimeUnit.SECONDS));
+		assertEquals(Long.valueOf(1L), map.get("1"));
+	}
+
+	@Test
+	public void testLockAllInCanonicalOrder() throws Exception {
+		LockableMap<Integer, Long> map = new LockableHashMap<>();
+		List<Integer> keys = new ArrayList<>();
+		for (int i = 0; i < KEYS; i++)
+			keys.add(i);
+		List<Integer> reversedKeys = new ArrayList<>(keys);
+		Collections.reverse(reversedKeys);
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (List<Integer> lockKeys : Arrays.asList(keys, reversedKeys)) {
+				futures.add(executor.submit(() -> {
+					for (int i = 0; i < COUNT; i++) {
+						map.lockAll(lockKeys);
+						try {
+							for (Integer key : lockKeys)
+								map.put(key, map.getOrDefault(key, 0L) + 1L);
+						}
+						finally {
+							map.unlockAll(lockKeys);
+						}
+					}
+				}));
+			}
+			for (Future<?> future : futures)
+				future.get(10L, TimeUnit.SECONDS);
+		}
+		finally {
+			executor.shutdownNow();
+		}
+		for (int i = 0; i < KEYS; i++)
+			assertEquals(Long.valueOf(2L * COUNT), map.get(i));
+		assertTrue(map.lockedKeySetSnapshot().isEmpty());
+	}
+
+	@Test
+	public void testTryLockAllTimesOut() throws Exception {
+		LockableMap<String, Long> map = new LockableHashMap<>();
+		CountDownLatch locked = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(1);
+		Thread thread = new Thread(() -> {
+			map.lock("2");
+			try {
+				locked.countDown();
+				done.await();
+			}
+			catch (InterruptedException ignored) {}
+			finally {
+				map.unlock("2");
+			}
+		});
+		thread.start();
+		locked.await();
+
+		assertFalse(map.tryLockAll(Arrays.asList("3", "1", "2"), 50L, TimeUnit.MILLISECONDS));
+		assertFalse(map.isLocked("1"));
+		assertFalse(map.isLocked("3"));
+
+		done.countDown();
+		thread.join();
+		assertTrue(map.tryLockAll(Arrays.asList("3", "1", "2", "1"), 50L, TimeUnit.MILLISECONDS));
+		assertEquals(new HashSet<>(Arrays.asList("1", "2", "3")), map.lockedKeySetSnapshot());
+		map.unlockAll(Arrays.asList("3", "1", "2", "1"));
+		assertTrue(map.lockedKeySetSnapshot().isEmpty());
+	}
+
+	@Test
+	public void testDeadlockDetection() throws Exception {
+		DeadlockDetector detector = new DeadlockDetector();
+		LockableHashMap<String, Long> map1 = new LockableHashMap<>();
+		LockableHashMap<String, Long> map2 = new LockableHashMap<>();
+		map1.setDeadlockDetector(detector);
+		map2.setDeadlockDetector(detector);
+
+		CountDownLatch firstLocked = new CountDownLatch(1);
+		CountDownLatch secondLocked = new CountDownLatch(1);
+		AtomicReference<Throwable> olderError = new AtomicReference<>();
+		AtomicBoolean olderCompleted = new AtomicBoolean();
+		Thread older = new Thread(() -> {
+			map1.lock("a");
+			try {
+				firstLocked.countDown();
+				secondLocked.await();
+				map2.lock("b");
+				map2.unlock("b");
+				olderCompleted.set(true);
+			}
+			catch (Throwable th) {
+				olderError.set(th);
+			}
+			finally {
+				map1.unlock("a");
+			}
+		});
+		older.start();
+		firstLocked.await();
+
+		// Younger thread (current) acquires its first lock last, so it is chosen to break the deadlock, whichever thread closes the cycle
+		map2.lock("b");
+		try {
+			secondLocked.countDown();
+			while (detector.getWaitingThreadCount() == 0)
+				Thread.yield();
+			map1.lock("a");
+			fail("Deadlock expected");
+		}
+		catch (DeadlockException ex) {
+			assertFalse(Thread.currentThread().isInterrupted());
+		}
+		finally {
+			map2.unlock("b");
+		}
+		older.join(1000L);
+
+		assertFalse(older.isAlive());
+		assertNull(olderError.get());
+		assertTrue(olderCompleted.get());
+		assertEquals(1L, detector.getDeadlockCount());
+		assertEquals(0, detector.getThreadCount());
+		assertTrue(map1.lockedKeySetSnapshot().isEmpty());
+		assertTrue(map2.lockedKeySetSnapshot().isEmpty());
+	}
+
+	@Test
+	public void testDeadlockVictimIsWokenUp() throws Exception {
+		DeadlockDetector detector = new DeadlockDetector();
+		LockableHashMap<String, Long> map = new LockableHashMap<>();
+		map.setDeadlockDetector(detector);
+
+		// Current thread is older and closes the cycle, so that waiting younger thread is woken up and fails
+		map.lock("a");
+		CountDownLatch locked = new CountDownLatch(1);
+		AtomicReference<Throwable> youngerError = new AtomicReference<>();
+		Thread younger = new Thread(() -> {
+			map.lock("b");
+			try {
+				locked.countDown();
+				map.lock("a");
+				map.unlock("a");
+			}
+			catch (Throwable th) {
+				youngerError.set(th);
+			}
+			finally {
+				map.unlock("b");
+			}
+		});
+		younger.start();
+		try {
+			locked.await();
+			while (detector.getWaitingThreadCount() == 0)
+				Thread.yield();
+			map.lock("b");
+			map.unlock("b");
+		}
+		finally {
+			map.unlock("a");
+		}
+		younger.join(1000L);
+
+		assertFalse(younger.isAlive());
+		assertTrue(youngerError.get() instanceof DeadlockException);
+		assertEquals(1L, detector.getDeadlockCount());
+	}
+
+	@Test
+	public void testThroughput() throws Exception {
+		for (int keys : new int[] {1, THREADS, 1000}) {
+			LockableMap<Integer, Long> map = new LockableHashMap<>();
+			long ops = measureThroughput(map, keys, 200L);
+			long sum = 0L;
+			for (Long value : map.values())
+				sum += value;
+			assertEquals(ops, sum);
+			System.out.printf("LockableHashMap throughput with %d threads and %d keys: %,d ops/s%n", THREADS, keys, ops * 1000L / 200L);
+		}
+	}
+
+	@Test
+	public void testHotKeyReadThroughput() throws Exception {
+		LockableMap<Integer, Long> map = new LockableHashMap<>();
+		map.lockedPut(0, 0L);
+		long exclusiveOps = measureReadThroughput(() -> {
+			map.lock(0);
+			try {
+				return map.get(0);
+			}
+			finally {
+				map.unlock(0);
+			}
+		}, 200L);
+		long sharedOps = measureReadThroughput(() -> {
+			map.lockShared(0);
+			try {
+				return map.get(0);
+			}
+			finally {
+				map.unlockShared(0);
+			}
+		}, 200L);
+		long optimisticOps = measureReadThroughput(() -> map.optimisticGet(0), 200L);
+		System.out.printf("LockableHashMap hot key read throughput with %d threads: exclusive %,d ops/s, shared %,d ops/s, optimistic %,d ops/s%n",
+			THREADS, exclusiveOps * 5L, sharedOps * 5L, optimisticOps * 5L);
+		assertTrue(optimisticOps > 0L);
+		assertTrue(map.lockedKeySetSnapshot().isEmpty());
+	}
+
+	private static long measureReadThroughput(Callable<Long> reader, long millis) throws Exception {
+		AtomicBoolean running = new AtomicBoolean(true);
+		LongAdder ops = new LongAdder();
+		Thread[] threads = new Thread[THREADS];
+		for (int i = 0; i < THREADS; i++) {
+			threads[i] = new Thread(() -> {
+				try {
+					while (running.get()) {
+						reader.call();
+						ops.increment();
+					}
+				}
+				catch (Exception ex) {
+					ex.printStackTrace();
+				}
+			});
+			threads[i].start();
+		}
+		Thread.sleep(millis);
+		running.set(false);
+		for (Thread thread : threads)
+			thread.join();
+		return ops.sum();
+	}
+
+	private static long measureThroughput(LockableMap<Integer, Long> map, int keys, long millis) throws Exception {
+		AtomicBoolean running = new AtomicBoolean(true);
+		LongAdder ops = new LongAdder();
+		CyclicBarrier start = new CyclicBarrier(THREADS + 1);
+		Thread[] threads = new Thread[THREADS];
+		for (int i = 0; i < THREADS; i++) {
+			int thread = i;
+			threads[i] = new Thread(() -> {
+				try {
+					start.await();
+				}
+				catch (Exception ex) {
+					return;
+				}
+				for (int j = thread; running.get(); j += THREADS) {
+					Integer key = j % keys;
+					map.lock(key);
+					try {
+						Long value = map.get(key);
+						map.put(key, value != null ? value + 1L : 1L);
+					}
+					finally {
+						map.unlock(key);
+					}
+					ops.increment();
+				}
+			});
+			threads[i].start();
+		}
+		start.await();
+		Thread.sleep(millis);
+		running.set(false);
+		for (Thread thread : threads)
+			thread.join();
+		return ops.sum();
+	}
+
 	private static class TestThread extends Thread {
 
 		private LockableMap<String, Long> map;
@@ -0,0 +1,115 @@
+package test.concurrent;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import org.junit.*;
+import org.strangeforest.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class MaintenanceSchedulerTest {
+
+	private MaintenanceScheduler scheduler;
+
+	@Before
+	public void setUp() {
+		scheduler = new MaintenanceScheduler("Test Maintenance", 2, 5L);
+	}
+
+	@After
+	public void tearDown() {
+		scheduler.shutdownNow();
+	}
+
+	@Test
+	public void testSchedule() throws Exception {
+		long start = System.nanoTime();
+		ScheduledFuture<Integer> future = scheduler.schedule(() -> 1, 20L, TimeUnit.MILLISECONDS);
+		assertEquals(1, future.get(1L, TimeUnit.SECONDS).intValue());
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20L));
+		assertEquals(0, scheduler.getTaskCount());
+	}
+
+	@Test
+	public void testScheduleAtFixedRate() throws Exception {
+		AtomicInteger runs = new AtomicInteger();
+		ScheduledFuture<?> future = scheduler.scheduleAtFixedRate(runs::incrementAndGet, 10L, 10L, TimeUnit.MILLISECONDS);
+		Thread.sleep(105L);
+		future.cancel(false);
+		int count = runs.get();
+		assertTrue("Runs: " + count, count >= 5 && count <= 11);
+		Thread.sleep(30L);
+		assertEquals(count, runs.get());
+	}
+
+	@Test
+	public void testScheduleWithFixedDelay() throws Exception {
+		AtomicInteger runs = new AtomicInteger();
+		ScheduledFuture<?> future = scheduler.scheduleWithFixedDelay(() -> {
+			runs.incrementAndGet();
+			sleep(10L);
+		}, 0L, 10L, TimeUnit.MILLISECONDS);
+		Thread.sleep(105L);
+		future.cancel(false);
+		int count = runs.get();
+		assertTrue("Runs: " + count, count >= 3 && count <= 6);
+	}
+
+	@Test
+	public void testSlowPeriodicTaskIsCoalesced() throws Exception {
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger maxRunning = new AtomicInteger();
+		AtomicInteger runs = new AtomicInteger();
+		ScheduledFuture<?> future = scheduler.scheduleAtFixedRate(() -> {
+			maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+			runs.incrementAndGet();
+			sleep(50L);
+			running.decrementAndGet();
+		}, 0L, 5L, TimeUnit.MILLISECONDS);
+		Thread.sleep(200L);
+		future.cancel(false);
+		assertEquals(1, maxRunning.get());
+		assertTrue("Runs: " + runs.get(), runs.get() <= 5);
+	}
+
+	@Test
+	public void testThreadCountIsCapped() throws Exception {
+		Set<Thread> threads = ConcurrentHashMap.newKeySet();
+		List<ScheduledFuture<?>> futures = new ArrayList<>();
+		for (int i = 0; i < 100; i++)
+			futures.add(scheduler.scheduleAtFixedRate(() -> threads.add(Thread.currentThread()), i % 10, 5L, TimeUnit.MILLISECONDS));
+		Thread.sleep(100L);
+		assertEquals(100, scheduler.getTaskCount());
+		assertTrue(scheduler.getThreadCount() <= 3);
+		for (ScheduledFuture<?> future : futures)
+			future.cancel(false);
+		assertTrue(threads.size() <= 2);
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testSharedSchedulerCanNotBeShutDown() {
+		MaintenanceScheduler.getInstance().shutdown();
+	}
+
+	@Test
+	public void testFixedRateSchedulerUsesSharedScheduler() throws Exception {
+		CountDownLatch latch = new CountDownLatch(3);
+		FixedRateScheduler fixedRateScheduler = new FixedRateScheduler(latch::countDown, 10L);
+		fixedRateScheduler.schedule();
+		assertTrue(latch.await(1L, TimeUnit.SECONDS));
+		fixedRateScheduler.shutdown();
+		assertFalse(fixedRateScheduler.isScheduled());
+		assertFalse(MaintenanceScheduler.getInstance().isShutdown());
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -21,12 +21,15 @@ public class MapPerfIT {
 		testMapAccess(COUNT, new LRUCache<>(SIZE), "LRUCache");
 		testMapAccess(COUNT, new MLFUCache<>(SIZE), "MLFUCache");
 		testMapAccess(COUNT, new LRUCache<>(SIZE, new SoftHashMap<>(SIZE*3/2)), "Soft LRUCache");
+		testMapAccess(COUNT, new SegmentedCache<>(SIZE), "SegmentedCache");
+		testMapAccess(COUNT, new ConcurrentCache<>(SIZE), "ConcurrentCache");
 		testSyncMapAccess(COUNT, new HashMap<>(SIZE), "HashMap");
 		testSyncMapAccess(COUNT, new LRUCache<>(SIZE), "LRUCache");
 		testSyncMapAccess(COUNT, new MLFUCache<>(SIZE), "MLFUCache");
 		testConcMapAccess(COUNT, new LockableHashMap<>(SIZE), "LockableHashMap");
 		testConcMapAccess(COUNT, new LockableLRUCache<>(SIZE), "LockableLRUCache");
 		testConcMapAccess(COUNT, new LockableMLFUCache<>(SIZE), "LockableMLFUCache");
+		testConcMapAccess(COUNT, new LockableConcurrentCache<>(SIZE), "LockableConcurrentCache");
 	}
 
 	private static void testMapAccess(int count, Map<Integer, Long> map, String desc) throws Exception {
@@ -139,6 +139,152 @@ public class AdaptiveThreadPoolExecutorTest {
 		testExecutorKeepAlive(executor, EXPECTED_KEEP_ALIVE);
 	}
 
+	@Test
+	public void testWorkStealingUnbounded() throws InterruptedException {
+		AdaptiveThreadPoolExecutor executor = new AdaptiveThreadPoolExecutor(1, 2, 5, TimeUnit.MINUTES, new LinkedBlockingQueue<>());
+		executor.setWorkStealing(true);
+		testExecutor(executor, EXPECTED_THREAD_PREF_UNBOUNDED);
+	}
+
+	@Test
+	public void testWorkStealingLocalTasksAreRunInLifoOrder() throws InterruptedException {
+		AdaptiveThreadPoolExecutor executor = new AdaptiveThreadPoolExecutor(1, 1, 5, TimeUnit.MINUTES, new LinkedBlockingQueue<>());
+		executor.setWorkStealing(true);
+		List<Integer> order = new CopyOnWriteArrayList<>();
+		Set<Thread> threads = new CopyOnWriteArraySet<>();
+		CountDownLatch done = new CountDownLatch(3);
+		executor.execute(() -> {
+			threads.add(Thread.currentThread());
+			for (int i = 1; i <= 3; i++) {
+				int id = i;
+				executor.execute(() -> {
+					threads.add(Thread.currentThread());
+					order.add(id);
+					done.countDown();
+				});
+			}
+			assertEquals(3, executor.getQueuedTaskCount());
+			assertEquals(0, executor.getQueue().size());
+		});
+
+		assertTrue(done.await(2, TimeUnit.SECONDS));
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(2, TimeUnit.SECONDS));
+		assertEquals(Arrays.asList(3, 2, 1), order);
+		assertEquals(1, threads.size());
+		assertEquals(4L, executor.getCompletedTaskCount());
+	}
+
+	@Test
+	public void testWorkStealingGrowsStealsAndShrinks() throws InterruptedException {
+		AdaptiveThreadPoolExecutor executor = new AdaptiveThreadPoolExecutor(1, 4, 200, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+		executor.setWorkStealing(true);
+		int subtaskCount = 20;
+		CountDownLatch subtasksDone = new CountDownLatch(subtaskCount);
+		Set<Thread> subtaskThreads = new CopyOnWriteArraySet<>();
+		executor.execute(() -> {
+			for (int i = 0; i < subtaskCount; i++) {
+				executor.execute(() -> {
+					subtaskThreads.add(Thread.currentThread());
+					try {
+						TimeUnit.MILLISECONDS.sleep(20);
+					}
+					catch (InterruptedException ignored) {}
+					subtasksDone.countDown();
+				});
+			}
+			try {
+				// Parent blocks its worker, so subtasks can complete only by being stolen
+				assertTrue(subtasksDone.await(2, TimeUnit.SECONDS));
+			}
+			catch (InterruptedException ignored) {}
+		});
+
+		assertTrue(subtasksDone.await(2, TimeUnit.SECONDS));
+		assertEquals(4, executor.getPeakPoolSize());
+		assertTrue(subtaskThreads.size() > 1);
+
+		TimeUnit.MILLISECONDS.sleep(500);
+		assertEquals(1, executor.getPoolSize());
+		assertEquals(subtaskCount + 1L, executor.getCompletedTaskCount());
+
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(2, TimeUnit.SECONDS));
+		assertEquals(0, executor.getPoolSize());
+	}
+
+	@Test
+	public void testDecreasingCorePoolSizeRetiresExcessWorkers() throws InterruptedException {
+		AdaptiveThreadPoolExecutor executor = new AdaptiveThreadPoolExecutor(4, 4, 5, TimeUnit.MINUTES, new LinkedBlockingQueue<>());
+		executor.setQueuePreference();
+		long t0 = System.currentTimeMillis();
+		for (int i = 1; i <= 12; i++)
+			executor.execute(new WorkingRunnable(i, 100, t0));
+		TimeUnit.MILLISECONDS.sleep(50);
+		assertEquals(4, executor.getPoolSize());
+
+		executor.setCorePoolSize(2);
+		TimeUnit.MILLISECONDS.sleep(100);
+		assertEquals(2, executor.getPoolSize());
+		assertEquals(2, executor.getActiveCount());
+		assertEquals(6, executor.getQueue().size());
+
+		executor.setCorePoolSize(3);
+		assertEquals(3, executor.getPoolSize());
+
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(2, TimeUnit.SECONDS));
+		assertEquals(12L, executor.getCompletedTaskCount());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCorePoolSizeAboveMaximumIsRejected() {
+		new AdaptiveThreadPoolExecutor(1, 2).setCorePoolSize(3);
+	}
+
+	@Test
+	public void testQueueWaitAndRunTimesAreRecorded() throws InterruptedException {
+		AdaptiveThreadPoolExecutor executor = new AdaptiveThreadPoolExecutor(1, 1, 5, TimeUnit.MINUTES, new LinkedBlockingQueue<>());
+		long t0 = System.currentTimeMillis();
+		for (int i = 1; i <= 3; i++)
+			executor.execute(new WorkingRunnable(i, 50, t0));
+		TimeUnit.MILLISECONDS.sleep(200);
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(2, TimeUnit.SECONDS));
+
+		LatencyHistogram.Snapshot runTimes = executor.getRunTimes();
+		assertEquals(3L, runTimes.getCount());
+		assertTrue(runTimes.getPercentile(50.0) >= TimeUnit.MILLISECONDS.toNanos(50L));
+		LatencyHistogram.Snapshot queueWaitTimes = executor.getQueueWaitTimes();
+		assertEquals(3L, queueWaitTimes.getCount());
+		assertTrue(queueWaitTimes.getPercentile(50.0) >= TimeUnit.MILLISECONDS.toNanos(50L));
+		assertTrue(queueWaitTimes.getMax() >= TimeUnit.MILLISECONDS.toNanos(100L));
+		assertTrue(queueWaitTimes.getPercentile(99.9) <= queueWaitTimes.getMax());
+
+		executor.resetStatistics();
+		assertEquals(0L, executor.getRunTimes().getCount());
+		assertEquals(0L, executor.getQueueWaitTimes().getCount());
+	}
+
+	@Test
+	public void testRejectionsAreCountedByCause() throws InterruptedException {
+		AdaptiveThreadPoolExecutor executor = new AdaptiveThreadPoolExecutor(1, 1, 5, TimeUnit.MINUTES, new ArrayBlockingQueue<>(1), Executors.defaultThreadFactory(), new AdaptiveThreadPoolExecutor.DiscardPolicy());
+		long t0 = System.currentTimeMillis();
+		for (int i = 1; i <= 4; i++)
+			executor.execute(new WorkingRunnable(i, 50, t0));
+		assertEquals(2L, executor.getRejectedTaskCount(AdaptiveThreadPoolExecutor.RejectionCause.SATURATED));
+		executor.shutdown();
+		executor.execute(new WorkingRunnable(5, 0, t0));
+		assertEquals(1L, executor.getRejectedTaskCount(AdaptiveThreadPoolExecutor.RejectionCause.SHUTDOWN));
+		assertEquals(3L, executor.getRejectedTaskCount());
+		assertTrue(executor.awaitTermination(2, TimeUnit.SECONDS));
+
+		AdaptiveThreadPoolExecutor failingExecutor = new AdaptiveThreadPoolExecutor(1, 1, 5, TimeUnit.MINUTES, new LinkedBlockingQueue<>(), runnable -> null, new AdaptiveThreadPoolExecutor.DiscardPolicy());
+		failingExecutor.execute(new WorkingRunnable(6, 0, t0));
+		assertEquals(1L, failingExecutor.getRejectedTaskCount(AdaptiveThreadPoolExecutor.RejectionCause.THREAD_START_FAILED));
+		assertEquals(0, failingExecutor.getPoolSize());
+	}
+
 	private void testExecutor(ExecutorService executor, Expected[] expected) throws InterruptedException {
 		long t0 = System.currentTimeMillis();
 		expected[0].assertExecutor(executor, t0);
@@ -0,0 +1,58 @@
+package test.pool;
+
+import java.text.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import org.junit.*;
+import org.strangeforest.pool.*;
+
+public class ExecutorPerfIT {
+
+	private static final int POOL_SIZE  = 8;
+	private static final int SUBMITTERS = 8;
+	private static final int COUNT      = 200000;
+
+	@Test
+	public void test() throws Exception {
+		testExecutor(new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>()), 1000, null);
+
+		testExecutor(new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>()), COUNT, "ThreadPoolExecutor");
+		testExecutor(new AdaptiveThreadPoolExecutor(POOL_SIZE, POOL_SIZE, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>()), COUNT, "AdaptiveThreadPoolExecutor");
+		AdaptiveThreadPoolExecutor queuePreferring = new AdaptiveThreadPoolExecutor(POOL_SIZE, POOL_SIZE, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+		queuePreferring.setQueuePreference();
+		testExecutor(queuePreferring, COUNT, "Queue preferring AdaptiveThreadPoolExecutor");
+		testExecutor(new ThreadPoolExecutor(0, POOL_SIZE*4, 60L, TimeUnit.SECONDS, new SynchronousQueue<>(), new ThreadPoolExecutor.CallerRunsPolicy()), COUNT, "Synchronous ThreadPoolExecutor");
+		testExecutor(new AdaptiveThreadPoolExecutor(0, POOL_SIZE*4, 60L, TimeUnit.SECONDS, new SynchronousQueue<>(), Executors.defaultThreadFactory(), new AdaptiveThreadPoolExecutor.CallerRunsPolicy()), COUNT, "Synchronous AdaptiveThreadPoolExecutor");
+	}
+
+	private static void testExecutor(ExecutorService executor, int count, String desc) throws Exception {
+		Thread.sleep(1000);
+		AtomicLong sum = new AtomicLong();
+		CountDownLatch done = new CountDownLatch(count);
+		ExecutorService submitters = Executors.newFixedThreadPool(SUBMITTERS);
+		long t0 = System.currentTimeMillis();
+		for (int i = 0; i < SUBMITTERS; i++) {
+			submitters.execute(() -> {
+				for (int j = 0; j < count/SUBMITTERS; j++) {
+					long value = j;
+					executor.execute(() -> {
+						sum.addAndGet(value);
+						done.countDown();
+					});
+				}
+			});
+		}
+		done.await(60L, TimeUnit.SECONDS);
+		if (desc != null)
+			output(desc, t0, count, sum.get());
+		submitters.shutdown();
+		executor.shutdown();
+		executor.awaitTermination(10L, TimeUnit.SECONDS);
+	}
+
+	private static void output(String msg, long t0, int count, long s) {
+//		System.out.println(s);
+		System.out.println(msg + MessageFormat.format(" task: {0,number,####.##}ns", ((System.currentTimeMillis() - t0)*1000000L)/count));
+	}
+}
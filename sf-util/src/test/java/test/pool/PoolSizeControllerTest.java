@@ -0,0 +1,113 @@
+package test.pool;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.*;
+import org.strangeforest.pool.*;
+
+import static junit.framework.TestCase.*;
+
+public class PoolSizeControllerTest {
+
+	@Test
+	public void controllerFindsConcurrencyLimitedBySharedResource() {
+		AdaptiveThreadPoolExecutor executor = new AdaptiveThreadPoolExecutor(1, 16, 1, TimeUnit.MINUTES, new LinkedBlockingQueue<>());
+		// 5ms tasks limited by a shared resource allowing 4 concurrent tasks, with steady backlog
+		SimulatedController controller = new SimulatedController(executor, 4, 20L, 1000);
+		try {
+			for (int i = 0; i < 40; i++)
+				controller.adjust();
+			PoolSizeController.Statistics statistics = controller.getStatistics();
+			assertEquals(40L, statistics.getDecisionCount());
+			assertEquals(4, statistics.getBestPoolSize());
+			assertEquals(800.0, statistics.getBestThroughput(), 0.001);
+
+			List<PoolSizeController.Decision> decisions = statistics.getDecisions();
+			// Controller climbs to the concurrency limit and one step above it ...
+			assertEquals(PoolSizeController.Action.HOLD, decisions.get(0).getAction());
+			assertEquals(PoolSizeController.Action.PROBE, decisions.get(1).getAction());
+			for (int i = 2; i <= 4; i++)
+				assertEquals(PoolSizeController.Action.CLIMB, decisions.get(i).getAction());
+			assertEquals(5, decisions.get(4).getNewPoolSize());
+			// ... then keeps oscillating around it, as it trims while throughput is flat and backs off when queueing delay rises
+			int[] cycle = {4, 3, 4, 5};
+			for (int i = 5; i < 40; i++)
+				assertEquals("Decision " + i, cycle[(i - 5) % cycle.length], decisions.get(i).getNewPoolSize());
+			assertEquals(4, executor.getCorePoolSize());
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void controllerHoldsWhenIdle() {
+		AdaptiveThreadPoolExecutor executor = new AdaptiveThreadPoolExecutor(2, 4, 1, TimeUnit.MINUTES, new LinkedBlockingQueue<>());
+		PoolSizeController controller = new PoolSizeController(executor, 1, 4, 100L);
+
+		assertEquals(PoolSizeController.Action.HOLD, controller.adjust().getAction());
+		PoolSizeController.Decision decision = controller.adjust();
+		assertEquals(PoolSizeController.Action.HOLD, decision.getAction());
+		assertEquals(2, decision.getNewPoolSize());
+		assertEquals(2, executor.getCorePoolSize());
+		assertEquals(2L, controller.getStatistics().getActionCount(PoolSizeController.Action.HOLD));
+		executor.shutdown();
+	}
+
+	@Test
+	public void controllerBringsCorePoolSizeWithinBoundsOnStart() {
+		AdaptiveThreadPoolExecutor executor = new AdaptiveThreadPoolExecutor(8, 16, 1, TimeUnit.MINUTES, new LinkedBlockingQueue<>());
+		PoolSizeController controller = new PoolSizeController(executor, 2, 4, 100L);
+		controller.start();
+		try {
+			assertTrue(controller.isStarted());
+			assertEquals(4, executor.getCorePoolSize());
+		}
+		finally {
+			controller.stop();
+			executor.shutdown();
+		}
+		assertFalse(controller.isStarted());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void maxPoolSizeAboveExecutorMaximumIsRejected() {
+		new PoolSizeController(new AdaptiveThreadPoolExecutor(1, 4), 1, 8, 100L);
+	}
+
+	private static class SimulatedController extends PoolSizeController {
+
+		private final int concurrencyLimit;
+		private final long tasksPerThreadPerInterval;
+		private final int queued;
+		private long time;
+		private long completed;
+
+		private SimulatedController(AdaptiveThreadPoolExecutor executor, int concurrencyLimit, long tasksPerThreadPerInterval, int queued) {
+			super(executor, 1, 16, 100L);
+			this.concurrencyLimit = concurrencyLimit;
+			this.tasksPerThreadPerInterval = tasksPerThreadPerInterval;
+			this.queued = queued;
+		}
+
+		@Override public synchronized Decision adjust() {
+			if (time > 0L)
+				completed += Math.min(getExecutor().getCorePoolSize(), concurrencyLimit) * tasksPerThreadPerInterval;
+			time += TimeUnit.MILLISECONDS.toNanos(getInterval());
+			return super.adjust();
+		}
+
+		@Override protected long nanoTime() {
+			return time;
+		}
+
+		@Override protected long completedTaskCount() {
+			return completed;
+		}
+
+		@Override protected int queuedTaskCount() {
+			return queued;
+		}
+	}
+}
@@ -1,6 +1,10 @@
 package test.pool;
 
+import java.lang.management.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+import javax.management.*;
 
 import org.junit.*;
 import org.strangeforest.pool.*;
@@ -98,12 +102,460 @@ public class ResourcePoolTest {
 		for (int i = 0; i < CLIENT_COUNT; i++)
 			clients[i].join();
 
-		printStatistics(pool.getStatistics());
+		ResourcePool.Statistics stats = pool.getStatistics();
+		printStatistics(stats);
+		Assert.assertEquals(CLIENT_COUNT * 500L, stats.getGetCount());
+		Assert.assertEquals(stats.getGetCount(), stats.getReturnCount());
+		Assert.assertEquals(0, stats.getBusyCount());
+		Assert.assertTrue(stats.getSize() <= 10);
 		Thread.sleep(1000L);
 		printStatistics(pool.getStatistics());
 		pool.destroy();
 	}
 
+	@Test
+	public void testRecentlyUsedResourceIsReused() {
+		TestPool pool = new TestPool(3, 1, 5, false);
+		pool.init();
+
+		PooledObject obj1 = pool.getResource();
+		PooledObject obj2 = pool.getResource();
+		pool.returnResource(obj1, false);
+		pool.returnResource(obj2, false);
+		Assert.assertSame(obj2, pool.getResource());
+		Assert.assertSame(obj1, pool.getResource());
+		Assert.assertEquals(3, pool.getSize());
+		pool.destroy();
+	}
+
+	@Test
+	public void testReturnedResourceIsHandedOffToWaiter() throws Exception {
+		TestPool pool = new TestPool(1, 1, 1, false);
+		pool.setMaxWaitTime(2000L);
+		pool.init();
+
+		PooledObject obj = pool.getResource();
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Future<PooledObject> waiter = submitGet(executor, pool, false);
+			Thread.sleep(100L);
+			Assert.assertFalse(waiter.isDone());
+			pool.returnResource(obj, true);
+			Assert.assertSame(obj, waiter.get(1L, TimeUnit.SECONDS));
+			Assert.assertEquals(1, pool.getStatistics().getBusyCount());
+		}
+		finally {
+			executor.shutdownNow();
+		}
+		pool.destroy();
+	}
+
+	@Test
+	public void testWaitersAreServedInFifoOrder() throws Exception {
+		TestPool pool = new TestPool(1, 1, 1, false);
+		pool.setMaxWaitTime(2000L);
+		pool.init();
+
+		PooledObject obj = pool.getResource();
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			Future<PooledObject> waiter1 = submitGet(executor, pool, false);
+			Thread.sleep(100L);
+			Future<PooledObject> waiter2 = submitGet(executor, pool, false);
+			Thread.sleep(100L);
+
+			pool.returnResource(obj, false);
+			Assert.assertSame(obj, waiter1.get(1L, TimeUnit.SECONDS));
+			Assert.assertFalse(waiter2.isDone());
+
+			// Returning thread does not get the resource back while there are waiters
+			pool.returnResource(obj, false);
+			Assert.assertSame(obj, waiter2.get(1L, TimeUnit.SECONDS));
+		}
+		finally {
+			executor.shutdownNow();
+		}
+		pool.destroy();
+	}
+
+	@Test
+	public void testPriorityWaitersAreServedFirst() throws Exception {
+		TestPool pool = new TestPool(1, 1, 1, false);
+		pool.setMaxWaitTime(2000L);
+		pool.init();
+
+		PooledObject obj = pool.getResource();
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			Future<PooledObject> waiter = submitGet(executor, pool, false);
+			Thread.sleep(100L);
+			Future<PooledObject> priorityWaiter = submitGet(executor, pool, true);
+			Thread.sleep(100L);
+
+			pool.returnResource(obj, false);
+			Assert.assertSame(obj, priorityWaiter.get(1L, TimeUnit.SECONDS));
+			Assert.assertFalse(waiter.isDone());
+			pool.returnResource(obj, false);
+			Assert.assertSame(obj, waiter.get(1L, TimeUnit.SECONDS));
+
+			ResourcePool.Statistics stats = pool.getStatistics();
+			Assert.assertEquals(2L, stats.getWaitTimes().getCount());
+			Assert.assertEquals(1L, stats.getPriorityWaitTimes().getCount());
+			Assert.assertTrue(stats.getWaitTimes().getMax() >= TimeUnit.MILLISECONDS.toNanos(200L));
+		}
+		finally {
+			executor.shutdownNow();
+		}
+		pool.destroy();
+	}
+
+	@Test
+	public void testGetResourceAsync() throws Exception {
+		TestPool pool = new TestPool(1, 1, 1, false);
+		pool.init();
+
+		PooledObject obj = pool.getResourceAsync().get(1L, TimeUnit.SECONDS);
+		CompletableFuture<PooledObject> future = pool.getResourceAsync();
+		Thread.sleep(100L);
+		Assert.assertFalse(future.isDone());
+
+		pool.returnResource(obj, false);
+		Assert.assertSame(obj, future.get(1L, TimeUnit.SECONDS));
+		Assert.assertEquals(2L, pool.getStatistics().getGetCount());
+		pool.destroy();
+	}
+
+	@Test
+	public void testAsyncWaitTimeout() throws Exception {
+		TestPool pool = new TestPool(1, 1, 1, false);
+		pool.setMaxWaitTime(100L);
+		pool.init();
+
+		pool.getResource();
+		CompletableFuture<PooledObject> future = pool.getResourceAsync();
+		try {
+			future.get(1L, TimeUnit.SECONDS);
+			Assert.fail("Unreachable reached!");
+		}
+		catch (ExecutionException ex) {
+			Assert.assertTrue(ex.getCause() instanceof PoolException);
+			Assert.assertEquals(1, pool.getStatistics().getFailedGetCount());
+		}
+		pool.destroy();
+	}
+
+	@Test
+	public void testCancelledAsyncWaiterDoesNotLeakResource() throws Exception {
+		TestPool pool = new TestPool(1, 1, 1, false);
+		pool.setMaxWaitTime(-1L);
+		pool.init();
+
+		PooledObject obj = pool.getResource();
+		pool.setMaxWaitTime(0L);
+		CompletableFuture<PooledObject> future = pool.getResourceAsync();
+		Assert.assertTrue(future.cancel(false));
+		pool.returnResource(obj, false);
+
+		Assert.assertEquals(0, pool.getStatistics().getBusyCount());
+		pool.setMaxWaitTime(-1L);
+		Assert.assertSame(obj, pool.getResource());
+		pool.destroy();
+	}
+
+	@Test
+	public void testBackgroundAllocation() throws Exception {
+		TestPool pool = new TestPool(0, 0, 2, false);
+		RecordingManager manager = new RecordingManager(0L);
+		pool.setResourceManager(manager);
+		ExecutorService allocator = Executors.newSingleThreadExecutor();
+		pool.setAllocationExecutor(allocator);
+		pool.setMaxWaitTime(1000L);
+		pool.init();
+
+		PooledObject obj = pool.getResource();
+		Assert.assertNotNull(obj);
+		Assert.assertEquals(1, pool.getSize());
+		Assert.assertFalse(manager.allocatingThreads.contains(Thread.currentThread()));
+		pool.destroy();
+		allocator.shutdown();
+	}
+
+	@Test
+	public void testMinIdleCountIsReplenishedInBackground() throws Exception {
+		TestPool pool = new TestPool(0, 0, 5, false);
+		pool.setAllocationExecutor(Runnable::run);
+		pool.setMinIdleCount(2);
+		pool.init();
+
+		pool.getResource();
+		Assert.assertEquals(3, pool.getSize());
+		Assert.assertEquals(2, pool.getStatistics().getIdleCount());
+		pool.destroy();
+	}
+
+	@Test
+	public void testParallelPreallocation() throws Exception {
+		TestPool pool = new TestPool(4, 4, 4, false);
+		pool.setResourceManager(new RecordingManager(200L));
+		ExecutorService allocator = Executors.newFixedThreadPool(4);
+		pool.setAllocationExecutor(allocator);
+		pool.setMaxPendingCount(4);
+
+		long t0 = System.currentTimeMillis();
+		pool.init();
+		Assert.assertEquals(4, pool.getSize());
+		Assert.assertTrue(System.currentTimeMillis() - t0 < 600L);
+		pool.destroy();
+		allocator.shutdown();
+	}
+
+	@Test
+	public void testResourceIsReplacedBeforeMaxLiveTime() throws Exception {
+		TestPool pool = new TestPool(1, 1, 2, false);
+		pool.setAllocationExecutor(Runnable::run);
+		pool.setMaxLiveTime(1000L);
+		pool.setPropertyCycle(400L);
+		pool.init();
+
+		// Resource is replaced by housekeeper at 800ms, as it would expire before the next housekeeping at 1200ms
+		PooledObject obj = pool.getResource();
+		pool.returnResource(obj, false);
+		Thread.sleep(1000L);
+		Assert.assertEquals(1, pool.getSize());
+		Assert.assertNotSame(obj, pool.getResource());
+		Assert.assertEquals(1, pool.getStatistics().getReleaseCount());
+		pool.destroy();
+	}
+
+	@Test
+	public void testBackgroundAllocationFailureIsHandedToWaiter() {
+		TestPool pool = new TestPool(0, 0, 1, false);
+		pool.setResourceManager(new RecordingManager(0L) {
+			@Override public PooledObject allocateResource() throws PoolException {
+				throw new PoolException("Booom!!!");
+			}
+		});
+		pool.setAllocationExecutor(Executors.newSingleThreadExecutor());
+		pool.init();
+
+		try {
+			pool.getResource();
+			Assert.fail("Unreachable reached!");
+		}
+		catch (PoolException ex) {
+			Assert.assertEquals("Booom!!!", ex.getMessage());
+			Assert.assertEquals(1, pool.getStatistics().getFailedAllocationCount());
+		}
+		pool.destroy();
+	}
+
+	@Test
+	public void testIdleTimeoutIsCheckedInBatches() throws Exception {
+		TestPool pool = new TestPool(0, 0, 100, false);
+		pool.setMaxIdleTime(100L);
+		pool.setPropertyCycle(50L);
+		pool.init();
+
+		List<PooledObject> objs = new ArrayList<>();
+		for (int i = 0; i < 100; i++)
+			objs.add(pool.getResource());
+		for (PooledObject obj : objs)
+			pool.returnResource(obj, false);
+		Assert.assertEquals(100, pool.getSize());
+		Thread.sleep(500L);
+		Assert.assertEquals(0, pool.getSize());
+		Assert.assertEquals(100, pool.getStatistics().getReleaseCount());
+		pool.destroy();
+	}
+
+	@Test
+	public void testShorterMaxIdleTimeIsAppliedToIndexedResources() throws Exception {
+		TestPool pool = new TestPool(2, 0, 5, false);
+		pool.setMaxIdleTime(60000L);
+		pool.setPropertyCycle(50L);
+		pool.init();
+
+		Thread.sleep(200L);
+		Assert.assertEquals(2, pool.getSize());
+		pool.setMaxIdleTime(100L);
+		Thread.sleep(400L);
+		Assert.assertEquals(0, pool.getSize());
+		pool.destroy();
+	}
+
+	@Test
+	public void testMBean() throws Exception {
+		TestPool pool = new TestPool(1, 1, 2, false);
+		pool.setName("test-pool");
+		pool.init();
+
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = MBeanUtil.objectName("ResourcePool", "test-pool");
+		Assert.assertTrue(server.isRegistered(name));
+		pool.getResource();
+		Assert.assertEquals(1, server.getAttribute(name, "Size"));
+		Assert.assertEquals(1, server.getAttribute(name, "BusyCount"));
+		Assert.assertEquals(0, server.getAttribute(name, "IdleCount"));
+		Assert.assertEquals(1L, server.getAttribute(name, "GetCount"));
+		Assert.assertTrue((Double)server.getAttribute(name, "WaitTimeP99") >= 0.0);
+
+		server.setAttribute(name, new Attribute("MaxPoolSize", 5));
+		server.setAttribute(name, new Attribute("MinIdleCount", 1));
+		Assert.assertEquals(5, pool.getMaxPoolSize());
+		Assert.assertEquals(1, pool.getMinIdleCount());
+
+		pool.destroy();
+		Assert.assertFalse(server.isRegistered(name));
+	}
+
+	@Test
+	public void testGeneratedPoolNamesAreUnique() {
+		TestPool pool1 = new TestPool(0, 1, 1, false);
+		TestPool pool2 = new TestPool(0, 1, 1, false);
+		pool1.init();
+		pool2.init();
+		Assert.assertNotEquals(pool1.getName(), pool2.getName());
+		Assert.assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(MBeanUtil.objectName("ResourcePool", pool2.getName())));
+		pool1.destroy();
+		pool2.destroy();
+	}
+
+	@Test
+	public void testWaitTimeout() {
+		TestPool pool = new TestPool(1, 1, 1, false);
+		pool.setMaxWaitTime(100L);
+		pool.init();
+
+		pool.getResource();
+		try {
+			pool.getResource();
+			Assert.fail("Unreachable reached!");
+		}
+		catch (PoolException ex) {
+			Assert.assertEquals(1, pool.getStatistics().getFailedGetCount());
+		}
+		pool.destroy();
+	}
+
+	@Test
+	public void testRemovedResourceFreesCapacityForWaiter() throws Exception {
+		TestPool pool = new TestPool(1, 1, 1, false);
+		pool.setMaxWaitTime(2000L);
+		pool.init();
+
+		PooledObject obj = pool.getResource();
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Future<PooledObject> waiter = submitGet(executor, pool, false);
+			Thread.sleep(100L);
+			pool.removeResource(obj, true);
+			PooledObject allocated = waiter.get(1L, TimeUnit.SECONDS);
+			Assert.assertNotSame(obj, allocated);
+			Assert.assertEquals(1, pool.getSize());
+		}
+		finally {
+			executor.shutdownNow();
+		}
+		pool.destroy();
+	}
+
+	@Test
+	public void testCapacityFreedBeforeWaiterIsQueuedIsNotLost() throws Exception {
+		TestPool pool = new TestPool(1, 1, 1, false);
+		pool.setMaxWaitTime(5000L);
+		pool.init();
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			// Resource is removed while the waiter may still be on its way to the waiter queue
+			for (int i = 0; i < 1000; i++) {
+				PooledObject obj = pool.getResource();
+				Future<PooledObject> waiter = submitGet(executor, pool, false);
+				pool.removeResource(obj, true);
+				pool.returnResource(waiter.get(1L, TimeUnit.SECONDS), false);
+			}
+			for (int i = 0; i < 1000; i++) {
+				PooledObject obj = pool.getResource();
+				CompletableFuture<PooledObject> waiter = CompletableFuture.supplyAsync(pool::getResourceAsync, executor).thenCompose(Function.identity());
+				pool.removeResource(obj, true);
+				pool.returnResource(waiter.get(1L, TimeUnit.SECONDS), false);
+			}
+		}
+		finally {
+			executor.shutdownNow();
+		}
+		pool.destroy();
+	}
+
+	@Test(timeout = 5000L)
+	public void testDestroyWakesUpWaiters() throws Exception {
+		TestPool pool = new TestPool(1, 1, 1, false);
+		pool.init();
+
+		pool.getResource();
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Future<PooledObject> waiter = submitGet(executor, pool, false);
+			CompletableFuture<PooledObject> asyncWaiter = pool.getResourceAsync();
+			Thread.sleep(100L);
+			Assert.assertFalse(waiter.isDone());
+			Assert.assertFalse(asyncWaiter.isDone());
+
+			pool.destroy();
+			try {
+				waiter.get();
+				Assert.fail("Unreachable reached!");
+			}
+			catch (ExecutionException ex) {
+				Assert.assertTrue(ex.getCause() instanceof IllegalStateException);
+			}
+			try {
+				asyncWaiter.get();
+				Assert.fail("Unreachable reached!");
+			}
+			catch (ExecutionException ex) {
+				Assert.assertTrue(ex.getCause() instanceof IllegalStateException);
+			}
+			Assert.assertEquals(0, pool.getWaitingCount());
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static class RecordingManager implements ResourceManager<PooledObject> {
+
+		private final long allocationTime;
+		private final Set<Thread> allocatingThreads = ConcurrentHashMap.newKeySet();
+
+		private RecordingManager(long allocationTime) {
+			super();
+			this.allocationTime = allocationTime;
+		}
+
+		@Override public PooledObject allocateResource() throws PoolException {
+			allocatingThreads.add(Thread.currentThread());
+			try {
+				Thread.sleep(allocationTime);
+			}
+			catch (InterruptedException ex) {
+				throw new PoolException("Allocation interrupted.", ex);
+			}
+			return new PooledObject();
+		}
+
+		@Override public void releaseResource(PooledObject resource) {}
+
+		@Override public boolean checkResource(PooledObject resource) {
+			return true;
+		}
+	}
+
+	private static Future<PooledObject> submitGet(ExecutorService executor, TestPool pool, boolean priority) {
+		Callable<PooledObject> get = () -> pool.getResource(priority);
+		return executor.submit(get);
+	}
+
 	private class Client extends Thread {
 
 		private TestPool pool;
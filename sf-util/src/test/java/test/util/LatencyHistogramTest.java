@@ -0,0 +1,61 @@
+package test.util;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.*;
+import org.strangeforest.util.*;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void testEmpty() {
+		LatencyHistogram.Snapshot snapshot = new LatencyHistogram().snapshot();
+		assertEquals(0L, snapshot.getCount());
+		assertEquals(0L, snapshot.getPercentile(99.0));
+		assertEquals(0.0, snapshot.getMean(), 0.0);
+		assertTrue(snapshot.getBuckets().isEmpty());
+	}
+
+	@Test
+	public void testPercentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 1; i <= 1000; i++)
+			histogram.record(TimeUnit.MICROSECONDS.toNanos(i));
+		LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+		assertEquals(1000L, snapshot.getCount());
+		assertEquals(TimeUnit.MICROSECONDS.toNanos(1000L), snapshot.getMax());
+		assertEquals(TimeUnit.MICROSECONDS.toNanos(500L) + 500L, snapshot.getMean(), 1.0);
+		assertWithin(TimeUnit.MICROSECONDS.toNanos(500L), snapshot.getPercentile(50.0));
+		assertWithin(TimeUnit.MICROSECONDS.toNanos(990L), snapshot.getPercentile(99.0));
+		assertEquals(snapshot.getMax(), snapshot.getPercentile(100.0));
+		long total = 0L;
+		for (long count : snapshot.getBuckets().values())
+			total += count;
+		assertEquals(1000L, total);
+	}
+
+	private static void assertWithin(long expected, long actual) {
+		assertTrue("Expected about " + expected + ", was " + actual, actual >= expected && actual <= expected * 5 / 4);
+	}
+
+	@Test
+	public void testPlusAndReset() {
+		LatencyHistogram histogram1 = new LatencyHistogram();
+		LatencyHistogram histogram2 = new LatencyHistogram();
+		histogram1.record(10L);
+		histogram2.record(1000L);
+		histogram2.record(-1L);
+		LatencyHistogram.Snapshot snapshot = histogram1.snapshot().plus(histogram2.snapshot());
+		assertEquals(3L, snapshot.getCount());
+		assertEquals(1010L, snapshot.getTotal());
+		assertEquals(1000L, snapshot.getMax());
+		SortedMap<Long, Long> buckets = snapshot.getBuckets();
+		assertEquals(3, buckets.size());
+		assertEquals(0L, buckets.firstKey().longValue());
+		histogram1.reset();
+		assertEquals(0L, histogram1.snapshot().getCount());
+	}
+}